@@ -1,11 +1,25 @@
 -- schema and tables to be created for the subscription processor datasink
+-- DatabaseUtil creates the same tables at start up and migrates older ones to this shape
 CREATE SCHEMA IF NOT EXISTS APPLICATION;
 
+-- certificates stored once per SHA-256 digest
+CREATE TABLE IF NOT EXISTS APPLICATION.V2_2_SUBSCRIBER_CERTIFICATE(
+	ID 				INT 			AUTO_INCREMENT PRIMARY KEY,
+	DIGEST 			BINARY(32) 		NOT NULL,
+	CERTIFICATE 	BINARY 			NOT NULL,
+	
+	CONSTRAINT V2_2_SUBSCRIBER_CERTIFICATE_DIGEST_UK UNIQUE(DIGEST)
+);
+
+-- CERTIFICATE is kept inline for readers that predate the certificate table
 CREATE TABLE IF NOT EXISTS APPLICATION.V2_2_SUBSCRIBER(
 	ID 				INT 			NOT NULL PRIMARY KEY,
 	CERTIFICATE 	BINARY 			NOT NULL,
 	TARGET_HOST		VARCHAR(255)	NOT NULL,
-	TARGET_PORT		INT				NOT NULL
+	TARGET_PORT		INT				NOT NULL,
+	CERTIFICATE_ID	INT,
+	
+	CONSTRAINT V2_2_SUBSCRIBER_CERTIFICATE_FK FOREIGN KEY(CERTIFICATE_ID) REFERENCES APPLICATION.V2_2_SUBSCRIBER_CERTIFICATE(ID)
 );
 
 CREATE TABLE IF NOT EXISTS APPLICATION.V2_2_SITUATION_DATA_FILTER(
@@ -20,4 +34,25 @@ CREATE TABLE IF NOT EXISTS APPLICATION.V2_2_SITUATION_DATA_FILTER(
 	SE_LON			NUMBER,
 	
 	CONSTRAINT SUBSCRIBER_ID_FK FOREIGN KEY(ID) REFERENCES APPLICATION.V2_2_SUBSCRIBER(ID)
-);
\ No newline at end of file
+);
+
+CREATE INDEX IF NOT EXISTS APPLICATION.V2_2_SITUATION_DATA_FILTER_ID_REQUEST_ID_IDX ON APPLICATION.V2_2_SITUATION_DATA_FILTER(ID, REQUEST_ID);
+CREATE INDEX IF NOT EXISTS APPLICATION.V2_2_SITUATION_DATA_FILTER_END_TIME_IDX ON APPLICATION.V2_2_SITUATION_DATA_FILTER(END_TIME);
+
+-- the schema version each filter table was migrated to
+CREATE TABLE IF NOT EXISTS APPLICATION.SCHEMA_VERSION(
+	TABLE_NAME		VARCHAR(255)	NOT NULL PRIMARY KEY,
+	VERSION			INT				NOT NULL,
+	DESCRIPTION		VARCHAR(255),
+	UPDATED			TIMESTAMP		NOT NULL
+);
+
+-- the generation of the saved subscriber id bitmap of each subscriber table
+CREATE TABLE IF NOT EXISTS APPLICATION.SUBSCRIBER_ID_STATE(
+	TABLE_NAME		VARCHAR(255)	NOT NULL PRIMARY KEY,
+	GENERATION		BIGINT			NOT NULL,
+	UPDATED			TIMESTAMP		NOT NULL
+);
+
+MERGE INTO APPLICATION.SCHEMA_VERSION (TABLE_NAME, VERSION, DESCRIPTION, UPDATED) KEY(TABLE_NAME) 
+	VALUES ('V2_2_SITUATION_DATA_FILTER', 4, 'Store subscriber certificates in a table keyed by digest', CURRENT_TIMESTAMP);
\ No newline at end of file
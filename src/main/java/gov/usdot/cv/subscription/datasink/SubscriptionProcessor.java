@@ -5,14 +5,35 @@ import gov.usdot.cv.common.model.BoundingBox;
 import gov.usdot.cv.common.model.Filter;
 import gov.usdot.cv.common.model.Subscriber;
 import gov.usdot.cv.common.subscription.response.ResponseCode;
-import gov.usdot.cv.common.util.Syslogger;
+import gov.usdot.cv.common.util.PropertyLocator;
+import gov.usdot.cv.subscription.datasink.audit.AuditEvent;
+import gov.usdot.cv.subscription.datasink.audit.AuditLog;
+import gov.usdot.cv.subscription.datasink.batch.BatchCommitter;
+import gov.usdot.cv.subscription.datasink.batch.PendingSubscription;
+import gov.usdot.cv.subscription.datasink.batch.SubscriptionBatcher;
+import gov.usdot.cv.subscription.datasink.cache.CertificateRegistrationCache;
+import gov.usdot.cv.subscription.datasink.cache.CertificateStore;
+import gov.usdot.cv.subscription.datasink.cache.DestinationCache;
+import gov.usdot.cv.subscription.datasink.cache.DuplicateRequestCache;
+import gov.usdot.cv.subscription.datasink.cache.SubscriptionIndex;
 import gov.usdot.cv.subscription.datasink.dao.DaoManager;
+import gov.usdot.cv.subscription.datasink.dao.SubscriptionStorage;
+import gov.usdot.cv.subscription.datasink.dispatch.RequestDispatcher;
+import gov.usdot.cv.subscription.datasink.dispatch.RequestHandler;
 import gov.usdot.cv.subscription.datasink.exception.SubscriptionException;
 import gov.usdot.cv.subscription.datasink.expiration.ExpirationProcessor;
 import gov.usdot.cv.subscription.datasink.model.Cancellation;
 import gov.usdot.cv.subscription.datasink.model.DataModel;
+import gov.usdot.cv.subscription.datasink.model.SubscriptionRequest;
+import gov.usdot.cv.subscription.datasink.response.AdmissionController;
 import gov.usdot.cv.subscription.datasink.response.Response;
-import gov.usdot.cv.subscription.datasink.response.ResponseSender;
+import gov.usdot.cv.subscription.datasink.response.ResponseDispatcher;
+import gov.usdot.cv.subscription.datasink.response.ResponsePipeline;
+import gov.usdot.cv.subscription.datasink.response.ResponseSenderPool;
+import gov.usdot.cv.subscription.datasink.store.MappedSubscriptionStorage;
+import gov.usdot.cv.subscription.datasink.store.Mutation;
+import gov.usdot.cv.subscription.datasink.store.SubscriptionJournal;
+import gov.usdot.cv.subscription.datasink.store.WriteBehindStore;
 import gov.usdot.cv.subscription.datasink.util.DatabaseUtil;
 import gov.usdot.cv.subscription.datasink.util.SubscriberIdGenerator;
 import gov.usdot.cv.subscription.datasink.util.WarehouseUtil;
@@ -20,10 +41,12 @@ import gov.usdot.cv.subscription.datasink.validator.BoundingBoxValidator;
 import gov.usdot.cv.subscription.datasink.validator.FilterValidator;
 import gov.usdot.cv.subscription.datasink.validator.SubscriberValidator;
 
-import java.net.InetAddress;
+import java.io.File;
+import java.io.IOException;
 import java.net.UnknownHostException;
 import java.text.ParseException;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.sql.DataSource;
 import javax.validation.constraints.Max;
@@ -33,6 +56,7 @@ import javax.validation.constraints.NotNull;
 import net.sf.json.JSONObject;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
 import com.deleidos.rtws.commons.exception.InitializationException;
@@ -45,6 +69,11 @@ import com.deleidos.rtws.core.framework.processor.AbstractDataSink;
 public class SubscriptionProcessor extends AbstractDataSink {
 	
 	private final static String SYS_LOG_ID = "UDP SubscriptionProcessor";
+	private final static int DEFAULT_RESPONSE_QUEUE_CAPACITY = 10000;
+	private final static String JOURNAL_FILE_NAME = "subscriptions.journal";
+	private final static String STORAGE_FILE_NAME = "subscriptions.db";
+	private final static String SUBSCRIBER_ID_FILE_NAME = "subscriber-ids.bitmap";
+	private final static String MAPPED_STORAGE = "mapped";
 	
 	private final Logger logger = Logger.getLogger(getClass());
 
@@ -53,9 +82,15 @@ public class SubscriptionProcessor extends AbstractDataSink {
 	private String filterTableName;
 	
 	private static final Object LOCK = new Object();
-	private static LinkedBlockingQueue<Response> queue;
-	private static ResponseSender sender;
-	private static Thread sender_t;
+	private static ResponseDispatcher senders;
+	private static AdmissionController admission;
+	
+	private static AuditLog auditLog;
+	
+	private static MappedSubscriptionStorage mappedStorage;
+	
+	private static WriteBehindStore store;
+	private static Thread store_t;
 	
 	private static ExpirationProcessor processor;
 	private static Thread processor_t;
@@ -66,6 +101,27 @@ public class SubscriptionProcessor extends AbstractDataSink {
 	private double seLon;
 	private String forwarderHost;
 	private int forwarderPort;
+	private int batchSize;
+	private long batchWindow;
+	private int workerCount;
+	private int auditSampleRate;
+	private long duplicateWindow;
+	private int duplicateCacheSize;
+	private int responseQueueCapacity;
+	private int responseQueueHighWaterMark;
+	private int responseQueueLowWaterMark;
+	private int senderCount;
+	private int senderChannelCount;
+	private int cryptoWorkerCount;
+	private int certificateCacheSize;
+	private String writeBehindDirectory;
+	private String storageType;
+	private String storageDirectory;
+	private String subscriberIdDirectory;
+	
+	private SubscriptionBatcher batcher;
+	private Thread batcher_t;
+	private RequestDispatcher dispatcher;
 	
 	public SubscriptionProcessor() {
 		super();
@@ -171,6 +227,189 @@ public class SubscriptionProcessor extends AbstractDataSink {
 		return this.forwarderPort;
 	}
 	
+	@UserConfigured(value = "1", description = "The maximum number of subscriptions committed in one transaction, 1 disables batching.", 
+			flexValidator = "NumberValidator minValue=1 maxValue=10000")
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+	
+	@Min(1)
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+	
+	@UserConfigured(value = "100", description = "The maximum time in milliseconds a subscription waits for its batch to be committed.", 
+			flexValidator = "NumberValidator minValue=1 maxValue=60000")
+	public void setBatchWindow(long batchWindow) {
+		this.batchWindow = batchWindow;
+	}
+	
+	@Min(1)
+	public long getBatchWindow() {
+		return this.batchWindow;
+	}
+	
+	@UserConfigured(value = "0", description = "The number of worker threads processing requests, 0 processes requests on the caller thread.", 
+			flexValidator = "NumberValidator minValue=0 maxValue=64")
+	public void setWorkerCount(int workerCount) {
+		this.workerCount = workerCount;
+	}
+	
+	@Min(0)
+	public int getWorkerCount() {
+		return this.workerCount;
+	}
+	
+	@UserConfigured(value = "1", description = "Write one in this many successful subscription events to the audit log, failures are always written.", 
+			flexValidator = "NumberValidator minValue=1 maxValue=10000")
+	public void setAuditSampleRate(int auditSampleRate) {
+		this.auditSampleRate = auditSampleRate;
+	}
+	
+	@Min(1)
+	public int getAuditSampleRate() {
+		return this.auditSampleRate;
+	}
+	
+	@UserConfigured(value = "0", description = "The time in milliseconds a retransmitted subscription request is answered with the original response, 0 disables duplicate suppression.", 
+			flexValidator = "NumberValidator minValue=0 maxValue=3600000")
+	public void setDuplicateWindow(long duplicateWindow) {
+		this.duplicateWindow = duplicateWindow;
+	}
+	
+	@Min(0)
+	public long getDuplicateWindow() {
+		return this.duplicateWindow;
+	}
+	
+	@UserConfigured(value = "10000", description = "The maximum number of recent subscription requests remembered for duplicate suppression.", 
+			flexValidator = "NumberValidator minValue=1 maxValue=1000000")
+	public void setDuplicateCacheSize(int duplicateCacheSize) {
+		this.duplicateCacheSize = duplicateCacheSize;
+	}
+	
+	@Min(1)
+	public int getDuplicateCacheSize() {
+		return this.duplicateCacheSize;
+	}
+	
+	@UserConfigured(value = "10000", description = "The maximum number of responses waiting to be sent, raised when the room above the high water mark cannot hold a full batch for every worker.", 
+			flexValidator = "NumberValidator minValue=1 maxValue=1000000")
+	public void setResponseQueueCapacity(int responseQueueCapacity) {
+		this.responseQueueCapacity = responseQueueCapacity;
+	}
+	
+	@Min(1)
+	public int getResponseQueueCapacity() {
+		return this.responseQueueCapacity;
+	}
+	
+	@UserConfigured(value = "8000", description = "The response backlog at which new subscriptions are answered with ResourceLimitReached.", 
+			flexValidator = "NumberValidator minValue=1 maxValue=1000000")
+	public void setResponseQueueHighWaterMark(int responseQueueHighWaterMark) {
+		this.responseQueueHighWaterMark = responseQueueHighWaterMark;
+	}
+	
+	@Min(1)
+	public int getResponseQueueHighWaterMark() {
+		return this.responseQueueHighWaterMark;
+	}
+	
+	@UserConfigured(value = "4000", description = "The response backlog at which new subscriptions are accepted again after shedding.", 
+			flexValidator = "NumberValidator minValue=0 maxValue=1000000")
+	public void setResponseQueueLowWaterMark(int responseQueueLowWaterMark) {
+		this.responseQueueLowWaterMark = responseQueueLowWaterMark;
+	}
+	
+	@Min(0)
+	public int getResponseQueueLowWaterMark() {
+		return this.responseQueueLowWaterMark;
+	}
+	
+	@UserConfigured(value = "1", description = "The number of threads encrypting and sending responses.", 
+			flexValidator = "NumberValidator minValue=1 maxValue=64")
+	public void setSenderCount(int senderCount) {
+		this.senderCount = senderCount;
+	}
+	
+	@Min(1)
+	public int getSenderCount() {
+		return this.senderCount;
+	}
+	
+	@UserConfigured(value = "0", description = "The number of non-blocking datagram channels each response sender writes to, 0 sends through InetPacketSender.", 
+			flexValidator = "NumberValidator minValue=0 maxValue=16")
+	public void setSenderChannelCount(int senderChannelCount) {
+		this.senderChannelCount = senderChannelCount;
+	}
+	
+	@Min(0)
+	public int getSenderChannelCount() {
+		return this.senderChannelCount;
+	}
+	
+	@UserConfigured(value = "0", description = "The number of threads encoding and encrypting responses ahead of a single sending thread, 0 encodes, encrypts and sends on each sender thread.", 
+			flexValidator = "NumberValidator minValue=0 maxValue=64")
+	public void setCryptoWorkerCount(int cryptoWorkerCount) {
+		this.cryptoWorkerCount = cryptoWorkerCount;
+	}
+	
+	@Min(0)
+	public int getCryptoWorkerCount() {
+		return this.cryptoWorkerCount;
+	}
+	
+	@UserConfigured(value = "1024", description = "The maximum number of registered subscriber certificates remembered, 0 registers the certificate for every response.", 
+			flexValidator = "NumberValidator minValue=0 maxValue=1000000")
+	public void setCertificateCacheSize(int certificateCacheSize) {
+		this.certificateCacheSize = certificateCacheSize;
+	}
+	
+	@Min(0)
+	public int getCertificateCacheSize() {
+		return this.certificateCacheSize;
+	}
+	
+	@UserConfigured(value = "", description = "The directory of the write-behind journal, subscriptions are acknowledged once journaled and written to the database in the background. Empty writes every subscription to the database before acknowledging it.", 
+			flexValidator = { "StringValidator minLength=0 maxLength=1024" })
+	public void setWriteBehindDirectory(String writeBehindDirectory) {
+		this.writeBehindDirectory = writeBehindDirectory;
+	}
+	
+	public String getWriteBehindDirectory() {
+		return this.writeBehindDirectory;
+	}
+	
+	@UserConfigured(value = "jdbc", description = "Where subscriptions are kept, jdbc for the subscriber and filter tables or mapped for a memory-mapped file in the storage directory that is mirrored to the tables in the background. The mirror only removes subscribers this node removed, but subscriber ids are taken from the file alone, so tables shared with other writers need subscriber ids that do not overlap.", 
+			flexValidator = { "StringValidator minLength=4 maxLength=6" })
+	public void setStorageType(String storageType) {
+		this.storageType = storageType;
+	}
+	
+	public String getStorageType() {
+		return this.storageType;
+	}
+	
+	@UserConfigured(value = "", description = "The directory of the memory-mapped subscription storage.", 
+			flexValidator = { "StringValidator minLength=0 maxLength=1024" })
+	public void setStorageDirectory(String storageDirectory) {
+		this.storageDirectory = storageDirectory;
+	}
+	
+	public String getStorageDirectory() {
+		return this.storageDirectory;
+	}
+	
+	@UserConfigured(value = "", description = "The directory of the memory-mapped subscriber id bitmap that lets a clean restart skip reading the used ids from the subscription storage. The bitmap is only used while it marks as many ids with the same highest id as the storage holds, otherwise the ids are read again. Empty reads them at every start.", 
+			flexValidator = { "StringValidator minLength=0 maxLength=1024" })
+	public void setSubscriberIdDirectory(String subscriberIdDirectory) {
+		this.subscriberIdDirectory = subscriberIdDirectory;
+	}
+	
+	public String getSubscriberIdDirectory() {
+		return this.subscriberIdDirectory;
+	}
+	
 	public void initialize() throws InitializationException {
 		WarehouseUtil.setSupportedRegion(this.nwLat, this.nwLon, this.seLat, this.seLon);
 
@@ -181,24 +420,91 @@ public class SubscriptionProcessor extends AbstractDataSink {
 		DaoManager.getInstance().setAndInitialize(this.dataSource, this.subscriberTableName, this.filterTableName);
 		
 		synchronized (LOCK) {
-			logger.info("Initializing response sender ...");
-			queue = new LinkedBlockingQueue<Response>();
+			if (mappedStorage == null && MAPPED_STORAGE.equalsIgnoreCase(StringUtils.trimToEmpty(this.storageType))) {
+				File file = new File(StringUtils.isBlank(this.storageDirectory) ? "." : this.storageDirectory.trim(), STORAGE_FILE_NAME);
+				logger.info(String.format("Opening memory-mapped subscription storage %s ...", file.getAbsolutePath()));
+				// The tables mirror it for the components that read them
+				MappedSubscriptionStorage storage = new MappedSubscriptionStorage(file, DaoManager.getInstance().getJdbcSubscriptionStorage());
+				try {
+					storage.open();
+				} catch (IOException ex) {
+					throw new InitializationException("Failed to open the memory-mapped subscription storage.", ex);
+				}
+				mappedStorage = storage;
+				DaoManager.getInstance().setSubscriptionStorage(storage);
+			}
+		}
+		
+		logger.info("Loading subscription index ...");
+		SubscriptionIndex.getInstance().load();
+		
+		// Ahead of the write-behind recovery, whose reserved ids then reach the subscriber id file
+		File subscriberIdFile = StringUtils.isBlank(this.subscriberIdDirectory) ? null : new File(this.subscriberIdDirectory.trim(), SUBSCRIBER_ID_FILE_NAME);
+		logger.info("Initializing subscriber ids ...");
+		SubscriberIdGenerator.getInstance().initialize(subscriberIdFile);
+		
+		if (this.duplicateWindow > 0) {
+			logger.info(String.format("Initializing duplicate request cache with window %s ms and size %s ...", this.duplicateWindow, this.duplicateCacheSize));
+		}
+		DuplicateRequestCache.getInstance().setAndInitialize(this.duplicateWindow, this.duplicateCacheSize);
+		CertificateRegistrationCache.getInstance().setAndInitialize(this.certificateCacheSize);
+		
+		synchronized (LOCK) {
+			logger.info("Initializing audit log ...");
+			auditLog = new AuditLog(SYS_LOG_ID, AuditLog.DEFAULT_CAPACITY, this.auditSampleRate);
+			auditLog.start();
+			
+			int capacity = (this.responseQueueCapacity > 0) ? this.responseQueueCapacity : DEFAULT_RESPONSE_QUEUE_CAPACITY;
+			int highWaterMark = (this.responseQueueHighWaterMark > 0) ? Math.min(this.responseQueueHighWaterMark, capacity) : capacity * 4 / 5;
+			int lowWaterMark = (this.responseQueueLowWaterMark > 0) ? this.responseQueueLowWaterMark : highWaterMark / 2;
+			// Every worker may have a full batch admitted below the high water mark that is not answered yet
+			int inFlight = Math.max(1, this.batchSize) * Math.max(1, this.workerCount);
+			if (capacity - highWaterMark < inFlight) {
+				logger.warn(String.format("Response queue capacity %s leaves no room above the high water mark %s for %s admitted requests, raising it to %s.", 
+					capacity, highWaterMark, inFlight, highWaterMark + inFlight));
+				capacity = highWaterMark + inFlight;
+			}
+			int offerTimeout = PropertyLocator.getInt("subscription.response.queue.offer.timeout", 1000);
 			InetPoint forwarderPoint = null;
 			if (forwarderHost != null && forwarderPort != 0) {
 				try {
-					forwarderPoint = new InetPoint(InetAddress.getByName(forwarderHost).getAddress(),forwarderPort);
+					forwarderPoint = new InetPoint(DestinationCache.getInstance().resolve(forwarderHost).getAddress(),forwarderPort);
 				} catch (UnknownHostException e) {
 					logger.error("Error creating forwarder InetPoint ", e);
 				}
 			}
-			sender = new ResponseSender(queue,forwarderPoint);
-			sender_t = new Thread(sender);
-			sender_t.start();
+			if (this.cryptoWorkerCount > 0) {
+				logger.info(String.format("Initializing response pipeline with %s crypto workers ...", this.cryptoWorkerCount));
+				senders = new ResponsePipeline(this.cryptoWorkerCount, capacity, this.senderChannelCount, forwarderPoint);
+			} else {
+				int count = Math.max(1, this.senderCount);
+				logger.info(String.format("Initializing %s response senders ...", count));
+				senders = new ResponseSenderPool(count, capacity, this.senderChannelCount, forwarderPoint);
+			}
+			admission = new AdmissionController(senders, highWaterMark, lowWaterMark, offerTimeout);
+			senders.start();
+			
+			if (store == null && StringUtils.isNotBlank(this.writeBehindDirectory)) {
+				File journal = new File(this.writeBehindDirectory.trim(), JOURNAL_FILE_NAME);
+				int maxBacklog = PropertyLocator.getInt("subscription.writebehind.backlog", 100000);
+				int groupSize = PropertyLocator.getInt("subscription.writebehind.group.size", 500);
+				int segmentSize = PropertyLocator.getInt("subscription.writebehind.journal.segment.size", (int) SubscriptionJournal.DEFAULT_SEGMENT_SIZE);
+				logger.info(String.format("Initializing write-behind store with journal %s ...", journal.getAbsolutePath()));
+				try {
+					store = new WriteBehindStore(new SubscriptionJournal(journal, segmentSize), maxBacklog, groupSize);
+					store.recover();
+				} catch (Exception ex) {
+					store = null;
+					throw new InitializationException("Failed to open the write-behind journal.", ex);
+				}
+				store_t = new Thread(store);
+				store_t.start();
+			}
 		
 			try {
 				if (processor_t == null && WarehouseUtil.getNodeNumber() == 1) {
 					logger.info("Initializing expiration processor ...");
-					processor = new ExpirationProcessor();
+					processor = new ExpirationProcessor(store);
 					processor_t = new Thread(processor);
 					processor_t.start();
 				}
@@ -207,108 +513,264 @@ public class SubscriptionProcessor extends AbstractDataSink {
 			}
 		}
 		
+		if (this.batchSize > 1 && store == null) {
+			logger.info(String.format("Initializing subscription batcher with size %s and window %s ms ...", this.batchSize, this.batchWindow));
+			this.batcher = new SubscriptionBatcher(this.batchSize, Math.max(1, this.batchWindow), new BatchCommitter() {
+				public void commit(List<PendingSubscription> batch) {
+					commitBatch(batch);
+				}
+			});
+			this.batcher_t = new Thread(this.batcher);
+			this.batcher_t.start();
+		}
+		
+		if (this.workerCount > 0) {
+			logger.info(String.format("Initializing request dispatcher with %s workers ...", this.workerCount));
+			this.dispatcher = new RequestDispatcher(this.workerCount, new RequestHandler() {
+				public void handle(SubscriptionRequest request) {
+					processRecord(request);
+				}
+			});
+			this.dispatcher.start();
+		}
+		
 		logger.info("Subscription processor datasink initialized.");
 	}
 	
 	public void dispose() {
+		if (this.dispatcher != null) {
+			this.dispatcher.terminate();
+			this.dispatcher = null;
+		}
+		if (this.batcher != null && this.batcher_t != null) {
+			this.batcher.terminate();
+			try { this.batcher_t.join(5000); } catch (InterruptedException e) {}
+			this.batcher = null;
+			this.batcher_t = null;
+		}
+		DuplicateRequestCache cache = DuplicateRequestCache.getInstance();
+		if (cache.isEnabled()) {
+			logger.info(String.format("Duplicate request cache hits %s, misses %s.", cache.getHitCount(), cache.getMissCount()));
+		}
+		CertificateRegistrationCache certificates = CertificateRegistrationCache.getInstance();
+		logger.info(String.format("Certificate registration cache hits %s, misses %s.", certificates.getHitCount(), certificates.getMissCount()));
 		synchronized (LOCK) {
-			if (sender != null && sender_t != null) {
-				sender.terminate();
-				try { sender_t.join(5000); } catch (InterruptedException e) {}
-				sender = null;
-				sender_t = null;
+			if (store != null && store_t != null) {
+				// Whatever is not written by now stays in the journal for the next start
+				store.terminate();
+				try { store_t.join(5000); } catch (InterruptedException e) {}
+				store = null;
+				store_t = null;
 			}
+			if (senders != null) {
+				senders.terminate();
+				senders = null;
+			}
+			if (admission != null) {
+				logger.info(String.format("Response queue %s.", admission.toString()));
+			}
+			logger.info(String.format("Destination cache %s.", DestinationCache.getInstance().toString()));
+			logger.info(String.format("Subscription index %s.", SubscriptionIndex.getInstance().toString()));
+			logger.info(String.format("Certificate store %s.", CertificateStore.getInstance().toString()));
 			if (processor != null && processor_t != null) {
 				processor.terminate();
 				try { processor_t.join(5000); } catch (InterruptedException e) {}
 				processor = null;
 				processor_t = null;
 			}
+			if (auditLog != null) {
+				auditLog.terminate();
+				auditLog = null;
+			}
+			SubscriberIdGenerator.getInstance().close();
+			// The next initialize loads the index from the storage it opens
+			SubscriptionIndex.getInstance().clear();
+			SubscriptionStorage storage = DaoManager.getInstance().getSubscriptionStorage();
+			if (storage != null) {
+				logger.info(String.format("Subscription storage %s.", storage.toString()));
+				storage.close();
+				DaoManager.getInstance().setSubscriptionStorage(null);
+			}
+			mappedStorage = null;
 		}
 		logger.info("Subscription processor datasink disposed.");
 	}
 	
 	public void flush() {
-		logger.debug(String.format("The method flush() is not used by '%s'.", this.getClass().getName()));
+		if (this.dispatcher != null) try {
+			this.dispatcher.await();
+		} catch (InterruptedException ie) {
+			logger.warn("Interrupted while waiting for request workers to drain.", ie);
+		}
+		if (this.batcher != null) {
+			this.batcher.flush();
+		} else {
+			logger.debug(String.format("The method flush() is not used by '%s' when batching is disabled.", this.getClass().getName()));
+		}
 	}
 
 	@Override
 	protected void processInternal(JSONObject record, FlushCounter counter) {
-		DataModel model = new DataModel(record);
 		try {
-			if (model.isSubscriptionRequest()) {
-				logger.debug(String.format("Adding subscription %s", model.toString()));
-				processAddRequest(model);
-				Syslogger.getInstance().log(SYS_LOG_ID, 
-						String.format("Added subscription %s", model.toString()));
-			} else if (model.isSubscriptionCancel()) {
-				logger.debug(String.format("Cancelling subscription %s", model.toString()));
-				processCancelRequest(model);
-				Syslogger.getInstance().log(SYS_LOG_ID, 
-						String.format("Cancelled subscription %s", model.toString()));
+			SubscriptionRequest request = SubscriptionRequest.decode(record);
+			if (this.dispatcher != null) {
+				this.dispatcher.dispatch(request);
 			} else {
-				logger.debug(String.format("Invalid subscription request %s", model.toString()));
-				Syslogger.getInstance().log(SYS_LOG_ID, 
-						String.format("Invalid subscription request %s", model.toString()));
-				processInvalidRequest(model);
+				processRecord(request);
 			}
+		} catch (InterruptedException ie) {
+			logger.error(String.format("Interrupted while dispatching subscription request: %s", record.toString()), ie);
 		} catch (Exception ex) {
-			if (model.getCertificate() != null) record.remove(DataModel.CERTIFICATE_KEY);
-			logger.error(String.format("Failed to process subscription request: %s", record.toString()), ex);
-			Syslogger.getInstance().log(SYS_LOG_ID, 
-					String.format("Failed to process subscription request %s", record.toString()));
+			if (record.has(DataModel.CERTIFICATE_KEY)) record.remove(DataModel.CERTIFICATE_KEY);
+			logger.error(String.format("Failed to decode subscription request: %s", record.toString()), ex);
+			audit(AuditEvent.Kind.FAILED, 0, 0, null, null, 0);
 		} finally {
 			counter.noop();
 		}
 	}
 	
-	private void processAddRequest(DataModel model) throws Exception {
+	private void processRecord(SubscriptionRequest request) {
+		JSONObject record = request.getRecord();
+		try {
+			if (request.isMalformed(SubscriptionRequest.DIALOG_ID | SubscriptionRequest.SEQUENCE_ID)) {
+				// Without a readable dialog and sequence id the request is not answered
+				auditFailure(request);
+				throw new SubscriptionException("Malformed dialog or sequence id attribute in record.");
+			}
+			
+			if (request.isSubscriptionRequest()) {
+				if (logger.isDebugEnabled()) logger.debug(String.format("Adding subscription %s", request.toString()));
+				processAddRequest(request);
+			} else if (request.isSubscriptionCancel()) {
+				if (logger.isDebugEnabled()) logger.debug(String.format("Cancelling subscription %s", request.toString()));
+				processCancelRequest(request);
+			} else {
+				if (logger.isDebugEnabled()) logger.debug(String.format("Invalid subscription request %s", request.toString()));
+				processInvalidRequest(request);
+			}
+		} catch (Exception ex) {
+			// Audit events for failed requests are published where the response is built
+			if (request.has(SubscriptionRequest.CERTIFICATE)) record.remove(DataModel.CERTIFICATE_KEY);
+			logger.error(String.format("Failed to process subscription request: %s", record.toString()), ex);
+		}
+	}
+	
+	private void processAddRequest(SubscriptionRequest request) throws Exception {
 		Subscriber subscriber = null;
+		DuplicateRequestCache.RequestKey key = null;
+		boolean persisted = false;
 		
 		try {
-			subscriber = buildSubscriber(model);
-			DaoManager.getInstance().getSubscriberDao().upsert(subscriber.getSubscriberId(), subscriber);
-			DaoManager.getInstance().getSituationDataFilterDao().insert(subscriber.getSubscriberId(), subscriber.getFilter());
-			buildAndEnqueueResponse(
-					subscriber.getSubscriberId(),
-					subscriber.getFilter().getRequestId(),
-					subscriber.getDestHost(), 
-					subscriber.getDestPort(),
-					null,
-					subscriber.getCertificate(), 
-					model.fromForwarder());
+			// A retransmission is answered before admission, it costs no storage
+			DuplicateRequestCache cache = DuplicateRequestCache.getInstance();
+			if (cache.isEnabled() && request.has(SubscriptionRequest.DEST_HOST | SubscriptionRequest.DEST_PORT | SubscriptionRequest.REQUEST_ID)) {
+				String cert = request.getCertificate();
+				byte[] certificate = cert != null ? CertificateStore.getInstance().intern(Base64.decodeBase64(cert)): null;
+				key = cache.key(request.getDestHost(), request.getDestPort(), request.getRequestId(), certificate);
+				int subscriberId = cache.lookup(key);
+				if (subscriberId != 0) {
+					// A retransmission of a request that was already accepted, answer with the original response
+					buildAndEnqueueResponse(subscriberId, request.getRequestId(), request.getDestHost(), request.getDestPort(), 
+						null, certificate, request.fromForwarder());
+					audit(AuditEvent.Kind.REPLAYED, subscriberId, request.getRequestId(), null, request.getDestHost(), request.getDestPort());
+					return;
+				}
+			}
+			
+			if (! admission.admit()) {
+				shedAddRequest(request);
+				return;
+			}
+			
+			subscriber = buildSubscriber(request);
+			WriteBehindStore writeBehind = store;
+			if (writeBehind != null) {
+				writeBehind.add(subscriber);
+				persisted = true;
+				SubscriptionIndex.getInstance().put(subscriber);
+				if (key != null) cache.put(key, subscriber.getSubscriberId());
+				buildAndEnqueueResponse(subscriber, null, request.fromForwarder());
+				return;
+			}
+			if (this.batcher != null) {
+				// The response is enqueued by commitBatch() once the batch is committed
+				this.batcher.add(new PendingSubscription(subscriber, request.fromForwarder(), key));
+				persisted = true;
+				return;
+			}
+			DaoManager.getInstance().getSubscriptionStorage().add(subscriber);
+			persisted = true;
+			SubscriptionIndex.getInstance().put(subscriber);
+			if (key != null) cache.put(key, subscriber.getSubscriberId());
+			buildAndEnqueueResponse(subscriber, null, request.fromForwarder());
 		} catch (Exception ex) {
-			int subscriberId = (subscriber != null) ? subscriber.getSubscriberId() : 0;
+			if (subscriber != null && ! persisted) {
+				// The id was allocated for a subscription that was never stored, return it
+				SubscriberIdGenerator.getInstance().release(subscriber.getSubscriberId());
+			}
+			int subscriberId = (subscriber != null && persisted) ? subscriber.getSubscriberId() : 0;
 			int requestId = (subscriber != null && subscriber.getFilter() != null) ? subscriber.getFilter().getRequestId() : 0;
-			String targetHost = (subscriber != null) ? subscriber.getDestHost() : model.getDestHost();
-			Integer targetPort = (subscriber != null) ? subscriber.getDestPort() : model.getDestPort();
+			String targetHost = (subscriber != null) ? subscriber.getDestHost() : request.getDestHost();
+			Integer targetPort = (subscriber != null) ? subscriber.getDestPort() : 
+				(request.isValid(SubscriptionRequest.DEST_PORT) ? Integer.valueOf(request.getDestPort()) : null);
 			byte[] certficate = (subscriber != null) ? subscriber.getCertificate() : null;
-			boolean fromForwarder = (model.fromForwarder() != null) ? model.fromForwarder() : false;
+			boolean fromForwarder = request.fromForwarder();
 			processExceptionAndEnqueueResponse(subscriberId, requestId, targetHost, targetPort, ex, certficate, fromForwarder);
 			throw ex;
 		}
 	}
 	
-	private void processCancelRequest(DataModel model) throws Exception {
+	/**
+	 * Answers an add request with ResourceLimitReached without persisting it. Shedding
+	 * happens under load so it is deliberately kept off the error log.
+	 */
+	private void shedAddRequest(SubscriptionRequest request) {
+		int requestId = request.getRequestId();
+		if (request.has(SubscriptionRequest.DEST_HOST | SubscriptionRequest.DEST_PORT)) {
+			String cert = request.getCertificate();
+			byte[] certificate = cert != null ? CertificateStore.getInstance().intern(Base64.decodeBase64(cert)): null;
+			admission.offerShed(buildResponse(0, requestId, request.getDestHost(), request.getDestPort(), 
+				ResponseCode.ResourceLimitReached, certificate, request.fromForwarder()));
+		}
+		audit(AuditEvent.Kind.FAILED, 0, requestId, ResponseCode.ResourceLimitReached, request.getDestHost(), request.getDestPort());
+	}
+	
+	private void processCancelRequest(SubscriptionRequest request) throws Exception {
 		Cancellation cancellation = null;
 		Subscriber subscriber = null;
 		Filter filter = null;
 		
 		try {
-			cancellation = buildCancellation(model);
-			subscriber = DaoManager.getInstance().getSubscriberDao().findById(cancellation.getSubscriberId());
-			filter = DaoManager.getInstance().getSituationDataFilterDao().findById(cancellation.getSubscriberId());
+			cancellation = buildCancellation(request);
+			
+			// A cancellation must never overtake the subscription it cancels
+			if (this.batcher != null) this.batcher.flush();
+			
+			WriteBehindStore writeBehind = store;
+			Mutation pending = (writeBehind != null) ? writeBehind.getPending(cancellation.getSubscriberId()) : null;
+			if (pending != null) {
+				// The database is behind, the latest change to this subscriber is still queued
+				subscriber = pending.getSubscriber();
+				filter = (subscriber != null) ? subscriber.getFilter() : null;
+			} else {
+				subscriber = SubscriptionIndex.getInstance().getSubscriber(cancellation.getSubscriberId());
+				filter = SubscriptionIndex.getInstance().getFilter(cancellation.getSubscriberId());
+			}
 			
 			if (filter != null) {
 				if (filter.getRequestId() != cancellation.getRequestId()) {
 					throw new SubscriptionException("Invalid request id attribute in record.", ResponseCode.InvalidRequestId);
-				} else {
-					DaoManager.getInstance().getSituationDataFilterDao().delete(cancellation.getSubscriberId(), cancellation.getRequestId());
 				}
 			}
 			
 			if (subscriber != null) {
-				DaoManager.getInstance().getSubscriberDao().delete(cancellation.getSubscriberId());
+				if (writeBehind != null) {
+					writeBehind.cancel(cancellation.getSubscriberId(), cancellation.getRequestId());
+				} else {
+					DaoManager.getInstance().getSubscriptionStorage().cancel(cancellation.getSubscriberId(), cancellation.getRequestId());
+				}
+				SubscriptionIndex.getInstance().remove(cancellation.getSubscriberId());
+				DuplicateRequestCache.getInstance().invalidate(subscriber.getSubscriberId());
 				SubscriberIdGenerator.getInstance().release(subscriber.getSubscriberId());
 			}
 			
@@ -319,35 +781,42 @@ public class SubscriptionProcessor extends AbstractDataSink {
 					subscriber.getDestPort(),
 					null,
 					subscriber.getCertificate(), 
-					model.fromForwarder());
+					request.fromForwarder());
+			audit(AuditEvent.Kind.CANCELLED, subscriber.getSubscriberId(), filter.getRequestId(), null, 
+				subscriber.getDestHost(), subscriber.getDestPort());
 		} catch (Exception ex) {
 			int subscriberId = (subscriber != null) ? subscriber.getSubscriberId() : 0;
 			int requestId = (filter != null) ? filter.getRequestId() : 0;
 			String targetHost = (subscriber != null) ? subscriber.getDestHost() : null;
 			Integer targetPort = (subscriber != null) ? subscriber.getDestPort() : null;
 			byte[] certficate = (subscriber != null) ? subscriber.getCertificate() : null;
-			boolean fromForwarder = (model.fromForwarder() != null) ? model.fromForwarder() : false;
+			boolean fromForwarder = request.fromForwarder();
 			processExceptionAndEnqueueResponse(subscriberId, requestId, targetHost, targetPort, ex, certficate, fromForwarder);
 			throw ex;
 		}
 	}
 	
-	private void processInvalidRequest(DataModel model) throws Exception {
-		Integer subscriberId = model.getSubscriberId() == null ? 0 : model.getSubscriberId();
-		Integer requestId = model.getRequestId() == null ? 0 : model.getRequestId();
-		String destHost = model.getDestHost();
-		Integer destPort = model.getDestPort();
+	private void processInvalidRequest(SubscriptionRequest request) throws Exception {
+		if (request.isMalformed(SubscriptionRequest.SUBSCRIBER_ID | SubscriptionRequest.REQUEST_ID | SubscriptionRequest.DEST_PORT)) {
+			auditFailure(request);
+			throw new SubscriptionException("Malformed subscriber id, request id or destination port attribute in record.");
+		}
+		
+		int subscriberId = request.getSubscriberId();
+		int requestId = request.getRequestId();
 		
 		ResponseCode rc = null;
-		if (destHost == null || destPort == null) {
+		if (! request.has(SubscriptionRequest.DEST_HOST | SubscriptionRequest.DEST_PORT)) {
 			logger.warn("Failed to build subscription response because destination host and port is not available.");
-		} else if (model.getSemiDialogID() == null) {
+			audit(AuditEvent.Kind.INVALID, subscriberId, requestId, null, null, 0);
+			throw new SubscriptionException("Invalid subscription request.");
+		} else if (! request.has(SubscriptionRequest.DIALOG_ID)) {
 			rc = ResponseCode.DialogIDMissing;
-		} else if (! model.isSemiDialogIdValid()) {
+		} else if (! request.isSemiDialogIdValid()) {
 			rc = ResponseCode.InvalidDialogID;
-		} else if (model.getSemiSequenceID() == null) {
+		} else if (! request.has(SubscriptionRequest.SEQUENCE_ID)) {
 			rc = ResponseCode.SequenceIDMissing;
-		} else if (! model.isSemiSequenceIdValid()) {
+		} else if (! request.isSemiSequenceIdValid()) {
 			rc = ResponseCode.InvalidSequenceID;
 		} else if (subscriberId == 0) {
 			rc = ResponseCode.SubscriberIdMissing;
@@ -355,14 +824,58 @@ public class SubscriptionProcessor extends AbstractDataSink {
 			rc = ResponseCode.RequestIdMissing;
 		} 
 		
-		String cert = model.getCertificate();
-		byte[] certificate = cert != null ? Base64.decodeBase64(cert): null;
-		boolean fromForwarder = (model.fromForwarder() != null) ? model.fromForwarder() : false;
-		buildAndEnqueueResponse(subscriberId, requestId, destHost, destPort, rc, certificate, fromForwarder);
+		String cert = request.getCertificate();
+		byte[] certificate = cert != null ? CertificateStore.getInstance().intern(Base64.decodeBase64(cert)): null;
+		buildAndEnqueueResponse(subscriberId, requestId, request.getDestHost(), request.getDestPort(), rc, certificate, request.fromForwarder());
+		audit(AuditEvent.Kind.INVALID, subscriberId, requestId, rc, request.getDestHost(), request.getDestPort());
 		
 		throw new SubscriptionException("Invalid subscription request.");
 	}
 	
+	private void commitBatch(List<PendingSubscription> batch) {
+		List<Subscriber> subscribers = new ArrayList<Subscriber>(batch.size());
+		for (PendingSubscription pending : batch) {
+			subscribers.add(pending.getSubscriber());
+		}
+		
+		try {
+			DaoManager.getInstance().getSubscriptionStorage().addAll(subscribers);
+			SubscriptionIndex.getInstance().putAll(subscribers);
+		} catch (Exception ex) {
+			logger.warn(String.format("Failed to commit subscription batch of size %s, committing individually.", batch.size()), ex);
+			for (PendingSubscription pending : batch) {
+				commitPending(pending);
+			}
+			return;
+		}
+		
+		for (PendingSubscription pending : batch) {
+			remember(pending);
+			buildAndEnqueueResponse(pending.getSubscriber(), null, pending.isFromForwarder());
+		}
+	}
+	
+	private void commitPending(PendingSubscription pending) {
+		Subscriber subscriber = pending.getSubscriber();
+		try {
+			DaoManager.getInstance().getSubscriptionStorage().add(subscriber);
+			SubscriptionIndex.getInstance().put(subscriber);
+			remember(pending);
+			buildAndEnqueueResponse(subscriber, null, pending.isFromForwarder());
+		} catch (Exception ex) {
+			logger.error(String.format("Failed to commit subscription for subscriber '%s'.", subscriber.getSubscriberId()), ex);
+			SubscriberIdGenerator.getInstance().release(subscriber.getSubscriberId());
+			processExceptionAndEnqueueResponse(0, subscriber.getFilter().getRequestId(), subscriber.getDestHost(), 
+				subscriber.getDestPort(), ex, subscriber.getCertificate(), pending.isFromForwarder());
+		}
+	}
+	
+	private void remember(PendingSubscription pending) {
+		if (pending.getRequestKey() != null) {
+			DuplicateRequestCache.getInstance().put(pending.getRequestKey(), pending.getSubscriber().getSubscriberId());
+		}
+	}
+	
 	private void processExceptionAndEnqueueResponse(
 			int subscriberId, 
 			int requestId,
@@ -371,15 +884,47 @@ public class SubscriptionProcessor extends AbstractDataSink {
 			Exception ex,
 			byte[] certificate,
 			boolean fromForwarder) {
+		ResponseCode code = (ex instanceof SubscriptionException) ? 
+			((SubscriptionException) ex).getResponseCode() : ResponseCode.InternalServerError;
+		audit(AuditEvent.Kind.FAILED, subscriberId, requestId, code, targetHost, (targetPort != null) ? targetPort : 0);
 		if (targetHost == null || targetPort == null) {
 			logger.warn("Failed to build subscription response because target host and port is not available.");
 		} else {
-			ResponseCode code = (ex instanceof SubscriptionException) ? 
-				((SubscriptionException) ex).getResponseCode() : ResponseCode.InternalServerError;
 			buildAndEnqueueResponse(subscriberId, requestId, targetHost, targetPort, code, certificate, fromForwarder);
 		}
 	}
 	
+	private void buildAndEnqueueResponse(Subscriber subscriber, ResponseCode code, boolean fromForwarder) {
+		buildAndEnqueueResponse(
+				subscriber.getSubscriberId(),
+				subscriber.getFilter().getRequestId(),
+				subscriber.getDestHost(), 
+				subscriber.getDestPort(),
+				code,
+				subscriber.getCertificate(), 
+				fromForwarder);
+		audit(code == null ? AuditEvent.Kind.ADDED : AuditEvent.Kind.FAILED, subscriber.getSubscriberId(), 
+			subscriber.getFilter().getRequestId(), code, subscriber.getDestHost(), subscriber.getDestPort());
+	}
+	
+	/**
+	 * Audit a request that fails without a response, with the identifiers it carries
+	 * that are well-formed.
+	 */
+	private void auditFailure(SubscriptionRequest request) {
+		audit(AuditEvent.Kind.FAILED, 
+			request.isValid(SubscriptionRequest.SUBSCRIBER_ID) ? request.getSubscriberId() : 0, 
+			request.isValid(SubscriptionRequest.REQUEST_ID) ? request.getRequestId() : 0, 
+			null, 
+			request.getDestHost(), 
+			request.isValid(SubscriptionRequest.DEST_PORT) ? request.getDestPort() : 0);
+	}
+	
+	private void audit(AuditEvent.Kind kind, int subscriberId, int requestId, ResponseCode code, String destHost, int destPort) {
+		AuditLog log = auditLog;
+		if (log != null) log.publish(kind, subscriberId, requestId, code, destHost, destPort);
+	}
+	
 	private void buildAndEnqueueResponse(
 			int subscriberId,
 			int requestId,
@@ -388,6 +933,17 @@ public class SubscriptionProcessor extends AbstractDataSink {
 			ResponseCode code,
 			byte[] certificate,
 			boolean fromForwarder) {
+		admission.offer(buildResponse(subscriberId, requestId, targetHost, targetPort, code, certificate, fromForwarder));
+	}
+	
+	private Response buildResponse(
+			int subscriberId,
+			int requestId,
+			String targetHost, 
+			int targetPort,
+			ResponseCode code,
+			byte[] certificate,
+			boolean fromForwarder) {
 		Response.Builder builder = new Response.Builder();
 		builder.setSubscriberId(subscriberId);
 		builder.setTargetHost(targetHost);
@@ -396,34 +952,31 @@ public class SubscriptionProcessor extends AbstractDataSink {
 		builder.setResponseCode(code);
 		builder.setCertificate(certificate);
 		builder.setFromForwarder(fromForwarder);
-		queue.offer(builder.build());
+		return builder.build();
 	}
 	
-	private Subscriber buildSubscriber(DataModel model) throws Exception {
+	private Subscriber buildSubscriber(SubscriptionRequest request) throws Exception {
 		Integer subscriberId = null;
 		
 		try {
-			String certificate = model.getCertificate();
-			String destHost = model.getDestHost();
-			Integer destPort = model.getDestPort();
-			
-			if (destHost == null) {
+			if (! request.has(SubscriptionRequest.DEST_HOST)) {
 				throw new SubscriptionException("Missing destination host attribute in record.", ResponseCode.TargetHostMissing);
 			}
 			
-			if (destPort == null) {
+			if (! request.has(SubscriptionRequest.DEST_PORT)) {
 				throw new SubscriptionException("Missing destination port attribute in record.", ResponseCode.TargetPortMissing);
 			}
 			
 			subscriberId = SubscriberIdGenerator.getInstance().nextId();
-			Filter filter = buildFilter(subscriberId, model);
+			Filter filter = buildFilter(subscriberId, request);
 			
+			String certificate = request.getCertificate();
 			Subscriber.Builder builder = new Subscriber.Builder();
 			builder
 				.setSubscriberId(subscriberId)
-				.setCertificate(certificate != null ? Base64.decodeBase64(certificate): null)
-				.setDestHost(destHost)
-				.setDestPort(destPort)
+				.setCertificate(certificate != null ? CertificateStore.getInstance().intern(Base64.decodeBase64(certificate)): null)
+				.setDestHost(request.getDestHost())
+				.setDestPort(request.getDestPort())
 				.setFilter(filter);
 			return SubscriberValidator.validate(builder.build());
 		} catch (Exception ex) {
@@ -432,98 +985,92 @@ public class SubscriptionProcessor extends AbstractDataSink {
 		}
 	}
 	
-	private Filter buildFilter(int subscriberId, DataModel model) throws SubscriptionException, ParseException {
-		BoundingBox boundingBox = buildBoundingBox(model);
+	private Filter buildFilter(int subscriberId, SubscriptionRequest request) throws SubscriptionException, ParseException {
+		BoundingBox boundingBox = buildBoundingBox(request);
 		
-		String endTime = model.getEndTime();
-		String type = model.getType();
-		Integer typeValue = model.getTypeValue();
-		Integer requestId = model.getRequestId();
-		
-		if (endTime == null) {
+		if (! request.has(SubscriptionRequest.END_TIME)) {
 			throw new SubscriptionException("Missing end time attribute in record.", ResponseCode.EndTimeMissing);
 		}
 
-		if (type == null) {
+		if (! request.has(SubscriptionRequest.TYPE)) {
 			throw new SubscriptionException("Missing type attribute in record.", ResponseCode.TypeMissing);
 		}
 		
-		if (typeValue == null) {
+		if (! request.has(SubscriptionRequest.TYPE_VALUE)) {
 			throw new SubscriptionException("Missing type attribute in record.", ResponseCode.TypeValueMissing);
 		}
 		
-		if (requestId == null) {
+		if (! request.has(SubscriptionRequest.REQUEST_ID)) {
 			throw new SubscriptionException("Missing request id attribute in record.", ResponseCode.RequestIdMissing);
 		}
 		
 		Filter.Builder builder = new Filter.Builder();
 		builder
 			.setSubscriberId(subscriberId)
-			.setEndTime(endTime)
-			.setType(type)
-			.setTypeValue(typeValue)
-			.setRequestId(requestId)
+			.setEndTime(request.getEndTime())
+			.setType(request.getType())
+			.setTypeValue(request.getTypeValue())
+			.setRequestId(request.getRequestId())
 			.setBoundingBox(boundingBox);
 		return FilterValidator.validate(builder.build());
 	}
 	
-	private BoundingBox buildBoundingBox(DataModel model) throws SubscriptionException {
-		if (! model.hasNWPosObj() && ! model.hasSEPosObj()) {
+	private BoundingBox buildBoundingBox(SubscriptionRequest request) throws SubscriptionException {
+		boolean hasNWPos = request.has(SubscriptionRequest.NW_POS);
+		boolean hasSEPos = request.has(SubscriptionRequest.SE_POS);
+		
+		if (! hasNWPos && ! hasSEPos) {
 			return null;
 		}
 		
-		if (model.isBoundingBoxEmpty()) {
+		if (request.isBoundingBoxEmpty()) {
 			return null;
 		}
 		
-		if (model.hasNWPosObj() && ! model.hasSEPosObj()) {
+		if (hasNWPos && ! hasSEPos) {
 			throw new SubscriptionException("Missing southeast position attribute in record.", ResponseCode.SEPosMissing);
 		}
 		
-		if (! model.hasNWPosObj() && model.hasSEPosObj()) {
+		if (! hasNWPos && hasSEPos) {
 			throw new SubscriptionException("Missing northwest position attribute in record.", ResponseCode.NWPosMissing);
 		}
-		
-		Double nwLat = model.getNWLat();
-		Double nwLon = model.getNWLon();
-		Double seLat = model.getSELat();
-		Double seLon = model.getSELon();
 			
-		if (nwLat == null) {
+		if (! request.has(SubscriptionRequest.NW_LAT)) {
 			throw new SubscriptionException("Missing northwest latitude attribute in record.", ResponseCode.NWLatMissing);
 		}
 			
-		if (nwLon == null) {
+		if (! request.has(SubscriptionRequest.NW_LON)) {
 			throw new SubscriptionException("Missing northwest longitude attribute in record.", ResponseCode.NWLonMissing);
 		}
 			
-		if (seLat == null) {
+		if (! request.has(SubscriptionRequest.SE_LAT)) {
 			throw new SubscriptionException("Missing southeast latitude attribute in record.", ResponseCode.SELatMissing);
 		}
 			
-		if (seLon == null) {
+		if (! request.has(SubscriptionRequest.SE_LON)) {
 			throw new SubscriptionException("Missing southeast longitude attribute in record.", ResponseCode.SELonMissing);
 		}
 			
 		BoundingBox.Builder builder = new BoundingBox.Builder();
-		builder.setNWLat(nwLat).setNWLon(nwLon).setSELat(seLat).setSELon(seLon);
+		builder
+			.setNWLat(request.getNWLat())
+			.setNWLon(request.getNWLon())
+			.setSELat(request.getSELat())
+			.setSELon(request.getSELon());
 		return BoundingBoxValidator.validate(builder.build());
 	}
 	
-	private Cancellation buildCancellation(DataModel model) throws SubscriptionException {
-		Integer subscriberId = model.getSubscriberId();
-		Integer requestId = model.getRequestId();
-		
-		if (subscriberId == null) {
+	private Cancellation buildCancellation(SubscriptionRequest request) throws SubscriptionException {
+		if (! request.has(SubscriptionRequest.SUBSCRIBER_ID)) {
 			throw new SubscriptionException("Missing subscriber id attribute in record.", ResponseCode.SubscriberIdMissing);
 		}
 		
-		if (requestId == null) {
+		if (! request.has(SubscriptionRequest.REQUEST_ID)) {
 			throw new SubscriptionException("Missing request id attribute in record.", ResponseCode.RequestIdMissing);
 		}
 		
 		Cancellation.Builder builder = new Cancellation.Builder();
-		builder.setSubscriberId(subscriberId).setRequestId(requestId);
+		builder.setSubscriberId(request.getSubscriberId()).setRequestId(request.getRequestId());
 		return builder.build();
 	}
 	
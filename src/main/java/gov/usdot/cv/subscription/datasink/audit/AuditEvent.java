@@ -0,0 +1,78 @@
+package gov.usdot.cv.subscription.datasink.audit;
+
+import gov.usdot.cv.common.subscription.response.ResponseCode;
+
+/**
+ * A compact record of what happened to a subscription request. Events carry only
+ * the identifying attributes; the log line is rendered by the audit writer thread
+ * and only when the event is actually written.
+ */
+public class AuditEvent {
+	
+	public enum Kind {
+		ADDED("Added subscription", true),
+		CANCELLED("Cancelled subscription", true),
+		REPLAYED("Replayed subscription response", true),
+		INVALID("Invalid subscription request", false),
+		FAILED("Failed to process subscription request", false);
+		
+		private final String label;
+		private final boolean success;
+		
+		private Kind(String label, boolean success) {
+			this.label = label;
+			this.success = success;
+		}
+		
+		public String getLabel() 	{ return this.label; }
+		public boolean isSuccess() 	{ return this.success; }
+	}
+	
+	private final Kind kind;
+	private final int subscriberId;
+	private final int requestId;
+	private final ResponseCode code;
+	private final String destHost;
+	private final int destPort;
+	
+	public AuditEvent(
+			Kind kind,
+			int subscriberId,
+			int requestId,
+			ResponseCode code,
+			String destHost,
+			int destPort) {
+		this.kind = kind;
+		this.subscriberId = subscriberId;
+		this.requestId = requestId;
+		this.code = code;
+		this.destHost = destHost;
+		this.destPort = destPort;
+	}
+	
+	public Kind getKind() 			{ return this.kind; }
+	public int getSubscriberId() 	{ return this.subscriberId; }
+	public int getRequestId() 		{ return this.requestId; }
+	public ResponseCode getCode() 	{ return this.code; }
+	public String getDestHost() 	{ return this.destHost; }
+	public int getDestPort() 		{ return this.destPort; }
+	
+	public String render() {
+		StringBuilder sb = new StringBuilder(96);
+		sb.append(this.kind.getLabel());
+		sb.append(" {subscriberId: ").append(this.subscriberId);
+		sb.append(", requestId: ").append(this.requestId);
+		if (this.code != null) {
+			sb.append(", code: ").append(this.code).append('(').append(this.code.getCode()).append(')');
+		}
+		if (this.destHost != null) {
+			sb.append(", dest: ").append(this.destHost).append(':').append(this.destPort);
+		}
+		sb.append('}');
+		return sb.toString();
+	}
+	
+	public String toString() {
+		return render();
+	}
+}
\ No newline at end of file
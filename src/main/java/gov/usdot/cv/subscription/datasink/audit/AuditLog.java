@@ -0,0 +1,71 @@
+package gov.usdot.cv.subscription.datasink.audit;
+
+import gov.usdot.cv.common.subscription.response.ResponseCode;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Front end of the audit pipeline. Request threads publish events without blocking
+ * or formatting anything; a background AuditWriter renders and writes them to syslog.
+ * Successful adds and cancels are sampled, one in every sampleRate is kept, while
+ * rejected and failed requests are always kept. When the ring is full the event is
+ * dropped and counted rather than stalling ingest.
+ */
+public class AuditLog {
+	public static final int DEFAULT_CAPACITY = 8192;
+	
+	private final Logger logger = Logger.getLogger(getClass());
+	private final AuditRing ring;
+	private final AuditWriter writer;
+	private final int sampleRate;
+	private Thread writer_t;
+	
+	private final AtomicLong successCount = new AtomicLong();
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	
+	public AuditLog(String sysLogId, int capacity, int sampleRate) {
+		this.ring = new AuditRing(capacity);
+		this.writer = new AuditWriter(this.ring, sysLogId);
+		this.sampleRate = Math.max(1, sampleRate);
+	}
+	
+	public synchronized void start() {
+		if (this.writer_t == null) {
+			this.writer_t = new Thread(this.writer);
+			this.writer_t.start();
+		}
+	}
+	
+	public synchronized void terminate() {
+		if (this.writer_t != null) {
+			this.writer.terminate();
+			try { this.writer_t.join(5000); } catch (InterruptedException e) {}
+			this.writer_t = null;
+			logger.info(String.format("Audit log stopped, published %s events and dropped %s.", this.published.get(), this.dropped.get()));
+		}
+	}
+	
+	public void publish(
+			AuditEvent.Kind kind,
+			int subscriberId,
+			int requestId,
+			ResponseCode code,
+			String destHost,
+			int destPort) {
+		if (kind.isSuccess() && this.sampleRate > 1 && this.successCount.getAndIncrement() % this.sampleRate != 0) {
+			return;
+		}
+		if (this.ring.offer(new AuditEvent(kind, subscriberId, requestId, code, destHost, destPort))) {
+			this.published.incrementAndGet();
+		} else {
+			this.dropped.incrementAndGet();
+		}
+	}
+	
+	public long getPublishedCount() { return this.published.get(); }
+	public long getDroppedCount() 	{ return this.dropped.get(); }
+	public int getBacklog() 		{ return this.ring.size(); }
+}
\ No newline at end of file
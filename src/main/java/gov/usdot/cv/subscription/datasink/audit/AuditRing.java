@@ -0,0 +1,69 @@
+package gov.usdot.cv.subscription.datasink.audit;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free ring buffer for many producers and a single consumer.
+ * Producers claim a slot by advancing the tail with a compare-and-set and then
+ * publish the event into it; the consumer takes events in claim order and clears
+ * each slot before advancing the head. offer() never blocks, it fails when the
+ * ring is full.
+ */
+public class AuditRing {
+	private final AtomicReferenceArray<AuditEvent> slots;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head = 0;
+	
+	public AuditRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.slots = new AtomicReferenceArray<AuditEvent>(size);
+		this.mask = size - 1;
+	}
+	
+	public boolean offer(AuditEvent event) {
+		while (true) {
+			long t = this.tail.get();
+			if (t - this.head >= this.slots.length()) {
+				return false;
+			}
+			if (this.tail.compareAndSet(t, t + 1)) {
+				this.slots.set((int) (t & this.mask), event);
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Move up to max published events into the given list. Must only be called
+	 * from the consumer thread.
+	 */
+	public int drainTo(List<AuditEvent> batch, int max) {
+		int count = 0;
+		long h = this.head;
+		while (count < max) {
+			int idx = (int) (h & this.mask);
+			AuditEvent event = this.slots.get(idx);
+			if (event == null) break;
+			this.slots.set(idx, null);
+			batch.add(event);
+			this.head = ++h;
+			count++;
+		}
+		return count;
+	}
+	
+	public boolean isEmpty() {
+		return this.tail.get() == this.head;
+	}
+	
+	public int size() {
+		return (int) (this.tail.get() - this.head);
+	}
+	
+	public int capacity() {
+		return this.slots.length();
+	}
+}
\ No newline at end of file
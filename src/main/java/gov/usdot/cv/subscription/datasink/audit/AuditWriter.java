@@ -0,0 +1,59 @@
+package gov.usdot.cv.subscription.datasink.audit;
+
+import gov.usdot.cv.common.util.Syslogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+public class AuditWriter implements Runnable {
+	private static final int MAX_BATCH_SIZE = 256;
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+	
+	private final Logger logger = Logger.getLogger(getClass());
+	private final AuditRing ring;
+	private final String sysLogId;
+	private volatile boolean terminated = false;
+	private volatile Thread thread;
+	
+	public AuditWriter(AuditRing ring, String sysLogId) {
+		this.ring = ring;
+		this.sysLogId = sysLogId;
+	}
+	
+	public void terminate() {
+		this.terminated = true;
+		Thread t = this.thread;
+		if (t != null) LockSupport.unpark(t);
+	}
+	
+	public void run() {
+		this.thread = Thread.currentThread();
+		logger.info("Audit writer [" + Thread.currentThread().getId() + "] is starting ...");
+		List<AuditEvent> batch = new ArrayList<AuditEvent>(MAX_BATCH_SIZE);
+		while (! this.terminated || ! this.ring.isEmpty()) try {
+			if (this.ring.drainTo(batch, MAX_BATCH_SIZE) == 0) {
+				if (! this.terminated) LockSupport.parkNanos(IDLE_PARK_NANOS);
+				continue;
+			}
+			write(batch);
+		} catch (Exception ex) {
+			logger.error("Failed to write audit events.", ex);
+		} finally {
+			batch.clear();
+		}
+	}
+	
+	private void write(List<AuditEvent> batch) {
+		boolean debug = logger.isDebugEnabled();
+		Syslogger syslogger = Syslogger.getInstance();
+		for (AuditEvent event : batch) {
+			String line = event.render();
+			if (debug) logger.debug(line);
+			syslogger.log(this.sysLogId, line);
+		}
+	}
+}
\ No newline at end of file
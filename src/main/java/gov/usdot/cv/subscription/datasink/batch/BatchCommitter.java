@@ -0,0 +1,13 @@
+package gov.usdot.cv.subscription.datasink.batch;
+
+import java.util.List;
+
+public interface BatchCommitter {
+	
+	/**
+	 * Persist the given subscriptions and enqueue their responses. Called by
+	 * one thread at a time, in the order the subscriptions were accepted.
+	 */
+	public void commit(List<PendingSubscription> batch);
+	
+}
\ No newline at end of file
@@ -0,0 +1,24 @@
+package gov.usdot.cv.subscription.datasink.batch;
+
+import gov.usdot.cv.common.model.Subscriber;
+import gov.usdot.cv.subscription.datasink.cache.DuplicateRequestCache.RequestKey;
+
+public class PendingSubscription {
+	private Subscriber subscriber;
+	private boolean fromForwarder;
+	private RequestKey requestKey;
+	
+	public PendingSubscription(Subscriber subscriber, boolean fromForwarder) {
+		this(subscriber, fromForwarder, null);
+	}
+	
+	public PendingSubscription(Subscriber subscriber, boolean fromForwarder, RequestKey requestKey) {
+		this.subscriber = subscriber;
+		this.fromForwarder = fromForwarder;
+		this.requestKey = requestKey;
+	}
+	
+	public Subscriber getSubscriber() 	{ return this.subscriber; }
+	public boolean isFromForwarder() 	{ return this.fromForwarder; }
+	public RequestKey getRequestKey() 	{ return this.requestKey; }
+}
\ No newline at end of file
@@ -0,0 +1,89 @@
+package gov.usdot.cv.subscription.datasink.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Accumulates accepted subscriptions and hands them to a committer once the batch
+ * reaches its maximum size, once the oldest pending subscription has waited for the
+ * batch window, or when flush() is called.
+ */
+public class SubscriptionBatcher implements Runnable {
+	private final Logger logger = Logger.getLogger(getClass());
+	
+	private final int maxSize;
+	private final long window;
+	private final BatchCommitter committer;
+	private final Object commitLock = new Object();
+	
+	private List<PendingSubscription> pending;
+	private long oldest;
+	private volatile boolean terminated = false;
+	
+	public SubscriptionBatcher(int maxSize, long window, BatchCommitter committer) {
+		this.maxSize = maxSize;
+		this.window = window;
+		this.committer = committer;
+		this.pending = new ArrayList<PendingSubscription>(maxSize);
+	}
+	
+	public void add(PendingSubscription subscription) {
+		boolean full;
+		synchronized (this) {
+			if (this.pending.isEmpty()) this.oldest = System.currentTimeMillis();
+			this.pending.add(subscription);
+			full = this.pending.size() >= this.maxSize;
+		}
+		if (full) flush();
+	}
+	
+	/**
+	 * Commit every pending subscription. When this method returns, all subscriptions
+	 * added before the call have been committed and their responses enqueued.
+	 */
+	public void flush() {
+		synchronized (this.commitLock) {
+			List<PendingSubscription> batch = drain();
+			if (batch.isEmpty()) return;
+			try {
+				this.committer.commit(batch);
+			} catch (Exception ex) {
+				logger.error(String.format("Failed to commit subscription batch of size %s.", batch.size()), ex);
+			}
+		}
+	}
+	
+	public void terminate() {
+		this.terminated = true;
+	}
+	
+	public void run() {
+		logger.info("Subscription batcher [" + Thread.currentThread().getId() + "] is starting ...");
+		while (! this.terminated) try {
+			long wait = this.window;
+			synchronized (this) {
+				if (! this.pending.isEmpty()) {
+					wait = this.oldest + this.window - System.currentTimeMillis();
+				}
+			}
+			if (wait <= 0) {
+				flush();
+			} else {
+				try { Thread.sleep(wait); } catch (InterruptedException ignore) {}
+			}
+		} catch (Exception ex) {
+			logger.error("Failed to flush subscription batch.", ex);
+		}
+		flush();
+	}
+	
+	private synchronized List<PendingSubscription> drain() {
+		List<PendingSubscription> batch = this.pending;
+		if (! batch.isEmpty()) {
+			this.pending = new ArrayList<PendingSubscription>(this.maxSize);
+		}
+		return batch;
+	}
+}
\ No newline at end of file
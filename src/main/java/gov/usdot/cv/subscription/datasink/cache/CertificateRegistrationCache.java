@@ -0,0 +1,91 @@
+package gov.usdot.cv.subscription.datasink.cache;
+
+import gov.usdot.cv.security.SecurityHelper;
+import gov.usdot.cv.security.crypto.CryptoProvider;
+import gov.usdot.cv.subscription.datasink.util.CertificateDigest;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the certID8 returned when a subscriber certificate was registered with
+ * the security layer, so the certificate is parsed and registered once instead of
+ * for every encrypted response. Entries are keyed by certificate digest, evicted in
+ * least recently used order and dropped when the subscription using the
+ * certificate is cancelled or expires.
+ */
+public class CertificateRegistrationCache {
+	public static final int DEFAULT_CAPACITY = 1024;
+	
+	private static class CertificateRegistrationCacheHolder { 
+		private static final CertificateRegistrationCache INSTANCE = new CertificateRegistrationCache();
+	}
+	
+	public static CertificateRegistrationCache getInstance() {
+		return CertificateRegistrationCacheHolder.INSTANCE;
+	}
+	
+	private int capacity = DEFAULT_CAPACITY;
+	private final LinkedHashMap<ByteBuffer, byte[]> entries = new LinkedHashMap<ByteBuffer, byte[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ByteBuffer, byte[]> eldest) {
+			return size() > capacity;
+		}
+	};
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	
+	private CertificateRegistrationCache() {
+		// Prevents instantiation from other classes
+	}
+	
+	/**
+	 * Set the maximum number of registered certificates remembered, 0 disables the cache.
+	 */
+	public synchronized void setAndInitialize(int capacity) {
+		this.capacity = capacity;
+		this.entries.clear();
+	}
+	
+	/**
+	 * Return the certID8 for the certificate, registering it with the security layer
+	 * on a cache miss.
+	 */
+	public byte[] register(byte[] certificate, CryptoProvider cryptoProvider) throws Exception {
+		ByteBuffer key = ByteBuffer.wrap(CertificateDigest.digest(certificate));
+		synchronized (this) {
+			byte[] certID8 = this.entries.get(key);
+			if (certID8 != null) {
+				this.hits.incrementAndGet();
+				return certID8;
+			}
+		}
+		
+		this.misses.incrementAndGet();
+		byte[] certID8 = SecurityHelper.registerCert(certificate, cryptoProvider);
+		if (certID8 != null) {
+			synchronized (this) {
+				if (this.capacity > 0) this.entries.put(key, certID8);
+			}
+		}
+		return certID8;
+	}
+	
+	public void invalidate(byte[] certificate) {
+		if (certificate == null) return;
+		ByteBuffer key = ByteBuffer.wrap(CertificateDigest.digest(certificate));
+		synchronized (this) {
+			this.entries.remove(key);
+		}
+	}
+	
+	public synchronized int size() 	{ return this.entries.size(); }
+	public long getHitCount() 		{ return this.hits.get(); }
+	public long getMissCount() 		{ return this.misses.get(); }
+	
+}
\ No newline at end of file
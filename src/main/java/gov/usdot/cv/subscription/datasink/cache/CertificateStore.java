@@ -0,0 +1,100 @@
+package gov.usdot.cv.subscription.datasink.cache;
+
+import gov.usdot.cv.subscription.datasink.util.CertificateDigest;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds one copy of each distinct subscriber certificate, keyed by its digest and
+ * counted by the active subscriptions referencing it. The subscription index,
+ * subscribers built from requests and the responses queued for them share the
+ * stored array instead of each holding a decoded copy. A certificate is dropped
+ * when its last subscription is cancelled or expires.
+ */
+public class CertificateStore {
+	
+	private static class CertificateStoreHolder { 
+		private static final CertificateStore INSTANCE = new CertificateStore();
+	}
+	
+	public static CertificateStore getInstance() {
+		return CertificateStoreHolder.INSTANCE;
+	}
+	
+	private final Map<ByteBuffer, Entry> entries = new HashMap<ByteBuffer, Entry>();
+	private long references = 0;
+	private long bytes = 0;
+	
+	private CertificateStore() {
+		// Prevents instantiation from other classes
+	}
+	
+	/**
+	 * Add a reference to the certificate and return the stored copy of it.
+	 */
+	public byte[] acquire(byte[] certificate) {
+		if (certificate == null) return null;
+		ByteBuffer key = ByteBuffer.wrap(CertificateDigest.digest(certificate));
+		synchronized (this) {
+			Entry entry = this.entries.get(key);
+			if (entry == null) {
+				entry = new Entry(certificate);
+				this.entries.put(key, entry);
+				this.bytes += certificate.length;
+			}
+			entry.references++;
+			this.references++;
+			return entry.certificate;
+		}
+	}
+	
+	/**
+	 * Return the stored copy of the certificate if there is one, else the
+	 * certificate itself, without adding a reference.
+	 */
+	public byte[] intern(byte[] certificate) {
+		if (certificate == null) return null;
+		ByteBuffer key = ByteBuffer.wrap(CertificateDigest.digest(certificate));
+		synchronized (this) {
+			Entry entry = this.entries.get(key);
+			return (entry != null) ? entry.certificate : certificate;
+		}
+	}
+	
+	/**
+	 * Drop a reference to the certificate. Returns true when it was the last one
+	 * and the certificate is no longer stored.
+	 */
+	public boolean release(byte[] certificate) {
+		if (certificate == null) return false;
+		ByteBuffer key = ByteBuffer.wrap(CertificateDigest.digest(certificate));
+		synchronized (this) {
+			Entry entry = this.entries.get(key);
+			if (entry == null) return false;
+			this.references--;
+			if (--entry.references > 0) return false;
+			this.entries.remove(key);
+			this.bytes -= entry.certificate.length;
+			return true;
+		}
+	}
+	
+	public synchronized int size() 			{ return this.entries.size(); }
+	public synchronized long getReferenceCount() 	{ return this.references; }
+	public synchronized long getStoredBytes() 		{ return this.bytes; }
+	
+	public synchronized String toString() {
+		return String.format("certificates %s, references %s, stored bytes %s", this.entries.size(), this.references, this.bytes);
+	}
+	
+	private static class Entry {
+		private final byte[] certificate;
+		private int references;
+		
+		private Entry(byte[] certificate) {
+			this.certificate = certificate;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,123 @@
+package gov.usdot.cv.subscription.datasink.cache;
+
+import gov.usdot.cv.common.util.PropertyLocator;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves response target hosts once and reuses the address until it expires.
+ * Literal addresses never expire, host names are re-resolved after the positive
+ * time to live and hosts that failed to resolve are remembered for the shorter
+ * negative time to live, so the send path only reaches the resolver on a miss.
+ */
+public class DestinationCache {
+	
+	private static class DestinationCacheHolder { 
+		private static final DestinationCache INSTANCE = new DestinationCache();
+	}
+	
+	public static DestinationCache getInstance() {
+		return DestinationCacheHolder.INSTANCE;
+	}
+	
+	private final int ttl;
+	private final int negativeTtl;
+	private final int maxEntries;
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong resolveNanos = new AtomicLong();
+	private volatile long maxResolveNanos = 0;
+	
+	private DestinationCache() {
+		this.ttl = PropertyLocator.getInt("subscription.destination.cache.ttl", 60000);
+		this.negativeTtl = PropertyLocator.getInt("subscription.destination.cache.negative.ttl", 5000);
+		this.maxEntries = PropertyLocator.getInt("subscription.destination.cache.size", 4096);
+	}
+	
+	public InetAddress resolve(String host) throws UnknownHostException {
+		if (host == null) {
+			throw new UnknownHostException("Destination host is not available.");
+		}
+		
+		long now = System.currentTimeMillis();
+		Entry entry = this.entries.get(host);
+		if (entry != null && entry.expiresAt > now) {
+			this.hits.incrementAndGet();
+			if (entry.address == null) {
+				throw new UnknownHostException(host);
+			}
+			return entry.address;
+		}
+		
+		this.misses.incrementAndGet();
+		long start = System.nanoTime();
+		InetAddress address = null;
+		try {
+			address = InetAddress.getByName(host);
+		} catch (UnknownHostException ex) {
+			this.failures.incrementAndGet();
+			put(host, new Entry(null, now + this.negativeTtl));
+			throw ex;
+		} finally {
+			record(System.nanoTime() - start);
+		}
+		
+		boolean literal = host.equals(address.getHostAddress());
+		put(host, new Entry(address, literal ? Long.MAX_VALUE : now + this.ttl));
+		return address;
+	}
+	
+	public void clear() {
+		this.entries.clear();
+	}
+	
+	public int size() 					{ return this.entries.size(); }
+	public long getHitCount() 			{ return this.hits.get(); }
+	public long getMissCount() 			{ return this.misses.get(); }
+	public long getFailureCount() 		{ return this.failures.get(); }
+	public long getMaxResolveNanos() 	{ return this.maxResolveNanos; }
+	
+	public long getAverageResolveNanos() {
+		long misses = this.misses.get();
+		return (misses > 0) ? this.resolveNanos.get() / misses : 0;
+	}
+	
+	public String toString() {
+		return String.format("hits %s, misses %s, failures %s, average resolution %s us, max resolution %s us", 
+			this.hits.get(), this.misses.get(), this.failures.get(), getAverageResolveNanos() / 1000, this.maxResolveNanos / 1000);
+	}
+	
+	private void put(String host, Entry entry) {
+		if (this.entries.size() >= this.maxEntries) {
+			long now = System.currentTimeMillis();
+			for (Iterator<Entry> it = this.entries.values().iterator(); it.hasNext();) {
+				if (it.next().expiresAt <= now) it.remove();
+			}
+			// Targets are a small set in practice, start over rather than track recency
+			if (this.entries.size() >= this.maxEntries) this.entries.clear();
+		}
+		this.entries.put(host, entry);
+	}
+	
+	private void record(long nanos) {
+		this.resolveNanos.addAndGet(nanos);
+		if (nanos > this.maxResolveNanos) this.maxResolveNanos = nanos;
+	}
+	
+	private static class Entry {
+		private final InetAddress address;
+		private final long expiresAt;
+		
+		private Entry(InetAddress address, long expiresAt) {
+			this.address = address;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,161 @@
+package gov.usdot.cv.subscription.datasink.cache;
+
+import gov.usdot.cv.subscription.datasink.util.CertificateDigest;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the subscriber id issued for recent subscription requests so that a
+ * retransmitted request (same destination, request id and certificate) is answered
+ * with the original response instead of creating a second subscription. Entries
+ * expire after a fixed window and the number of entries is bounded; because every
+ * entry lives for the same window, insertion order is also expiration order.
+ */
+public class DuplicateRequestCache {
+	
+	private static class DuplicateRequestCacheHolder { 
+		private static final DuplicateRequestCache INSTANCE = new DuplicateRequestCache();
+	}
+	
+	public static DuplicateRequestCache getInstance() {
+		return DuplicateRequestCacheHolder.INSTANCE;
+	}
+	
+	private long window;
+	private int maxEntries;
+	private final LinkedHashMap<RequestKey, Entry> entries = new LinkedHashMap<RequestKey, Entry>();
+	private final Map<Integer, RequestKey> keysById = new HashMap<Integer, RequestKey>();
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	
+	private DuplicateRequestCache() {
+		// Prevents instantiation from other classes
+	}
+	
+	/**
+	 * Set the suppression window in milliseconds and the maximum number of entries.
+	 * A window of zero disables the cache.
+	 */
+	public synchronized void setAndInitialize(long window, int maxEntries) {
+		this.window = window;
+		this.maxEntries = maxEntries;
+		this.entries.clear();
+		this.keysById.clear();
+	}
+	
+	public synchronized boolean isEnabled() {
+		return this.window > 0 && this.maxEntries > 0;
+	}
+	
+	public RequestKey key(String destHost, int destPort, int requestId, byte[] certificate) {
+		return new RequestKey(destHost, destPort, requestId, CertificateDigest.digest(certificate));
+	}
+	
+	/**
+	 * Return the subscriber id previously issued for the request, or 0 when the
+	 * request has not been seen within the window.
+	 */
+	public synchronized int lookup(RequestKey key) {
+		expire(System.currentTimeMillis());
+		Entry entry = this.entries.get(key);
+		if (entry == null) {
+			this.misses.incrementAndGet();
+			return 0;
+		}
+		this.hits.incrementAndGet();
+		return entry.subscriberId;
+	}
+	
+	public synchronized void put(RequestKey key, int subscriberId) {
+		if (this.window <= 0 || this.maxEntries <= 0) return;
+		long now = System.currentTimeMillis();
+		expire(now);
+		
+		Entry previous = this.entries.remove(key);
+		if (previous != null) this.keysById.remove(previous.subscriberId);
+		this.entries.put(key, new Entry(subscriberId, now + this.window));
+		this.keysById.put(subscriberId, key);
+		
+		while (this.entries.size() > this.maxEntries) {
+			Iterator<Map.Entry<RequestKey, Entry>> it = this.entries.entrySet().iterator();
+			this.keysById.remove(it.next().getValue().subscriberId);
+			it.remove();
+		}
+	}
+	
+	/**
+	 * Forget the request that created the given subscriber, called when the
+	 * subscription is cancelled or expires.
+	 */
+	public synchronized void invalidate(int subscriberId) {
+		RequestKey key = this.keysById.remove(subscriberId);
+		if (key != null) this.entries.remove(key);
+	}
+	
+	public synchronized int size() 	{ return this.entries.size(); }
+	public long getHitCount() 		{ return this.hits.get(); }
+	public long getMissCount() 		{ return this.misses.get(); }
+	
+	private void expire(long now) {
+		Iterator<Map.Entry<RequestKey, Entry>> it = this.entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<RequestKey, Entry> eldest = it.next();
+			if (eldest.getValue().expiresAt > now) break;
+			this.keysById.remove(eldest.getValue().subscriberId);
+			it.remove();
+		}
+	}
+	
+	private static class Entry {
+		private final int subscriberId;
+		private final long expiresAt;
+		
+		private Entry(int subscriberId, long expiresAt) {
+			this.subscriberId = subscriberId;
+			this.expiresAt = expiresAt;
+		}
+	}
+	
+	public static class RequestKey {
+		private final String destHost;
+		private final int destPort;
+		private final int requestId;
+		private final byte[] digest;
+		private final int hash;
+		
+		private RequestKey(String destHost, int destPort, int requestId, byte[] digest) {
+			this.destHost = destHost;
+			this.destPort = destPort;
+			this.requestId = requestId;
+			this.digest = digest;
+			
+			int h = (destHost != null) ? destHost.hashCode() : 0;
+			h = 31 * h + destPort;
+			h = 31 * h + requestId;
+			this.hash = 31 * h + Arrays.hashCode(digest);
+		}
+		
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (! (obj instanceof RequestKey)) return false;
+			RequestKey other = (RequestKey) obj;
+			return this.hash == other.hash &&
+				   this.destPort == other.destPort &&
+				   this.requestId == other.requestId &&
+				   (this.destHost == null ? other.destHost == null : this.destHost.equals(other.destHost)) &&
+				   Arrays.equals(this.digest, other.digest);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,289 @@
+package gov.usdot.cv.subscription.datasink.cache;
+
+import gov.usdot.cv.common.model.BoundingBox;
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
+import gov.usdot.cv.subscription.datasink.dao.DaoManager;
+import gov.usdot.cv.subscription.datasink.expiration.ExpirationSchedule;
+import gov.usdot.cv.subscription.datasink.util.IntObjectMap;
+
+import java.util.Collection;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A memory-resident copy of the active subscriptions keyed by subscriber id, so
+ * cancellation and expiration read memory instead of the
+ * subscription storage. It is loaded from the storage once and then updated
+ * wherever the processor writes it. A lookup that misses reads the storage as a
+ * fallback, so subscriptions other processes added to a shared database are still
+ * found; the expiration processor sweeps the storage for those as well.
+ * 
+ * The index also keeps the expiration schedule current: every indexed filter is
+ * scheduled under its end time, and a subscriber without a filter is due at once.
+ */
+public class SubscriptionIndex {
+	// Slot cost of a table: an int key plus a compressed reference
+	private static final int SLOT_BYTES = 4 + 4;
+	// Rough shallow sizes on a 64-bit JVM with compressed references
+	private static final int OBJECT_HEADER = 12;
+	private static final int REFERENCE = 4;
+	private static final int ARRAY_HEADER = 16;
+	private static final int BOXED_BYTES = 16;
+	// A GregorianCalendar with its field, stamp and isSet arrays, the time zone is shared
+	private static final int CALENDAR_BYTES = 320;
+	// Subscriptions measured for the estimate of the retained bytes
+	private static final int SAMPLE_SIZE = 1024;
+	// Stale schedule entries tolerated beyond one per subscription before a rebuild
+	private static final int SCHEDULE_SLACK = 1024;
+	
+	private static class SubscriptionIndexHolder { 
+		private static final SubscriptionIndex INSTANCE = new SubscriptionIndex();
+	}
+	
+	public static SubscriptionIndex getInstance() {
+		return SubscriptionIndexHolder.INSTANCE;
+	}
+	
+	private final Logger logger = Logger.getLogger(getClass());
+	
+	private final IntObjectMap<Subscriber> subscribers = new IntObjectMap<Subscriber>(1024);
+	private final IntObjectMap<Filter> filters = new IntObjectMap<Filter>(1024);
+	private final ExpirationSchedule schedule = new ExpirationSchedule();
+	private boolean loaded = false;
+	
+	private SubscriptionIndex() {
+		// Prevents instantiation from other classes
+	}
+	
+	/**
+	 * Load the index from the subscriber and filter tables, unless already loaded.
+	 */
+	public synchronized void load() {
+		if (this.loaded) return;
+		
+		Collection<Subscriber> rows = DaoManager.getInstance().getSubscriptionStorage().findAllSubscribers();
+		if (rows != null) {
+			for (Subscriber subscriber : rows) {
+				put(subscriber);
+			}
+		}
+		Collection<Filter> filterRows = DaoManager.getInstance().getSubscriptionStorage().findAllFilters();
+		if (filterRows != null) {
+			for (Filter filter : filterRows) {
+				this.filters.put(filter.getSubscriberId(), filter);
+			}
+		}
+		rebuildSchedule();
+		this.loaded = true;
+		logger.info(String.format("Loaded subscription index %s.", toString()));
+	}
+	
+	/**
+	 * Drop every subscription so the next load() reads the storage again, as when
+	 * the processor is disposed and initialized again.
+	 */
+	public synchronized void clear() {
+		for (int subscriberId : this.subscribers.keys()) {
+			remove(subscriberId);
+		}
+		this.subscribers.clear();
+		this.filters.clear();
+		this.schedule.rebuild(new int[0], new long[0], 0);
+		this.loaded = false;
+	}
+	
+	/**
+	 * Add or replace a subscription, the filter is taken from the subscriber. The
+	 * indexed subscriber references the stored copy of its certificate.
+	 */
+	public synchronized void put(Subscriber subscriber) {
+		byte[] certificate = CertificateStore.getInstance().acquire(subscriber.getCertificate());
+		if (certificate != subscriber.getCertificate()) {
+			subscriber = withCertificate(subscriber, certificate);
+		}
+		Subscriber previous = this.subscribers.put(subscriber.getSubscriberId(), subscriber);
+		if (previous != null) release(previous.getCertificate());
+		Filter filter = subscriber.getFilter();
+		if (filter != null) {
+			this.filters.put(subscriber.getSubscriberId(), filter);
+			if (filter.getEndTime() != null) {
+				this.schedule.add(subscriber.getSubscriberId(), filter.getEndTime().getTimeInMillis());
+			}
+			if (this.schedule.size() > 2 * this.subscribers.size() + SCHEDULE_SLACK) {
+				rebuildSchedule();
+			}
+		}
+	}
+	
+	public synchronized void putAll(Collection<Subscriber> subscribers) {
+		for (Subscriber subscriber : subscribers) {
+			put(subscriber);
+		}
+	}
+	
+	/**
+	 * Remove a subscription, dropping its certificate and the registration of it
+	 * with the security layer once no other subscription uses it.
+	 */
+	public synchronized void remove(int subscriberId) {
+		Subscriber previous = this.subscribers.remove(subscriberId);
+		this.filters.remove(subscriberId);
+		if (previous != null) release(previous.getCertificate());
+	}
+	
+	public synchronized void removeAll(int[] subscriberIds) {
+		for (int subscriberId : subscriberIds) {
+			remove(subscriberId);
+		}
+	}
+	
+	public Subscriber getSubscriber(int subscriberId) {
+		synchronized (this) {
+			ensureLoaded();
+			Subscriber subscriber = this.subscribers.get(subscriberId);
+			if (subscriber != null) return subscriber;
+		}
+		return DaoManager.getInstance().getSubscriptionStorage().findSubscriber(subscriberId);
+	}
+	
+	public Filter getFilter(int subscriberId) {
+		synchronized (this) {
+			ensureLoaded();
+			Filter filter = this.filters.get(subscriberId);
+			if (filter != null) return filter;
+		}
+		return DaoManager.getInstance().getSubscriptionStorage().findFilter(subscriberId);
+	}
+	
+	/**
+	 * Returns the filter held in memory without falling back to the table.
+	 */
+	public synchronized Filter peekFilter(int subscriberId) {
+		ensureLoaded();
+		return this.filters.get(subscriberId);
+	}
+	
+	/**
+	 * Returns the subscriber held in memory without falling back to the table.
+	 */
+	public synchronized Subscriber peekSubscriber(int subscriberId) {
+		ensureLoaded();
+		return this.subscribers.get(subscriberId);
+	}
+	
+	/**
+	 * Returns a snapshot of the indexed subscriber ids.
+	 */
+	public synchronized int[] subscriberIds() {
+		ensureLoaded();
+		return this.subscribers.keys();
+	}
+	
+	public ExpirationSchedule getExpirationSchedule() {
+		return this.schedule;
+	}
+	
+	public synchronized int size() {
+		return this.subscribers.size();
+	}
+	
+	/**
+	 * Returns an estimate of the bytes retained per indexed subscription: the table
+	 * slots, the subscriber and filter objects measured on a sample, and a share of
+	 * the stored certificates.
+	 */
+	public synchronized double getBytesPerSubscription() {
+		int size = this.subscribers.size();
+		if (size == 0) return 0.0;
+		
+		long tables = (long) (this.subscribers.capacity() + this.filters.capacity()) * SLOT_BYTES;
+		int[] ids = this.subscribers.keys();
+		int step = Math.max(1, ids.length / SAMPLE_SIZE);
+		long sampled = 0;
+		int samples = 0;
+		for (int i = 0; i < ids.length; i += step) {
+			sampled += objectBytes(this.subscribers.get(ids[i]), this.filters.get(ids[i]));
+			samples++;
+		}
+		CertificateStore certificates = CertificateStore.getInstance();
+		long certificateBytes = certificates.getStoredBytes() + (long) certificates.size() * ARRAY_HEADER;
+		return (double) tables / size + (double) sampled / samples + (double) certificateBytes / size;
+	}
+	
+	/**
+	 * Estimate the bytes of the subscriber and filter objects, without the shared
+	 * certificate and time zone.
+	 */
+	private static long objectBytes(Subscriber subscriber, Filter filter) {
+		long bytes = 0;
+		if (subscriber != null) {
+			// Subscriber id, certificate, host, port and filter
+			bytes += align(OBJECT_HEADER + 5 * REFERENCE) + 2 * BOXED_BYTES + stringBytes(subscriber.getDestHost());
+		}
+		if (filter != null) {
+			// Subscriber id, request id, type value, end time, type and bounding box
+			bytes += align(OBJECT_HEADER + 6 * REFERENCE) + 3 * BOXED_BYTES + stringBytes(filter.getType());
+			if (filter.getEndTime() != null) bytes += CALENDAR_BYTES;
+			BoundingBox box = filter.getBoundingBox();
+			if (box != null) bytes += align(OBJECT_HEADER + 4 * REFERENCE) + 4 * BOXED_BYTES;
+		}
+		return bytes;
+	}
+	
+	private static long stringBytes(String value) {
+		if (value == null) return 0;
+		return align(OBJECT_HEADER + 3 * 4) + align(ARRAY_HEADER + 2L * value.length());
+	}
+	
+	private static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+	
+	private static void release(byte[] certificate) {
+		if (CertificateStore.getInstance().release(certificate)) {
+			CertificateRegistrationCache.getInstance().invalidate(certificate);
+		}
+	}
+	
+	private static Subscriber withCertificate(Subscriber subscriber, byte[] certificate) {
+		Subscriber.Builder builder = new Subscriber.Builder();
+		builder
+			.setSubscriberId(subscriber.getSubscriberId())
+			.setCertificate(certificate)
+			.setDestHost(subscriber.getDestHost())
+			.setDestPort(subscriber.getDestPort())
+			.setFilter(subscriber.getFilter());
+		return builder.build();
+	}
+	
+	/**
+	 * Replace the schedule with one entry per indexed subscription, dropping the
+	 * entries left behind by cancelled and replaced subscriptions.
+	 */
+	private void rebuildSchedule() {
+		int[] ids = this.subscribers.keys();
+		long[] deadlines = new long[ids.length];
+		int count = 0;
+		for (int subscriberId : ids) {
+			Filter filter = this.filters.get(subscriberId);
+			if (filter == null) {
+				ids[count] = subscriberId;
+				deadlines[count++] = 0;
+			} else if (filter.getEndTime() != null) {
+				ids[count] = subscriberId;
+				deadlines[count++] = filter.getEndTime().getTimeInMillis();
+			}
+		}
+		this.schedule.rebuild(ids, deadlines, count);
+	}
+	
+	private void ensureLoaded() {
+		if (! this.loaded) load();
+	}
+	
+	public synchronized String toString() {
+		return String.format("subscriptions %s, slots %s, estimated bytes per subscription %.1f", 
+			this.subscribers.size(), this.subscribers.capacity(), getBytesPerSubscription());
+	}
+}
\ No newline at end of file
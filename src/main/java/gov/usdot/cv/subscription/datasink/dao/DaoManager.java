@@ -7,7 +7,13 @@ import javax.sql.DataSource;
 
 public class DaoManager {
 	private static SubscriberDao SUBSCRIBER_DAO_INSTANCE;
+	private static SubscriberCertificateDao SUBSCRIBER_CERTIFICATE_DAO_INSTANCE;
 	private static SituationDataFilterDao SITUATION_DATA_FILTER_DAO_INSTANCE;
+	private static SubscriptionBatchDao SUBSCRIPTION_BATCH_DAO_INSTANCE;
+	private static SubscriptionTransactionDao SUBSCRIPTION_TRANSACTION_DAO_INSTANCE;
+	private static SubscriberIdDao SUBSCRIBER_ID_DAO_INSTANCE;
+	private static SubscriptionStorage JDBC_STORAGE_INSTANCE;
+	private static volatile SubscriptionStorage SUBSCRIPTION_STORAGE_INSTANCE;
 	
 	private static class DaoManagerHolder { 
 		private static final DaoManager INSTANCE = new DaoManager();
@@ -38,9 +44,41 @@ public class DaoManager {
 			subcriberDaoBuilder.setDataSource(this.dataSource).setTableName(this.subscriberTableName);
 			SUBSCRIBER_DAO_INSTANCE = subcriberDaoBuilder.build();
 			
+			SubscriberCertificateDao.Builder certificateDaoBuilder = new SubscriberCertificateDao.Builder();
+			certificateDaoBuilder.setDataSource(this.dataSource).setSubscriberTableName(this.subscriberTableName);
+			SUBSCRIBER_CERTIFICATE_DAO_INSTANCE = certificateDaoBuilder.build();
+			
 			SituationDataFilterDao.Builder filterDaoBuilder = new SituationDataFilterDao.Builder();
 			filterDaoBuilder.setDataSource(this.dataSource).setTableName(this.filterTableName);
 			SITUATION_DATA_FILTER_DAO_INSTANCE = filterDaoBuilder.build();
+			
+			SubscriptionBatchDao.Builder batchDaoBuilder = new SubscriptionBatchDao.Builder();
+			batchDaoBuilder
+				.setDataSource(this.dataSource)
+				.setCertificateDao(SUBSCRIBER_CERTIFICATE_DAO_INSTANCE)
+				.setSubscriberTableName(this.subscriberTableName)
+				.setFilterTableName(this.filterTableName);
+			SUBSCRIPTION_BATCH_DAO_INSTANCE = batchDaoBuilder.build();
+			
+			SubscriptionTransactionDao.Builder transactionDaoBuilder = new SubscriptionTransactionDao.Builder();
+			transactionDaoBuilder
+				.setDataSource(this.dataSource)
+				.setCertificateDao(SUBSCRIBER_CERTIFICATE_DAO_INSTANCE)
+				.setSubscriberTableName(this.subscriberTableName)
+				.setFilterTableName(this.filterTableName);
+			SUBSCRIPTION_TRANSACTION_DAO_INSTANCE = transactionDaoBuilder.build();
+			
+			SubscriberIdDao.Builder idDaoBuilder = new SubscriberIdDao.Builder();
+			idDaoBuilder.setDataSource(this.dataSource).setSubscriberTableName(this.subscriberTableName);
+			SUBSCRIBER_ID_DAO_INSTANCE = idDaoBuilder.build();
+			
+			JDBC_STORAGE_INSTANCE = new JdbcSubscriptionStorage(
+					SUBSCRIBER_CERTIFICATE_DAO_INSTANCE, 
+					SITUATION_DATA_FILTER_DAO_INSTANCE, 
+					SUBSCRIPTION_BATCH_DAO_INSTANCE, 
+					SUBSCRIPTION_TRANSACTION_DAO_INSTANCE, 
+					SUBSCRIBER_ID_DAO_INSTANCE);
+			SUBSCRIPTION_STORAGE_INSTANCE = JDBC_STORAGE_INSTANCE;
 		}
 	}
 	
@@ -48,7 +86,41 @@ public class DaoManager {
 		return SUBSCRIBER_DAO_INSTANCE;
 	}
 	
+	public SubscriberCertificateDao getSubscriberCertificateDao() {
+		return SUBSCRIBER_CERTIFICATE_DAO_INSTANCE;
+	}
+	
 	public SituationDataFilterDao getSituationDataFilterDao() {
 		return SITUATION_DATA_FILTER_DAO_INSTANCE;
 	}
+	
+	public SubscriptionBatchDao getSubscriptionBatchDao() {
+		return SUBSCRIPTION_BATCH_DAO_INSTANCE;
+	}
+	
+	public SubscriptionTransactionDao getSubscriptionTransactionDao() {
+		return SUBSCRIPTION_TRANSACTION_DAO_INSTANCE;
+	}
+	
+	public SubscriberIdDao getSubscriberIdDao() {
+		return SUBSCRIBER_ID_DAO_INSTANCE;
+	}
+	
+	/**
+	 * Replace the storage subscriptions are kept in, null restores the database tables.
+	 */
+	public synchronized void setSubscriptionStorage(SubscriptionStorage storage) {
+		SUBSCRIPTION_STORAGE_INSTANCE = (storage != null) ? storage : JDBC_STORAGE_INSTANCE;
+	}
+	
+	public SubscriptionStorage getSubscriptionStorage() {
+		return SUBSCRIPTION_STORAGE_INSTANCE;
+	}
+	
+	/**
+	 * Returns the storage kept in the database tables, whichever storage is in use.
+	 */
+	public SubscriptionStorage getJdbcSubscriptionStorage() {
+		return JDBC_STORAGE_INSTANCE;
+	}
 }
\ No newline at end of file
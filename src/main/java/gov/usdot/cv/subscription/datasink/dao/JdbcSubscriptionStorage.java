@@ -0,0 +1,162 @@
+package gov.usdot.cv.subscription.datasink.dao;
+
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
+import gov.usdot.cv.common.subscription.dao.SituationDataFilterDao;
+import gov.usdot.cv.subscription.datasink.exception.StorageException;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps subscriptions in the subscriber and situation data filter tables, where
+ * the rest of the system reads them. Certificates are kept once per digest in the
+ * certificate table the subscriber table references.
+ */
+public class JdbcSubscriptionStorage implements SubscriptionStorage {
+	private final Logger logger = Logger.getLogger(getClass());
+	
+	private final SubscriberCertificateDao subscriberDao;
+	private final SituationDataFilterDao filterDao;
+	private final SubscriptionBatchDao batchDao;
+	private final SubscriptionTransactionDao transactionDao;
+	private final SubscriberIdDao idDao;
+	
+	public JdbcSubscriptionStorage(
+			SubscriberCertificateDao subscriberDao, 
+			SituationDataFilterDao filterDao, 
+			SubscriptionBatchDao batchDao, 
+			SubscriptionTransactionDao transactionDao, 
+			SubscriberIdDao idDao) {
+		this.subscriberDao = subscriberDao;
+		this.filterDao = filterDao;
+		this.batchDao = batchDao;
+		this.transactionDao = transactionDao;
+		this.idDao = idDao;
+	}
+	
+	public Collection<Subscriber> findAllSubscribers() {
+		try {
+			return this.subscriberDao.findAll();
+		} catch (SQLException ex) {
+			logger.error("Failed to find all subscribers.", ex);
+			return null;
+		}
+	}
+	
+	public Collection<Filter> findAllFilters() {
+		return this.filterDao.findAll();
+	}
+	
+	public Subscriber findSubscriber(int subscriberId) {
+		try {
+			return this.subscriberDao.findById(subscriberId);
+		} catch (SQLException ex) {
+			logger.error(String.format("Failed to find subscriber '%s'.", subscriberId), ex);
+			return null;
+		}
+	}
+	
+	public Filter findFilter(int subscriberId) {
+		return this.filterDao.findById(subscriberId);
+	}
+	
+	public int scanSubscriberIds(SubscriberIdVisitor visitor) throws StorageException {
+		try {
+			return this.idDao.scan(visitor);
+		} catch (SQLException ex) {
+			throw new StorageException("Failed to scan subscriber ids.", ex);
+		}
+	}
+	
+	public int findMaxSubscriberId() throws StorageException {
+		try {
+			return this.idDao.findMaxId();
+		} catch (SQLException ex) {
+			throw new StorageException("Failed to find the highest subscriber id.", ex);
+		}
+	}
+	
+	public int countSubscribers() throws StorageException {
+		try {
+			return this.idDao.count();
+		} catch (SQLException ex) {
+			throw new StorageException("Failed to count the subscribers.", ex);
+		}
+	}
+	
+	public void add(Subscriber subscriber) throws StorageException {
+		try {
+			this.transactionDao.add(subscriber);
+		} catch (SQLException ex) {
+			throw new StorageException(String.format("Failed to add subscriber '%s'.", subscriber.getSubscriberId()), ex);
+		}
+	}
+	
+	public void addAll(Collection<Subscriber> subscribers) throws StorageException {
+		try {
+			this.batchDao.insertAll(subscribers);
+		} catch (SQLException ex) {
+			throw new StorageException(String.format("Failed to add %s subscribers.", subscribers.size()), ex);
+		}
+	}
+	
+	public boolean cancel(int subscriberId, int requestId) throws StorageException {
+		try {
+			return this.transactionDao.cancel(subscriberId, requestId);
+		} catch (SQLException ex) {
+			throw new StorageException(String.format("Failed to cancel subscriber '%s'.", subscriberId), ex);
+		}
+	}
+	
+	public void writeAll(Collection<Subscriber> upserts, Collection<Integer> deletes) throws StorageException {
+		try {
+			this.batchDao.writeAll(upserts, deletes);
+		} catch (SQLException ex) {
+			throw new StorageException("Failed to write subscription changes.", ex);
+		}
+	}
+	
+	public int[] expireBefore(long time, int limit) throws StorageException {
+		try {
+			return this.batchDao.deleteExpired(new Timestamp(time), limit);
+		} catch (SQLException ex) {
+			throw new StorageException("Failed to remove expired subscriptions.", ex);
+		}
+	}
+	
+	public int removeUnreferencedCertificates() throws StorageException {
+		try {
+			return this.subscriberDao.deleteUnreferenced();
+		} catch (SQLException ex) {
+			throw new StorageException("Failed to remove unreferenced certificates.", ex);
+		}
+	}
+	
+	public long findGeneration() throws StorageException {
+		try {
+			return this.idDao.findGeneration();
+		} catch (SQLException ex) {
+			throw new StorageException("Failed to read the subscriber id generation.", ex);
+		}
+	}
+	
+	public void updateGeneration(long generation) throws StorageException {
+		try {
+			this.idDao.updateGeneration(generation);
+		} catch (SQLException ex) {
+			throw new StorageException("Failed to record the subscriber id generation.", ex);
+		}
+	}
+	
+	public void close() {
+		// Connections are borrowed per call and returned to the pool, none is held here
+	}
+	
+	public String toString() {
+		return String.format("jdbc, transactions %s, cached certificates %s", this.transactionDao.toString(), this.subscriberDao.getCachedCount());
+	}
+}
\ No newline at end of file
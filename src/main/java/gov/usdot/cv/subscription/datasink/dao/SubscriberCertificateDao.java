@@ -0,0 +1,291 @@
+package gov.usdot.cv.subscription.datasink.dao;
+
+import gov.usdot.cv.common.model.Subscriber;
+import gov.usdot.cv.subscription.datasink.cache.CertificateStore;
+import gov.usdot.cv.subscription.datasink.util.CertificateDigest;
+import gov.usdot.cv.subscription.datasink.util.DatabaseUtil;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps subscriber certificates in a table keyed by their SHA-256 digest, which
+ * the subscriber table references by id, so a certificate shared by many
+ * subscribers is stored once. Subscribers are read back with their certificate
+ * resolved through an in-process cache of id to certificate, and the cached
+ * arrays are the ones held by the CertificateStore where it has them.
+ *
+ * The subscriber table keeps its inline CERTIFICATE column populated too, so
+ * readers of the table that predate this one, such as the common SubscriberDao,
+ * see the same rows as before.
+ *
+ * Writers resolve the id inside their own transaction and evict the certificate
+ * when that transaction fails, since the row it resolved to may have been rolled
+ * back or collected in the meantime. Certificates no subscriber references any
+ * more are collected by deleteUnreferenced().
+ */
+public class SubscriberCertificateDao {
+	private static final String DEFAULT_SUBSCRIBER_TABLE = "SUBSCRIBER";
+	private static final int FETCH_SIZE = 10000;
+	
+	private final Logger logger = Logger.getLogger(getClass());
+	
+	private final DataSource dataSource;
+	private final String mergeCertificateSql;
+	private final String selectIdSql;
+	private final String selectCertificateSql;
+	private final String selectCertificatesSql;
+	private final String selectSubscriberSql;
+	private final String selectSubscribersSql;
+	private final String selectUnreferencedSql;
+	private final String deleteUnreferencedSql;
+	
+	private final ConcurrentMap<ByteBuffer, Integer> ids = new ConcurrentHashMap<ByteBuffer, Integer>();
+	private final ConcurrentMap<Integer, byte[]> certificates = new ConcurrentHashMap<Integer, byte[]>();
+	
+	private SubscriberCertificateDao(DataSource dataSource, String subscriberTableName) {
+		String certificateTable = "APPLICATION." + DatabaseUtil.certificateTableName(subscriberTableName);
+		String subscriberTable = "APPLICATION." + subscriberTableName;
+		this.dataSource = dataSource;
+		this.mergeCertificateSql = "MERGE INTO " + certificateTable + " (DIGEST, CERTIFICATE) KEY(DIGEST) VALUES (?, ?)";
+		this.selectIdSql = "SELECT ID FROM " + certificateTable + " WHERE DIGEST = ?";
+		this.selectCertificateSql = "SELECT CERTIFICATE FROM " + certificateTable + " WHERE ID = ?";
+		this.selectCertificatesSql = "SELECT ID, CERTIFICATE FROM " + certificateTable;
+		// CERTIFICATE is read for rows written without an id, as by a node that predates the certificate table
+		this.selectSubscriberSql = "SELECT ID, CERTIFICATE_ID, CERTIFICATE, TARGET_HOST, TARGET_PORT FROM " + subscriberTable + " WHERE ID = ?";
+		this.selectSubscribersSql = "SELECT ID, CERTIFICATE_ID, CERTIFICATE, TARGET_HOST, TARGET_PORT FROM " + subscriberTable;
+		this.selectUnreferencedSql = "SELECT C.ID, C.DIGEST FROM " + certificateTable + " C WHERE NOT EXISTS " +
+			"(SELECT 1 FROM " + subscriberTable + " S WHERE S.CERTIFICATE_ID = C.ID)";
+		this.deleteUnreferencedSql = "DELETE FROM " + certificateTable + " C WHERE C.ID = ? AND NOT EXISTS " +
+			"(SELECT 1 FROM " + subscriberTable + " S WHERE S.CERTIFICATE_ID = C.ID)";
+	}
+	
+	/**
+	 * Returns the id of the stored certificate, storing it on the given connection
+	 * first when it is not in the table yet, or null when there is no certificate.
+	 * A cached id costs no statement.
+	 */
+	public Integer acquireId(Connection connection, byte[] certificate) throws SQLException {
+		if (certificate == null) return null;
+		ByteBuffer digest = ByteBuffer.wrap(CertificateDigest.digest(certificate));
+		Integer id = this.ids.get(digest);
+		if (id != null) return id;
+		
+		PreparedStatement mergeStmt = connection.prepareStatement(this.mergeCertificateSql);
+		try {
+			mergeStmt.setBytes(1, digest.array());
+			mergeStmt.setBytes(2, certificate);
+			mergeStmt.executeUpdate();
+		} finally {
+			close(mergeStmt);
+		}
+		
+		PreparedStatement selectStmt = connection.prepareStatement(this.selectIdSql);
+		try {
+			selectStmt.setBytes(1, digest.array());
+			ResultSet rs = selectStmt.executeQuery();
+			if (! rs.next()) throw new SQLException("Stored certificate was not found by its digest.");
+			id = rs.getInt(1);
+		} finally {
+			close(selectStmt);
+		}
+		this.certificates.put(id, CertificateStore.getInstance().intern(certificate));
+		this.ids.put(digest, id);
+		return id;
+	}
+	
+	/**
+	 * Forget the cached id of the certificate, so the next writer looks it up again.
+	 */
+	public void evict(byte[] certificate) {
+		if (certificate == null) return;
+		Integer id = this.ids.remove(ByteBuffer.wrap(CertificateDigest.digest(certificate)));
+		if (id != null) this.certificates.remove(id);
+	}
+	
+	/**
+	 * Returns the subscriber with its certificate, or null when there is none.
+	 */
+	public Subscriber findById(int subscriberId) throws SQLException {
+		Connection connection = this.dataSource.getConnection();
+		PreparedStatement stmt = null;
+		try {
+			stmt = connection.prepareStatement(this.selectSubscriberSql);
+			stmt.setInt(1, subscriberId);
+			ResultSet rs = stmt.executeQuery();
+			return rs.next() ? subscriber(connection, rs) : null;
+		} finally {
+			close(stmt);
+			try { connection.close(); } catch (SQLException ignore) {}
+		}
+	}
+	
+	/**
+	 * Returns every subscriber with its certificate. Certificates missing from the
+	 * cache are loaded all at once on the first miss.
+	 */
+	public Collection<Subscriber> findAll() throws SQLException {
+		Connection connection = this.dataSource.getConnection();
+		PreparedStatement stmt = null;
+		try {
+			stmt = connection.prepareStatement(this.selectSubscribersSql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			stmt.setFetchSize(FETCH_SIZE);
+			ResultSet rs = stmt.executeQuery();
+			List<Subscriber> subscribers = new ArrayList<Subscriber>();
+			boolean loaded = false;
+			while (rs.next()) {
+				int certificateId = rs.getInt(2);
+				if (! loaded && ! rs.wasNull() && ! this.certificates.containsKey(certificateId)) {
+					loadAll(connection);
+					loaded = true;
+				}
+				subscribers.add(subscriber(connection, rs));
+			}
+			return subscribers;
+		} finally {
+			close(stmt);
+			try { connection.close(); } catch (SQLException ignore) {}
+		}
+	}
+	
+	/**
+	 * Delete the certificates no subscriber references any more and return how
+	 * many went. They are evicted from the cache before the delete, so a writer
+	 * that still takes one of their ids fails on the foreign key rather than
+	 * referencing a deleted row, and resolves it again on retry.
+	 */
+	public int deleteUnreferenced() throws SQLException {
+		Connection connection = this.dataSource.getConnection();
+		PreparedStatement selectStmt = null;
+		PreparedStatement deleteStmt = null;
+		boolean autoCommit = connection.getAutoCommit();
+		try {
+			connection.setAutoCommit(false);
+			selectStmt = connection.prepareStatement(this.selectUnreferencedSql);
+			ResultSet rs = selectStmt.executeQuery();
+			deleteStmt = connection.prepareStatement(this.deleteUnreferencedSql);
+			int candidates = 0;
+			while (rs.next()) {
+				int id = rs.getInt(1);
+				this.ids.remove(ByteBuffer.wrap(rs.getBytes(2)));
+				this.certificates.remove(id);
+				deleteStmt.setInt(1, id);
+				deleteStmt.addBatch();
+				candidates++;
+			}
+			if (candidates == 0) return 0;
+			
+			int deleted = 0;
+			for (int count : deleteStmt.executeBatch()) {
+				if (count > 0) deleted += count;
+			}
+			connection.commit();
+			return deleted;
+		} catch (SQLException ex) {
+			rollback(connection);
+			throw ex;
+		} finally {
+			close(selectStmt);
+			close(deleteStmt);
+			try { connection.setAutoCommit(autoCommit); } catch (SQLException ignore) {}
+			try { connection.close(); } catch (SQLException ignore) {}
+		}
+	}
+	
+	public int getCachedCount() {
+		return this.certificates.size();
+	}
+	
+	private Subscriber subscriber(Connection connection, ResultSet rs) throws SQLException {
+		int certificateId = rs.getInt(2);
+		byte[] certificate = rs.wasNull() ? rs.getBytes(3) : resolve(connection, certificateId);
+		
+		Subscriber.Builder builder = new Subscriber.Builder();
+		builder
+			.setSubscriberId(rs.getInt(1))
+			.setCertificate(certificate)
+			.setDestHost(rs.getString(4))
+			.setDestPort(rs.getInt(5));
+		return builder.build();
+	}
+	
+	private byte[] resolve(Connection connection, int certificateId) throws SQLException {
+		byte[] certificate = this.certificates.get(certificateId);
+		if (certificate != null) return certificate;
+		
+		PreparedStatement stmt = connection.prepareStatement(this.selectCertificateSql);
+		try {
+			stmt.setInt(1, certificateId);
+			ResultSet rs = stmt.executeQuery();
+			if (! rs.next()) return null;
+			return cache(certificateId, rs.getBytes(1));
+		} finally {
+			close(stmt);
+		}
+	}
+	
+	private void loadAll(Connection connection) throws SQLException {
+		PreparedStatement stmt = connection.prepareStatement(this.selectCertificatesSql);
+		try {
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				cache(rs.getInt(1), rs.getBytes(2));
+			}
+		} finally {
+			close(stmt);
+		}
+	}
+	
+	private byte[] cache(int certificateId, byte[] certificate) {
+		certificate = CertificateStore.getInstance().intern(certificate);
+		this.certificates.put(certificateId, certificate);
+		this.ids.put(ByteBuffer.wrap(CertificateDigest.digest(certificate)), certificateId);
+		return certificate;
+	}
+	
+	private void rollback(Connection connection) {
+		try {
+			connection.rollback();
+		} catch (SQLException ex) {
+			logger.error("Failed to rollback certificate collection.", ex);
+		}
+	}
+	
+	private void close(PreparedStatement stmt) {
+		if (stmt != null) try { stmt.close(); } catch (SQLException ignore) {}
+	}
+	
+	public static class Builder {
+		private DataSource dataSource;
+		private String subscriberTableName;
+		
+		public Builder setDataSource(DataSource dataSource) {
+			this.dataSource = dataSource;
+			return this;
+		}
+		
+		public Builder setSubscriberTableName(String subscriberTableName) {
+			this.subscriberTableName = subscriberTableName;
+			return this;
+		}
+		
+		public SubscriberCertificateDao build() {
+			return new SubscriberCertificateDao(
+					this.dataSource,
+					StringUtils.isEmpty(this.subscriberTableName) ? DEFAULT_SUBSCRIBER_TABLE : this.subscriberTableName.trim());
+		}
+	}
+}
\ No newline at end of file
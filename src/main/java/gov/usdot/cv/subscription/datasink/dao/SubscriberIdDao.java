@@ -0,0 +1,160 @@
+package gov.usdot.cv.subscription.datasink.dao;
+
+import gov.usdot.cv.subscription.datasink.util.DatabaseUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Reads only the ID column of the subscriber table. The scan walks a forward-only
+ * cursor and hands each id to a visitor, so no subscriber or certificate is ever
+ * materialized and the heap cost does not grow with the table.
+ * 
+ * It also keeps the generation of the saved subscriber id bitmap, which tells
+ * whether the bitmap on disk still matches this table.
+ */
+public class SubscriberIdDao {
+	private static final String DEFAULT_SUBSCRIBER_TABLE = "SUBSCRIBER";
+	private static final int FETCH_SIZE = 10000;
+	
+	private final DataSource dataSource;
+	private final String subscriberTableName;
+	private final String selectIdsSql;
+	private final String selectMaxIdSql;
+	private final String selectCountSql;
+	private final String selectGenerationSql;
+	private final String mergeGenerationSql;
+	
+	private SubscriberIdDao(DataSource dataSource, String subscriberTableName) {
+		this.dataSource = dataSource;
+		this.subscriberTableName = subscriberTableName;
+		this.selectIdsSql = "SELECT ID FROM APPLICATION." + subscriberTableName;
+		this.selectMaxIdSql = "SELECT MAX(ID) FROM APPLICATION." + subscriberTableName;
+		this.selectCountSql = "SELECT COUNT(*) FROM APPLICATION." + subscriberTableName;
+		this.selectGenerationSql = "SELECT GENERATION FROM " + DatabaseUtil.ID_STATE_TABLE + " WHERE TABLE_NAME = ?";
+		this.mergeGenerationSql = "MERGE INTO " + DatabaseUtil.ID_STATE_TABLE + 
+			" (TABLE_NAME, GENERATION, UPDATED) KEY(TABLE_NAME) VALUES (?, ?, CURRENT_TIMESTAMP)";
+	}
+	
+	/**
+	 * Hands every subscriber id to the visitor and returns how many there were.
+	 */
+	public int scan(SubscriberIdVisitor visitor) throws SQLException {
+		Connection connection = this.dataSource.getConnection();
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		int count = 0;
+		try {
+			stmt = connection.prepareStatement(this.selectIdsSql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			stmt.setFetchSize(FETCH_SIZE);
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				visitor.visit(rs.getInt(1));
+				count++;
+			}
+			return count;
+		} finally {
+			if (rs != null) try { rs.close(); } catch (SQLException ignore) {}
+			if (stmt != null) try { stmt.close(); } catch (SQLException ignore) {}
+			try { connection.close(); } catch (SQLException ignore) {}
+		}
+	}
+	
+	/**
+	 * Returns the highest subscriber id, or 0 when the table is empty. The id is
+	 * the primary key so this is an index lookup, not a scan.
+	 */
+	public int findMaxId() throws SQLException {
+		Connection connection = this.dataSource.getConnection();
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = connection.prepareStatement(this.selectMaxIdSql);
+			rs = stmt.executeQuery();
+			return rs.next() ? rs.getInt(1) : 0;
+		} finally {
+			if (rs != null) try { rs.close(); } catch (SQLException ignore) {}
+			if (stmt != null) try { stmt.close(); } catch (SQLException ignore) {}
+			try { connection.close(); } catch (SQLException ignore) {}
+		}
+	}
+	
+	/**
+	 * Returns how many subscribers the table holds.
+	 */
+	public int count() throws SQLException {
+		Connection connection = this.dataSource.getConnection();
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = connection.prepareStatement(this.selectCountSql);
+			rs = stmt.executeQuery();
+			return rs.next() ? rs.getInt(1) : 0;
+		} finally {
+			if (rs != null) try { rs.close(); } catch (SQLException ignore) {}
+			if (stmt != null) try { stmt.close(); } catch (SQLException ignore) {}
+			try { connection.close(); } catch (SQLException ignore) {}
+		}
+	}
+	
+	/**
+	 * Returns the generation of the saved subscriber id bitmap that matches the
+	 * table, or -1 when none was recorded.
+	 */
+	public long findGeneration() throws SQLException {
+		Connection connection = this.dataSource.getConnection();
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = connection.prepareStatement(this.selectGenerationSql);
+			stmt.setString(1, this.subscriberTableName);
+			rs = stmt.executeQuery();
+			return rs.next() ? rs.getLong(1) : -1;
+		} finally {
+			if (rs != null) try { rs.close(); } catch (SQLException ignore) {}
+			if (stmt != null) try { stmt.close(); } catch (SQLException ignore) {}
+			try { connection.close(); } catch (SQLException ignore) {}
+		}
+	}
+	
+	public void updateGeneration(long generation) throws SQLException {
+		Connection connection = this.dataSource.getConnection();
+		PreparedStatement stmt = null;
+		try {
+			stmt = connection.prepareStatement(this.mergeGenerationSql);
+			stmt.setString(1, this.subscriberTableName);
+			stmt.setLong(2, generation);
+			stmt.executeUpdate();
+		} finally {
+			if (stmt != null) try { stmt.close(); } catch (SQLException ignore) {}
+			try { connection.close(); } catch (SQLException ignore) {}
+		}
+	}
+	
+	public static class Builder {
+		private DataSource dataSource;
+		private String subscriberTableName;
+		
+		public Builder setDataSource(DataSource dataSource) {
+			this.dataSource = dataSource;
+			return this;
+		}
+		
+		public Builder setSubscriberTableName(String subscriberTableName) {
+			this.subscriberTableName = subscriberTableName;
+			return this;
+		}
+		
+		public SubscriberIdDao build() {
+			return new SubscriberIdDao(
+					this.dataSource,
+					StringUtils.isEmpty(this.subscriberTableName) ? DEFAULT_SUBSCRIBER_TABLE : this.subscriberTableName.trim());
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,11 @@
+package gov.usdot.cv.subscription.datasink.dao;
+
+public interface SubscriberIdVisitor {
+	
+	/**
+	 * Called once for every stored subscriber id, in no particular order, on
+	 * the thread doing the scan.
+	 */
+	public void visit(int subscriberId);
+	
+}
\ No newline at end of file
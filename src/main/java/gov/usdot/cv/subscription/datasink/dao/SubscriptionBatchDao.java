@@ -0,0 +1,382 @@
+package gov.usdot.cv.subscription.datasink.dao;
+
+import gov.usdot.cv.common.model.BoundingBox;
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collection;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Writes a group of subscriptions (subscriber row plus situation data filter row)
+ * in a single JDBC transaction using batched statements.
+ */
+public class SubscriptionBatchDao {
+	private static final String DEFAULT_SUBSCRIBER_TABLE 	= "SUBSCRIBER";
+	private static final String DEFAULT_FILTER_TABLE 		= "SITUATION_DATA_FILTER";
+	// Ids bound per IN list when deleting expired subscriptions
+	private static final int IN_LIST_SIZE 					= 500;
+	
+	private final Logger logger = Logger.getLogger(getClass());
+	
+	private final DataSource dataSource;
+	private final SubscriberCertificateDao certificateDao;
+	private final String upsertSubscriberSql;
+	private final String insertFilterSql;
+	private final String deleteSubscriberSql;
+	private final String deleteFilterSql;
+	private final String subscriberTableName;
+	private final String filterTableName;
+	
+	private SubscriptionBatchDao(
+			DataSource dataSource,
+			SubscriberCertificateDao certificateDao,
+			String subscriberTableName,
+			String filterTableName) {
+		this.dataSource = dataSource;
+		this.certificateDao = certificateDao;
+		this.upsertSubscriberSql = "MERGE INTO APPLICATION." + subscriberTableName +
+			" (ID, CERTIFICATE_ID, CERTIFICATE, TARGET_HOST, TARGET_PORT) KEY(ID) VALUES (?, ?, ?, ?, ?)";
+		this.insertFilterSql = "INSERT INTO APPLICATION." + filterTableName +
+			" (ID, END_TIME, TYPE, TYPE_VALUE, REQUEST_ID, NW_LAT, NW_LON, SE_LAT, SE_LON) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+		this.deleteSubscriberSql = "DELETE FROM APPLICATION." + subscriberTableName + " WHERE ID = ?";
+		this.deleteFilterSql = "DELETE FROM APPLICATION." + filterTableName + " WHERE ID = ?";
+		this.subscriberTableName = subscriberTableName;
+		this.filterTableName = filterTableName;
+	}
+	
+	/**
+	 * Upserts the subscribers and inserts their filters. Either every subscription
+	 * in the collection is committed or none of them are.
+	 */
+	public void insertAll(Collection<Subscriber> subscribers) throws SQLException {
+		if (subscribers == null || subscribers.isEmpty()) return;
+		
+		Connection connection = this.dataSource.getConnection();
+		PreparedStatement subscriberStmt = null;
+		PreparedStatement filterStmt = null;
+		boolean autoCommit = connection.getAutoCommit();
+		try {
+			connection.setAutoCommit(false);
+			subscriberStmt = connection.prepareStatement(this.upsertSubscriberSql);
+			filterStmt = connection.prepareStatement(this.insertFilterSql);
+			
+			for (Subscriber subscriber : subscribers) {
+				bindSubscriber(subscriberStmt, connection, subscriber);
+				subscriberStmt.addBatch();
+				bindFilter(filterStmt, subscriber.getSubscriberId(), subscriber.getFilter());
+				filterStmt.addBatch();
+			}
+			
+			subscriberStmt.executeBatch();
+			filterStmt.executeBatch();
+			connection.commit();
+		} catch (SQLException ex) {
+			rollback(connection);
+			evict(subscribers);
+			throw ex;
+		} finally {
+			close(subscriberStmt);
+			close(filterStmt);
+			try { connection.setAutoCommit(autoCommit); } catch (SQLException ignore) {}
+			try { connection.close(); } catch (SQLException ignore) {}
+		}
+	}
+	
+	/**
+	 * Applies a group of subscription changes in one transaction. Filters of every
+	 * subscriber in either collection are replaced, cancelled subscribers are deleted
+	 * and the rest are upserted with their new filter.
+	 */
+	public void writeAll(Collection<Subscriber> upserts, Collection<Integer> deletes) throws SQLException {
+		if ((upserts == null || upserts.isEmpty()) && (deletes == null || deletes.isEmpty())) return;
+		
+		Connection connection = this.dataSource.getConnection();
+		PreparedStatement deleteFilterStmt = null;
+		PreparedStatement deleteSubscriberStmt = null;
+		PreparedStatement subscriberStmt = null;
+		PreparedStatement filterStmt = null;
+		boolean autoCommit = connection.getAutoCommit();
+		try {
+			connection.setAutoCommit(false);
+			deleteFilterStmt = connection.prepareStatement(this.deleteFilterSql);
+			if (deletes != null && ! deletes.isEmpty()) {
+				deleteSubscriberStmt = connection.prepareStatement(this.deleteSubscriberSql);
+				for (Integer id : deletes) {
+					deleteFilterStmt.setInt(1, id);
+					deleteFilterStmt.addBatch();
+					deleteSubscriberStmt.setInt(1, id);
+					deleteSubscriberStmt.addBatch();
+				}
+			}
+			if (upserts != null && ! upserts.isEmpty()) {
+				subscriberStmt = connection.prepareStatement(this.upsertSubscriberSql);
+				filterStmt = connection.prepareStatement(this.insertFilterSql);
+				for (Subscriber subscriber : upserts) {
+					deleteFilterStmt.setInt(1, subscriber.getSubscriberId());
+					deleteFilterStmt.addBatch();
+					bindSubscriber(subscriberStmt, connection, subscriber);
+					subscriberStmt.addBatch();
+					bindFilter(filterStmt, subscriber.getSubscriberId(), subscriber.getFilter());
+					filterStmt.addBatch();
+				}
+			}
+			
+			deleteFilterStmt.executeBatch();
+			if (deleteSubscriberStmt != null) deleteSubscriberStmt.executeBatch();
+			if (subscriberStmt != null) subscriberStmt.executeBatch();
+			if (filterStmt != null) filterStmt.executeBatch();
+			connection.commit();
+		} catch (SQLException ex) {
+			rollback(connection);
+			if (upserts != null) evict(upserts);
+			throw ex;
+		} finally {
+			close(deleteFilterStmt);
+			close(deleteSubscriberStmt);
+			close(subscriberStmt);
+			close(filterStmt);
+			try { connection.setAutoCommit(autoCommit); } catch (SQLException ignore) {}
+			try { connection.close(); } catch (SQLException ignore) {}
+		}
+	}
+	
+	/**
+	 * Removes up to limit of the subscriptions that ended before the given time
+	 * in one transaction, oldest first, and returns the ids of the subscribers
+	 * removed. The filters go by end time in one batch and the subscribers left
+	 * without a filter in another, rather than one subscription at a time. A
+	 * subscriber that still has a filter for another request is kept.
+	 * 
+	 * The ids are bound IN_LIST_SIZE at a time, so the statements stay the same
+	 * size however large the limit.
+	 */
+	public int[] deleteExpired(Timestamp before, int limit) throws SQLException {
+		if (limit <= 0) return new int[0];
+		
+		int width = Math.min(limit, IN_LIST_SIZE);
+		String in = placeholders(width);
+		Connection connection = this.dataSource.getConnection();
+		PreparedStatement selectStmt = null;
+		PreparedStatement deleteFilterStmt = null;
+		PreparedStatement deleteSubscriberStmt = null;
+		PreparedStatement survivorStmt = null;
+		boolean autoCommit = connection.getAutoCommit();
+		try {
+			connection.setAutoCommit(false);
+			selectStmt = connection.prepareStatement("SELECT ID FROM APPLICATION." + this.filterTableName + 
+				" WHERE END_TIME < ? ORDER BY END_TIME LIMIT ?");
+			selectStmt.setTimestamp(1, before);
+			selectStmt.setInt(2, limit);
+			int[] ids = distinctIds(selectStmt.executeQuery(), limit);
+			if (ids.length == 0) {
+				connection.commit();
+				return ids;
+			}
+			
+			deleteFilterStmt = connection.prepareStatement("DELETE FROM APPLICATION." + this.filterTableName + 
+				" WHERE END_TIME < ? AND ID IN " + in);
+			for (int from = 0; from < ids.length; from += width) {
+				deleteFilterStmt.setTimestamp(1, before);
+				bindIds(deleteFilterStmt, 2, ids, from, width);
+				deleteFilterStmt.addBatch();
+			}
+			deleteFilterStmt.executeBatch();
+			
+			deleteSubscriberStmt = connection.prepareStatement("DELETE FROM APPLICATION." + this.subscriberTableName + 
+				" S WHERE S.ID IN " + in + " AND NOT EXISTS (SELECT 1 FROM APPLICATION." + this.filterTableName + " F WHERE F.ID = S.ID)");
+			for (int from = 0; from < ids.length; from += width) {
+				bindIds(deleteSubscriberStmt, 1, ids, from, width);
+				deleteSubscriberStmt.addBatch();
+			}
+			int deleted = 0;
+			for (int count : deleteSubscriberStmt.executeBatch()) {
+				if (count > 0) deleted += count;
+			}
+			
+			if (deleted < ids.length) {
+				survivorStmt = connection.prepareStatement("SELECT ID FROM APPLICATION." + this.subscriberTableName + " WHERE ID IN " + in);
+				int[] survivors = new int[ids.length];
+				int count = 0;
+				for (int from = 0; from < ids.length; from += width) {
+					bindIds(survivorStmt, 1, ids, from, width);
+					int[] found = distinctIds(survivorStmt.executeQuery(), width);
+					System.arraycopy(found, 0, survivors, count, found.length);
+					count += found.length;
+				}
+				survivors = Arrays.copyOf(survivors, count);
+				Arrays.sort(survivors);
+				ids = removeAll(ids, survivors);
+			}
+			connection.commit();
+			return ids;
+		} catch (SQLException ex) {
+			rollback(connection);
+			throw ex;
+		} finally {
+			close(selectStmt);
+			close(deleteFilterStmt);
+			close(deleteSubscriberStmt);
+			close(survivorStmt);
+			try { connection.setAutoCommit(autoCommit); } catch (SQLException ignore) {}
+			try { connection.close(); } catch (SQLException ignore) {}
+		}
+	}
+	
+	private static String placeholders(int count) {
+		StringBuilder sb = new StringBuilder(count * 3 + 2).append('(');
+		for (int i = 0; i < count; i++) {
+			sb.append((i == 0) ? "?" : ", ?");
+		}
+		return sb.append(')').toString();
+	}
+	
+	/**
+	 * Bind the ids from the given index on to an IN list of width placeholders. A
+	 * shorter slice repeats its last id, so the statement text stays the same for
+	 * every slice and chunk.
+	 */
+	private static void bindIds(PreparedStatement stmt, int first, int[] ids, int from, int width) throws SQLException {
+		int last = Math.min(ids.length, from + width) - 1;
+		for (int i = 0; i < width; i++) {
+			stmt.setInt(first + i, ids[Math.min(from + i, last)]);
+		}
+	}
+	
+	private static int[] distinctIds(ResultSet rs, int limit) throws SQLException {
+		try {
+			int[] ids = new int[limit];
+			int count = 0;
+			while (rs.next()) {
+				ids[count++] = rs.getInt(1);
+			}
+			Arrays.sort(ids, 0, count);
+			int distinct = 0;
+			for (int i = 0; i < count; i++) {
+				if (distinct == 0 || ids[distinct - 1] != ids[i]) ids[distinct++] = ids[i];
+			}
+			return Arrays.copyOf(ids, distinct);
+		} finally {
+			rs.close();
+		}
+	}
+	
+	private static int[] removeAll(int[] ids, int[] sortedRemoved) {
+		int[] result = new int[ids.length];
+		int count = 0;
+		for (int id : ids) {
+			if (Arrays.binarySearch(sortedRemoved, id) < 0) result[count++] = id;
+		}
+		return Arrays.copyOf(result, count);
+	}
+	
+	private void bindSubscriber(PreparedStatement stmt, Connection connection, Subscriber subscriber) throws SQLException {
+		stmt.setInt(1, subscriber.getSubscriberId());
+		Integer certificateId = this.certificateDao.acquireId(connection, subscriber.getCertificate());
+		if (certificateId != null) {
+			stmt.setInt(2, certificateId);
+		} else {
+			stmt.setNull(2, Types.INTEGER);
+		}
+		// Kept inline as well for readers of the subscriber table that predate the certificate table
+		stmt.setBytes(3, subscriber.getCertificate());
+		stmt.setString(4, subscriber.getDestHost());
+		stmt.setInt(5, subscriber.getDestPort());
+	}
+	
+	private void bindFilter(PreparedStatement stmt, int subscriberId, Filter filter) throws SQLException {
+		stmt.setInt(1, subscriberId);
+		stmt.setTimestamp(2, new Timestamp(filter.getEndTime().getTimeInMillis()));
+		stmt.setString(3, filter.getType());
+		stmt.setInt(4, filter.getTypeValue());
+		stmt.setInt(5, filter.getRequestId());
+		
+		BoundingBox bb = filter.getBoundingBox();
+		if (bb != null) {
+			stmt.setDouble(6, bb.getNWLat());
+			stmt.setDouble(7, bb.getNWLon());
+			stmt.setDouble(8, bb.getSELat());
+			stmt.setDouble(9, bb.getSELon());
+		} else {
+			stmt.setNull(6, Types.NUMERIC);
+			stmt.setNull(7, Types.NUMERIC);
+			stmt.setNull(8, Types.NUMERIC);
+			stmt.setNull(9, Types.NUMERIC);
+		}
+	}
+	
+	/**
+	 * Forget the certificate ids resolved for a transaction that failed, they may
+	 * have been rolled back with it.
+	 */
+	private void evict(Collection<Subscriber> subscribers) {
+		for (Subscriber subscriber : subscribers) {
+			this.certificateDao.evict(subscriber.getCertificate());
+		}
+	}
+	
+	private void rollback(Connection connection) {
+		try {
+			connection.rollback();
+		} catch (SQLException ex) {
+			logger.error("Failed to rollback subscription batch.", ex);
+		}
+	}
+	
+	private void close(PreparedStatement stmt) {
+		if (stmt != null) try { stmt.close(); } catch (SQLException ignore) {}
+	}
+	
+	public static class Builder {
+		private DataSource dataSource;
+		private SubscriberCertificateDao certificateDao;
+		private String subscriberTableName;
+		private String filterTableName;
+		
+		public Builder setDataSource(DataSource dataSource) {
+			this.dataSource = dataSource;
+			return this;
+		}
+		
+		public Builder setCertificateDao(SubscriberCertificateDao certificateDao) {
+			this.certificateDao = certificateDao;
+			return this;
+		}
+		
+		public Builder setSubscriberTableName(String subscriberTableName) {
+			this.subscriberTableName = subscriberTableName;
+			return this;
+		}
+		
+		public Builder setFilterTableName(String filterTableName) {
+			this.filterTableName = filterTableName;
+			return this;
+		}
+		
+		public SubscriptionBatchDao build() {
+			SubscriberCertificateDao certificateDao = this.certificateDao;
+			if (certificateDao == null) {
+				certificateDao = new SubscriberCertificateDao.Builder()
+					.setDataSource(this.dataSource)
+					.setSubscriberTableName(this.subscriberTableName)
+					.build();
+			}
+			return new SubscriptionBatchDao(
+					this.dataSource,
+					certificateDao,
+					StringUtils.isEmpty(this.subscriberTableName) ? DEFAULT_SUBSCRIBER_TABLE : this.subscriberTableName.trim(),
+					StringUtils.isEmpty(this.filterTableName) ? DEFAULT_FILTER_TABLE : this.filterTableName.trim());
+		}
+	}
+}
\ No newline at end of file
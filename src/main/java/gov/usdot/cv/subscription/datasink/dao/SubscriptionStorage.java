@@ -0,0 +1,88 @@
+package gov.usdot.cv.subscription.datasink.dao;
+
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
+import gov.usdot.cv.subscription.datasink.exception.StorageException;
+
+import java.util.Collection;
+
+/**
+ * Where subscriptions are persisted. The processor, the expiration processor, the
+ * write-behind store and the subscription index all read and write subscriptions
+ * through the storage returned by DaoManager, so the backend can be chosen by
+ * configuration.
+ */
+public interface SubscriptionStorage {
+	
+	public Collection<Subscriber> findAllSubscribers();
+	
+	public Collection<Filter> findAllFilters();
+	
+	public Subscriber findSubscriber(int subscriberId);
+	
+	public Filter findFilter(int subscriberId);
+	
+	/**
+	 * Hand every stored subscriber id to the visitor without loading the
+	 * subscribers themselves. Returns how many ids were visited.
+	 */
+	public int scanSubscriberIds(SubscriberIdVisitor visitor) throws StorageException;
+	
+	/**
+	 * Returns the highest stored subscriber id, or 0 when there is none.
+	 */
+	public int findMaxSubscriberId() throws StorageException;
+	
+	/**
+	 * Returns how many subscribers are stored.
+	 */
+	public int countSubscribers() throws StorageException;
+	
+	/**
+	 * Upsert the subscriber and insert its filter as one change.
+	 */
+	public void add(Subscriber subscriber) throws StorageException;
+	
+	/**
+	 * Add every subscription in the collection, or none of them.
+	 */
+	public void addAll(Collection<Subscriber> subscribers) throws StorageException;
+	
+	/**
+	 * Remove the filter matching both ids, then the subscriber if it has no other
+	 * filter left. Returns true when the subscriber was removed.
+	 */
+	public boolean cancel(int subscriberId, int requestId) throws StorageException;
+	
+	/**
+	 * Apply a group of changes as one: the subscribers to delete go with all their
+	 * filters and the upserted subscribers replace theirs.
+	 */
+	public void writeAll(Collection<Subscriber> upserts, Collection<Integer> deletes) throws StorageException;
+	
+	/**
+	 * Remove up to limit of the subscriptions whose end time is before the given
+	 * epoch millisecond as one change and return the ids of the removed subscribers.
+	 */
+	public int[] expireBefore(long time, int limit) throws StorageException;
+	
+	/**
+	 * Remove the stored certificates no subscriber references any more and return
+	 * how many were removed.
+	 */
+	public int removeUnreferencedCertificates() throws StorageException;
+	
+	/**
+	 * Returns the generation of the saved subscriber id bitmap that matches the
+	 * stored subscriptions, or -1 when none was recorded.
+	 */
+	public long findGeneration() throws StorageException;
+	
+	/**
+	 * Record the generation of the saved subscriber id bitmap with the stored
+	 * subscriptions.
+	 */
+	public void updateGeneration(long generation) throws StorageException;
+	
+	public void close();
+}
\ No newline at end of file
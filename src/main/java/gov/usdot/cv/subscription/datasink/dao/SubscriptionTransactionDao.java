@@ -0,0 +1,240 @@
+package gov.usdot.cv.subscription.datasink.dao;
+
+import gov.usdot.cv.common.model.BoundingBox;
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Adds and cancels a single subscription in one transaction each. Every
+ * transaction borrows a connection from the data source and returns it when it
+ * commits or rolls back, so no connection is held between requests and the pool
+ * decides how many are open.
+ */
+public class SubscriptionTransactionDao {
+	private static final String DEFAULT_SUBSCRIBER_TABLE 	= "SUBSCRIBER";
+	private static final String DEFAULT_FILTER_TABLE 		= "SITUATION_DATA_FILTER";
+	
+	private final Logger logger = Logger.getLogger(getClass());
+	
+	private final DataSource dataSource;
+	private final SubscriberCertificateDao certificateDao;
+	private final String upsertSubscriberSql;
+	private final String insertFilterSql;
+	private final String deleteFilterSql;
+	private final String deleteSubscriberSql;
+	
+	private final AtomicLong adds = new AtomicLong();
+	private final AtomicLong cancels = new AtomicLong();
+	// Nanoseconds spent from borrowing the connection to returning it
+	private final AtomicLong transactionTime = new AtomicLong();
+	
+	private SubscriptionTransactionDao(
+			DataSource dataSource,
+			SubscriberCertificateDao certificateDao,
+			String subscriberTableName,
+			String filterTableName) {
+		this.dataSource = dataSource;
+		this.certificateDao = certificateDao;
+		this.upsertSubscriberSql = "MERGE INTO APPLICATION." + subscriberTableName + 
+			" (ID, CERTIFICATE_ID, CERTIFICATE, TARGET_HOST, TARGET_PORT) KEY(ID) VALUES (?, ?, ?, ?, ?)";
+		this.insertFilterSql = "INSERT INTO APPLICATION." + filterTableName + 
+			" (ID, END_TIME, TYPE, TYPE_VALUE, REQUEST_ID, NW_LAT, NW_LON, SE_LAT, SE_LON) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+		this.deleteFilterSql = "DELETE FROM APPLICATION." + filterTableName + " WHERE ID = ? AND REQUEST_ID = ?";
+		// The subscriber goes only when no filter for another request id is left behind
+		this.deleteSubscriberSql = "DELETE FROM APPLICATION." + subscriberTableName + " WHERE ID = ? AND NOT EXISTS " + 
+			"(SELECT 1 FROM APPLICATION." + filterTableName + " WHERE ID = ?)";
+	}
+	
+	/**
+	 * Upserts the subscriber and inserts its filter in one transaction.
+	 */
+	public void add(Subscriber subscriber) throws SQLException {
+		long start = System.nanoTime();
+		Connection connection = this.dataSource.getConnection();
+		PreparedStatement subscriberStmt = null;
+		PreparedStatement filterStmt = null;
+		boolean autoCommit = connection.getAutoCommit();
+		try {
+			connection.setAutoCommit(false);
+			subscriberStmt = connection.prepareStatement(this.upsertSubscriberSql);
+			bindSubscriber(subscriberStmt, connection, subscriber);
+			subscriberStmt.executeUpdate();
+			filterStmt = connection.prepareStatement(this.insertFilterSql);
+			bindFilter(filterStmt, subscriber.getSubscriberId(), subscriber.getFilter());
+			filterStmt.executeUpdate();
+			connection.commit();
+			this.adds.incrementAndGet();
+		} catch (SQLException ex) {
+			rollback(connection);
+			this.certificateDao.evict(subscriber.getCertificate());
+			throw ex;
+		} finally {
+			close(subscriberStmt);
+			close(filterStmt);
+			release(connection, autoCommit, start);
+		}
+	}
+	
+	/**
+	 * Deletes the filter matching both ids and then the subscriber, provided it has
+	 * no other filter left, in one transaction. Returns true when the subscriber was
+	 * removed.
+	 */
+	public boolean cancel(int subscriberId, int requestId) throws SQLException {
+		long start = System.nanoTime();
+		Connection connection = this.dataSource.getConnection();
+		PreparedStatement filterStmt = null;
+		PreparedStatement subscriberStmt = null;
+		boolean autoCommit = connection.getAutoCommit();
+		try {
+			connection.setAutoCommit(false);
+			filterStmt = connection.prepareStatement(this.deleteFilterSql);
+			filterStmt.setInt(1, subscriberId);
+			filterStmt.setInt(2, requestId);
+			filterStmt.executeUpdate();
+			subscriberStmt = connection.prepareStatement(this.deleteSubscriberSql);
+			subscriberStmt.setInt(1, subscriberId);
+			subscriberStmt.setInt(2, subscriberId);
+			int removed = subscriberStmt.executeUpdate();
+			connection.commit();
+			this.cancels.incrementAndGet();
+			return removed > 0;
+		} catch (SQLException ex) {
+			rollback(connection);
+			throw ex;
+		} finally {
+			close(filterStmt);
+			close(subscriberStmt);
+			release(connection, autoCommit, start);
+		}
+	}
+	
+	public long getAddCount() {
+		return this.adds.get();
+	}
+	
+	public long getCancelCount() {
+		return this.cancels.get();
+	}
+	
+	/**
+	 * Returns the mean time in milliseconds from borrowing a connection to
+	 * returning it, over every transaction committed or rolled back so far.
+	 */
+	public double getMeanTransactionMillis() {
+		long transactions = this.adds.get() + this.cancels.get();
+		return (transactions > 0) ? this.transactionTime.get() / 1000000.0 / transactions : 0.0;
+	}
+	
+	public String toString() {
+		return String.format("adds %s, cancels %s, mean transaction %.2f ms", 
+			this.adds.get(), this.cancels.get(), getMeanTransactionMillis());
+	}
+	
+	private void rollback(Connection connection) {
+		try {
+			connection.rollback();
+		} catch (SQLException ex) {
+			logger.error("Failed to rollback subscription transaction.", ex);
+		}
+	}
+	
+	private void release(Connection connection, boolean autoCommit, long start) {
+		try { connection.setAutoCommit(autoCommit); } catch (SQLException ignore) {}
+		try { connection.close(); } catch (SQLException ignore) {}
+		this.transactionTime.addAndGet(System.nanoTime() - start);
+	}
+	
+	private void close(PreparedStatement stmt) {
+		if (stmt != null) try { stmt.close(); } catch (SQLException ignore) {}
+	}
+	
+	private void bindSubscriber(PreparedStatement stmt, Connection connection, Subscriber subscriber) throws SQLException {
+		stmt.setInt(1, subscriber.getSubscriberId());
+		Integer certificateId = this.certificateDao.acquireId(connection, subscriber.getCertificate());
+		if (certificateId != null) {
+			stmt.setInt(2, certificateId);
+		} else {
+			stmt.setNull(2, Types.INTEGER);
+		}
+		// Kept inline as well for readers of the subscriber table that predate the certificate table
+		stmt.setBytes(3, subscriber.getCertificate());
+		stmt.setString(4, subscriber.getDestHost());
+		stmt.setInt(5, subscriber.getDestPort());
+	}
+	
+	private void bindFilter(PreparedStatement stmt, int subscriberId, Filter filter) throws SQLException {
+		stmt.setInt(1, subscriberId);
+		stmt.setTimestamp(2, new Timestamp(filter.getEndTime().getTimeInMillis()));
+		stmt.setString(3, filter.getType());
+		stmt.setInt(4, filter.getTypeValue());
+		stmt.setInt(5, filter.getRequestId());
+		
+		BoundingBox bb = filter.getBoundingBox();
+		if (bb != null) {
+			stmt.setDouble(6, bb.getNWLat());
+			stmt.setDouble(7, bb.getNWLon());
+			stmt.setDouble(8, bb.getSELat());
+			stmt.setDouble(9, bb.getSELon());
+		} else {
+			stmt.setNull(6, Types.NUMERIC);
+			stmt.setNull(7, Types.NUMERIC);
+			stmt.setNull(8, Types.NUMERIC);
+			stmt.setNull(9, Types.NUMERIC);
+		}
+	}
+	
+	public static class Builder {
+		private DataSource dataSource;
+		private SubscriberCertificateDao certificateDao;
+		private String subscriberTableName;
+		private String filterTableName;
+		
+		public Builder setDataSource(DataSource dataSource) {
+			this.dataSource = dataSource;
+			return this;
+		}
+		
+		public Builder setCertificateDao(SubscriberCertificateDao certificateDao) {
+			this.certificateDao = certificateDao;
+			return this;
+		}
+		
+		public Builder setSubscriberTableName(String subscriberTableName) {
+			this.subscriberTableName = subscriberTableName;
+			return this;
+		}
+		
+		public Builder setFilterTableName(String filterTableName) {
+			this.filterTableName = filterTableName;
+			return this;
+		}
+		
+		public SubscriptionTransactionDao build() {
+			SubscriberCertificateDao certificateDao = this.certificateDao;
+			if (certificateDao == null) {
+				certificateDao = new SubscriberCertificateDao.Builder()
+					.setDataSource(this.dataSource)
+					.setSubscriberTableName(this.subscriberTableName)
+					.build();
+			}
+			return new SubscriptionTransactionDao(
+					this.dataSource,
+					certificateDao,
+					StringUtils.isEmpty(this.subscriberTableName) ? DEFAULT_SUBSCRIBER_TABLE : this.subscriberTableName.trim(),
+					StringUtils.isEmpty(this.filterTableName) ? DEFAULT_FILTER_TABLE : this.filterTableName.trim());
+		}
+	}
+}
\ No newline at end of file
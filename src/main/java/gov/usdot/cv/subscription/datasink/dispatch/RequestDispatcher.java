@@ -0,0 +1,78 @@
+package gov.usdot.cv.subscription.datasink.dispatch;
+
+import gov.usdot.cv.subscription.datasink.model.SubscriptionRequest;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Spreads subscription requests over a fixed set of workers. Cancellations are
+ * partitioned by subscriber id and everything else by destination host and port,
+ * so requests sharing a key are always handled in arrival order by the same worker
+ * while unrelated requests proceed in parallel.
+ */
+public class RequestDispatcher {
+	private static final int WORKER_QUEUE_CAPACITY = 1024;
+	
+	private final Logger logger = Logger.getLogger(getClass());
+	private final RequestWorker[] workers;
+	private final Thread[] threads;
+	
+	public RequestDispatcher(int workerCount, RequestHandler handler) {
+		this.workers = new RequestWorker[workerCount];
+		this.threads = new Thread[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			this.workers[i] = new RequestWorker(WORKER_QUEUE_CAPACITY, handler);
+			this.threads[i] = new Thread(this.workers[i], "cvsubscription-worker-" + i);
+		}
+	}
+	
+	public void start() {
+		for (Thread thread : this.threads) {
+			thread.start();
+		}
+	}
+	
+	public void dispatch(SubscriptionRequest request) throws InterruptedException {
+		this.workers[partition(request)].submit(request);
+	}
+	
+	/**
+	 * Block until every request dispatched before this call has been handled.
+	 */
+	public void await() throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(this.workers.length);
+		for (RequestWorker worker : this.workers) {
+			worker.barrier(latch);
+		}
+		latch.await();
+	}
+	
+	public void terminate() {
+		for (RequestWorker worker : this.workers) {
+			worker.terminate();
+		}
+		for (Thread thread : this.threads) {
+			try { thread.join(5000); } catch (InterruptedException e) {}
+			if (thread.isAlive()) {
+				logger.warn(String.format("Request worker '%s' did not terminate in time.", thread.getName()));
+			}
+		}
+	}
+	
+	private int partition(SubscriptionRequest request) {
+		int hash = 0;
+		// Malformed attributes are left for the worker to answer, so they must not fail here
+		if (! request.isMalformed(SubscriptionRequest.DIALOG_ID | SubscriptionRequest.SEQUENCE_ID) && 
+				request.isSubscriptionCancel() && request.isValid(SubscriptionRequest.SUBSCRIBER_ID)) {
+			hash = request.getSubscriberId();
+		} else {
+			if (request.has(SubscriptionRequest.DEST_HOST)) hash = request.getDestHost().hashCode();
+			if (request.isValid(SubscriptionRequest.DEST_PORT)) hash = 31 * hash + request.getDestPort();
+		}
+		// Spread the bits so sequential ids and ports don't cluster
+		hash ^= (hash >>> 16);
+		return (hash & 0x7fffffff) % this.workers.length;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,13 @@
+package gov.usdot.cv.subscription.datasink.dispatch;
+
+import gov.usdot.cv.subscription.datasink.model.SubscriptionRequest;
+
+public interface RequestHandler {
+	
+	/**
+	 * Process a single subscription request. Implementations must be safe to
+	 * call from several worker threads at once.
+	 */
+	public void handle(SubscriptionRequest request);
+	
+}
\ No newline at end of file
@@ -0,0 +1,53 @@
+package gov.usdot.cv.subscription.datasink.dispatch;
+
+import gov.usdot.cv.subscription.datasink.model.SubscriptionRequest;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+public class RequestWorker implements Runnable {
+	private final Logger logger = Logger.getLogger(getClass());
+	private final BlockingQueue<Object> queue;
+	private final RequestHandler handler;
+	private volatile boolean terminated = false;
+	
+	public RequestWorker(int capacity, RequestHandler handler) {
+		this.queue = new LinkedBlockingQueue<Object>(capacity);
+		this.handler = handler;
+	}
+	
+	public void submit(SubscriptionRequest request) throws InterruptedException {
+		this.queue.put(request);
+	}
+	
+	/**
+	 * Count down the given latch once every request submitted before it has been handled.
+	 */
+	public void barrier(CountDownLatch latch) throws InterruptedException {
+		this.queue.put(latch);
+	}
+	
+	public void terminate() {
+		this.terminated = true;
+	}
+	
+	public void run() {
+		logger.info("Request worker [" + Thread.currentThread().getId() + "] is starting ...");
+		while (! this.terminated || this.queue.size() > 0) try {
+			Object item = this.queue.poll(1, TimeUnit.SECONDS);
+			if (item instanceof CountDownLatch) {
+				((CountDownLatch) item).countDown();
+			} else if (item != null) {
+				this.handler.handle((SubscriptionRequest) item);
+			}
+		} catch (InterruptedException ie) {
+			logger.error("Request worker was interrupted.", ie);
+		} catch (Exception ex) {
+			logger.error("Failed to handle subscription request.", ex);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,14 @@
+package gov.usdot.cv.subscription.datasink.exception;
+
+public class StorageException extends Exception {
+	
+	private static final long serialVersionUID = -4518190457396127316L;
+	
+	public StorageException(String message) {
+		super(message);
+	}
+	
+	public StorageException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
\ No newline at end of file
@@ -3,76 +3,221 @@ package gov.usdot.cv.subscription.datasink.expiration;
 import gov.usdot.cv.common.model.Filter;
 import gov.usdot.cv.common.model.Subscriber;
 import gov.usdot.cv.common.util.PropertyLocator;
+import gov.usdot.cv.subscription.datasink.cache.DuplicateRequestCache;
+import gov.usdot.cv.subscription.datasink.cache.SubscriptionIndex;
 import gov.usdot.cv.subscription.datasink.dao.DaoManager;
+import gov.usdot.cv.subscription.datasink.dao.SubscriptionStorage;
+import gov.usdot.cv.subscription.datasink.exception.StorageException;
+import gov.usdot.cv.subscription.datasink.exception.SubscriptionException;
+import gov.usdot.cv.subscription.datasink.store.WriteBehindStore;
 import gov.usdot.cv.subscription.datasink.util.SubscriberIdGenerator;
 
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.TimeZone;
+import java.util.Date;
 
 import org.apache.log4j.Logger;
 
-public class ExpirationProcessor implements Runnable {	
+/**
+ * Expires subscriptions as their end time passes. The thread sleeps on the
+ * expiration schedule kept by the subscription index until the earliest end time
+ * or until an earlier one is added, then expires only the subscriptions that are
+ * due. The configured interval bounds how long it sleeps.
+ * 
+ * The schedule only knows the subscriptions this process indexed, so at least once
+ * an interval the storage itself is swept: due subscriptions are removed
+ * set-based, by end time, at most a chunk per transaction with a pause between
+ * chunks so expiration does not starve ingest writes. That expires what other
+ * nodes sharing the database added. With a chunk size configured the storage is
+ * swept at every wake up, and the schedule only expires what the chunks left,
+ * such as subscribers without a filter.
+ * 
+ * A wake up that expired anything ends by removing the stored certificates no
+ * subscriber references any more.
+ * 
+ * With a write-behind store, a cancel goes through it, queued behind any change
+ * to the subscriber it has not written yet, so a pending add cannot be written
+ * back after the id is released and handed out again. A subscriber the sweep
+ * removed is kept when the index holds a newer filter that has not ended, which
+ * the pending add restores, and otherwise has a cancel queued behind whatever
+ * the store holds for it.
+ */
+public class ExpirationProcessor implements Runnable {
+	// Due subscriptions taken off the schedule at a time
+	private static final int POLL_SIZE = 1000;
+	// Subscriptions removed per transaction by the periodic sweep without a chunk size
+	private static final int SWEEP_CHUNK_SIZE = 1000;
+	
 	private final Logger logger 		= Logger.getLogger(getClass());
 	private final DateFormat formatter 	= new SimpleDateFormat(Filter.DATE_PATTERN);
 	
+	private final WriteBehindStore writeBehind;
 	private int interval;
-	private boolean terminated = false;
+	private int chunkSize;
+	private int chunkPause;
+	private volatile boolean terminated = false;
 	
 	public ExpirationProcessor() {
+		this(null);
+	}
+	
+	/**
+	 * Expire through the given write-behind store, or straight to the storage when
+	 * it is null.
+	 */
+	public ExpirationProcessor(WriteBehindStore writeBehind) {
+		this.writeBehind = writeBehind;
 		this.interval = PropertyLocator.getInt("subscription.expiration.processor.interval", 60000);
+		this.chunkSize = PropertyLocator.getInt("subscription.expiration.chunk.size", 0);
+		this.chunkPause = PropertyLocator.getInt("subscription.expiration.chunk.pause", 100);
 	}
 	
 	public void terminate() {
 		this.terminated = true;
+		SubscriptionIndex.getInstance().getExpirationSchedule().wakeUp();
 	}
 	
 	public void run() {
 		logger.info("Subscription expiration processor [" + Thread.currentThread().getId() + "] is starting ...");
+		SubscriptionIndex index = SubscriptionIndex.getInstance();
+		ExpirationSchedule schedule = index.getExpirationSchedule();
+		long lastSweep = 0;
 		while (! this.terminated) try {
-			Calendar current = Calendar.getInstance(TimeZone.getTimeZone(Filter.UTC_TIMEZONE));
-			logger.debug(String.format("Analyzing subscription for expiration, current time is '%s' ...", this.formatter.format(current.getTime())));
-
-			Collection<Subscriber> subscribers = DaoManager.getInstance().getSubscriberDao().findAll();
-			Map<Integer, Filter> index = buildFilterIndex();
-			for (Subscriber subscriber : subscribers) {
-				int subscriberId = subscriber.getSubscriberId();
-				Filter filter = index.get(subscriberId);
-				if (filter == null) {
-					logger.info(String.format("A filter is missing for subscriber '%s'. Expiring subscription now.", subscriberId));
-					DaoManager.getInstance().getSubscriberDao().delete(subscriber.getSubscriberId());
-					SubscriberIdGenerator.getInstance().release(subscriber.getSubscriberId());
-				} else {
-					int requestId = filter.getRequestId();
-					Calendar endTime = filter.getEndTime();
-					if (endTime != null && endTime.before(current)) {
-						logger.info(String.format("Subscriber '%s' end time '%s' has been reached. Expiring subscription now.", 
-							subscriberId, this.formatter.format(endTime.getTime())));
-						DaoManager.getInstance().getSituationDataFilterDao().delete(subscriberId, requestId);
-						DaoManager.getInstance().getSubscriberDao().delete(subscriberId);
-						SubscriberIdGenerator.getInstance().release(subscriberId);
+			try { schedule.await(Math.max(1, Math.min(this.interval, lastSweep + this.interval - System.currentTimeMillis()))); } catch (InterruptedException ignore) {}
+			
+			long now = System.currentTimeMillis();
+			int expired = 0;
+			if (this.chunkSize > 0 || now - lastSweep >= this.interval) {
+				expired += expireInChunks(index, now);
+				lastSweep = now;
+			}
+			
+			int[] due;
+			while (! this.terminated && (due = schedule.pollDue(now, POLL_SIZE)).length > 0) {
+				logger.debug(String.format("Expiring up to %s due subscriptions ...", due.length));
+				for (int subscriberId : due) {
+					try {
+						if (expire(index, subscriberId, now)) expired++;
+					} catch (Exception ex) {
+						logger.error(String.format("Failed to expire subscriber '%s', retrying in %s ms.", subscriberId, this.interval), ex);
+						schedule.add(subscriberId, now + this.interval);
 					}
-					
-					// TODO: Need to check if the certificate has expired and if so expire the subscription.
 				}
 			}
-			try { Thread.sleep(this.interval); } catch (InterruptedException ignore) {}
+			if (expired > 0) removeUnreferencedCertificates();
 		} catch (Exception ex) {
 			logger.error("Failed to process subscription filters for expiration.", ex);
 		}
 	}
 	
-	private Map<Integer, Filter> buildFilterIndex() {
-		Collection<Filter> filters = DaoManager.getInstance().getSituationDataFilterDao().findAll();
-		Map<Integer, Filter> index = new HashMap<Integer, Filter>();
-		for (Filter filter : filters) {
-			index.put(filter.getSubscriberId(), filter);
+	/**
+	 * Remove the subscriptions that ended before now from the storage a chunk at
+	 * a time, then drop them from the index and release their ids in bulk. Returns
+	 * how many were removed.
+	 */
+	private int expireInChunks(SubscriptionIndex index, long now) {
+		SubscriptionStorage storage = DaoManager.getInstance().getSubscriptionStorage();
+		int chunk = (this.chunkSize > 0) ? this.chunkSize : SWEEP_CHUNK_SIZE;
+		int total = 0;
+		int[] expired;
+		do {
+			try {
+				expired = storage.expireBefore(now, chunk);
+			} catch (StorageException ex) {
+				logger.error("Failed to remove a chunk of expired subscriptions, expiring one at a time.", ex);
+				return total;
+			}
+			if (expired.length == 0) return total;
+			int removed = expired.length;
+			
+			logger.info(String.format("Expired %s subscriptions that ended before '%s'.", removed, this.formatter.format(new Date(now))));
+			int[] released = settle(index, expired, now);
+			index.removeAll(released);
+			for (int subscriberId : released) {
+				DuplicateRequestCache.getInstance().invalidate(subscriberId);
+			}
+			SubscriberIdGenerator.getInstance().releaseAll(released);
+			total += released.length;
+			
+			if (removed == chunk && this.chunkPause > 0) {
+				try { Thread.sleep(this.chunkPause); } catch (InterruptedException ignore) {}
+			}
+		} while (! this.terminated && expired.length == chunk);
+		return total;
+	}
+	
+	/**
+	 * Returns the swept ids whose subscriptions are gone for good. With a
+	 * write-behind store, an id the index holds a filter for that has not ended is
+	 * left alone, since a pending add for it writes the subscription back, and an id
+	 * the store still holds a change for gets a cancel queued behind that change. An
+	 * id whose cancel could not be queued is left indexed for the schedule to retry.
+	 */
+	private int[] settle(SubscriptionIndex index, int[] expired, long now) {
+		if (this.writeBehind == null) return expired;
+		
+		int[] released = new int[expired.length];
+		int count = 0;
+		for (int subscriberId : expired) {
+			Filter filter = index.peekFilter(subscriberId);
+			if (filter != null && filter.getEndTime() != null && filter.getEndTime().getTimeInMillis() >= now) continue;
+			if (this.writeBehind.getPending(subscriberId) != null) try {
+				this.writeBehind.cancel(subscriberId, 0);
+			} catch (Exception ex) {
+				logger.error(String.format("Failed to cancel the pending change to expired subscriber '%s', retrying in %s ms.", subscriberId, this.interval), ex);
+				index.getExpirationSchedule().add(subscriberId, now + this.interval);
+				continue;
+			}
+			released[count++] = subscriberId;
+		}
+		return (count == expired.length) ? expired : Arrays.copyOf(released, count);
+	}
+	
+	private void removeUnreferencedCertificates() {
+		try {
+			int removed = DaoManager.getInstance().getSubscriptionStorage().removeUnreferencedCertificates();
+			if (removed > 0) logger.info(String.format("Removed %s certificates no subscriber references.", removed));
+		} catch (StorageException ex) {
+			logger.error("Failed to remove unreferenced certificates.", ex);
+		}
+	}
+	
+	/**
+	 * Expire the subscription if it is still indexed and still due. A subscription
+	 * replaced since it was scheduled is scheduled again under its new end time.
+	 * Returns true when it was expired.
+	 */
+	private boolean expire(SubscriptionIndex index, int subscriberId, long now) throws StorageException, SubscriptionException, IOException {
+		Subscriber subscriber = index.peekSubscriber(subscriberId);
+		if (subscriber == null) return false;
+		
+		int requestId = 0;
+		Filter filter = index.peekFilter(subscriberId);
+		if (filter == null) {
+			logger.info(String.format("A filter is missing for subscriber '%s'. Expiring subscription now.", subscriberId));
+		} else {
+			Calendar endTime = filter.getEndTime();
+			if (endTime == null || endTime.getTimeInMillis() >= now) return false;
+			
+			logger.info(String.format("Subscriber '%s' end time '%s' has been reached. Expiring subscription now.",
+				subscriberId, this.formatter.format(endTime.getTime())));
+			requestId = filter.getRequestId();
+		}
+		
+		// TODO: Need to check if the certificate has expired and if so expire the subscription.
+		
+		if (this.writeBehind != null) {
+			this.writeBehind.cancel(subscriberId, requestId);
+		} else {
+			DaoManager.getInstance().getSubscriptionStorage().cancel(subscriberId, requestId);
 		}
-		return index;
+		index.remove(subscriberId);
+		DuplicateRequestCache.getInstance().invalidate(subscriberId);
+		SubscriberIdGenerator.getInstance().release(subscriberId);
+		return true;
 	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+package gov.usdot.cv.subscription.datasink.expiration;
+
+import java.util.Arrays;
+
+/**
+ * Subscriber ids ordered by the epoch millisecond their subscription ends, in a
+ * binary min-heap of parallel primitive arrays. An entry is added whenever a
+ * subscription is indexed and is never removed on cancel or replacement; the
+ * expiration processor checks every due id against the index, and the owner
+ * rebuilds the heap from the live subscriptions once stale entries outnumber them.
+ */
+public class ExpirationSchedule {
+	private static final int MIN_CAPACITY = 1024;
+	
+	private long[] deadlines = new long[MIN_CAPACITY];
+	private int[] ids = new int[MIN_CAPACITY];
+	private int size = 0;
+	
+	/**
+	 * Schedule the subscriber to expire once the given time has passed.
+	 */
+	public synchronized void add(int subscriberId, long deadline) {
+		if (this.size == this.ids.length) {
+			this.deadlines = Arrays.copyOf(this.deadlines, this.size * 2);
+			this.ids = Arrays.copyOf(this.ids, this.size * 2);
+		}
+		int slot = this.size++;
+		this.deadlines[slot] = deadline;
+		this.ids[slot] = subscriberId;
+		siftUp(slot);
+		// A new earliest deadline cuts the current wait short
+		if (this.ids[0] == subscriberId && this.deadlines[0] == deadline) notifyAll();
+	}
+	
+	/**
+	 * Replace every entry with the given ones.
+	 */
+	public synchronized void rebuild(int[] subscriberIds, long[] subscriberDeadlines, int count) {
+		int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, count)) * 2);
+		this.ids = Arrays.copyOf(subscriberIds, capacity);
+		this.deadlines = Arrays.copyOf(subscriberDeadlines, capacity);
+		this.size = count;
+		for (int slot = this.size / 2 - 1; slot >= 0; slot--) {
+			siftDown(slot);
+		}
+		notifyAll();
+	}
+	
+	/**
+	 * Wait until the earliest deadline has passed, an earlier one is added or the
+	 * given time is up, whichever comes first.
+	 */
+	public synchronized void await(long maxWait) throws InterruptedException {
+		long wait = maxWait;
+		if (this.size > 0) {
+			wait = Math.min(wait, this.deadlines[0] - System.currentTimeMillis() + 1);
+		}
+		if (wait > 0) wait(wait);
+	}
+	
+	/**
+	 * Remove and return up to max subscriber ids whose deadline is before now,
+	 * earliest first.
+	 */
+	public synchronized int[] pollDue(long now, int max) {
+		int count = 0;
+		int[] due = new int[Math.min(max, 16)];
+		while (this.size > 0 && this.deadlines[0] < now && count < max) {
+			if (count == due.length) due = Arrays.copyOf(due, Math.min(max, count * 2));
+			due[count++] = this.ids[0];
+			int last = --this.size;
+			if (last > 0) {
+				this.deadlines[0] = this.deadlines[last];
+				this.ids[0] = this.ids[last];
+				siftDown(0);
+			}
+		}
+		return (count == due.length) ? due : Arrays.copyOf(due, count);
+	}
+	
+	/**
+	 * Returns the earliest deadline, or Long.MAX_VALUE when nothing is scheduled.
+	 */
+	public synchronized long peekDeadline() {
+		return (this.size > 0) ? this.deadlines[0] : Long.MAX_VALUE;
+	}
+	
+	/**
+	 * Wake up a waiting thread, as on termination.
+	 */
+	public synchronized void wakeUp() {
+		notifyAll();
+	}
+	
+	public synchronized int size() {
+		return this.size;
+	}
+	
+	private void siftUp(int slot) {
+		long deadline = this.deadlines[slot];
+		int id = this.ids[slot];
+		while (slot > 0) {
+			int parent = (slot - 1) >>> 1;
+			if (this.deadlines[parent] <= deadline) break;
+			this.deadlines[slot] = this.deadlines[parent];
+			this.ids[slot] = this.ids[parent];
+			slot = parent;
+		}
+		this.deadlines[slot] = deadline;
+		this.ids[slot] = id;
+	}
+	
+	private void siftDown(int slot) {
+		long deadline = this.deadlines[slot];
+		int id = this.ids[slot];
+		int half = this.size >>> 1;
+		while (slot < half) {
+			int child = 2 * slot + 1;
+			int right = child + 1;
+			if (right < this.size && this.deadlines[right] < this.deadlines[child]) child = right;
+			if (deadline <= this.deadlines[child]) break;
+			this.deadlines[slot] = this.deadlines[child];
+			this.ids[slot] = this.ids[child];
+			slot = child;
+		}
+		this.deadlines[slot] = deadline;
+		this.ids[slot] = id;
+	}
+}
\ No newline at end of file
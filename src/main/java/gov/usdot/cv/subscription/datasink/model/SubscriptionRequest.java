@@ -0,0 +1,277 @@
+package gov.usdot.cv.subscription.datasink.model;
+
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.asn1.generated.j2735.semi.SemiSequenceID;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+
+/**
+ * A flat, primitive-typed view of a subscription request record. The record is
+ * walked once by decode() and every attribute that was present is flagged in a
+ * presence bitmask, so callers test has(FIELD) instead of comparing boxed values
+ * against null. The record layout is the one documented on DataModel.
+ * 
+ * An attribute that is present but not of its type does not fail the decode. It
+ * is flagged as malformed and its getter throws the JSONException the DataModel
+ * getter would, so a request fails only on the attributes its type reads.
+ */
+public class SubscriptionRequest {
+	public static final int DIALOG_ID 		= 1;
+	public static final int SEQUENCE_ID 	= 1 << 1;
+	public static final int REQUEST_ID 		= 1 << 2;
+	public static final int SUBSCRIBER_ID 	= 1 << 3;
+	public static final int CERTIFICATE 	= 1 << 4;
+	public static final int DEST_HOST 		= 1 << 5;
+	public static final int DEST_PORT 		= 1 << 6;
+	public static final int FROM_FORWARDER 	= 1 << 7;
+	public static final int END_TIME 		= 1 << 8;
+	public static final int TYPE 			= 1 << 9;
+	public static final int TYPE_VALUE 		= 1 << 10;
+	public static final int NW_POS 			= 1 << 11;
+	public static final int SE_POS 			= 1 << 12;
+	public static final int NW_LAT 			= 1 << 13;
+	public static final int NW_LON 			= 1 << 14;
+	public static final int SE_LAT 			= 1 << 15;
+	public static final int SE_LON 			= 1 << 16;
+	
+	private static final int NW_POS_EMPTY 	= 1 << 30;
+	private static final int SE_POS_EMPTY 	= 1 << 31;
+	
+	private static final int DATA_SUBSCRIPTION 		= (int) SemiDialogID.dataSubscription.longValue();
+	private static final int SUBSCRIPTION_REQ 		= (int) SemiSequenceID.subscriptionReq.longValue();
+	private static final int SUBSCRIPTION_CANCEL 	= (int) SemiSequenceID.subscriptionCancel.longValue();
+	
+	private static final Map<String, Integer> FIELDS = new HashMap<String, Integer>();
+	
+	static {
+		FIELDS.put(DataModel.DIALOG_ID_KEY, DIALOG_ID);
+		FIELDS.put(DataModel.SEQUENCE_ID_KEY, SEQUENCE_ID);
+		FIELDS.put(DataModel.REQUEST_ID_KEY, REQUEST_ID);
+		FIELDS.put(DataModel.SUBSCRIBER_ID_KEY, SUBSCRIBER_ID);
+		FIELDS.put(DataModel.CERTIFICATE_KEY, CERTIFICATE);
+		FIELDS.put(DataModel.DEST_HOST_KEY, DEST_HOST);
+		FIELDS.put(DataModel.DEST_PORT_KEY, DEST_PORT);
+		FIELDS.put(DataModel.FROM_FORWARDER_KEY, FROM_FORWARDER);
+		FIELDS.put(DataModel.END_TIME_KEY, END_TIME);
+		FIELDS.put(DataModel.TYPE_KEY, TYPE);
+		FIELDS.put(DataModel.TYPE_VALUE_KEY, TYPE_VALUE);
+		FIELDS.put(DataModel.NW_POS_KEY, NW_POS);
+		FIELDS.put(DataModel.SE_POS_KEY, SE_POS);
+	}
+	
+	private final JSONObject record;
+	private int present;
+	private int malformed;
+	
+	private int dialogId;
+	private int sequenceId;
+	private int requestId;
+	private int subscriberId;
+	private int destPort;
+	private int typeValue;
+	private boolean fromForwarder;
+	private String certificate;
+	private String destHost;
+	private String endTime;
+	private String type;
+	private double nwLat;
+	private double nwLon;
+	private double seLat;
+	private double seLon;
+	
+	private SubscriptionRequest(JSONObject record) {
+		this.record = record;
+	}
+	
+	/**
+	 * Decode the record in a single pass. Values are coerced the same way the
+	 * JSONObject getters coerce them; one that cannot be is flagged as malformed.
+	 */
+	@SuppressWarnings("rawtypes")
+	public static SubscriptionRequest decode(JSONObject record) {
+		SubscriptionRequest request = new SubscriptionRequest(record);
+		for (Iterator it = record.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			Integer field = FIELDS.get(entry.getKey());
+			if (field != null) {
+				request.set(field, (String) entry.getKey(), entry.getValue());
+			}
+		}
+		return request;
+	}
+	
+	private void set(int field, String key, Object value) {
+		this.present |= field;
+		try {
+			switch (field) {
+				case DIALOG_ID: 		this.dialogId = toInt(key, value); break;
+				case SEQUENCE_ID: 		this.sequenceId = toInt(key, value); break;
+				case REQUEST_ID: 		this.requestId = toInt(key, value); break;
+				case SUBSCRIBER_ID: 	this.subscriberId = toInt(key, value); break;
+				case DEST_PORT: 		this.destPort = toInt(key, value); break;
+				case TYPE_VALUE: 		this.typeValue = toInt(key, value); break;
+				case CERTIFICATE: 		this.certificate = String.valueOf(value); break;
+				case DEST_HOST: 		this.destHost = String.valueOf(value); break;
+				case END_TIME: 			this.endTime = String.valueOf(value); break;
+				case TYPE: 				this.type = String.valueOf(value); break;
+				case FROM_FORWARDER: 	this.fromForwarder = Boolean.valueOf(String.valueOf(value)); break;
+				case NW_POS: 			setPosition(true, key, value); break;
+				case SE_POS: 			setPosition(false, key, value); break;
+			}
+		} catch (JSONException ex) {
+			this.malformed |= field;
+		}
+	}
+	
+	private void setPosition(boolean northwest, String key, Object value) {
+		JSONObject position = toJSONObject(key, value);
+		if (position.isNullObject() || position.isEmpty()) {
+			this.present |= northwest ? NW_POS_EMPTY : SE_POS_EMPTY;
+			return;
+		}
+		
+		Object lat = position.opt(DataModel.LAT_KEY);
+		Object lon = position.opt(DataModel.LON_KEY);
+		if (northwest) {
+			if (lat != null) this.nwLat = toCoordinate(NW_LAT, lat);
+			if (lon != null) this.nwLon = toCoordinate(NW_LON, lon);
+		} else {
+			if (lat != null) this.seLat = toCoordinate(SE_LAT, lat);
+			if (lon != null) this.seLon = toCoordinate(SE_LON, lon);
+		}
+	}
+	
+	private double toCoordinate(int field, Object value) {
+		this.present |= field;
+		try {
+			return toDouble(name(field), value);
+		} catch (JSONException ex) {
+			this.malformed |= field;
+			return 0;
+		}
+	}
+	
+	private void check(int fields) {
+		int field = Integer.lowestOneBit(this.malformed & fields);
+		if (field != 0) {
+			throw new JSONException(String.format("Malformed %s attribute in record.", name(field)));
+		}
+	}
+	
+	private static String name(int field) {
+		switch (field) {
+			case NW_LAT: return DataModel.NW_POS_KEY + "." + DataModel.LAT_KEY;
+			case NW_LON: return DataModel.NW_POS_KEY + "." + DataModel.LON_KEY;
+			case SE_LAT: return DataModel.SE_POS_KEY + "." + DataModel.LAT_KEY;
+			case SE_LON: return DataModel.SE_POS_KEY + "." + DataModel.LON_KEY;
+		}
+		for (Map.Entry<String, Integer> entry : FIELDS.entrySet()) {
+			if (entry.getValue() == field) return entry.getKey();
+		}
+		return String.valueOf(field);
+	}
+	
+	private static int toInt(String key, Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
+		}
+		return (int) toDouble(key, value);
+	}
+	
+	private static double toDouble(String key, Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		if (value instanceof String) try {
+			return Double.parseDouble((String) value);
+		} catch (NumberFormatException ex) {
+			// fall through
+		}
+		throw new JSONException("JSONObject[\"" + key + "\"] is not a number.");
+	}
+	
+	private static JSONObject toJSONObject(String key, Object value) {
+		if (value == null || value instanceof JSONNull) {
+			return new JSONObject(true);
+		}
+		if (value instanceof JSONObject) {
+			return (JSONObject) value;
+		}
+		throw new JSONException("JSONObject[\"" + key + "\"] is not a JSONObject.");
+	}
+	
+	public boolean has(int fields) {
+		return (this.present & fields) == fields;
+	}
+	
+	/**
+	 * Returns true when any of the given attributes is present but malformed.
+	 */
+	public boolean isMalformed(int fields) {
+		return (this.malformed & fields) != 0;
+	}
+	
+	/**
+	 * Returns true when all of the given attributes are present and well-formed,
+	 * so their getters do not throw.
+	 */
+	public boolean isValid(int fields) {
+		return has(fields) && ! isMalformed(fields);
+	}
+	
+	public boolean isSubscriptionRequest() {
+		check(DIALOG_ID | SEQUENCE_ID);
+		return isSemiDialogIdValid() && has(SEQUENCE_ID) && this.sequenceId == SUBSCRIPTION_REQ;
+	}
+	
+	public boolean isSubscriptionCancel() {
+		check(DIALOG_ID | SEQUENCE_ID);
+		return isSemiDialogIdValid() && has(SEQUENCE_ID) && this.sequenceId == SUBSCRIPTION_CANCEL;
+	}
+	
+	public boolean isSemiDialogIdValid() {
+		check(DIALOG_ID);
+		return has(DIALOG_ID) && this.dialogId == DATA_SUBSCRIPTION;
+	}
+	
+	public boolean isSemiSequenceIdValid() {
+		check(SEQUENCE_ID);
+		return has(SEQUENCE_ID) && (this.sequenceId == SUBSCRIPTION_REQ || this.sequenceId == SUBSCRIPTION_CANCEL);
+	}
+	
+	public boolean isBoundingBoxEmpty() {
+		check(NW_POS | SE_POS);
+		return (! has(NW_POS) || has(NW_POS_EMPTY)) && (! has(SE_POS) || has(SE_POS_EMPTY));
+	}
+	
+	public int getDialogId() 			{ check(DIALOG_ID); return this.dialogId; }
+	public int getSequenceId() 			{ check(SEQUENCE_ID); return this.sequenceId; }
+	public int getRequestId() 			{ check(REQUEST_ID); return this.requestId; }
+	public int getSubscriberId() 		{ check(SUBSCRIBER_ID); return this.subscriberId; }
+	public int getDestPort() 			{ check(DEST_PORT); return this.destPort; }
+	public int getTypeValue() 			{ check(TYPE_VALUE); return this.typeValue; }
+	public boolean fromForwarder() 		{ return this.fromForwarder; }
+	public String getCertificate() 		{ return this.certificate; }
+	public String getDestHost() 		{ return this.destHost; }
+	public String getEndTime() 			{ return this.endTime; }
+	public String getType() 			{ return this.type; }
+	public double getNWLat() 			{ check(NW_POS | NW_LAT); return this.nwLat; }
+	public double getNWLon() 			{ check(NW_POS | NW_LON); return this.nwLon; }
+	public double getSELat() 			{ check(SE_POS | SE_LAT); return this.seLat; }
+	public double getSELon() 			{ check(SE_POS | SE_LON); return this.seLon; }
+	
+	public JSONObject getRecord() {
+		return this.record;
+	}
+	
+	public String toString() {
+		String result = (this.record != null) ? this.record.toString() : null;
+		return result;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,117 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Guards the bounded response queue. Once the backlog reaches the high water mark
+ * new subscriptions are shed until the sender has drained the backlog down to the
+ * low water mark, so a slow sender cannot make the datasink accept more work than
+ * it can answer. The capacity above the high water mark is left for the responses
+ * of requests that were already admitted and for the shed responses themselves,
+ * so it has to hold every request that can be admitted but not yet answered.
+ * 
+ * The response to an admitted request waits for room rather than being dropped,
+ * since the subscription it answers is already committed. Only a shed response,
+ * or one that still finds no room once the offer timeout is up, is dropped.
+ */
+public class AdmissionController {
+	private final Logger logger = Logger.getLogger(getClass());
+	
+	private final ResponseQueue queue;
+	private final int highWaterMark;
+	private final int lowWaterMark;
+	private final long offerTimeout;
+	private volatile boolean shedding = false;
+	
+	private final AtomicLong shed = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile int peakBacklog = 0;
+	
+	public AdmissionController(ResponseQueue queue, int highWaterMark, int lowWaterMark, long offerTimeout) {
+		this.queue = queue;
+		this.highWaterMark = highWaterMark;
+		this.lowWaterMark = Math.min(lowWaterMark, highWaterMark);
+		this.offerTimeout = Math.max(0, offerTimeout);
+	}
+	
+	/**
+	 * Returns true when a new subscription may be accepted, false when it must be shed.
+	 */
+	public boolean admit() {
+		int backlog = this.queue.size();
+		if (this.shedding) {
+			if (backlog <= this.lowWaterMark) {
+				this.shedding = false;
+				logger.info(String.format("Response backlog drained to %s, accepting subscriptions again after shedding %s.", backlog, this.shed.get()));
+			}
+		} else if (backlog >= this.highWaterMark) {
+			this.shedding = true;
+			logger.warn(String.format("Response backlog reached %s, shedding subscriptions until it drains to %s.", backlog, this.lowWaterMark));
+		}
+		
+		if (this.shedding) {
+			this.shed.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Enqueues the response to an admitted request, waiting up to the offer timeout
+	 * for room. A response that still does not fit is dropped and counted.
+	 */
+	public boolean offer(Response response) {
+		boolean queued = this.queue.offer(response);
+		if (! queued && this.offerTimeout > 0) {
+			try {
+				queued = this.queue.offer(response, this.offerTimeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (! queued) {
+			this.dropped.incrementAndGet();
+			logger.warn(String.format("Response queue is still full after %s ms, dropped response for '%s:%s'.", 
+				this.offerTimeout, response.getTargetHost(), response.getTargetPort()));
+			return false;
+		}
+		updatePeak();
+		return true;
+	}
+	
+	/**
+	 * Enqueues a shed response without blocking. A shed response that does not fit
+	 * is dropped and counted rather than stalling the ingest thread.
+	 */
+	public boolean offerShed(Response response) {
+		if (! this.queue.offer(response)) {
+			this.dropped.incrementAndGet();
+			if (logger.isDebugEnabled()) logger.debug(String.format("Response queue is full, dropped shed response for '%s:%s'.", 
+				response.getTargetHost(), response.getTargetPort()));
+			return false;
+		}
+		updatePeak();
+		return true;
+	}
+	
+	private void updatePeak() {
+		int backlog = this.queue.size();
+		if (backlog > this.peakBacklog) this.peakBacklog = backlog;
+	}
+	
+	public int getHighWaterMark() 	{ return this.highWaterMark; }
+	public int getLowWaterMark() 	{ return this.lowWaterMark; }
+	public boolean isShedding() 	{ return this.shedding; }
+	public int getBacklog() 		{ return this.queue.size(); }
+	public int getPeakBacklog() 	{ return this.peakBacklog; }
+	public long getShedCount() 		{ return this.shed.get(); }
+	public long getDroppedCount() 	{ return this.dropped.get(); }
+	
+	public String toString() {
+		return String.format("backlog %s, peak %s, high water mark %s, low water mark %s, shed %s, dropped %s", 
+			getBacklog(), this.peakBacklog, this.highWaterMark, this.lowWaterMark, this.shed.get(), this.dropped.get());
+	}
+}
\ No newline at end of file
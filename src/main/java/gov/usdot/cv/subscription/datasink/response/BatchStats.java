@@ -0,0 +1,70 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+/**
+ * Sizes the batches a sending thread drains from its queue and keeps the batch
+ * size distribution and per-batch latency. The limit doubles while batches come
+ * back full, meaning the queue is deeper than the limit, and halves while they come
+ * back mostly empty, so a deep queue is drained in few large batches and a light
+ * load keeps batches small.
+ * 
+ * Instances are updated only by the thread that owns them.
+ */
+public class BatchStats {
+	public static final int MIN_LIMIT = 16;
+	public static final int MAX_LIMIT = 512;
+	
+	// Bucket i counts batches of size [2^i, 2^(i+1))
+	private final long [] histogram = new long[Integer.numberOfTrailingZeros(MAX_LIMIT) + 1];
+	
+	private int limit = MIN_LIMIT;
+	private long batches = 0;
+	private long items = 0;
+	private long totalNanos = 0;
+	private long maxNanos = 0;
+	
+	public int limit() {
+		return this.limit;
+	}
+	
+	public void record(int size, long nanos) {
+		if (size <= 0) return;
+		
+		this.batches++;
+		this.items += size;
+		this.totalNanos += nanos;
+		if (nanos > this.maxNanos) this.maxNanos = nanos;
+		this.histogram[31 - Integer.numberOfLeadingZeros(size)]++;
+		
+		if (size >= this.limit) {
+			this.limit = Math.min(MAX_LIMIT, this.limit << 1);
+		} else if (size < (this.limit >> 2)) {
+			this.limit = Math.max(MIN_LIMIT, this.limit >> 1);
+		}
+	}
+	
+	public long getBatchCount() 	{ return this.batches; }
+	public long getItemCount() 		{ return this.items; }
+	public long getMaxNanos() 		{ return this.maxNanos; }
+	
+	public long getAverageNanos() {
+		return (this.batches > 0) ? this.totalNanos / this.batches : 0;
+	}
+	
+	public long [] getHistogram() {
+		return this.histogram.clone();
+	}
+	
+	public String toString() {
+		StringBuilder sb = new StringBuilder(128);
+		sb.append(this.batches).append(" batches, ").append(this.items).append(" responses, average latency ");
+		sb.append(getAverageNanos() / 1000).append(" us, max latency ").append(this.maxNanos / 1000).append(" us, sizes {");
+		boolean first = true;
+		for (int i = 0; i < this.histogram.length; i++) {
+			if (this.histogram[i] == 0) continue;
+			if (! first) sb.append(", ");
+			sb.append(1 << i).append('+').append(": ").append(this.histogram[i]);
+			first = false;
+		}
+		return sb.append('}').toString();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,161 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+import gov.usdot.cv.common.inet.InetPacket;
+import gov.usdot.cv.common.inet.InetPoint;
+import gov.usdot.cv.subscription.datasink.cache.DestinationCache;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sends responses through non-blocking datagram channels that stay open for the
+ * life of the sender. Payloads are copied into pooled direct buffers so the
+ * channel writes without an extra native copy. When a socket buffer is full the
+ * transport waits, up to the write timeout, for the channel to become writable
+ * instead of blocking in the socket; a datagram that still cannot be written fails
+ * the send and is counted. Each destination is written through the channel its
+ * address hashes to, so responses to one destination stay in order while several
+ * socket buffers absorb bursts to different destinations.
+ * 
+ * Instances are owned by a single sender thread and are not thread safe.
+ */
+public class DatagramChannelTransport implements ResponseTransport {
+	private static final int BUFFER_SIZE 	= 2048;
+	private static final int POOL_SIZE 		= 16;
+	
+	private final Logger logger = Logger.getLogger(getClass());
+	
+	private final DatagramChannel [] channels;
+	private final SelectionKey [] keys;
+	private final Selector selector;
+	private final InetPoint forwarderPoint;
+	private final InetSocketAddress forwarderAddress;
+	private final long writeTimeout;
+	
+	private final ByteBuffer [] pool = new ByteBuffer[POOL_SIZE];
+	private int pooled = 0;
+	
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong stalls = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	
+	public DatagramChannelTransport(int channelCount, int sendBufferSize, long writeTimeout, InetPoint forwarderPoint) throws IOException {
+		this.channels = new DatagramChannel[channelCount];
+		this.keys = new SelectionKey[channelCount];
+		this.selector = Selector.open();
+		this.writeTimeout = writeTimeout;
+		this.forwarderPoint = forwarderPoint;
+		this.forwarderAddress = (forwarderPoint != null) ? 
+			new InetSocketAddress(InetAddress.getByAddress(forwarderPoint.address), forwarderPoint.port) : null;
+		
+		try {
+			for (int i = 0; i < channelCount; i++) {
+				this.channels[i] = DatagramChannel.open();
+				this.channels[i].configureBlocking(false);
+				if (sendBufferSize > 0) this.channels[i].socket().setSendBufferSize(sendBufferSize);
+				this.keys[i] = this.channels[i].register(this.selector, 0);
+			}
+		} catch (IOException ex) {
+			close();
+			throw ex;
+		}
+	}
+	
+	public void send(Response response, byte [] payload) throws Exception {
+		InetAddress address = DestinationCache.getInstance().resolve(response.getTargetHost());
+		InetSocketAddress target;
+		if (response.isFromForwarder() && this.forwarderPoint != null) {
+			InetPoint destPoint = new InetPoint(address.getAddress(), response.getTargetPort());
+			payload = new InetPacket(destPoint, payload).getBundle();
+			target = this.forwarderAddress;
+		} else {
+			target = new InetSocketAddress(address, response.getTargetPort());
+		}
+		
+		ByteBuffer buffer = acquire(payload.length);
+		try {
+			buffer.put(payload).flip();
+			write(buffer, target);
+		} finally {
+			release(buffer);
+		}
+	}
+	
+	private void write(ByteBuffer buffer, InetSocketAddress target) throws IOException {
+		int index = channel(target);
+		
+		if (this.channels[index].send(buffer, target) > 0) {
+			this.sent.incrementAndGet();
+			return;
+		}
+		
+		// The socket buffer is full, wait for room rather than blocking in the socket
+		this.stalls.incrementAndGet();
+		long deadline = System.currentTimeMillis() + this.writeTimeout;
+		SelectionKey key = this.keys[index];
+		key.interestOps(SelectionKey.OP_WRITE);
+		try {
+			long remaining;
+			while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+				this.selector.select(remaining);
+				this.selector.selectedKeys().clear();
+				if (this.channels[index].send(buffer, target) > 0) {
+					this.sent.incrementAndGet();
+					return;
+				}
+			}
+		} finally {
+			key.interestOps(0);
+		}
+		
+		this.dropped.incrementAndGet();
+		throw new IOException(String.format("Failed to send response to '%s' because the socket buffer stayed full for %s ms.", target, this.writeTimeout));
+	}
+	
+	private int channel(InetSocketAddress target) {
+		int hash = target.hashCode();
+		// Spread the bits so sequential ports don't cluster
+		hash ^= (hash >>> 16);
+		return (hash & 0x7fffffff) % this.channels.length;
+	}
+	
+	private ByteBuffer acquire(int size) {
+		if (size > BUFFER_SIZE) {
+			return ByteBuffer.allocate(size);
+		}
+		if (this.pooled > 0) {
+			ByteBuffer buffer = this.pool[--this.pooled];
+			this.pool[this.pooled] = null;
+			return buffer;
+		}
+		return ByteBuffer.allocateDirect(BUFFER_SIZE);
+	}
+	
+	private void release(ByteBuffer buffer) {
+		if (buffer.isDirect() && this.pooled < POOL_SIZE) {
+			buffer.clear();
+			this.pool[this.pooled++] = buffer;
+		}
+	}
+	
+	public void close() {
+		for (DatagramChannel channel : this.channels) {
+			if (channel != null) try { channel.close(); } catch (IOException ignore) {}
+		}
+		try { this.selector.close(); } catch (IOException ignore) {}
+		logger.info(String.format("Datagram transport sent %s responses, stalled %s times, dropped %s.", 
+			this.sent.get(), this.stalls.get(), this.dropped.get()));
+	}
+	
+	public long getSentCount() 		{ return this.sent.get(); }
+	public long getStallCount() 	{ return this.stalls.get(); }
+	public long getDroppedCount() 	{ return this.dropped.get(); }
+}
\ No newline at end of file
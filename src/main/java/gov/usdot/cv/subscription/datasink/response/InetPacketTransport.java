@@ -0,0 +1,26 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+import gov.usdot.cv.common.inet.InetPacketSender;
+import gov.usdot.cv.common.inet.InetPoint;
+import gov.usdot.cv.subscription.datasink.cache.DestinationCache;
+
+/**
+ * Sends responses one datagram at a time through the common InetPacketSender.
+ */
+public class InetPacketTransport implements ResponseTransport {
+	private final InetPacketSender packetSender;
+	
+	public InetPacketTransport(InetPoint forwarderPoint) {
+		this.packetSender = new InetPacketSender(forwarderPoint);
+	}
+	
+	public void send(Response response, byte [] payload) throws Exception {
+		byte [] address = DestinationCache.getInstance().resolve(response.getTargetHost()).getAddress();
+		InetPoint destPoint = new InetPoint(address, response.getTargetPort());
+		this.packetSender.forward(destPoint, payload, response.isFromForwarder());
+	}
+	
+	public void close() {
+		// InetPacketSender does not hold on to a socket
+	}
+}
\ No newline at end of file
@@ -61,25 +61,38 @@ public class Response {
 	}
 
 	public byte [] encode() throws EncodeFailedException, EncodeNotSupportedException {
-		GroupID groupId = GroupIDHelper.toGroupID(this.groupId);
-		TemporaryID requestId = new TemporaryID(ByteBuffer.allocate(4).putInt(this.requestId).array());
-		TemporaryID subscriberId = new TemporaryID(ByteBuffer.allocate(4).putInt(this.subscriberId).array());
+		byte [] encoded = ResponseTemplateEncoder.getInstance().encode(this.groupId, this.requestId, this.subscriberId, this.code);
+		if (encoded != null) {
+			return encoded;
+		}
+		return encodeWithCoder(this.groupId, this.requestId, this.subscriberId, this.code);
+	}
+	
+	/**
+	 * Encodes the response through the OSS coder. This is the reference encoding the
+	 * templates of ResponseTemplateEncoder are calibrated and verified against.
+	 */
+	static byte [] encodeWithCoder(int groupId, int requestId, int subscriberId, ResponseCode code) 
+			throws EncodeFailedException, EncodeNotSupportedException {
+		GroupID group = GroupIDHelper.toGroupID(groupId);
+		TemporaryID request = new TemporaryID(ByteBuffer.allocate(4).putInt(requestId).array());
+		TemporaryID subscriber = new TemporaryID(ByteBuffer.allocate(4).putInt(subscriberId).array());
 		
-		if (this.code == null) {
+		if (code == null) {
 			return J2735Coder.getInstance().encode(new DataSubscriptionResponse(
 					SemiDialogID.dataSubscription,
 					SemiSequenceID.subscriptinoResp,
-					groupId,
-					requestId,
-					subscriberId));
+					group,
+					request,
+					subscriber));
 		} else {
 			return J2735Coder.getInstance().encode(new DataSubscriptionResponse(
 					SemiDialogID.dataSubscription,
 					SemiSequenceID.subscriptinoResp,
-					groupId,
-					requestId,
-					subscriberId,
-					new INTEGER(this.code.getCode())));
+					group,
+					request,
+					subscriber,
+					new INTEGER(code.getCode())));
 		}	
 	}
 	
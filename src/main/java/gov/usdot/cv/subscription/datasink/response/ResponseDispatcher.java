@@ -0,0 +1,16 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+/**
+ * A response queue together with the threads that encode, encrypt and send what
+ * is offered to it.
+ */
+public interface ResponseDispatcher extends ResponseQueue {
+	
+	public void start();
+	
+	/**
+	 * Stop once everything already offered has been sent.
+	 */
+	public void terminate();
+	
+}
\ No newline at end of file
@@ -0,0 +1,129 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+import gov.usdot.cv.common.inet.InetPoint;
+import gov.usdot.cv.security.SecurityHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sends responses through two stages connected by bounded queues. A crypto stage
+ * of parallel senders, partitioned by target host and port, encodes every response,
+ * encrypts those with a certificate and hands the payload to the writer. The
+ * writer is a single thread that does nothing but send.
+ * 
+ * Responses to one destination always go through the same crypto sender and so
+ * keep their order. Like ResponseSenderPool, the backlog of both stages together
+ * is bounded by one set of permits: an offer takes a permit, waiting for one up to
+ * its timeout, and the writer returns it when it takes the payload. Every queue
+ * has room for the whole capacity, so no stage is ever the limit.
+ */
+public class ResponsePipeline implements ResponseDispatcher {
+	private final Logger logger = Logger.getLogger(getClass());
+	private final List<LinkedBlockingQueue<Response>> cryptoQueues;
+	private final ResponseSender [] cryptoSenders;
+	private final Thread [] cryptoThreads;
+	private final LinkedBlockingQueue<ResponseWriter.Outgoing> writerQueue;
+	private final ResponseWriter writer;
+	private final Thread writerThread;
+	private final int capacity;
+	private final Semaphore permits;
+	
+	public ResponsePipeline(int cryptoCount, int capacity, int channelCount, InetPoint forwarderPoint) {
+		this.capacity = Math.max(1, capacity);
+		this.permits = new Semaphore(this.capacity);
+		this.cryptoQueues = new ArrayList<LinkedBlockingQueue<Response>>(cryptoCount);
+		this.cryptoSenders = new ResponseSender[cryptoCount];
+		this.cryptoThreads = new Thread[cryptoCount];
+		// One more than the capacity, for the wake up offered on terminate
+		this.writerQueue = new LinkedBlockingQueue<ResponseWriter.Outgoing>(this.capacity + 1);
+		this.writer = new ResponseWriter(this.writerQueue, ResponseSenderPool.createTransport(channelCount, forwarderPoint), this.permits);
+		this.writerThread = new Thread(this.writer, "cvsubscription-writer");
+		
+		for (int i = 0; i < cryptoCount; i++) {
+			LinkedBlockingQueue<Response> queue = new LinkedBlockingQueue<Response>(this.capacity + 1);
+			this.cryptoQueues.add(queue);
+			this.cryptoSenders[i] = new ResponseSender(queue, new HandOff(this.writerQueue));
+			this.cryptoThreads[i] = new Thread(this.cryptoSenders[i], "cvsubscription-crypto-" + i);
+		}
+	}
+	
+	public void start() {
+		SecurityHelper.initSecurity();
+		this.writerThread.start();
+		for (Thread thread : this.cryptoThreads) {
+			thread.start();
+		}
+	}
+	
+	public boolean offer(Response response) {
+		if (! this.permits.tryAcquire()) return false;
+		return enqueue(response);
+	}
+	
+	public boolean offer(Response response, long timeout, TimeUnit unit) throws InterruptedException {
+		if (! this.permits.tryAcquire(timeout, unit)) return false;
+		return enqueue(response);
+	}
+	
+	/**
+	 * The number of responses offered and not yet taken by the writer.
+	 */
+	public int size() {
+		return this.capacity - this.permits.availablePermits();
+	}
+	
+	private boolean enqueue(Response response) {
+		if (this.cryptoQueues.get(ResponseSenderPool.partition(response, this.cryptoQueues.size())).offer(response)) return true;
+		this.permits.release();
+		return false;
+	}
+	
+	/**
+	 * Drain the crypto stage first so everything it hands off is still written.
+	 */
+	public void terminate() {
+		for (ResponseSender sender : this.cryptoSenders) {
+			sender.terminate();
+		}
+		for (Thread thread : this.cryptoThreads) {
+			join(thread);
+		}
+		this.writer.terminate();
+		join(this.writerThread);
+		SecurityHelper.disposeSecurity();
+	}
+	
+	private void join(Thread thread) {
+		try { thread.join(5000); } catch (InterruptedException e) {}
+		if (thread.isAlive()) {
+			logger.warn(String.format("Response pipeline thread '%s' did not terminate in time.", thread.getName()));
+		}
+	}
+	
+	/**
+	 * The transport of the crypto stage, it passes the payload on to the writer and
+	 * waits for room when the writer falls behind.
+	 */
+	private static class HandOff implements ResponseTransport {
+		private final BlockingQueue<ResponseWriter.Outgoing> queue;
+		
+		private HandOff(BlockingQueue<ResponseWriter.Outgoing> queue) {
+			this.queue = queue;
+		}
+		
+		public void send(Response response, byte [] payload) throws Exception {
+			this.queue.put(new ResponseWriter.Outgoing(response, payload));
+		}
+		
+		public void close() {
+			// The writer owns the real transport
+		}
+	}
+}
\ No newline at end of file
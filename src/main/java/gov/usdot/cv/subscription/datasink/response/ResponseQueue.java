@@ -0,0 +1,26 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The non-blocking side of the response backlog that request processing writes to.
+ */
+public interface ResponseQueue {
+	
+	/**
+	 * Enqueue a response without blocking, returning false when there is no room.
+	 */
+	public boolean offer(Response response);
+	
+	/**
+	 * Enqueue a response, waiting up to the given time for room, returning false
+	 * when there still is none.
+	 */
+	public boolean offer(Response response, long timeout, TimeUnit unit) throws InterruptedException;
+	
+	/**
+	 * The number of responses waiting to be sent.
+	 */
+	public int size();
+	
+}
\ No newline at end of file
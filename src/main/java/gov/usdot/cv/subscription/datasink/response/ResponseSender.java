@@ -1,69 +1,113 @@
 package gov.usdot.cv.subscription.datasink.response;
 
-import gov.usdot.cv.common.inet.InetPacketException;
-import gov.usdot.cv.common.inet.InetPacketSender;
-import gov.usdot.cv.common.inet.InetPoint;
 import gov.usdot.cv.security.SecurityHelper;
 import gov.usdot.cv.security.crypto.CryptoProvider;
+import gov.usdot.cv.subscription.datasink.cache.CertificateRegistrationCache;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
-import com.oss.asn1.EncodeFailedException;
-import com.oss.asn1.EncodeNotSupportedException;
-
 public class ResponseSender implements Runnable {
+	// Offered on terminate to wake a sender waiting on an empty queue
+	private static final Response WAKE_UP = new Response.Builder().build();
+	
 	private final Logger logger = Logger.getLogger(getClass());
 	private final BlockingQueue<Response> queue;
-	private boolean terminated = false;
+	private final Semaphore permits;
+	private volatile boolean terminated = false;
 	private final CryptoProvider cryptoProvider = new CryptoProvider();
 	private static final int Psid = 0x2fe1;
-	private InetPacketSender packetSender;
+	private final ResponseTransport transport;
+	private final BatchStats stats = new BatchStats();
+	
+	public ResponseSender(BlockingQueue<Response> queue, ResponseTransport transport) {
+		this(queue, transport, null);
+	}
 	
-	public ResponseSender(BlockingQueue<Response> queue, InetPoint forwarderPoint) {
+	/**
+	 * A sender that returns a permit for every response it takes from the queue,
+	 * to the backlog bound shared with the other senders.
+	 */
+	public ResponseSender(BlockingQueue<Response> queue, ResponseTransport transport, Semaphore permits) {
 		this.queue = queue;
-		packetSender = new InetPacketSender(forwarderPoint);
-		SecurityHelper.initSecurity();
+		this.transport = transport;
+		this.permits = permits;
 	}
 	
 	public void terminate() {
 		this.terminated = true;
-		SecurityHelper.disposeSecurity();
+		// A full queue does not need waking up so a failed offer is fine
+		this.queue.offer(WAKE_UP);
+	}
+	
+	public BatchStats getBatchStats() {
+		return this.stats;
 	}
 	
 	public void run() {
 		logger.info("Response sender [" + Thread.currentThread().getId() + "] is starting ...");
 		logger.info("Response sender [" + Thread.currentThread().getId() + "] is ready for work ...");
-		loopAndPoll();
+		try {
+			loopAndDrain();
+		} finally {
+			this.transport.close();
+			logger.info("Response sender [" + Thread.currentThread().getId() + "] sent " + this.stats.toString());
+		}
 	}
 	
-	private void loopAndPoll() {
-		while (! this.terminated || this.queue.size() > 0) try {
-			send(this.queue.poll(1, TimeUnit.SECONDS));
+	private void loopAndDrain() {
+		List<Response> batch = new ArrayList<Response>(BatchStats.MAX_LIMIT);
+		while (! this.terminated || ! this.queue.isEmpty()) try {
+			Response first = this.queue.poll(1, TimeUnit.SECONDS);
+			if (first == null) continue;
+			
+			batch.add(first);
+			this.queue.drainTo(batch, this.stats.limit() - 1);
+			release(batch);
+			
+			long start = System.nanoTime();
+			int sent = 0;
+			for (Response response : batch) {
+				if (response == WAKE_UP) continue;
+				try {
+					send(response);
+				} catch (Exception ex) {
+					logger.error("Failed to send response.", ex);
+				}
+				sent++;
+			}
+			this.stats.record(sent, System.nanoTime() - start);
+			batch.clear();
 		} catch (InterruptedException ie) {
 			logger.error("Response sender was interrupted.", ie);
-		} catch (Exception ex) {
-			logger.error("Failed to send response.", ex);
 		}
 	}
 	
-	private void send(Response response) throws EncodeFailedException, EncodeNotSupportedException, IOException, InetPacketException {
-		if (response == null) return;
-		
+	private void release(List<Response> batch) {
+		if (this.permits == null) return;
+		int taken = 0;
+		for (Response response : batch) {
+			if (response != WAKE_UP) taken++;
+		}
+		if (taken > 0) this.permits.release(taken);
+	}
+	
+	private void send(Response response) throws Exception {
 		byte [] payload = response.encode();
 		if (response.getCertificate() != null) {
 			try {
-				byte[] certID8 = SecurityHelper.registerCert(response.getCertificate(), cryptoProvider);
+				byte[] certID8 = CertificateRegistrationCache.getInstance().register(response.getCertificate(), cryptoProvider);
 				payload = SecurityHelper.encrypt(payload, certID8, cryptoProvider, Psid);
 			} catch (Exception ex) {
 				logger.error("Couldn't encrypt outgoing message. Reason: " + ex.getMessage(), ex);
 			}
 		}
 		
-		InetPoint destPoint = new InetPoint(response.getTargetHost(), response.getTargetPort(), false);
-		packetSender.forward(destPoint, payload, response.isFromForwarder());
+		this.transport.send(response, payload);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,121 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+import gov.usdot.cv.common.inet.InetPoint;
+import gov.usdot.cv.common.util.PropertyLocator;
+import gov.usdot.cv.security.SecurityHelper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Spreads responses over a fixed set of senders, each with its own queue, crypto
+ * provider and packet sender. Responses are partitioned by target host and port so
+ * the responses to one destination are always sent in order by the same sender
+ * while responses to different destinations are encoded, encrypted and sent in
+ * parallel.
+ * 
+ * The backlog is bounded by one set of permits shared by all senders: an offer
+ * takes a permit, waiting for one up to its timeout, and a sender returns it when
+ * it takes the response from its queue. Every partition has room for the whole
+ * capacity, so a response admitted below the high water mark fits whichever
+ * sender its destination hashes to and the partitions are never the limit.
+ * 
+ * Senders either go through InetPacketSender or, when a channel count is given,
+ * write to their own non-blocking datagram channels.
+ */
+public class ResponseSenderPool implements ResponseDispatcher {
+	private final Logger logger = Logger.getLogger(getClass());
+	private final List<LinkedBlockingQueue<Response>> queues;
+	private final ResponseSender[] senders;
+	private final Thread[] threads;
+	private final int capacity;
+	private final Semaphore permits;
+	
+	public ResponseSenderPool(int senderCount, int capacity, int channelCount, InetPoint forwarderPoint) {
+		this.queues = new ArrayList<LinkedBlockingQueue<Response>>(senderCount);
+		this.senders = new ResponseSender[senderCount];
+		this.threads = new Thread[senderCount];
+		this.capacity = Math.max(1, capacity);
+		this.permits = new Semaphore(this.capacity);
+		
+		for (int i = 0; i < senderCount; i++) {
+			// One more than the capacity, for the wake up offered on terminate
+			LinkedBlockingQueue<Response> queue = new LinkedBlockingQueue<Response>(this.capacity + 1);
+			this.queues.add(queue);
+			this.senders[i] = new ResponseSender(queue, createTransport(channelCount, forwarderPoint), this.permits);
+			this.threads[i] = new Thread(this.senders[i], "cvsubscription-sender-" + i);
+		}
+	}
+	
+	public void start() {
+		SecurityHelper.initSecurity();
+		for (Thread thread : this.threads) {
+			thread.start();
+		}
+	}
+	
+	public boolean offer(Response response) {
+		if (! this.permits.tryAcquire()) return false;
+		return enqueue(response);
+	}
+	
+	public boolean offer(Response response, long timeout, TimeUnit unit) throws InterruptedException {
+		if (! this.permits.tryAcquire(timeout, unit)) return false;
+		return enqueue(response);
+	}
+	
+	/**
+	 * The number of responses offered and not yet taken by a sender.
+	 */
+	public int size() {
+		return this.capacity - this.permits.availablePermits();
+	}
+	
+	private boolean enqueue(Response response) {
+		if (this.queues.get(partition(response, this.queues.size())).offer(response)) return true;
+		this.permits.release();
+		return false;
+	}
+	
+	/**
+	 * Stop the senders once their queues are drained and then release the security
+	 * resources they share.
+	 */
+	public void terminate() {
+		for (ResponseSender sender : this.senders) {
+			sender.terminate();
+		}
+		for (Thread thread : this.threads) {
+			try { thread.join(5000); } catch (InterruptedException e) {}
+			if (thread.isAlive()) {
+				logger.warn(String.format("Response sender '%s' did not terminate in time.", thread.getName()));
+			}
+		}
+		SecurityHelper.disposeSecurity();
+	}
+	
+	static ResponseTransport createTransport(int channelCount, InetPoint forwarderPoint) {
+		if (channelCount > 0) try {
+			int sendBufferSize = PropertyLocator.getInt("subscription.response.channel.sndbuf", 0);
+			long writeTimeout = PropertyLocator.getInt("subscription.response.channel.write.timeout", 100);
+			return new DatagramChannelTransport(channelCount, sendBufferSize, writeTimeout, forwarderPoint);
+		} catch (IOException ex) {
+			Logger.getLogger(ResponseSenderPool.class).error("Failed to open response datagram channels, sending through InetPacketSender.", ex);
+		}
+		return new InetPacketTransport(forwarderPoint);
+	}
+	
+	static int partition(Response response, int partitions) {
+		int hash = (response.getTargetHost() != null) ? response.getTargetHost().hashCode() : 0;
+		hash = 31 * hash + response.getTargetPort();
+		// Spread the bits so sequential ports don't cluster
+		hash ^= (hash >>> 16);
+		return (hash & 0x7fffffff) % partitions;
+	}
+}
\ No newline at end of file
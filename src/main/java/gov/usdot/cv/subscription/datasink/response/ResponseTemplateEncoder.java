@@ -0,0 +1,188 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+import gov.usdot.cv.common.subscription.response.ResponseCode;
+
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Encodes DataSubscriptionResponse messages by patching the group, request and
+ * subscriber ids into precomputed UPER templates instead of running the OSS coder.
+ * 
+ * The templates are calibrated against the coder when the encoder is first used:
+ * for every response code a template is encoded with all ids set to zero, then
+ * each id bit is probed to find where the coder places it. A field whose 32 bits
+ * do not land contiguously at a fixed position is not patched, and a response with
+ * a non-zero value for such a field is left to the coder. Every template is checked
+ * against the coder with sample values before it is used, so the output is always
+ * byte-identical to Response.encodeWithCoder().
+ */
+public class ResponseTemplateEncoder {
+	private static final int GROUP_ID 		= 0;
+	private static final int REQUEST_ID 	= 1;
+	private static final int SUBSCRIBER_ID 	= 2;
+	private static final int FIELD_COUNT 	= 3;
+	
+	private static final int [][] SAMPLES = {
+		{ 0, 1001, 10000000 },
+		{ 1, -1, 99999999 },
+		{ 0x5a5a5a5a, 0xa5a5a5a5, Integer.MIN_VALUE },
+		{ Integer.MAX_VALUE, 0x00ff00ff, 0x12345678 }
+	};
+	
+	private static class ResponseTemplateEncoderHolder { 
+		private static final ResponseTemplateEncoder INSTANCE = new ResponseTemplateEncoder();
+	}
+	
+	public static ResponseTemplateEncoder getInstance() {
+		return ResponseTemplateEncoderHolder.INSTANCE;
+	}
+	
+	private final Logger logger = Logger.getLogger(getClass());
+	
+	private final Template success;
+	private final Template [] failures;
+	
+	private ResponseTemplateEncoder() {
+		ResponseCode [] codes = ResponseCode.values();
+		this.failures = new Template[codes.length];
+		this.success = calibrate(null);
+		
+		int calibrated = (this.success != null) ? 1 : 0;
+		for (ResponseCode code : codes) {
+			this.failures[code.ordinal()] = calibrate(code);
+			if (this.failures[code.ordinal()] != null) calibrated++;
+		}
+		logger.info(String.format("Calibrated %s of %s response templates.", calibrated, codes.length + 1));
+	}
+	
+	/**
+	 * Returns true when responses without an error code are encoded from a template.
+	 */
+	public boolean isEnabled() {
+		return this.success != null;
+	}
+	
+	/**
+	 * Encode a response from its template, or return null when the response has to
+	 * be encoded by the coder.
+	 */
+	public byte [] encode(int groupId, int requestId, int subscriberId, ResponseCode code) {
+		Template template = (code == null) ? this.success : this.failures[code.ordinal()];
+		if (template == null) return null;
+		return template.patch(groupId, requestId, subscriberId);
+	}
+	
+	private Template calibrate(ResponseCode code) {
+		try {
+			byte [] base = encodeWithCoder(new int[FIELD_COUNT], code);
+			int [] offsets = new int[FIELD_COUNT];
+			for (int field = 0; field < FIELD_COUNT; field++) {
+				offsets[field] = locate(base, field, code);
+			}
+			
+			Template template = new Template(base, offsets);
+			for (int [] sample : SAMPLES) {
+				int [] values = sample.clone();
+				for (int field = 0; field < FIELD_COUNT; field++) {
+					if (offsets[field] < 0) values[field] = 0;
+				}
+				byte [] expected = encodeWithCoder(values, code);
+				byte [] actual = template.patch(values[GROUP_ID], values[REQUEST_ID], values[SUBSCRIBER_ID]);
+				if (! Arrays.equals(expected, actual)) {
+					logger.warn(String.format("Response template for code '%s' does not match the coder, using the coder.", code));
+					return null;
+				}
+			}
+			return template;
+		} catch (Exception ex) {
+			logger.warn(String.format("Failed to calibrate response template for code '%s', using the coder.", code), ex);
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the bit offset of the most significant bit of the field in the encoding,
+	 * or -1 when the field is not encoded as 32 contiguous bits at a fixed position.
+	 */
+	private int locate(byte [] base, int field, ResponseCode code) {
+		int offset = -1;
+		for (int bit = 0; bit < 32; bit++) {
+			int [] values = new int[FIELD_COUNT];
+			values[field] = 1 << (31 - bit);
+			
+			byte [] probe;
+			try {
+				probe = encodeWithCoder(values, code);
+			} catch (Exception ex) {
+				return -1;
+			}
+			if (probe.length != base.length) return -1;
+			
+			int diff = difference(base, probe);
+			if (diff < 0) return -1;
+			if (bit == 0) {
+				offset = diff;
+			} else if (diff != offset + bit) {
+				return -1;
+			}
+		}
+		return offset;
+	}
+	
+	/**
+	 * Returns the index of the only bit that differs between the two encodings, or -1
+	 * when they are equal or differ in more than one bit.
+	 */
+	private static int difference(byte [] a, byte [] b) {
+		int index = -1;
+		for (int i = 0; i < a.length; i++) {
+			int x = (a[i] ^ b[i]) & 0xff;
+			if (x == 0) continue;
+			if (index >= 0 || (x & (x - 1)) != 0) return -1;
+			index = (i << 3) + Integer.numberOfLeadingZeros(x) - 24;
+		}
+		return index;
+	}
+	
+	private static byte [] encodeWithCoder(int [] values, ResponseCode code) throws Exception {
+		return Response.encodeWithCoder(values[GROUP_ID], values[REQUEST_ID], values[SUBSCRIBER_ID], code);
+	}
+	
+	private static class Template {
+		private final byte [] bytes;
+		private final int [] offsets;
+		
+		private Template(byte [] bytes, int [] offsets) {
+			this.bytes = bytes;
+			this.offsets = offsets;
+		}
+		
+		private byte [] patch(int groupId, int requestId, int subscriberId) {
+			if ((groupId != 0 && this.offsets[GROUP_ID] < 0) ||
+				(requestId != 0 && this.offsets[REQUEST_ID] < 0) ||
+				(subscriberId != 0 && this.offsets[SUBSCRIBER_ID] < 0)) {
+				return null;
+			}
+			
+			byte [] result = this.bytes.clone();
+			if (groupId != 0) write(result, this.offsets[GROUP_ID], groupId);
+			if (requestId != 0) write(result, this.offsets[REQUEST_ID], requestId);
+			if (subscriberId != 0) write(result, this.offsets[SUBSCRIBER_ID], subscriberId);
+			return result;
+		}
+		
+		/**
+		 * ORs the 32 bits of value, most significant first, into the buffer starting at
+		 * the bit offset. The template holds zeros in those bits.
+		 */
+		private static void write(byte [] buffer, int offset, int value) {
+			int index = offset >>> 3;
+			long bits = (value & 0xffffffffL) << (8 - (offset & 7));
+			for (int i = 4; i >= 0; i--, bits >>>= 8) {
+				if (index + i < buffer.length) buffer[index + i] |= (byte) bits;
+			}
+		}
+	}
+}
\ No newline at end of file
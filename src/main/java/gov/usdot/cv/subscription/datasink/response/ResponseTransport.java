@@ -0,0 +1,13 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+/**
+ * Delivers an encoded (and possibly encrypted) response to its target, either
+ * directly or wrapped for the forwarder when the request came through it.
+ */
+public interface ResponseTransport {
+	
+	public void send(Response response, byte [] payload) throws Exception;
+	
+	public void close();
+	
+}
\ No newline at end of file
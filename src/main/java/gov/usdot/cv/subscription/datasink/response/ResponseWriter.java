@@ -0,0 +1,102 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The I/O stage of the response pipeline. Takes payloads that the crypto stage has
+ * encoded, and encrypted where needed, and only writes them to the transport.
+ */
+public class ResponseWriter implements Runnable {
+	// Offered on terminate to wake a writer waiting on an empty queue
+	private static final Outgoing WAKE_UP = new Outgoing(null, null);
+	
+	private final Logger logger = Logger.getLogger(getClass());
+	private final BlockingQueue<Outgoing> queue;
+	private final ResponseTransport transport;
+	private final Semaphore permits;
+	private volatile boolean terminated = false;
+	private final BatchStats stats = new BatchStats();
+	
+	public ResponseWriter(BlockingQueue<Outgoing> queue, ResponseTransport transport) {
+		this(queue, transport, null);
+	}
+	
+	/**
+	 * A writer that returns a permit for every payload it takes from the queue, to
+	 * the backlog bound of the whole pipeline.
+	 */
+	public ResponseWriter(BlockingQueue<Outgoing> queue, ResponseTransport transport, Semaphore permits) {
+		this.queue = queue;
+		this.transport = transport;
+		this.permits = permits;
+	}
+	
+	public void terminate() {
+		this.terminated = true;
+		this.queue.offer(WAKE_UP);
+	}
+	
+	public BatchStats getBatchStats() {
+		return this.stats;
+	}
+	
+	public void run() {
+		logger.info("Response writer [" + Thread.currentThread().getId() + "] is starting ...");
+		try {
+			loopAndDrain();
+		} finally {
+			this.transport.close();
+			logger.info("Response writer [" + Thread.currentThread().getId() + "] sent " + this.stats.toString());
+		}
+	}
+	
+	private void loopAndDrain() {
+		List<Outgoing> batch = new ArrayList<Outgoing>(BatchStats.MAX_LIMIT);
+		while (! this.terminated || ! this.queue.isEmpty()) try {
+			Outgoing first = this.queue.poll(1, TimeUnit.SECONDS);
+			if (first == null) continue;
+			
+			batch.add(first);
+			this.queue.drainTo(batch, this.stats.limit() - 1);
+			if (this.permits != null) {
+				int taken = 0;
+				for (Outgoing outgoing : batch) {
+					if (outgoing != WAKE_UP) taken++;
+				}
+				if (taken > 0) this.permits.release(taken);
+			}
+			
+			long start = System.nanoTime();
+			int sent = 0;
+			for (Outgoing outgoing : batch) {
+				if (outgoing == WAKE_UP) continue;
+				try {
+					this.transport.send(outgoing.response, outgoing.payload);
+				} catch (Exception ex) {
+					logger.error("Failed to send response.", ex);
+				}
+				sent++;
+			}
+			this.stats.record(sent, System.nanoTime() - start);
+			batch.clear();
+		} catch (InterruptedException ie) {
+			logger.error("Response writer was interrupted.", ie);
+		}
+	}
+	
+	public static class Outgoing {
+		private final Response response;
+		private final byte [] payload;
+		
+		public Outgoing(Response response, byte [] payload) {
+			this.response = response;
+			this.payload = payload;
+		}
+	}
+}
\ No newline at end of file
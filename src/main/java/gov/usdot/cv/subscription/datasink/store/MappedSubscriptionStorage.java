@@ -0,0 +1,711 @@
+package gov.usdot.cv.subscription.datasink.store;
+
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
+import gov.usdot.cv.subscription.datasink.dao.SubscriberIdVisitor;
+import gov.usdot.cv.subscription.datasink.dao.SubscriptionStorage;
+import gov.usdot.cv.subscription.datasink.exception.StorageException;
+import gov.usdot.cv.subscription.datasink.expiration.ExpirationSchedule;
+import gov.usdot.cv.subscription.datasink.util.IntObjectMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps subscriptions in a memory-mapped file instead of the database tables.
+ * The file is a log of compact binary mutation records framed like the
+ * write-behind journal; the live subscriptions are held in an int-keyed map
+ * rebuilt from the log at open. Every change is appended and forced to disk
+ * before it returns, and the log is rewritten with only the live subscriptions
+ * once it holds more than twice as many records as there are subscriptions.
+ * The subscriber ids are also kept in an ExpirationSchedule by end time, so
+ * expiring only looks at the subscriptions that are due.
+ * 
+ * Given a mirror, usually the JDBC storage, every change is also written to it in
+ * the background in group commits, so components that read the subscriber and
+ * filter tables see the subscriptions kept here, a little behind. The file is the
+ * record: at open every live subscription is written to the mirror again and the
+ * removals it may not have seen are repeated, which covers whatever was not
+ * mirrored before the last close. Only subscribers this storage removed are ever
+ * deleted from the mirror, so it may hold other writers' subscriptions as well;
+ * a removal is kept in the log through compactions until the mirror has it.
+ * 
+ * The generation of the saved subscriber id bitmap is kept in a small file next
+ * to the log rather than in the mirror, since it has to match this file.
+ */
+public class MappedSubscriptionStorage implements SubscriptionStorage {
+	private static final int INITIAL_CAPACITY 	= 16 * 1024 * 1024;
+	private static final int HEADER 			= 8;
+	private static final int MIN_COMPACT_RECORDS = 10000;
+	private static final int MIRROR_GROUP_SIZE 	= 500;
+	private static final long MAX_MIRROR_RETRY_DELAY = 5000;
+	
+	private final Logger logger = Logger.getLogger(getClass());
+	
+	private final File file;
+	private final File generationFile;
+	private final SubscriptionStorage mirror;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private MappedByteBuffer map;
+	private int position = 0;
+	private int records = 0;
+	private long sequence = 0;
+	private int compactions = 0;
+	
+	private final IntObjectMap<Subscriber> subscribers = new IntObjectMap<Subscriber>(1024);
+	private final ExpirationSchedule schedule = new ExpirationSchedule();
+	// Subscribers removed here and not from the mirror yet, by the sequence of the removal
+	private final IntObjectMap<Long> unmirroredRemovals = new IntObjectMap<Long>();
+	
+	private Mirror mirrorWriter;
+	private Thread mirrorThread;
+	
+	public MappedSubscriptionStorage(File file) {
+		this(file, null);
+	}
+	
+	public MappedSubscriptionStorage(File file, SubscriptionStorage mirror) {
+		this.file = file;
+		this.generationFile = new File(file.getPath() + ".generation");
+		this.mirror = mirror;
+	}
+	
+	/**
+	 * Map the file and rebuild the subscriptions from it, unless already open, then
+	 * start bringing the mirror level with it.
+	 */
+	public synchronized void open() throws IOException {
+		if (this.map != null) return;
+		
+		File parent = this.file.getAbsoluteFile().getParentFile();
+		if (parent != null && ! parent.exists()) parent.mkdirs();
+		
+		this.raf = new RandomAccessFile(this.file, "rw");
+		this.channel = this.raf.getChannel();
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < this.channel.size()) {
+			capacity <<= 1;
+		}
+		this.map = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		replay();
+		if (this.mirror != null) {
+			List<Subscriber> live = new ArrayList<Subscriber>(this.subscribers.size());
+			for (int subscriberId : this.subscribers.keys()) {
+				live.add(this.subscribers.get(subscriberId));
+			}
+			this.mirrorWriter = new Mirror(live, removals());
+			this.mirrorThread = new Thread(this.mirrorWriter, "SubscriptionMirror");
+			this.mirrorThread.setDaemon(true);
+			this.mirrorThread.start();
+		}
+		logger.info(String.format("Opened subscription storage %s.", toString()));
+	}
+	
+	public synchronized boolean isOpen() {
+		return this.map != null;
+	}
+	
+	public synchronized Collection<Subscriber> findAllSubscribers() {
+		List<Subscriber> result = new ArrayList<Subscriber>(this.subscribers.size());
+		for (int subscriberId : this.subscribers.keys()) {
+			result.add(this.subscribers.get(subscriberId));
+		}
+		return result;
+	}
+	
+	public synchronized Collection<Filter> findAllFilters() {
+		List<Filter> result = new ArrayList<Filter>(this.subscribers.size());
+		for (int subscriberId : this.subscribers.keys()) {
+			Filter filter = this.subscribers.get(subscriberId).getFilter();
+			if (filter != null) result.add(filter);
+		}
+		return result;
+	}
+	
+	public synchronized Subscriber findSubscriber(int subscriberId) {
+		return this.subscribers.get(subscriberId);
+	}
+	
+	public synchronized Filter findFilter(int subscriberId) {
+		Subscriber subscriber = this.subscribers.get(subscriberId);
+		return (subscriber != null) ? subscriber.getFilter() : null;
+	}
+	
+	public int scanSubscriberIds(SubscriberIdVisitor visitor) {
+		int[] ids;
+		synchronized (this) {
+			ids = this.subscribers.keys();
+		}
+		for (int subscriberId : ids) {
+			visitor.visit(subscriberId);
+		}
+		return ids.length;
+	}
+	
+	public synchronized int findMaxSubscriberId() {
+		int max = 0;
+		for (int subscriberId : this.subscribers.keys()) {
+			if (subscriberId > max) max = subscriberId;
+		}
+		return max;
+	}
+	
+	public synchronized int countSubscribers() {
+		return this.subscribers.size();
+	}
+	
+	public synchronized void add(Subscriber subscriber) throws StorageException {
+		Mutation mutation = Mutation.add(subscriber);
+		try {
+			append(mutation);
+			this.map.force();
+		} catch (IOException ex) {
+			throw new StorageException(String.format("Failed to add subscriber '%s'.", subscriber.getSubscriberId()), ex);
+		}
+		hold(subscriber);
+		mirror(mutation);
+		compactIfNeeded();
+	}
+	
+	public synchronized void addAll(Collection<Subscriber> subscribers) throws StorageException {
+		int start = this.position;
+		List<Mutation> mutations = new ArrayList<Mutation>(subscribers.size());
+		try {
+			for (Subscriber subscriber : subscribers) {
+				Mutation mutation = Mutation.add(subscriber);
+				append(mutation);
+				mutations.add(mutation);
+			}
+			this.map.force();
+		} catch (IOException ex) {
+			rewind(start, this.position);
+			throw new StorageException(String.format("Failed to add %s subscribers.", subscribers.size()), ex);
+		}
+		for (Subscriber subscriber : subscribers) {
+			hold(subscriber);
+		}
+		mirror(mutations);
+		compactIfNeeded();
+	}
+	
+	public synchronized boolean cancel(int subscriberId, int requestId) throws StorageException {
+		Subscriber subscriber = this.subscribers.get(subscriberId);
+		if (subscriber == null) return false;
+		// A filter for another request id keeps the subscriber
+		if (subscriber.getFilter() != null && subscriber.getFilter().getRequestId() != requestId) return false;
+		
+		Mutation mutation = Mutation.cancel(subscriberId, requestId);
+		try {
+			append(mutation);
+			this.map.force();
+		} catch (IOException ex) {
+			throw new StorageException(String.format("Failed to cancel subscriber '%s'.", subscriberId), ex);
+		}
+		forget(mutation);
+		mirror(mutation);
+		compactIfNeeded();
+		return true;
+	}
+	
+	public synchronized void writeAll(Collection<Subscriber> upserts, Collection<Integer> deletes) throws StorageException {
+		int start = this.position;
+		List<Mutation> mutations = new ArrayList<Mutation>();
+		List<Mutation> removals = new ArrayList<Mutation>();
+		try {
+			if (deletes != null) {
+				for (Integer subscriberId : deletes) {
+					Mutation mutation = Mutation.cancel(subscriberId, 0);
+					append(mutation);
+					mutations.add(mutation);
+					removals.add(mutation);
+				}
+			}
+			if (upserts != null) {
+				for (Subscriber subscriber : upserts) {
+					Mutation mutation = Mutation.add(subscriber);
+					append(mutation);
+					mutations.add(mutation);
+				}
+			}
+			this.map.force();
+		} catch (IOException ex) {
+			rewind(start, this.position);
+			throw new StorageException("Failed to write subscription changes.", ex);
+		}
+		for (Mutation removal : removals) {
+			forget(removal);
+		}
+		if (upserts != null) {
+			for (Subscriber subscriber : upserts) {
+				hold(subscriber);
+			}
+		}
+		mirror(mutations);
+		compactIfNeeded();
+	}
+	
+	/**
+	 * Takes the due subscriber ids from the schedule, skipping the entries left
+	 * behind by cancelled and replaced subscriptions. When the change cannot be
+	 * written the expired ids are scheduled again.
+	 */
+	public synchronized int[] expireBefore(long time, int limit) throws StorageException {
+		Set<Integer> expired = new LinkedHashSet<Integer>();
+		while (expired.size() < limit) {
+			int[] due = this.schedule.pollDue(time, limit - expired.size());
+			if (due.length == 0) break;
+			for (int subscriberId : due) {
+				Subscriber subscriber = this.subscribers.get(subscriberId);
+				if (subscriber != null && endTime(subscriber) < time) expired.add(subscriberId);
+			}
+		}
+		if (expired.isEmpty()) return new int[0];
+		
+		try {
+			writeAll(null, expired);
+		} catch (StorageException ex) {
+			for (int subscriberId : expired) {
+				this.schedule.add(subscriberId, endTime(this.subscribers.get(subscriberId)));
+			}
+			throw ex;
+		}
+		int[] result = new int[expired.size()];
+		int i = 0;
+		for (int subscriberId : expired) {
+			result[i++] = subscriberId;
+		}
+		return result;
+	}
+	
+	/**
+	 * Every record carries its own certificate, so only the mirror has certificates
+	 * to remove.
+	 */
+	public int removeUnreferencedCertificates() throws StorageException {
+		return (this.mirror != null) ? this.mirror.removeUnreferencedCertificates() : 0;
+	}
+	
+	public synchronized long findGeneration() throws StorageException {
+		if (! this.generationFile.exists()) return -1;
+		try {
+			RandomAccessFile in = new RandomAccessFile(this.generationFile, "r");
+			try {
+				return (in.length() < 8) ? -1 : in.readLong();
+			} finally {
+				in.close();
+			}
+		} catch (IOException ex) {
+			throw new StorageException(String.format("Failed to read the subscriber id generation from '%s'.", this.generationFile), ex);
+		}
+	}
+	
+	public synchronized void updateGeneration(long generation) throws StorageException {
+		try {
+			RandomAccessFile out = new RandomAccessFile(this.generationFile, "rw");
+			try {
+				out.seek(0);
+				out.writeLong(generation);
+				out.setLength(8);
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+		} catch (IOException ex) {
+			throw new StorageException(String.format("Failed to write the subscriber id generation to '%s'.", this.generationFile), ex);
+		}
+	}
+	
+	/**
+	 * Stop mirroring, waiting a while for the changes not mirrored yet, and unmap the
+	 * file. What is left unmirrored is brought level at the next open.
+	 */
+	public void close() {
+		Mirror writer;
+		Thread thread;
+		synchronized (this) {
+			writer = this.mirrorWriter;
+			thread = this.mirrorThread;
+			this.mirrorWriter = null;
+			this.mirrorThread = null;
+		}
+		if (writer != null) {
+			writer.terminate();
+			try { thread.join(5000); } catch (InterruptedException ignore) {}
+		}
+		unmap();
+	}
+	
+	/**
+	 * Returns how many changes wait to be written to the mirror.
+	 */
+	public synchronized int getMirrorBacklog() {
+		return (this.mirrorWriter != null) ? this.mirrorWriter.backlog.size() : 0;
+	}
+	
+	private synchronized void unmap() {
+		try {
+			if (this.map != null) this.map.force();
+			if (this.raf != null) this.raf.close();
+		} catch (IOException ex) {
+			logger.error(String.format("Failed to close subscription storage '%s'.", this.file), ex);
+		}
+		this.map = null;
+		this.channel = null;
+		this.raf = null;
+	}
+	
+	public synchronized int size() {
+		return this.subscribers.size();
+	}
+	
+	public synchronized String toString() {
+		return String.format("mapped %s, subscriptions %s, records %s, log bytes %s, compactions %s, mirror backlog %s", 
+			this.file.getPath(), this.subscribers.size(), this.records, this.position, this.compactions, 
+			(this.mirrorWriter != null) ? this.mirrorWriter.backlog.size() : 0);
+	}
+	
+	private void replay() throws IOException {
+		this.position = 0;
+		this.records = 0;
+		this.subscribers.clear();
+		this.unmirroredRemovals.clear();
+		while (this.position + HEADER <= this.map.capacity()) {
+			int length = this.map.getInt(this.position);
+			if (length <= 0 || this.position + HEADER + length > this.map.capacity()) break;
+			long crc = this.map.getInt(this.position + 4) & 0xffffffffL;
+			byte [] body = new byte[length];
+			this.map.position(this.position + HEADER);
+			this.map.get(body);
+			if (MutationCodec.crc(body) != crc) break;
+			
+			Mutation mutation;
+			try {
+				mutation = MutationCodec.decode(body);
+			} catch (ParseException ex) {
+				logger.error(String.format("Stopped reading subscription storage '%s' at an unreadable record.", this.file), ex);
+				break;
+			}
+			if (mutation.isAdd()) {
+				// Scheduled all at once below
+				this.subscribers.put(mutation.getSubscriberId(), mutation.getSubscriber());
+				this.unmirroredRemovals.remove(mutation.getSubscriberId());
+			} else {
+				forget(mutation);
+			}
+			this.sequence = Math.max(this.sequence, mutation.getSequence());
+			this.position += HEADER + length;
+			this.records++;
+		}
+		
+		if (this.position + 4 <= this.map.capacity() && this.map.getInt(this.position) != 0) {
+			// Clear what a torn write left behind so it cannot be read as records later
+			logger.warn(String.format("Discarding a torn record at offset %s of subscription storage '%s'.", this.position, this.file));
+			rewind(this.position, this.map.capacity());
+		}
+		reschedule();
+	}
+	
+	private void append(Mutation mutation) throws IOException {
+		mutation.setSequence(++this.sequence);
+		byte [] body = MutationCodec.encode(mutation);
+		ensureCapacity(HEADER + body.length);
+		this.map.putInt(this.position, body.length);
+		this.map.putInt(this.position + 4, (int) MutationCodec.crc(body));
+		this.map.position(this.position + HEADER);
+		this.map.put(body);
+		this.position += HEADER + body.length;
+		this.records++;
+	}
+	
+	/**
+	 * Zero the log from the offset up to the end and make the offset the end of the
+	 * log again.
+	 */
+	private void rewind(int offset, int end) {
+		byte [] zeros = new byte[Math.min(64 * 1024, Math.max(1, end - offset))];
+		this.map.position(offset);
+		while (this.map.position() < end) {
+			this.map.put(zeros, 0, Math.min(zeros.length, end - this.map.position()));
+		}
+		this.position = offset;
+	}
+	
+	private void ensureCapacity(int length) throws IOException {
+		// Leave room for the zero length that marks the end of the log
+		int required = this.position + length + 4;
+		if (required <= this.map.capacity()) return;
+		
+		int capacity = this.map.capacity();
+		while (capacity < required) {
+			if (capacity >= (1 << 30)) throw new IOException("Subscription storage is full.");
+			capacity <<= 1;
+		}
+		this.map.force();
+		this.map = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+	}
+	
+	private void mirror(Mutation mutation) {
+		if (this.mirrorWriter != null) this.mirrorWriter.backlog.offer(Collections.singletonList(mutation));
+	}
+	
+	private void mirror(List<Mutation> mutations) {
+		if (this.mirrorWriter != null && ! mutations.isEmpty()) this.mirrorWriter.backlog.offer(mutations);
+	}
+	
+	private void hold(Subscriber subscriber) {
+		this.subscribers.put(subscriber.getSubscriberId(), subscriber);
+		this.unmirroredRemovals.remove(subscriber.getSubscriberId());
+		long endTime = endTime(subscriber);
+		if (endTime < Long.MAX_VALUE) this.schedule.add(subscriber.getSubscriberId(), endTime);
+	}
+	
+	/**
+	 * Drop the subscriber the removal is for and, with a mirror, remember the
+	 * removal until the mirror has it.
+	 */
+	private void forget(Mutation removal) {
+		this.subscribers.remove(removal.getSubscriberId());
+		if (this.mirror != null) this.unmirroredRemovals.put(removal.getSubscriberId(), removal.getSequence());
+	}
+	
+	/**
+	 * Returns the removals the mirror has not confirmed, as cancel mutations with
+	 * the sequence they were written with.
+	 */
+	private List<Mutation> removals() {
+		int[] ids = this.unmirroredRemovals.keys();
+		List<Mutation> removals = new ArrayList<Mutation>(ids.length);
+		for (int subscriberId : ids) {
+			Mutation removal = Mutation.cancel(subscriberId, 0);
+			removal.setSequence(this.unmirroredRemovals.get(subscriberId));
+			removals.add(removal);
+		}
+		return removals;
+	}
+	
+	/**
+	 * Forget the removals the mirror now has, unless the subscriber was removed
+	 * again since.
+	 */
+	private synchronized void confirm(List<Mutation> removals) {
+		for (Mutation removal : removals) {
+			Long sequence = this.unmirroredRemovals.get(removal.getSubscriberId());
+			if (sequence != null && sequence.longValue() == removal.getSequence()) {
+				this.unmirroredRemovals.remove(removal.getSubscriberId());
+			}
+		}
+	}
+	
+	/**
+	 * Returns the epoch millisecond the subscription ends, or Long.MAX_VALUE when it
+	 * has no end time.
+	 */
+	private static long endTime(Subscriber subscriber) {
+		Filter filter = subscriber.getFilter();
+		return (filter != null && filter.getEndTime() != null) ? filter.getEndTime().getTimeInMillis() : Long.MAX_VALUE;
+	}
+	
+	/**
+	 * Replace the schedule with one entry per subscription that ends, dropping the
+	 * entries left behind by cancelled and replaced subscriptions.
+	 */
+	private void reschedule() {
+		int[] ids = this.subscribers.keys();
+		long[] deadlines = new long[ids.length];
+		int count = 0;
+		for (int subscriberId : ids) {
+			long endTime = endTime(this.subscribers.get(subscriberId));
+			if (endTime == Long.MAX_VALUE) continue;
+			ids[count] = subscriberId;
+			deadlines[count++] = endTime;
+		}
+		this.schedule.rebuild(ids, deadlines, count);
+	}
+	
+	private void compactIfNeeded() {
+		if (this.schedule.size() > MIN_COMPACT_RECORDS && this.schedule.size() > 2 * this.subscribers.size()) reschedule();
+		if (this.records < MIN_COMPACT_RECORDS || this.records <= 2 * this.subscribers.size()) return;
+		try {
+			compact();
+		} catch (IOException ex) {
+			logger.error(String.format("Failed to compact subscription storage '%s', the log is left as it is.", this.file), ex);
+		}
+	}
+	
+	/**
+	 * Write the live subscriptions and the removals the mirror has not confirmed to
+	 * a new file and swap it in for the log.
+	 */
+	private void compact() throws IOException {
+		File compacted = new File(this.file.getPath() + ".compact");
+		RandomAccessFile out = new RandomAccessFile(compacted, "rw");
+		int length = 0;
+		try {
+			out.setLength(0);
+			FileChannel outChannel = out.getChannel();
+			List<Mutation> mutations = new ArrayList<Mutation>(this.subscribers.size() + this.unmirroredRemovals.size());
+			for (int subscriberId : this.subscribers.keys()) {
+				Mutation mutation = Mutation.add(this.subscribers.get(subscriberId));
+				mutation.setSequence(++this.sequence);
+				mutations.add(mutation);
+			}
+			// Kept with the sequence they were written with, which the mirror confirms them by
+			mutations.addAll(removals());
+			for (Mutation mutation : mutations) {
+				byte [] body = MutationCodec.encode(mutation);
+				ByteBuffer record = ByteBuffer.allocate(HEADER + body.length);
+				record.putInt(body.length).putInt((int) MutationCodec.crc(body)).put(body).flip();
+				while (record.hasRemaining()) {
+					length += outChannel.write(record);
+				}
+			}
+			outChannel.force(true);
+		} finally {
+			out.close();
+		}
+		
+		unmap();
+		boolean replaced = compacted.renameTo(this.file);
+		this.raf = new RandomAccessFile(this.file, "rw");
+		this.channel = this.raf.getChannel();
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < Math.max(length, this.channel.size()) + 4) {
+			capacity <<= 1;
+		}
+		this.map = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		if (! replaced) {
+			// Carry on with the old log
+			compacted.delete();
+			replay();
+			throw new IOException(String.format("Failed to replace '%s' with its compacted log.", this.file));
+		}
+		this.position = length;
+		this.records = this.subscribers.size() + this.unmirroredRemovals.size();
+		this.compactions++;
+		logger.info(String.format("Compacted subscription storage %s.", toString()));
+	}
+	
+	/**
+	 * Brings the mirror level with the subscriptions live at open and the removals
+	 * it had not confirmed, then writes the changes queued since, in order, coalescing each group so only the latest change
+	 * to a subscriber is written. A change is never split across groups, so the
+	 * mirror sees it whole. A failed write is retried with backoff until it succeeds
+	 * or the storage is closed.
+	 */
+	private class Mirror implements Runnable {
+		private final LinkedBlockingQueue<List<Mutation>> backlog = new LinkedBlockingQueue<List<Mutation>>();
+		private final List<Subscriber> live;
+		private final List<Mutation> removals;
+		private volatile boolean terminated = false;
+		
+		private Mirror(List<Subscriber> live, List<Mutation> removals) {
+			this.live = live;
+			this.removals = removals;
+		}
+		
+		private void terminate() {
+			this.terminated = true;
+		}
+		
+		public void run() {
+			long start = System.currentTimeMillis();
+			if (! reconcile()) return;
+			logger.info(String.format("Mirrored %s subscriptions in %s ms.", this.live.size(), System.currentTimeMillis() - start));
+			
+			List<Mutation> group = new ArrayList<Mutation>(MIRROR_GROUP_SIZE);
+			while (! this.terminated || ! this.backlog.isEmpty()) {
+				List<Mutation> change;
+				try {
+					change = this.backlog.poll(100, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException ex) {
+					return;
+				}
+				if (change == null) continue;
+				group.addAll(change);
+				while (group.size() < MIRROR_GROUP_SIZE && (change = this.backlog.poll()) != null) {
+					group.addAll(change);
+				}
+				
+				Map<Integer, Mutation> latest = new LinkedHashMap<Integer, Mutation>();
+				for (Mutation mutation : group) {
+					latest.put(mutation.getSubscriberId(), mutation);
+				}
+				List<Subscriber> upserts = new ArrayList<Subscriber>();
+				List<Mutation> removals = new ArrayList<Mutation>();
+				for (Mutation mutation : latest.values()) {
+					if (mutation.isAdd()) {
+						upserts.add(mutation.getSubscriber());
+					} else {
+						removals.add(mutation);
+					}
+				}
+				if (! write(upserts, removals)) return;
+				group.clear();
+			}
+		}
+		
+		/**
+		 * Repeat the removals the mirror had not confirmed, then write every live
+		 * subscriber. Subscribers the mirror holds that this storage never removed
+		 * are left to whoever wrote them. Returns false when the storage closed first.
+		 */
+		private boolean reconcile() {
+			for (int from = 0; from < this.removals.size(); from += MIRROR_GROUP_SIZE) {
+				if (! write(null, this.removals.subList(from, Math.min(this.removals.size(), from + MIRROR_GROUP_SIZE)))) return false;
+			}
+			for (int from = 0; from < this.live.size(); from += MIRROR_GROUP_SIZE) {
+				if (! write(this.live.subList(from, Math.min(this.live.size(), from + MIRROR_GROUP_SIZE)), null)) return false;
+			}
+			return true;
+		}
+		
+		private boolean write(List<Subscriber> upserts, List<Mutation> removals) {
+			List<Integer> deletes = null;
+			if (removals != null && ! removals.isEmpty()) {
+				deletes = new ArrayList<Integer>(removals.size());
+				for (Mutation removal : removals) {
+					deletes.add(removal.getSubscriberId());
+				}
+			}
+			for (long delay = 100;; delay = Math.min(MAX_MIRROR_RETRY_DELAY, delay * 2)) {
+				try {
+					mirror.writeAll(upserts, deletes);
+					if (deletes != null) confirm(removals);
+					return true;
+				} catch (StorageException ex) {
+					int size = ((upserts != null) ? upserts.size() : 0) + ((deletes != null) ? deletes.size() : 0);
+					logger.warn(String.format("Failed to mirror %s subscription changes, retrying in %s ms.", size, delay), ex);
+					if (! pause(delay)) return false;
+				}
+			}
+		}
+		
+		private boolean pause(long delay) {
+			if (this.terminated) return false;
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException ex) {
+				return false;
+			}
+			return ! this.terminated;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,44 @@
+package gov.usdot.cv.subscription.datasink.store;
+
+import gov.usdot.cv.common.model.Subscriber;
+
+/**
+ * A subscription change accepted by the write-behind store, either a subscription
+ * that was added or one that was cancelled.
+ */
+public class Mutation {
+	
+	public enum Type { ADD, CANCEL }
+	
+	private final Type type;
+	private final int subscriberId;
+	private final int requestId;
+	private final Subscriber subscriber;
+	private long sequence;
+	
+	private Mutation(Type type, int subscriberId, int requestId, Subscriber subscriber) {
+		this.type = type;
+		this.subscriberId = subscriberId;
+		this.requestId = requestId;
+		this.subscriber = subscriber;
+	}
+	
+	public static Mutation add(Subscriber subscriber) {
+		return new Mutation(Type.ADD, subscriber.getSubscriberId(), subscriber.getFilter().getRequestId(), subscriber);
+	}
+	
+	public static Mutation cancel(int subscriberId, int requestId) {
+		return new Mutation(Type.CANCEL, subscriberId, requestId, null);
+	}
+	
+	public Type getType() 				{ return this.type; }
+	public boolean isAdd() 				{ return this.type == Type.ADD; }
+	public int getSubscriberId() 		{ return this.subscriberId; }
+	public int getRequestId() 			{ return this.requestId; }
+	public Subscriber getSubscriber() 	{ return this.subscriber; }
+	public long getSequence() 			{ return this.sequence; }
+	
+	void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,129 @@
+package gov.usdot.cv.subscription.datasink.store;
+
+import gov.usdot.cv.common.model.BoundingBox;
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+
+/**
+ * The compact binary form of a mutation shared by the write-behind journal and
+ * the memory-mapped storage. Records are framed by their users as the body
+ * length, the CRC32 of the body and the body.
+ */
+class MutationCodec {
+	private static final byte ADD 		= 1;
+	private static final byte CANCEL 	= 2;
+	
+	private MutationCodec() {
+		// Uses static methods for all invocation.
+	}
+	
+	static long crc(byte [] body) {
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, body.length);
+		return crc.getValue();
+	}
+	
+	private static DateFormat dateFormat() {
+		DateFormat format = new SimpleDateFormat(Filter.DATE_PATTERN);
+		format.setTimeZone(TimeZone.getTimeZone(Filter.UTC_TIMEZONE));
+		return format;
+	}
+	
+	static byte [] encode(Mutation mutation) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(mutation.isAdd() ? ADD : CANCEL);
+		out.writeLong(mutation.getSequence());
+		out.writeInt(mutation.getSubscriberId());
+		out.writeInt(mutation.getRequestId());
+		
+		if (mutation.isAdd()) {
+			Subscriber subscriber = mutation.getSubscriber();
+			byte [] certificate = subscriber.getCertificate();
+			out.writeInt(certificate != null ? certificate.length : -1);
+			if (certificate != null) out.write(certificate);
+			writeString(out, subscriber.getDestHost());
+			out.writeInt(subscriber.getDestPort());
+			
+			Filter filter = subscriber.getFilter();
+			writeString(out, filter.getEndTime() != null ? dateFormat().format(filter.getEndTime().getTime()) : null);
+			writeString(out, filter.getType());
+			out.writeInt(filter.getTypeValue());
+			
+			BoundingBox bb = filter.getBoundingBox();
+			out.writeBoolean(bb != null);
+			if (bb != null) {
+				out.writeDouble(bb.getNWLat());
+				out.writeDouble(bb.getNWLon());
+				out.writeDouble(bb.getSELat());
+				out.writeDouble(bb.getSELon());
+			}
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	static Mutation decode(byte [] body) throws IOException, ParseException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+		byte type = in.readByte();
+		long sequence = in.readLong();
+		int subscriberId = in.readInt();
+		int requestId = in.readInt();
+		
+		Mutation mutation;
+		if (type == ADD) {
+			int length = in.readInt();
+			byte [] certificate = null;
+			if (length >= 0) {
+				certificate = new byte[length];
+				in.readFully(certificate);
+			}
+			String destHost = readString(in);
+			int destPort = in.readInt();
+			
+			Filter.Builder filter = new Filter.Builder();
+			filter.setSubscriberId(subscriberId).setRequestId(requestId);
+			String endTime = readString(in);
+			if (endTime != null) filter.setEndTime(endTime);
+			filter.setType(readString(in)).setTypeValue(in.readInt());
+			if (in.readBoolean()) {
+				BoundingBox.Builder bb = new BoundingBox.Builder();
+				bb.setNWLat(in.readDouble()).setNWLon(in.readDouble()).setSELat(in.readDouble()).setSELon(in.readDouble());
+				filter.setBoundingBox(bb.build());
+			}
+			
+			Subscriber.Builder subscriber = new Subscriber.Builder();
+			subscriber
+				.setSubscriberId(subscriberId)
+				.setCertificate(certificate)
+				.setDestHost(destHost)
+				.setDestPort(destPort)
+				.setFilter(filter.build());
+			mutation = Mutation.add(subscriber.build());
+		} else {
+			mutation = Mutation.cancel(subscriberId, requestId);
+		}
+		mutation.setSequence(sequence);
+		return mutation;
+	}
+	
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) out.writeUTF(value);
+	}
+	
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,282 @@
+package gov.usdot.cv.subscription.datasink.store;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An append-only log of the mutations accepted by the write-behind store. A
+ * mutation is acknowledged only after sync() has forced it to disk; concurrent
+ * callers share one force (group commit). Whatever is left in the log at start up
+ * is replayed.
+ * 
+ * The log is split into segment files of about the segment size, the first named
+ * after the journal file and the rest after it with their number appended. As the
+ * committer writes mutations to the database it checkpoints the sequence of the
+ * last one, which deletes every full segment it covers, so the log stays bounded
+ * under a steady load that never drains the backlog. Positions count across
+ * segments and never go back.
+ * 
+ * Each record is its length, the CRC32 of its body and the body, so a record torn
+ * by a crash is detected and recovery stops there.
+ */
+public class SubscriptionJournal {
+	public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+	
+	private final Logger logger = Logger.getLogger(getClass());
+	
+	private final File file;
+	private final long segmentSize;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	
+	private final Object appendLock = new Object();
+	private final Object syncLock = new Object();
+	private long sequence = 0;
+	private volatile long writtenPosition = 0;
+	private long syncedPosition = 0;
+	
+	// The full segments not yet covered by a checkpoint, oldest first
+	private final LinkedList<Segment> closed = new LinkedList<Segment>();
+	private long closedSize = 0;
+	private int segmentNumber = 0;
+	private File segmentFile;
+	// The position of the first byte of the current segment
+	private long segmentStart = 0;
+	
+	public SubscriptionJournal(File file) {
+		this(file, DEFAULT_SEGMENT_SIZE);
+	}
+	
+	public SubscriptionJournal(File file, long segmentSize) {
+		this.file = file;
+		this.segmentSize = Math.max(1, segmentSize);
+	}
+	
+	/**
+	 * Read the mutations left over from the last run, then open the log for appending
+	 * to its last segment.
+	 */
+	public List<Mutation> open() throws IOException {
+		List<Mutation> recovered = new ArrayList<Mutation>();
+		File[] segments = listSegments();
+		long valid = 0;
+		for (int i = 0; i < segments.length; i++) {
+			valid = read(segments[i], recovered);
+			if (i < segments.length - 1) {
+				this.closed.add(new Segment(segments[i], this.sequence));
+				this.closedSize += segments[i].length();
+			}
+		}
+		
+		if (segments.length > 0) {
+			this.segmentFile = segments[segments.length - 1];
+			this.segmentNumber = number(this.segmentFile);
+		} else {
+			this.segmentFile = this.file;
+			this.segmentNumber = 0;
+		}
+		this.raf = new RandomAccessFile(this.segmentFile, "rw");
+		this.channel = this.raf.getChannel();
+		this.channel.truncate(valid);
+		this.channel.position(valid);
+		this.segmentStart = 0;
+		this.writtenPosition = valid;
+		this.syncedPosition = valid;
+		return recovered;
+	}
+	
+	/**
+	 * Append the mutation and return the log position sync() must reach for it to be durable.
+	 */
+	public long append(Mutation mutation) throws IOException {
+		synchronized (this.appendLock) {
+			mutation.setSequence(++this.sequence);
+			byte [] body = MutationCodec.encode(mutation);
+			ByteBuffer record = ByteBuffer.allocate(8 + body.length);
+			record.putInt(body.length).putInt((int) MutationCodec.crc(body)).put(body).flip();
+			while (record.hasRemaining()) {
+				this.channel.write(record);
+			}
+			this.writtenPosition = this.segmentStart + this.channel.position();
+			long position = this.writtenPosition;
+			if (this.channel.position() >= this.segmentSize) roll();
+			return position;
+		}
+	}
+	
+	/**
+	 * Block until everything up to the position is on disk. A caller whose records
+	 * were covered by another caller's force returns without forcing again.
+	 */
+	public void sync(long position) throws IOException {
+		synchronized (this.syncLock) {
+			if (this.syncedPosition >= position) return;
+			long target = this.writtenPosition;
+			this.channel.force(false);
+			this.syncedPosition = target;
+		}
+	}
+	
+	/**
+	 * Release the log up to the given mutation, which the caller has written to the
+	 * database along with everything before it. Every full segment it covers is
+	 * deleted, and the current one is emptied when nothing was appended after it.
+	 * Returns true when the log is now empty.
+	 */
+	public boolean checkpoint(long sequence) throws IOException {
+		synchronized (this.appendLock) {
+			while (! this.closed.isEmpty() && this.closed.getFirst().lastSequence <= sequence) {
+				Segment segment = this.closed.removeFirst();
+				this.closedSize -= segment.file.length();
+				if (! segment.file.delete()) {
+					logger.warn(String.format("Failed to delete journal segment '%s'.", segment.file));
+				}
+			}
+			if (this.sequence != sequence || ! this.closed.isEmpty()) return false;
+			if (this.channel.position() == 0) return true;
+			synchronized (this.syncLock) {
+				this.segmentStart += this.channel.position();
+				this.channel.truncate(0);
+				this.channel.position(0);
+				this.channel.force(false);
+				this.syncedPosition = this.writtenPosition;
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * The number of bytes the log holds on disk.
+	 */
+	public long size() {
+		synchronized (this.appendLock) {
+			return this.closedSize + this.writtenPosition - this.segmentStart;
+		}
+	}
+	
+	/**
+	 * Force the full segment and continue in a new one. Called with the append lock
+	 * held; the sync lock keeps a concurrent sync() off the channel being replaced.
+	 */
+	private void roll() throws IOException {
+		synchronized (this.syncLock) {
+			this.channel.force(false);
+			this.syncedPosition = this.writtenPosition;
+			this.closed.add(new Segment(this.segmentFile, this.sequence));
+			this.closedSize += this.channel.position();
+			this.raf.close();
+			
+			this.segmentNumber++;
+			this.segmentFile = new File(this.file.getPath() + "." + this.segmentNumber);
+			this.raf = new RandomAccessFile(this.segmentFile, "rw");
+			this.channel = this.raf.getChannel();
+			this.channel.truncate(0);
+			this.segmentStart = this.writtenPosition;
+		}
+	}
+	
+	/**
+	 * Read the valid records of a segment into the list and return where they end.
+	 */
+	private long read(File segment, List<Mutation> recovered) throws IOException {
+		long valid = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)));
+		try {
+			while (true) {
+				int length = in.readInt();
+				long crc = in.readInt() & 0xffffffffL;
+				if (length <= 0 || length > segment.length()) break;
+				byte [] body = new byte[length];
+				in.readFully(body);
+				if (MutationCodec.crc(body) != crc) break;
+				
+				Mutation mutation = MutationCodec.decode(body);
+				this.sequence = Math.max(this.sequence, mutation.getSequence());
+				recovered.add(mutation);
+				valid += 8 + length;
+			}
+		} catch (EOFException ignore) {
+			// A torn record at the end of the log
+		} catch (ParseException ex) {
+			logger.error(String.format("Stopped reading journal '%s' at an unreadable record.", segment), ex);
+		} finally {
+			in.close();
+		}
+		return valid;
+	}
+	
+	/**
+	 * The segment files left by the last run in the order they were written.
+	 */
+	private File[] listSegments() {
+		final String name = this.file.getName();
+		File parent = this.file.getAbsoluteFile().getParentFile();
+		File[] segments = (parent != null) ? parent.listFiles(new FileFilter() {
+			public boolean accept(File candidate) {
+				return candidate.isFile() && number(candidate, name) >= 0;
+			}
+		}) : null;
+		if (segments == null) return new File[0];
+		
+		Arrays.sort(segments, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Integer.valueOf(number(a)).compareTo(number(b));
+			}
+		});
+		return segments;
+	}
+	
+	private int number(File segment) {
+		return number(segment, this.file.getName());
+	}
+	
+	/**
+	 * Returns the number of the segment of the named journal, or -1 when the file
+	 * is not one of its segments.
+	 */
+	private static int number(File segment, String name) {
+		String candidate = segment.getName();
+		if (candidate.equals(name)) return 0;
+		if (! candidate.startsWith(name + ".")) return -1;
+		try {
+			int number = Integer.parseInt(candidate.substring(name.length() + 1));
+			return (number > 0) ? number : -1;
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+	
+	public void close() {
+		try {
+			if (this.raf != null) this.raf.close();
+		} catch (IOException ex) {
+			logger.error(String.format("Failed to close journal '%s'.", this.file), ex);
+		}
+	}
+	
+	private static class Segment {
+		private final File file;
+		private final long lastSequence;
+		
+		private Segment(File file, long lastSequence) {
+			this.file = file;
+			this.lastSequence = lastSequence;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,229 @@
+package gov.usdot.cv.subscription.datasink.store;
+
+import gov.usdot.cv.common.model.Subscriber;
+import gov.usdot.cv.common.subscription.response.ResponseCode;
+import gov.usdot.cv.subscription.datasink.cache.SubscriptionIndex;
+import gov.usdot.cv.subscription.datasink.dao.DaoManager;
+import gov.usdot.cv.subscription.datasink.exception.SubscriptionException;
+import gov.usdot.cv.subscription.datasink.util.SubscriberIdGenerator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Accepts subscription adds and cancels without waiting for the database. A
+ * mutation is made durable in the journal, becomes visible through getPending()
+ * and is acknowledged; a background committer then writes the backlog to the
+ * database in group commits. When the database is slow or unavailable the
+ * committer retries the same group while the backlog absorbs new mutations up to
+ * its limit, past which new mutations are refused with ResourceLimitReached.
+ * 
+ * Mutations enter the backlog in the order of their journal sequence, so after
+ * each group commit the journal is checkpointed up to the last mutation of the
+ * group. What the journal held at start up is written before the backlog and
+ * does not count against its limit, so recovering a journal larger than the
+ * backlog never waits.
+ */
+public class WriteBehindStore implements Runnable {
+	private static final long MAX_RETRY_DELAY = 5000;
+	
+	private final Logger logger = Logger.getLogger(getClass());
+	
+	private final SubscriptionJournal journal;
+	private final int groupSize;
+	private final LinkedBlockingQueue<Mutation> backlog;
+	private final ConcurrentHashMap<Integer, Mutation> pending = new ConcurrentHashMap<Integer, Mutation>();
+	private final Object acceptLock = new Object();
+	private List<Mutation> recovered = new ArrayList<Mutation>();
+	private volatile boolean terminated = false;
+	
+	private long groups = 0;
+	private long committed = 0;
+	private long retries = 0;
+	
+	public WriteBehindStore(SubscriptionJournal journal, int maxBacklog, int groupSize) {
+		this.journal = journal;
+		this.groupSize = groupSize;
+		this.backlog = new LinkedBlockingQueue<Mutation>(maxBacklog);
+	}
+	
+	/**
+	 * Open the journal and hold whatever the last run left in it for the committer,
+	 * so it is written to the database before anything accepted from now on.
+	 */
+	public void recover() throws IOException {
+		List<Mutation> recovered = this.journal.open();
+		if (recovered.isEmpty()) return;
+		
+		logger.info(String.format("Recovered %s subscription changes from the write-behind journal.", recovered.size()));
+		for (Mutation mutation : recovered) {
+			this.pending.put(mutation.getSubscriberId(), mutation);
+			if (mutation.isAdd()) {
+				// The id may not be in the database yet, keep it from being handed out again
+				SubscriberIdGenerator.getInstance().reserve(mutation.getSubscriberId());
+				SubscriptionIndex.getInstance().put(mutation.getSubscriber());
+			} else {
+				SubscriptionIndex.getInstance().remove(mutation.getSubscriberId());
+			}
+		}
+		synchronized (this.acceptLock) {
+			this.recovered = recovered;
+		}
+	}
+	
+	public void add(Subscriber subscriber) throws SubscriptionException, IOException {
+		accept(Mutation.add(subscriber));
+	}
+	
+	public void cancel(int subscriberId, int requestId) throws SubscriptionException, IOException {
+		accept(Mutation.cancel(subscriberId, requestId));
+	}
+	
+	/**
+	 * Returns the latest change to the subscriber not yet written to the database, or
+	 * null when the database is up to date for it.
+	 */
+	public Mutation getPending(int subscriberId) {
+		return this.pending.get(subscriberId);
+	}
+	
+	public int getBacklog() {
+		return this.backlog.size();
+	}
+	
+	public long getJournalSize() {
+		return this.journal.size();
+	}
+	
+	public void terminate() {
+		this.terminated = true;
+	}
+	
+	/**
+	 * Journal and queue the mutation together, so the backlog is in sequence order,
+	 * then wait for the journal to make it durable along with any other worker's.
+	 */
+	private void accept(Mutation mutation) throws SubscriptionException, IOException {
+		long position;
+		synchronized (this.acceptLock) {
+			if (this.backlog.remainingCapacity() == 0) {
+				throw new SubscriptionException("Write-behind backlog limit reached.", ResponseCode.ResourceLimitReached);
+			}
+			position = this.journal.append(mutation);
+			this.pending.put(mutation.getSubscriberId(), mutation);
+			// Only the committer takes from the backlog, so the room checked above is still there
+			this.backlog.offer(mutation);
+		}
+		this.journal.sync(position);
+	}
+	
+	public void run() {
+		logger.info("Write-behind committer [" + Thread.currentThread().getId() + "] is starting ...");
+		List<Mutation> group = new ArrayList<Mutation>(this.groupSize);
+		boolean recovered = true;
+		try {
+			recovered = commitRecovered(group);
+		} catch (InterruptedException ie) {
+			logger.error("Write-behind committer was interrupted.", ie);
+		} catch (IOException ex) {
+			logger.error("Failed to checkpoint the write-behind journal.", ex);
+		}
+		group.clear();
+		
+		while (recovered && (! this.terminated || ! this.backlog.isEmpty())) try {
+			Mutation first = this.backlog.poll(100, TimeUnit.MILLISECONDS);
+			if (first == null) continue;
+			
+			group.add(first);
+			this.backlog.drainTo(group, this.groupSize - 1);
+			if (! commit(group)) break;
+			long sequence = group.get(group.size() - 1).getSequence();
+			group.clear();
+			
+			// The group and everything queued before it is in the database
+			this.journal.checkpoint(sequence);
+		} catch (InterruptedException ie) {
+			logger.error("Write-behind committer was interrupted.", ie);
+		} catch (IOException ex) {
+			logger.error("Failed to checkpoint the write-behind journal.", ex);
+		}
+		this.journal.close();
+		logger.info(String.format("Write-behind committer wrote %s changes in %s group commits with %s retries, %s left in the journal.", 
+			this.committed, this.groups, this.retries, this.backlog.size()));
+	}
+	
+	/**
+	 * Write what was recovered from the journal in groups, ahead of the backlog.
+	 * Returns false when giving up.
+	 */
+	private boolean commitRecovered(List<Mutation> group) throws InterruptedException, IOException {
+		List<Mutation> recovered;
+		synchronized (this.acceptLock) {
+			recovered = this.recovered;
+			this.recovered = new ArrayList<Mutation>();
+		}
+		for (int from = 0; from < recovered.size(); from += this.groupSize) {
+			group.addAll(recovered.subList(from, Math.min(recovered.size(), from + this.groupSize)));
+			if (! commit(group)) return false;
+			long sequence = group.get(group.size() - 1).getSequence();
+			group.clear();
+			this.journal.checkpoint(sequence);
+		}
+		return true;
+	}
+	
+	/**
+	 * Write the group to the database, retrying with backoff until it succeeds or
+	 * the store is terminated. Returns false when giving up, in which case the
+	 * journal still holds the group for the next start.
+	 */
+	private boolean commit(List<Mutation> group) throws InterruptedException {
+		// Only the last change to each subscriber in the group needs writing
+		Map<Integer, Mutation> latest = new LinkedHashMap<Integer, Mutation>();
+		for (Mutation mutation : group) {
+			latest.put(mutation.getSubscriberId(), mutation);
+		}
+		List<Subscriber> upserts = new ArrayList<Subscriber>();
+		List<Integer> deletes = new ArrayList<Integer>();
+		for (Mutation mutation : latest.values()) {
+			if (mutation.isAdd()) {
+				upserts.add(mutation.getSubscriber());
+			} else {
+				deletes.add(mutation.getSubscriberId());
+			}
+		}
+		
+		long delay = 100;
+		while (true) {
+			try {
+				DaoManager.getInstance().getSubscriptionStorage().writeAll(upserts, deletes);
+				break;
+			} catch (Exception ex) {
+				if (this.terminated) {
+					logger.error(String.format("Giving up on writing %s subscription changes, they stay in the journal.", group.size()), ex);
+					return false;
+				}
+				this.retries++;
+				logger.warn(String.format("Failed to write %s subscription changes, retrying in %s ms.", group.size(), delay), ex);
+				Thread.sleep(delay);
+				delay = Math.min(MAX_RETRY_DELAY, delay * 2);
+			}
+		}
+		
+		for (Mutation mutation : group) {
+			// A newer change to the same subscriber stays pending
+			this.pending.remove(mutation.getSubscriberId(), mutation);
+		}
+		this.groups++;
+		this.committed += group.size();
+		return true;
+	}
+}
\ No newline at end of file
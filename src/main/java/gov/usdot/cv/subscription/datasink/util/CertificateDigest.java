@@ -0,0 +1,34 @@
+package gov.usdot.cv.subscription.datasink.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class CertificateDigest {
+	private static final String ALGORITHM = "SHA-256";
+	
+	private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance(ALGORITHM);
+			} catch (NoSuchAlgorithmException ex) {
+				throw new RuntimeException("Failed to instantiate " + ALGORITHM + " message digest.", ex);
+			}
+		}
+	};
+	
+	private CertificateDigest() {
+		// All method invocation goes through static methods
+	}
+	
+	/**
+	 * Compute the content digest of a certificate, or null when there is no certificate.
+	 */
+	public static byte[] digest(byte[] certificate) {
+		if (certificate == null) return null;
+		MessageDigest md = DIGEST.get();
+		md.reset();
+		return md.digest(certificate);
+	}
+	
+}
\ No newline at end of file
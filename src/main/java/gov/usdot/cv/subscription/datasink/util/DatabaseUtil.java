@@ -1,25 +1,115 @@
 package gov.usdot.cv.subscription.datasink.util;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import javax.sql.DataSource;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
 
 import com.deleidos.rtws.commons.dao.jdbc.DataAccessSession;
 import com.deleidos.rtws.commons.dao.jdbc.DataAccessUtil;
 import com.deleidos.rtws.commons.exception.InitializationException;
 
 public class DatabaseUtil {
+	private static final Logger logger = Logger.getLogger(DatabaseUtil.class);
+	
+	private static final String DEFAULT_SUBSCRIBER_TABLE 	= "SUBSCRIBER";
+	private static final String DEFAULT_FILTER_TABLE 		= "SITUATION_DATA_FILTER";
+	private static final String VERSION_TABLE 				= "APPLICATION.SCHEMA_VERSION";
+	public static final String ID_STATE_TABLE 				= "APPLICATION.SUBSCRIBER_ID_STATE";
+	
+	/**
+	 * Schema changes applied on top of the tables created by createTables(), in
+	 * version order. A database records the last version applied to its filter table
+	 * and is brought up to date at start up. Append new migrations, never edit one
+	 * that has shipped.
+	 */
+	private static final Migration[] MIGRATIONS = new Migration[] {
+		new Migration(1, "Index situation data filters by subscriber and request id") {
+			String[] statements(String subscriberTable, String filterTable) {
+				return new String[] { "CREATE INDEX IF NOT EXISTS APPLICATION." + filterTable + "_ID_REQUEST_ID_IDX ON APPLICATION." + filterTable + "(ID, REQUEST_ID)" };
+			}
+		},
+		new Migration(2, "Index situation data filters by end time") {
+			String[] statements(String subscriberTable, String filterTable) {
+				return new String[] { "CREATE INDEX IF NOT EXISTS APPLICATION." + filterTable + "_END_TIME_IDX ON APPLICATION." + filterTable + "(END_TIME)" };
+			}
+		},
+		new Migration(3, "Record the generation of the saved subscriber id bitmap") {
+			String[] statements(String subscriberTable, String filterTable) {
+				return new String[] { "CREATE TABLE IF NOT EXISTS " + ID_STATE_TABLE + "(" +
+					"TABLE_NAME 	VARCHAR(255) 	NOT NULL PRIMARY KEY," +
+					"GENERATION 	BIGINT 			NOT NULL," +
+					"UPDATED 		TIMESTAMP 		NOT NULL)" };
+			}
+		},
+		// The inline CERTIFICATE column stays populated for readers that predate the certificate table
+		new Migration(4, "Store subscriber certificates in a table keyed by digest") {
+			String[] statements(String subscriberTable, String filterTable) {
+				String certificateTable = certificateTableName(subscriberTable);
+				return new String[] { 
+					"CREATE TABLE IF NOT EXISTS APPLICATION." + certificateTable + "(" +
+						"ID 			INT 			AUTO_INCREMENT PRIMARY KEY," +
+						"DIGEST 		BINARY(32) 		NOT NULL," +
+						"CERTIFICATE 	BINARY 			NOT NULL," +
+						"CONSTRAINT " + certificateTable + "_DIGEST_UK UNIQUE(DIGEST))",
+					"ALTER TABLE APPLICATION." + subscriberTable + " ADD COLUMN IF NOT EXISTS CERTIFICATE_ID INT",
+					// The digest is the SHA-256 CertificateDigest computes
+					"MERGE INTO APPLICATION." + certificateTable + " (DIGEST, CERTIFICATE) KEY(DIGEST) " + 
+						"SELECT DISTINCT HASH('SHA256', CERTIFICATE, 1), CERTIFICATE FROM APPLICATION." + subscriberTable + " WHERE CERTIFICATE IS NOT NULL",
+					"UPDATE APPLICATION." + subscriberTable + " S SET CERTIFICATE_ID = " + 
+						"(SELECT C.ID FROM APPLICATION." + certificateTable + " C WHERE C.DIGEST = HASH('SHA256', S.CERTIFICATE, 1)) " + 
+						"WHERE CERTIFICATE_ID IS NULL",
+					"ALTER TABLE APPLICATION." + subscriberTable + " ADD CONSTRAINT IF NOT EXISTS " + subscriberTable + "_CERTIFICATE_FK " + 
+						"FOREIGN KEY(CERTIFICATE_ID) REFERENCES APPLICATION." + certificateTable + "(ID)" };
+			}
+		}
+	};
+	
+	public static final int SCHEMA_VERSION = MIGRATIONS[MIGRATIONS.length - 1].version;
+	
 	private DatabaseUtil() { 
 		// Uses static methods for all invocation.
 	}
 	
+	/**
+	 * Returns the name of the table holding the certificates of the given
+	 * subscriber table.
+	 */
+	public static String certificateTableName(String subscriberTableName) {
+		return (StringUtils.isEmpty(subscriberTableName) ? DEFAULT_SUBSCRIBER_TABLE : subscriberTableName.trim()) + "_CERTIFICATE";
+	}
+	
+	/**
+	 * Create the subscription tables if needed and upgrade them in place to the
+	 * current schema version.
+	 */
 	public static synchronized void buildSubscriptionTables(
 			DataSource dataSource, 
 			String subscriberTableName, 
 			String filterTableName) {
+		String subscriberTable = StringUtils.isEmpty(subscriberTableName) ? DEFAULT_SUBSCRIBER_TABLE : subscriberTableName.trim();
+		String filterTable = StringUtils.isEmpty(filterTableName) ? DEFAULT_FILTER_TABLE : filterTableName.trim();
+		
+		boolean existed;
+		try {
+			existed = tableExists(dataSource, filterTable);
+		} catch (SQLException sqle) {
+			throw new InitializationException("Failed to look up situation data filter table.", sqle);
+		}
+		createTables(dataSource, subscriberTableName, filterTableName);
+		migrate(dataSource, subscriberTable, filterTable, SCHEMA_VERSION, ! existed);
+	}
+	
+	static void createTables(
+			DataSource dataSource, 
+			String subscriberTableName, 
+			String filterTableName) {
 		DataAccessSession session = DataAccessUtil.session(dataSource);
 		
 		try {
@@ -77,4 +167,100 @@ public class DatabaseUtil {
 			throw new InitializationException("Failed to create situation data filter table.", sqle);
 		}
 	}
+	
+	/**
+	 * Apply every migration above the recorded version up to the target version. A
+	 * freshly created table starts from version 0 whatever an earlier table of the
+	 * same name recorded.
+	 */
+	static void migrate(DataSource dataSource, String subscriberTable, String filterTable, int target, boolean created) {
+		Connection connection = null;
+		try {
+			connection = dataSource.getConnection();
+			execute(connection, "CREATE TABLE IF NOT EXISTS " + VERSION_TABLE + "(" +
+				"TABLE_NAME 	VARCHAR(255) 	NOT NULL PRIMARY KEY," +
+				"VERSION 		INT 			NOT NULL," +
+				"DESCRIPTION 	VARCHAR(255)," +
+				"UPDATED 		TIMESTAMP 		NOT NULL)");
+			
+			int version = created ? 0 : currentVersion(connection, filterTable);
+			for (Migration migration : MIGRATIONS) {
+				if (migration.version <= version || migration.version > target) continue;
+				
+				logger.info(String.format("Migrating subscription schema of %s to version %s: %s ...", filterTable, migration.version, migration.description));
+				long start = System.currentTimeMillis();
+				for (String sql : migration.statements(subscriberTable, filterTable)) {
+					execute(connection, sql);
+				}
+				recordVersion(connection, filterTable, migration);
+				logger.info(String.format("Migrated subscription schema of %s to version %s in %s ms.", filterTable, migration.version, System.currentTimeMillis() - start));
+			}
+		} catch (SQLException sqle) {
+			throw new InitializationException("Failed to migrate subscription schema.", sqle);
+		} finally {
+			if (connection != null) try { connection.close(); } catch (SQLException ignore) {}
+		}
+	}
+	
+	private static boolean tableExists(DataSource dataSource, String tableName) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			PreparedStatement stmt = connection.prepareStatement(
+				"SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = 'APPLICATION' AND TABLE_NAME = ?");
+			try {
+				stmt.setString(1, tableName.toUpperCase());
+				ResultSet rs = stmt.executeQuery();
+				return rs.next() && rs.getInt(1) > 0;
+			} finally {
+				stmt.close();
+			}
+		} finally {
+			connection.close();
+		}
+	}
+	
+	private static int currentVersion(Connection connection, String tableName) throws SQLException {
+		PreparedStatement stmt = connection.prepareStatement("SELECT VERSION FROM " + VERSION_TABLE + " WHERE TABLE_NAME = ?");
+		try {
+			stmt.setString(1, tableName);
+			ResultSet rs = stmt.executeQuery();
+			return rs.next() ? rs.getInt(1) : 0;
+		} finally {
+			stmt.close();
+		}
+	}
+	
+	private static void recordVersion(Connection connection, String tableName, Migration migration) throws SQLException {
+		PreparedStatement stmt = connection.prepareStatement(
+			"MERGE INTO " + VERSION_TABLE + " (TABLE_NAME, VERSION, DESCRIPTION, UPDATED) KEY(TABLE_NAME) VALUES (?, ?, ?, CURRENT_TIMESTAMP)");
+		try {
+			stmt.setString(1, tableName);
+			stmt.setInt(2, migration.version);
+			stmt.setString(3, migration.description);
+			stmt.executeUpdate();
+		} finally {
+			stmt.close();
+		}
+	}
+	
+	private static void execute(Connection connection, String sql) throws SQLException {
+		Statement stmt = connection.createStatement();
+		try {
+			stmt.execute(sql);
+		} finally {
+			stmt.close();
+		}
+	}
+	
+	private static abstract class Migration {
+		private final int version;
+		private final String description;
+		
+		private Migration(int version, String description) {
+			this.version = version;
+			this.description = description;
+		}
+		
+		abstract String[] statements(String subscriberTable, String filterTable);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,264 @@
+package gov.usdot.cv.subscription.datasink.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size bitmap that hands out clear bits without a lock. Level 0 holds
+ * one bit per index. Each level above it holds one bit per word of the level
+ * below, set when that word is full. The top level is a single word. To find a
+ * clear bit, the search climbs to the first level that has one past the start
+ * point and then descends, so its cost depends on the number of levels and not
+ * on how many set bits it skips.
+ *
+ * Bits change only by compare-and-set on level 0, so two threads never get the
+ * same index. The summary bits are hints that can briefly lag a concurrent
+ * change. A thread that marks a word full checks the word again afterwards, and
+ * a thread that clears a bit in a full word clears the summary, so a summary
+ * never stays set over a word with room in it.
+ */
+public class IdBitmap {
+	private final int size;
+	private final AtomicLongArray[] levels;
+	private final int[] counts;
+	
+	public IdBitmap(int size) {
+		if (size <= 0) throw new IllegalArgumentException("Size must be positive: " + size);
+		this.size = size;
+		
+		int depth = 1;
+		for (int count = size; count > 64; count = words(count)) {
+			depth++;
+		}
+		this.levels = new AtomicLongArray[depth];
+		this.counts = new int[depth];
+		int count = size;
+		for (int level = 0; level < depth; level++) {
+			this.counts[level] = count;
+			this.levels[level] = new AtomicLongArray(words(count));
+			// Bits past the end are set so the last word can become full
+			if ((count & 63) != 0) {
+				this.levels[level].set(count >>> 6, -1L << (count & 63));
+			}
+			count = words(count);
+		}
+	}
+	
+	/**
+	 * Set the first clear bit at or after the given index and return it, or -1
+	 * when every bit from there to the end is set.
+	 */
+	public int allocate(int from) {
+		AtomicLongArray bits = this.levels[0];
+		int index = Math.max(0, from);
+		for (;;) {
+			index = nextClear(0, index);
+			if (index < 0) return -1;
+			
+			int word = index >>> 6;
+			long mask = 1L << (index & 63);
+			long old = bits.get(word);
+			if ((old & mask) != 0) continue;
+			
+			long update = old | mask;
+			if (bits.compareAndSet(word, old, update)) {
+				if (update == -1L) markFull(1, word);
+				return index;
+			}
+		}
+	}
+	
+	/**
+	 * Set the given bit. Returns false when it was already set.
+	 */
+	public boolean set(int index) {
+		checkIndex(index);
+		AtomicLongArray bits = this.levels[0];
+		int word = index >>> 6;
+		long mask = 1L << (index & 63);
+		long old, update;
+		do {
+			old = bits.get(word);
+			if ((old & mask) != 0) return false;
+			update = old | mask;
+		} while (! bits.compareAndSet(word, old, update));
+		
+		if (update == -1L) markFull(1, word);
+		return true;
+	}
+	
+	/**
+	 * Clear the given bit. Returns false when it was already clear.
+	 */
+	public boolean clear(int index) {
+		checkIndex(index);
+		AtomicLongArray bits = this.levels[0];
+		int word = index >>> 6;
+		long mask = 1L << (index & 63);
+		long old;
+		do {
+			old = bits.get(word);
+			if ((old & mask) == 0) return false;
+		} while (! bits.compareAndSet(word, old, old & ~mask));
+		
+		if (old == -1L) markNotFull(1, word);
+		return true;
+	}
+	
+	/**
+	 * Clear every bit. Not safe while other threads change the bitmap.
+	 */
+	public void clearAll() {
+		for (int level = 0; level < this.levels.length; level++) {
+			AtomicLongArray words = this.levels[level];
+			for (int word = 0; word < words.length(); word++) {
+				words.set(word, 0L);
+			}
+			int count = this.counts[level];
+			if ((count & 63) != 0) {
+				words.set(count >>> 6, -1L << (count & 63));
+			}
+		}
+	}
+	
+	/**
+	 * Set every bit of the given level 0 word that is set in bits, as when
+	 * loading a saved copy of the bitmap.
+	 */
+	public void orWord(int word, long bits) {
+		AtomicLongArray words = this.levels[0];
+		long old, update;
+		do {
+			old = words.get(word);
+			update = old | bits;
+			if (update == old) return;
+		} while (! words.compareAndSet(word, old, update));
+		
+		if (update == -1L) markFull(1, word);
+	}
+	
+	/**
+	 * Returns the given level 0 word, with the bits past the end set.
+	 */
+	public long getWord(int word) {
+		return this.levels[0].get(word);
+	}
+	
+	/**
+	 * Returns the number of level 0 words.
+	 */
+	public int words() {
+		return this.levels[0].length();
+	}
+	
+	public boolean get(int index) {
+		checkIndex(index);
+		return (this.levels[0].get(index >>> 6) & (1L << (index & 63))) != 0;
+	}
+	
+	/**
+	 * Returns the number of set bits. This walks the whole bitmap.
+	 */
+	public int cardinality() {
+		AtomicLongArray bits = this.levels[0];
+		int result = 0;
+		for (int word = 0; word < bits.length(); word++) {
+			result += Long.bitCount(bits.get(word));
+		}
+		// Less the padding past the end
+		return result - (bits.length() * 64 - this.size);
+	}
+	
+	public int size() {
+		return this.size;
+	}
+	
+	public int depth() {
+		return this.levels.length;
+	}
+	
+	/**
+	 * Returns the first index at or after from whose bit is clear at the given
+	 * level, or -1 when there is none.
+	 */
+	private int nextClear(int level, int from) {
+		if (from >= this.counts[level]) return -1;
+		
+		AtomicLongArray bits = this.levels[level];
+		int word = from >>> 6;
+		long free = ~bits.get(word) & (-1L << (from & 63));
+		while (free == 0) {
+			if (level + 1 < this.levels.length) {
+				word = nextClear(level + 1, word + 1);
+				if (word < 0) return -1;
+			} else if (++word >= bits.length()) {
+				return -1;
+			}
+			free = ~bits.get(word);
+			if (free == 0 && level + 1 < this.levels.length) {
+				// The summary lagged a word filling up
+				markFull(level + 1, word);
+			}
+		}
+		return (word << 6) + Long.numberOfTrailingZeros(free);
+	}
+	
+	/**
+	 * Mark the given word of the level below as full, then the words above it
+	 * as they fill up.
+	 */
+	private void markFull(int level, int index) {
+		while (level < this.levels.length) {
+			AtomicLongArray bits = this.levels[level];
+			int word = index >>> 6;
+			long mask = 1L << (index & 63);
+			long old, update;
+			do {
+				old = bits.get(word);
+				if ((old & mask) != 0) return;
+				update = old | mask;
+			} while (! bits.compareAndSet(word, old, update));
+			
+			if (this.levels[level - 1].get(index) != -1L) {
+				// A bit was cleared in between, take the mark back
+				markNotFull(level, index);
+				return;
+			}
+			if (update != -1L) return;
+			
+			index = word;
+			level++;
+		}
+	}
+	
+	/**
+	 * Clear the full mark of the given word of the level below, then of the
+	 * words above it that were full.
+	 */
+	private void markNotFull(int level, int index) {
+		while (level < this.levels.length) {
+			AtomicLongArray bits = this.levels[level];
+			int word = index >>> 6;
+			long mask = 1L << (index & 63);
+			long old;
+			do {
+				old = bits.get(word);
+				if ((old & mask) == 0) return;
+			} while (! bits.compareAndSet(word, old, old & ~mask));
+			
+			if (old != -1L) return;
+			
+			index = word;
+			level++;
+		}
+	}
+	
+	private void checkIndex(int index) {
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("Index " + index + " outside of 0.." + (this.size - 1));
+		}
+	}
+	
+	private static int words(int bits) {
+		return (bits + 63) >>> 6;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,172 @@
+package gov.usdot.cv.subscription.datasink.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A memory-mapped copy of the level 0 words of an IdBitmap. A fixed header
+ * records the bitmap size, whether the file was closed cleanly and the generation
+ * it was closed with. The words are written through as the bitmap changes, so the
+ * file is current up to what the operating system has not flushed yet; only a
+ * clean close forces it and marks it as trustworthy.
+ */
+public class IdBitmapFile {
+	private static final int MAGIC 			= 0x53494442;
+	private static final int VERSION 		= 1;
+	private static final int HEADER 		= 32;
+	private static final int STATE_OPEN 	= 1;
+	private static final int STATE_CLEAN 	= 2;
+	
+	private final File file;
+	private final int size;
+	private final int words;
+	private RandomAccessFile raf;
+	private volatile MappedByteBuffer map;
+	
+	public IdBitmapFile(File file, int size) {
+		this.file = file;
+		this.size = size;
+		this.words = (size + 63) >>> 6;
+	}
+	
+	/**
+	 * Map the file, creating it when missing. Returns the generation it was last
+	 * closed cleanly with, or -1 when it is new, was not closed cleanly or was
+	 * written for a bitmap of another size.
+	 */
+	public synchronized long open() throws IOException {
+		File parent = this.file.getAbsoluteFile().getParentFile();
+		if (parent != null && ! parent.exists()) parent.mkdirs();
+		
+		this.raf = new RandomAccessFile(this.file, "rw");
+		boolean existed = this.raf.length() >= HEADER + (long) this.words * 8;
+		this.map = this.raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) this.words * 8);
+		if (! existed) return -1;
+		
+		if (this.map.getInt(0) != MAGIC || this.map.getInt(4) != VERSION || this.map.getInt(8) != this.size) return -1;
+		if (this.map.getInt(12) != STATE_CLEAN) return -1;
+		return this.map.getLong(16);
+	}
+	
+	/**
+	 * Mark the file as in use before any word changes, so a crash from here on
+	 * leaves it marked as not closed cleanly.
+	 */
+	public synchronized void markOpen() {
+		this.map.putInt(0, MAGIC);
+		this.map.putInt(4, VERSION);
+		this.map.putInt(8, this.size);
+		this.map.putInt(12, STATE_OPEN);
+		this.map.putLong(16, -1L);
+		this.map.force();
+	}
+	
+	/**
+	 * Merge the saved words into the bitmap.
+	 */
+	public void load(IdBitmap bitmap) {
+		MappedByteBuffer map = this.map;
+		for (int word = 0; word < this.words; word++) {
+			long bits = map.getLong(HEADER + word * 8);
+			if (bits != 0) bitmap.orWord(word, bits);
+		}
+	}
+	
+	/**
+	 * Returns how many ids the saved words mark.
+	 */
+	public int count() {
+		int count = 0;
+		for (int word = 0; word < this.words; word++) {
+			count += Long.bitCount(saved(word));
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the highest index the saved words mark, or -1 when they mark none.
+	 */
+	public int highest() {
+		for (int word = this.words - 1; word >= 0; word--) {
+			long bits = saved(word);
+			if (bits != 0) return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+		}
+		return -1;
+	}
+	
+	/**
+	 * Overwrite every saved word with the bitmap.
+	 */
+	public void store(IdBitmap bitmap) {
+		for (int word = 0; word < this.words; word++) {
+			write(bitmap, word << 6);
+		}
+	}
+	
+	/**
+	 * Copy the word holding the given index. Threads changing the same word can
+	 * copy it out of order, so the copy is repeated until the word did not change
+	 * under it; the last thread to change a word then always writes its final value.
+	 */
+	public void write(IdBitmap bitmap, int index) {
+		MappedByteBuffer map = this.map;
+		if (map == null) return;
+		
+		int word = index >>> 6;
+		long bits;
+		do {
+			bits = bitmap.getWord(word);
+			map.putLong(HEADER + word * 8, bits);
+		} while (bitmap.getWord(word) != bits);
+	}
+	
+	/**
+	 * Force the words and then the header, so the file is only marked clean once
+	 * everything it claims is on disk.
+	 */
+	public synchronized void close(long generation) throws IOException {
+		if (this.map == null) return;
+		
+		try {
+			this.map.force();
+			this.map.putLong(16, generation);
+			this.map.putInt(12, STATE_CLEAN);
+			this.map.force();
+		} finally {
+			release();
+		}
+	}
+	
+	/**
+	 * Close without marking the file clean.
+	 */
+	public synchronized void abandon() throws IOException {
+		try {
+			if (this.map != null) this.map.force();
+		} finally {
+			release();
+		}
+	}
+	
+	private long saved(int word) {
+		long bits = this.map.getLong(HEADER + word * 8);
+		// Less the padding past the end
+		if (word == this.words - 1 && (this.size & 63) != 0) bits &= (1L << (this.size & 63)) - 1;
+		return bits;
+	}
+	
+	public File getFile() {
+		return this.file;
+	}
+	
+	private void release() throws IOException {
+		this.map = null;
+		if (this.raf != null) {
+			this.raf.close();
+			this.raf = null;
+		}
+	}
+}
\ No newline at end of file
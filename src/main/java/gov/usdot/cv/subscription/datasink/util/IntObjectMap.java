@@ -0,0 +1,163 @@
+package gov.usdot.cv.subscription.datasink.util;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing map from primitive int keys to objects. Keys live in an int
+ * array probed linearly and values in a parallel array, so lookups neither box the
+ * key nor allocate an entry per mapping. 0 marks a free slot and is not a valid
+ * key. Removal shifts the following run back instead of leaving tombstones. Not
+ * thread safe.
+ */
+public class IntObjectMap<V> {
+	private static final int MIN_CAPACITY = 16;
+	
+	private int[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+	private int resizeAt;
+	
+	public IntObjectMap() {
+		this(MIN_CAPACITY);
+	}
+	
+	public IntObjectMap(int expected) {
+		allocate(capacityFor(expected));
+	}
+	
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int slot = find(key);
+		return (slot >= 0) ? (V) this.values[slot] : null;
+	}
+	
+	public boolean containsKey(int key) {
+		return find(key) >= 0;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (key == 0) throw new IllegalArgumentException("0 is not a valid key.");
+		
+		int slot = hash(key) & this.mask;
+		while (this.keys[slot] != 0) {
+			if (this.keys[slot] == key) {
+				V previous = (V) this.values[slot];
+				this.values[slot] = value;
+				return previous;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		this.keys[slot] = key;
+		this.values[slot] = value;
+		if (++this.size > this.resizeAt) {
+			resize(this.keys.length << 1);
+		}
+		return null;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int slot = find(key);
+		if (slot < 0) return null;
+		
+		V previous = (V) this.values[slot];
+		// Move back every following entry of the run that probed past the freed slot
+		int free = slot;
+		int next = (free + 1) & this.mask;
+		while (this.keys[next] != 0) {
+			int home = hash(this.keys[next]) & this.mask;
+			if (((next - home) & this.mask) >= ((next - free) & this.mask)) {
+				this.keys[free] = this.keys[next];
+				this.values[free] = this.values[next];
+				free = next;
+			}
+			next = (next + 1) & this.mask;
+		}
+		this.keys[free] = 0;
+		this.values[free] = null;
+		this.size--;
+		return previous;
+	}
+	
+	public void clear() {
+		Arrays.fill(this.keys, 0);
+		Arrays.fill(this.values, null);
+		this.size = 0;
+	}
+	
+	public int size() {
+		return this.size;
+	}
+	
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+	
+	/**
+	 * Returns a copy of the keys in table order.
+	 */
+	public int[] keys() {
+		int[] result = new int[this.size];
+		int i = 0;
+		for (int key : this.keys) {
+			if (key != 0) result[i++] = key;
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the number of slots in the table.
+	 */
+	public int capacity() {
+		return this.keys.length;
+	}
+	
+	private int find(int key) {
+		if (key == 0) return -1;
+		int slot = hash(key) & this.mask;
+		while (this.keys[slot] != 0) {
+			if (this.keys[slot] == key) return slot;
+			slot = (slot + 1) & this.mask;
+		}
+		return -1;
+	}
+	
+	private void resize(int capacity) {
+		int[] oldKeys = this.keys;
+		Object[] oldValues = this.values;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			int key = oldKeys[i];
+			if (key == 0) continue;
+			int slot = hash(key) & this.mask;
+			while (this.keys[slot] != 0) {
+				slot = (slot + 1) & this.mask;
+			}
+			this.keys[slot] = key;
+			this.values[slot] = oldValues[i];
+		}
+	}
+	
+	private void allocate(int capacity) {
+		this.keys = new int[capacity];
+		this.values = new Object[capacity];
+		this.mask = capacity - 1;
+		this.resizeAt = capacity * 3 / 4;
+	}
+	
+	private static int capacityFor(int expected) {
+		int capacity = MIN_CAPACITY;
+		while (capacity * 3 / 4 < expected) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+	
+	private static int hash(int key) {
+		// Subscriber ids are sequential, spread them so runs do not cluster
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
\ No newline at end of file
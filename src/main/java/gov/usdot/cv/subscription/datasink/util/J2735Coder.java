@@ -1,6 +1,8 @@
 package gov.usdot.cv.subscription.datasink.util;
 
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import com.oss.asn1.AbstractData;
 import com.oss.asn1.Coder;
@@ -11,9 +13,17 @@ import com.oss.asn1.InitializationException;
 
 import gov.usdot.asn1.generated.j2735.J2735;
 
+/**
+ * Encodes J2735 messages with the unaligned PER coder. An OSS coder is not safe to
+ * share between threads, so every thread encodes with its own coder and its own
+ * reusable output buffer.
+ */
 public class J2735Coder {
 	private static final J2735Coder INSTANCE;
 	
+	// Buffers that grew past this size are not kept for the next message
+	private static final int MAX_RETAINED_BUFFER = 8192;
+	
 	static {
 		try {
 			INSTANCE = new J2735Coder();
@@ -22,7 +32,12 @@ public class J2735Coder {
 		}
 	}
 	
-	private Coder coder;
+	private final ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>() {
+		@Override
+		protected Encoder initialValue() {
+			return new Encoder(J2735.getPERUnalignedCoder());
+		}
+	};
 	
 	public static J2735Coder getInstance()  {
 		return INSTANCE;
@@ -30,13 +45,72 @@ public class J2735Coder {
 	
 	private J2735Coder() throws ControlTableNotFoundException, InitializationException {
 		J2735.initialize();
-		coder = J2735.getPERUnalignedCoder();
 	}
 	
 	public byte [] encode(AbstractData message) 
 			throws EncodeFailedException, EncodeNotSupportedException {
-		ByteArrayOutputStream sink = new ByteArrayOutputStream();
-		this.coder.encode(message, sink);
-		return sink.toByteArray();
+		Encoder encoder = this.encoders.get();
+		try {
+			encoder.coder.encode(message, encoder.sink);
+			return encoder.sink.toByteArray();
+		} finally {
+			encoder.recycle();
+		}
+	}
+	
+	/**
+	 * Encode the message directly into the caller's buffer starting at its current
+	 * position, which is advanced past the encoding. Returns the number of bytes
+	 * written; a BufferOverflowException is thrown when the message does not fit.
+	 */
+	public int encode(AbstractData message, ByteBuffer target) 
+			throws EncodeFailedException, EncodeNotSupportedException {
+		int start = target.position();
+		this.encoders.get().coder.encode(message, new ByteBufferOutputStream(target));
+		return target.position() - start;
+	}
+	
+	/**
+	 * Encode the message into the caller's array starting at offset. Returns the
+	 * number of bytes written.
+	 */
+	public int encode(AbstractData message, byte [] buffer, int offset) 
+			throws EncodeFailedException, EncodeNotSupportedException {
+		return encode(message, ByteBuffer.wrap(buffer, offset, buffer.length - offset));
+	}
+	
+	private static class Encoder {
+		private final Coder coder;
+		private ByteArrayOutputStream sink = new ByteArrayOutputStream(256);
+		
+		private Encoder(Coder coder) {
+			this.coder = coder;
+		}
+		
+		private void recycle() {
+			if (this.sink.size() > MAX_RETAINED_BUFFER) {
+				this.sink = new ByteArrayOutputStream(256);
+			} else {
+				this.sink.reset();
+			}
+		}
+	}
+	
+	private static class ByteBufferOutputStream extends OutputStream {
+		private final ByteBuffer target;
+		
+		private ByteBufferOutputStream(ByteBuffer target) {
+			this.target = target;
+		}
+		
+		@Override
+		public void write(int b) {
+			this.target.put((byte) b);
+		}
+		
+		@Override
+		public void write(byte [] b, int off, int len) {
+			this.target.put(b, off, len);
+		}
 	}
 }
\ No newline at end of file
@@ -1,74 +1,431 @@
 package gov.usdot.cv.subscription.datasink.util;
 
-import gov.usdot.cv.common.model.Subscriber;
 import gov.usdot.cv.common.subscription.response.ResponseCode;
+import gov.usdot.cv.subscription.datasink.cache.SubscriptionIndex;
 import gov.usdot.cv.subscription.datasink.dao.DaoManager;
+import gov.usdot.cv.subscription.datasink.dao.SubscriberIdVisitor;
+import gov.usdot.cv.subscription.datasink.dao.SubscriptionStorage;
+import gov.usdot.cv.subscription.datasink.exception.StorageException;
 import gov.usdot.cv.subscription.datasink.exception.SubscriptionException;
 
-import java.util.BitSet;
-import java.util.Collection;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.log4j.Logger;
+
+/**
+ * Hands out subscriber ids. Which ids are in use is seeded once from the ids in
+ * the subscription storage and then kept current by nextId, reserve and release,
+ * so like SubscriptionIndex it assumes this process is the only writer.
+ *
+ * Whenever a thread's search for a free id wraps around, the used ids are
+ * reconciled with the storage in the background: ids stored by another writer
+ * are marked and ids marked but neither stored nor indexed, such as those of a
+ * subscription that was never persisted, are freed. Ids handed out, reserved or
+ * released while the reconcile runs are left as they are.
+ *
+ * initialize() seeds in the background. Until the seed is in, ids are taken from
+ * above the highest stored id, which is known to be free, and only if that range
+ * runs out does an allocation wait for the seed.
+ *
+ * The used ids are kept in an IdBitmap, so allocation and release take no lock
+ * and the search for a free id skips full regions. Every thread continues from
+ * where its last allocation left off, and threads start in regions of their own
+ * so they do not compete for the same words.
+ *
+ * With a state file the used ids are also written through to a memory-mapped
+ * copy. A copy that was closed cleanly with the generation recorded by the
+ * subscription storage, and that marks as many ids with the same highest one as
+ * the storage holds, is loaded at start instead of seeding; any other copy is
+ * reconciled by seeding it again. The generation only tells which copy belongs
+ * to the storage, the count and highest id catch subscriptions another writer
+ * added or removed since.
+ *
+ * close() forgets the used ids, so the next initialize tracks them afresh from
+ * whatever storage is open then.
+ */
 public class SubscriberIdGenerator {
 	private static final int MIN = 10000000;
 	private static final int MAX = 99999999;
+	// Threads start this many ids apart, one level 1 summary word each
+	private static final int STRIDE = 64 * 64;
+	
+	private final Logger logger = Logger.getLogger(getClass());
+	
+	private final IdBitmap used = new IdBitmap(MAX - MIN + 1);
+	private final AtomicInteger threads = new AtomicInteger();
+	private final ThreadLocal<int[]> cursors = new ThreadLocal<int[]>() {
+		protected int[] initialValue() {
+			int start = (int) (((long) threads.getAndIncrement() * STRIDE) % used.size());
+			return new int[] { start };
+		}
+	};
+	
+	private volatile boolean seeded = false;
+	private boolean seeding = false;
+	// Index of the free range served while seeding, -1 when there is none
+	private volatile int freeFrom = -1;
+	private final Queue<Integer> releasedWhileSeeding = new ConcurrentLinkedQueue<Integer>();
+	
+	private volatile boolean reconciling = false;
+	private final Set<Integer> touchedWhileReconciling = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
 	
-	private BitSet used = new BitSet(MAX - MIN);
-	private int currId = MIN;
+	private volatile IdBitmapFile file;
+	private long generation;
 	
 	private static class SubscriberIdGeneratorHolder {
 		public static final SubscriberIdGenerator INSTANCE = new SubscriberIdGenerator();
 	}
-
+	
 	public static SubscriberIdGenerator getInstance() {
 		return SubscriberIdGeneratorHolder.INSTANCE;
 	}
-
+	
 	private SubscriberIdGenerator() {
 		// Prevent instantiation from other classes
 	}
 	
-	/** 
+	/**
+	 * Start tracking the used ids, unless already started. They are restored from
+	 * the state file when it can be trusted and seeded in the background otherwise.
+	 * A null state file keeps them in memory only.
+	 */
+	public void initialize(File stateFile) {
+		synchronized (this) {
+			if (this.seeded || this.seeding) return;
+			if (stateFile != null && restore(stateFile)) return;
+			this.seeding = true;
+			try {
+				int maxId = DaoManager.getInstance().getSubscriptionStorage().findMaxSubscriberId();
+				this.freeFrom = Math.min(Math.max(0, maxId + 1 - MIN), this.used.size());
+			} catch (StorageException ex) {
+				logger.warn("Failed to find the highest subscriber id, allocations wait for the seed.", ex);
+				this.freeFrom = -1;
+			}
+		}
+		
+		Thread seeder = new Thread(new Runnable() {
+			public void run() {
+				seed();
+			}
+		}, "SubscriberIdSeeder");
+		seeder.setDaemon(true);
+		seeder.start();
+	}
+	
+	/**
 	 * Get the next available subscriber id.
 	 */
-	public synchronized int nextId() throws SubscriptionException {
-		if (this.currId > MAX) {
-			this.currId = MIN;	
+	public int nextId() throws SubscriptionException {
+		if (! this.seeded) {
+			int id = nextUnseededId();
+			if (id > 0) return id;
+		}
+		
+		int[] cursor = this.cursors.get();
+		int idx = this.used.allocate(cursor[0]);
+		if (idx < 0) {
+			reconcileInBackground();
+			idx = this.used.allocate(0);
+			if (idx < 0) {
+				throw new SubscriptionException("Subscriber ids have been exhausted.", ResponseCode.ResourceLimitReached);
+			}
+		}
+		cursor[0] = idx + 1;
+		if (this.reconciling) this.touchedWhileReconciling.add(MIN + idx);
+		mirror(idx);
+		return MIN + idx;
+	}
+	
+	/**
+	 * Mark the given subscriber id as used even though it may not be in the database yet.
+	 */
+	public void reserve(int id) {
+		if (id < MIN || id > MAX) return;
+		if (this.used.set(id - MIN)) mirror(id - MIN);
+		if (this.reconciling) this.touchedWhileReconciling.add(id);
+	}
+	
+	/**
+	 * Release the given subscriber id.
+	 */
+	public void release(int id) {
+		if (id < MIN || id > MAX) return;
+		// Recorded before the clear, so a reconcile never frees the id once it is handed out again
+		if (this.reconciling) this.touchedWhileReconciling.add(id);
+		if (this.used.clear(id - MIN)) mirror(id - MIN);
+		if (! this.seeded) this.releasedWhileSeeding.add(id);
+	}
+	
+	/**
+	 * Release every given subscriber id.
+	 */
+	public void releaseAll(int[] ids) {
+		for (int id : ids) {
+			release(id);
+		}
+	}
+
+	public boolean isSeeded() {
+		return this.seeded;
+	}
+	
+	/**
+	 * Returns how many ids are in use. This walks the whole bitmap.
+	 */
+	public int getUsedCount() {
+		return this.used.cardinality();
+	}
+	
+	/**
+	 * Close the state file and forget the used ids, waiting for a seed in progress.
+	 * The file is marked clean only once seeded, otherwise the next start seeds it
+	 * again.
+	 */
+	public synchronized void close() {
+		while (this.seeding || this.reconciling) {
+			try {
+				wait();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				break;
+			}
 		}
 		
-		if (this.currId == MIN) {
-			loadSubscriberIds();
+		IdBitmapFile file = this.file;
+		this.file = null;
+		if (file != null) try {
+			if (this.seeded) {
+				file.close(this.generation);
+			} else {
+				file.abandon();
+			}
+		} catch (IOException ex) {
+			logger.error(String.format("Failed to close subscriber id file '%s'.", file.getFile()), ex);
 		}
+		
+		this.used.clearAll();
+		this.releasedWhileSeeding.clear();
+		this.freeFrom = -1;
+		this.seeded = false;
+	}
+	
+	/**
+	 * Open the state file and load it when it was closed cleanly with the
+	 * generation the storage recorded. Either way the file is marked in use and
+	 * a new generation recorded, so a crash or a copy of the file or the storage
+	 * from another time no longer matches. Returns true when the ids were loaded.
+	 */
+	private boolean restore(File stateFile) {
+		IdBitmapFile file = new IdBitmapFile(stateFile, this.used.size());
+		SubscriptionStorage storage = DaoManager.getInstance().getSubscriptionStorage();
+		long start = System.currentTimeMillis();
+		try {
+			long saved = file.open();
+			long recorded = storage.findGeneration();
+			this.generation = Math.max(saved, recorded) + 1;
+			file.markOpen();
+			storage.updateGeneration(this.generation);
 			
-		while (this.currId <= MAX) {
+			boolean current = saved >= 0 && saved == recorded;
+			if (current && ! matches(file, storage)) {
+				logger.info(String.format("Subscriber id file %s does not match the stored subscriptions, reconciling.", stateFile.getAbsolutePath()));
+				current = false;
+			}
+			if (current) {
+				file.load(this.used);
+			} else {
+				logger.info(String.format("Subscriber id file %s generation %s does not match %s, reconciling.", stateFile.getAbsolutePath(), saved, recorded));
+			}
+			// Ids reserved before now are not in the file yet
+			file.store(this.used);
+			this.file = file;
+			if (current) {
+				this.seeded = true;
+				logger.info(String.format("Restored %s used subscriber ids from %s in %s ms.", 
+					this.used.cardinality(), stateFile.getAbsolutePath(), System.currentTimeMillis() - start));
+			}
+			return current;
+		} catch (IOException ex) {
+			logger.warn(String.format("Failed to open subscriber id file '%s', ids are kept in memory only.", stateFile.getAbsolutePath()), ex);
+		} catch (StorageException ex) {
+			logger.warn("Failed to read the subscriber id generation, ids are kept in memory only.", ex);
+		}
+		try { file.abandon(); } catch (IOException ignore) {}
+		return false;
+	}
+	
+	/**
+	 * Whether the saved ids match the stored subscribers by count and highest id.
+	 */
+	private static boolean matches(IdBitmapFile file, SubscriptionStorage storage) throws StorageException {
+		int highest = file.highest();
+		int maxId = storage.findMaxSubscriberId();
+		if ((highest < 0) ? maxId != 0 : MIN + highest != maxId) return false;
+		return file.count() == storage.countSubscribers();
+	}
+	
+	/**
+	 * Reconcile the used ids with the ids in the storage, unless a seed or another
+	 * reconcile is in progress. Returns false when nothing was done.
+	 */
+	public boolean reconcile() {
+		synchronized (this) {
+			if (! this.seeded || this.seeding || this.reconciling) return false;
+			this.reconciling = true;
+		}
+		
+		try {
+			long start = System.currentTimeMillis();
+			// Only ids marked before the scan are freed, any marked since were handed out or reserved
+			final long[] marked = new long[this.used.words()];
+			for (int word = 0; word < marked.length; word++) {
+				marked[word] = this.used.getWord(word);
+			}
+			final long[] stored = new long[marked.length];
 			try {
-				int idx = this.currId - MIN;
-				if (! this.used.get(idx)) {
-					this.used.set(idx);
-					return this.currId;
+				DaoManager.getInstance().getSubscriptionStorage().scanSubscriberIds(new SubscriberIdVisitor() {
+					public void visit(int subscriberId) {
+						int idx = subscriberId - MIN;
+						if (idx >= 0 && idx < used.size()) stored[idx >>> 6] |= 1L << (idx & 63);
+					}
+				});
+			} catch (StorageException ex) {
+				logger.error("Failed to reconcile the used subscriber ids.", ex);
+				return false;
+			}
+			
+			SubscriptionIndex index = SubscriptionIndex.getInstance();
+			int marks = 0, frees = 0;
+			for (int word = 0; word < marked.length; word++) {
+				for (long missing = stored[word] & ~this.used.getWord(word); missing != 0; missing &= missing - 1) {
+					int idx = (word << 6) + Long.numberOfTrailingZeros(missing);
+					if (this.touchedWhileReconciling.contains(MIN + idx)) continue;
+					if (this.used.set(idx)) {
+						mirror(idx);
+						marks++;
+					}
+				}
+				for (long stale = marked[word] & ~stored[word]; stale != 0; stale &= stale - 1) {
+					int idx = (word << 6) + Long.numberOfTrailingZeros(stale);
+					// The padding past the end is always marked
+					if (idx >= this.used.size() || this.touchedWhileReconciling.contains(MIN + idx)) continue;
+					// Subscriptions still on their way to the storage are indexed already
+					if (index.peekSubscriber(MIN + idx) != null) continue;
+					if (this.used.clear(idx)) {
+						mirror(idx);
+						frees++;
+					}
 				}
-			} finally {
-				this.currId++;
+			}
+			logger.info(String.format("Reconciled the used subscriber ids in %s ms, marked %s stored elsewhere and freed %s never stored.", 
+				System.currentTimeMillis() - start, marks, frees));
+			return true;
+		} finally {
+			synchronized (this) {
+				this.reconciling = false;
+				this.touchedWhileReconciling.clear();
+				notifyAll();
 			}
 		}
-		
-		throw new SubscriptionException("Subscriber ids have been exhausted.", ResponseCode.ResourceLimitReached);
+	}
+	
+	private void reconcileInBackground() {
+		synchronized (this) {
+			if (! this.seeded || this.seeding || this.reconciling) return;
+		}
+		Thread reconciler = new Thread(new Runnable() {
+			public void run() {
+				reconcile();
+			}
+		}, "SubscriberIdReconciler");
+		reconciler.setDaemon(true);
+		reconciler.start();
+	}
+	
+	private void mirror(int idx) {
+		IdBitmapFile file = this.file;
+		if (file != null) file.write(this.used, idx);
 	}
 	
 	/**
-	 * Release the given subscriber id.
+	 * Allocate from the free range until the seed is in. Returns 0 once seeded.
 	 */
-	public synchronized void release(int id) {
-		if (id < MIN && id > MAX) return;
-		if (id < this.currId) this.currId = id;
-		this.used.set(id - MIN, false);
+	private int nextUnseededId() throws SubscriptionException {
+		for (;;) {
+			int from = this.freeFrom;
+			if (from >= 0) {
+				// Ids reserved by the write-behind recovery may already sit in the range
+				int idx = this.used.allocate(from);
+				if (idx >= 0) {
+					mirror(idx);
+					return MIN + idx;
+				}
+			}
+			
+			synchronized (this) {
+				if (this.seeded) return 0;
+				if (this.seeding) {
+					try {
+						wait();
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						throw new SubscriptionException("Interrupted while waiting for subscriber ids.", ResponseCode.InternalServerError);
+					}
+				} else {
+					this.seeding = true;
+					if (! seed()) {
+						throw new SubscriptionException("Failed to load the used subscriber ids.", ResponseCode.InternalServerError);
+					}
+				}
+			}
+		}
 	}
 	
-	private synchronized void loadSubscriberIds() {
-		Collection<Subscriber> subscribers = DaoManager.getInstance().getSubscriberDao().findAll();
-		if (subscribers != null && subscribers.size() > 0) {
-			for (Subscriber subscriber : subscribers) {
-				this.used.set(subscriber.getSubscriberId() - MIN);
+	/**
+	 * Mark the stored ids below the free range as used. Ids in the free range are
+	 * all allocated here and already marked. Ids released during the scan are
+	 * cleared again before the range below opens up, since the scan may have
+	 * marked them after the release. Returns false when the scan failed, in which
+	 * case the next allocation that needs the seed retries.
+	 */
+	private boolean seed() {
+		long start = System.currentTimeMillis();
+		final int limit = (this.freeFrom >= 0) ? this.freeFrom : this.used.size();
+		int count;
+		try {
+			count = DaoManager.getInstance().getSubscriptionStorage().scanSubscriberIds(new SubscriberIdVisitor() {
+				public void visit(int subscriberId) {
+					int idx = subscriberId - MIN;
+					if (idx >= 0 && idx < limit && used.set(idx)) mirror(idx);
+				}
+			});
+		} catch (StorageException ex) {
+			logger.error("Failed to seed the used subscriber ids.", ex);
+			synchronized (this) {
+				this.seeding = false;
+				notifyAll();
 			}
+			return false;
+		}
+		
+		for (Integer id; (id = this.releasedWhileSeeding.poll()) != null;) {
+			int idx = id - MIN;
+			if (idx < limit && this.used.clear(idx)) mirror(idx);
+		}
+		
+		synchronized (this) {
+			this.seeded = true;
+			this.seeding = false;
+			notifyAll();
 		}
+		logger.info(String.format("Seeded %s used subscriber ids in %s ms.", count, System.currentTimeMillis() - start));
+		return true;
 	}
 }
\ No newline at end of file
@@ -5,11 +5,15 @@ import gov.usdot.asn1.generated.j2735.J2735;
 import gov.usdot.asn1.generated.j2735.semi.DataSubscriptionResponse;
 import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
 import gov.usdot.asn1.j2735.J2735Util;
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
 import gov.usdot.cv.common.subscription.response.ResponseCode;
 import gov.usdot.cv.common.util.UnitTestHelper;
 import gov.usdot.cv.resources.PrivateTestResourceLoader;
 import gov.usdot.cv.subscription.datasink.receiver.SubscriptionResponseReceiver;
 import gov.usdot.cv.subscription.datasink.security.CertificateUtil;
+import gov.usdot.cv.subscription.datasink.store.Mutation;
+import gov.usdot.cv.subscription.datasink.store.SubscriptionJournal;
 
 import java.io.File;
 import java.io.IOException;
@@ -17,6 +21,7 @@ import java.nio.ByteBuffer;
 import java.sql.DriverManager;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Properties;
@@ -240,6 +245,165 @@ public class SubscriptionProcessorTest {
 		assertTrue("Expecting the subscriber id to be '10000002'.", ByteBuffer.wrap(((DataSubscriptionResponse) message).getSubID().byteArrayValue()).getInt() == 10000002);
 	}
 	
+	@Test
+	public void testBatchedSubscriptionRequests() throws Exception {
+		System.out.println(">>> Running testBatchedSubscriptionRequests() ...");
+		
+		SubscriptionProcessor processor = new SubscriptionProcessor();
+		processor.setDataSource(dataSource);
+		processor.setDatabaseSubscriberTableName("TEST_SUBSCRIBER");
+		processor.setDatabaseFilterTableName("TEST_SITUATION_DATA_FILTER");
+		processor.setNorthwestLatitude(43.0);
+		processor.setNorthwestLongitude(-85.0);
+		processor.setSoutheastLatitude(41.0);
+		processor.setSoutheastLongitude(82.0);
+		processor.setBatchSize(2);
+		processor.setBatchWindow(60000);
+		processor.initialize();
+		processor.process(tmc_req1);
+		
+		// verify that nothing is committed until the batch is full
+		String stmt = "SELECT count(*) FROM APPLICATION.TEST_SUBSCRIBER;";
+		int count = session.executeSingleValueQuery(stmt, null, SqlTypeHandler.INTEGER);
+		assertTrue("Expecting no subscribers before the batch is committed but found '" + count + "'.", count == 0);
+		
+		processor.process(tmc_req2);
+		count = session.executeSingleValueQuery(stmt, null, SqlTypeHandler.INTEGER);
+		assertTrue("Expecting 2 subscribers after the batch is full but found '" + count + "'.", count == 2);
+		
+		// verify that flush() commits a partial batch
+		processor.process(pc_req1);
+		processor.flush();
+		count = session.executeSingleValueQuery(stmt, null, SqlTypeHandler.INTEGER);
+		assertTrue("Expecting 3 subscribers after flush but found '" + count + "'.", count == 3);
+		
+		stmt = "SELECT count(*) FROM APPLICATION.TEST_SITUATION_DATA_FILTER;";
+		count = session.executeSingleValueQuery(stmt, null, SqlTypeHandler.INTEGER);
+		assertTrue("Expecting 3 situation data filters after flush but found '" + count + "'.", count == 3);
+		
+		processor.dispose();
+		
+		List<ByteBuffer> responses = collectResponses(3);
+		assertTrue("Expecting 3 responses but got '" + responses.size() + "'.", responses.size() == 3);
+		
+		for (ByteBuffer response : responses) {
+			AbstractData message = J2735Util.decode(coder, response.array());
+			assertTrue("Expecting a message of type 'DPCSubscriptionResponse'.", message instanceof DataSubscriptionResponse);
+			assertTrue("Expecting the SemiDialogID to be 'lcsdwDataDist'.", ((DataSubscriptionResponse) message).getDialogID() == SemiDialogID.dataSubscription);
+			assertTrue("Expecting the subscriber id to not be '0'.", ByteBuffer.wrap(((DataSubscriptionResponse) message).getSubID().byteArrayValue()).getInt() != 0);
+		}
+	}
+	
+	@Test
+	public void testParallelSubscriptionRequests() throws Exception {
+		System.out.println(">>> Running testParallelSubscriptionRequests() ...");
+		
+		SubscriptionProcessor processor = new SubscriptionProcessor();
+		processor.setDataSource(dataSource);
+		processor.setDatabaseSubscriberTableName("TEST_SUBSCRIBER");
+		processor.setDatabaseFilterTableName("TEST_SITUATION_DATA_FILTER");
+		processor.setNorthwestLatitude(43.0);
+		processor.setNorthwestLongitude(-85.0);
+		processor.setSoutheastLatitude(41.0);
+		processor.setSoutheastLongitude(82.0);
+		processor.setWorkerCount(4);
+		processor.initialize();
+		processor.process(tmc_req1);
+		processor.process(tmc_req2);
+		processor.process(pc_req1);
+		
+		// flush() returns once the workers have handled every dispatched request
+		processor.flush();
+		
+		String stmt = "SELECT count(*) FROM APPLICATION.TEST_SUBSCRIBER;";
+		int count = session.executeSingleValueQuery(stmt, null, SqlTypeHandler.INTEGER);
+		assertTrue("Expecting 3 subscribers after flush but found '" + count + "'.", count == 3);
+		
+		stmt = "SELECT count(*) FROM APPLICATION.TEST_SITUATION_DATA_FILTER;";
+		count = session.executeSingleValueQuery(stmt, null, SqlTypeHandler.INTEGER);
+		assertTrue("Expecting 3 situation data filters after flush but found '" + count + "'.", count == 3);
+		
+		processor.dispose();
+		
+		List<ByteBuffer> responses = collectResponses(3);
+		assertTrue("Expecting 3 responses but got '" + responses.size() + "'.", responses.size() == 3);
+	}
+	
+	@Test
+	public void testDuplicateSubscriptionRequests() throws Exception {
+		System.out.println(">>> Running testDuplicateSubscriptionRequests() ...");
+		
+		SubscriptionProcessor processor = new SubscriptionProcessor();
+		processor.setDataSource(dataSource);
+		processor.setDatabaseSubscriberTableName("TEST_SUBSCRIBER");
+		processor.setDatabaseFilterTableName("TEST_SITUATION_DATA_FILTER");
+		processor.setNorthwestLatitude(43.0);
+		processor.setNorthwestLongitude(-85.0);
+		processor.setSoutheastLatitude(41.0);
+		processor.setSoutheastLongitude(82.0);
+		processor.setDuplicateWindow(60000);
+		processor.setDuplicateCacheSize(100);
+		processor.initialize();
+		
+		// tmc_req2 is a retransmission of tmc_req1, pc_req1 targets another host
+		processor.process(tmc_req1);
+		processor.process(tmc_req2);
+		processor.process(pc_req1);
+		
+		String stmt = "SELECT count(*) FROM APPLICATION.TEST_SUBSCRIBER;";
+		int count = session.executeSingleValueQuery(stmt, null, SqlTypeHandler.INTEGER);
+		assertTrue("Expecting 2 subscribers but found '" + count + "'.", count == 2);
+		
+		stmt = "SELECT count(*) FROM APPLICATION.TEST_SITUATION_DATA_FILTER;";
+		count = session.executeSingleValueQuery(stmt, null, SqlTypeHandler.INTEGER);
+		assertTrue("Expecting 2 situation data filters but found '" + count + "'.", count == 2);
+		
+		processor.dispose();
+		
+		List<ByteBuffer> responses = collectResponses(3);
+		assertTrue("Expecting 3 responses but got '" + responses.size() + "'.", responses.size() == 3);
+		
+		// the original and the retransmission are answered with the same subscriber id
+		int[] subscriberIds = new int[responses.size()];
+		for (int i = 0; i < responses.size(); i++) {
+			AbstractData message = J2735Util.decode(coder, responses.get(i).array());
+			assertTrue("Expecting a message of type 'DPCSubscriptionResponse'.", message instanceof DataSubscriptionResponse);
+			subscriberIds[i] = ByteBuffer.wrap(((DataSubscriptionResponse) message).getSubID().byteArrayValue()).getInt();
+		}
+		Arrays.sort(subscriberIds);
+		assertTrue("Expecting two responses to carry the same subscriber id.", 
+			subscriberIds[0] == subscriberIds[1] || subscriberIds[1] == subscriberIds[2]);
+	}
+	
+	@Test
+	public void testPipelinedResponses() throws Exception {
+		System.out.println(">>> Running testPipelinedResponses() ...");
+		
+		SubscriptionProcessor processor = new SubscriptionProcessor();
+		processor.setDataSource(dataSource);
+		processor.setDatabaseSubscriberTableName("TEST_SUBSCRIBER");
+		processor.setDatabaseFilterTableName("TEST_SITUATION_DATA_FILTER");
+		processor.setNorthwestLatitude(43.0);
+		processor.setNorthwestLongitude(-85.0);
+		processor.setSoutheastLatitude(41.0);
+		processor.setSoutheastLongitude(82.0);
+		processor.setCryptoWorkerCount(2);
+		processor.initialize();
+		processor.process(tmc_req1);
+		processor.process(tmc_req2);
+		processor.process(pc_req1);
+		processor.dispose();
+		
+		List<ByteBuffer> responses = collectResponses(3);
+		assertTrue("Expecting 3 responses but got '" + responses.size() + "'.", responses.size() == 3);
+		
+		for (ByteBuffer response : responses) {
+			AbstractData message = J2735Util.decode(coder, response.array());
+			assertTrue("Expecting a message of type 'DPCSubscriptionResponse'.", message instanceof DataSubscriptionResponse);
+			assertTrue("Expecting the subscriber id to not be '0'.", ByteBuffer.wrap(((DataSubscriptionResponse) message).getSubID().byteArrayValue()).getInt() != 0);
+		}
+	}
+	
 	@Test @org.junit.Ignore
 	public void testMissingProperties() throws Exception {
 		System.out.println(">>> Running testMissingProperties() ...");
@@ -530,6 +694,63 @@ public class SubscriptionProcessorTest {
 		processor.dispose();
 	}
 	
+	@Test(timeout = 60000)
+	public void testRecoverJournalLargerThanBacklog() throws Exception {
+		System.out.println(">>> Running testRecoverJournalLargerThanBacklog() ...");
+		
+		File directory = new File(System.getProperty("java.io.tmpdir"), "subscription-journal-" + System.nanoTime());
+		directory.mkdirs();
+		directory.deleteOnExit();
+		File file = new File(directory, "subscriptions.journal");
+		file.deleteOnExit();
+		
+		// leave more changes in the journal than the backlog holds, as a crash under load would
+		Calendar endTime = Calendar.getInstance(TimeZone.getTimeZone(Filter.UTC_TIMEZONE));
+		endTime.add(Calendar.DAY_OF_YEAR, 1);
+		SubscriptionJournal journal = new SubscriptionJournal(file);
+		journal.open();
+		for (int i = 0; i < 25; i++) {
+			Filter.Builder filter = new Filter.Builder();
+			filter.setSubscriberId(20000000 + i).setEndTime(endTime).setType("VsmType").setTypeValue(1).setRequestId(1001);
+			Subscriber.Builder subscriber = new Subscriber.Builder();
+			subscriber.setSubscriberId(20000000 + i).setCertificate(new byte[] { 1, 2, 3 })
+				.setDestHost("127.0.0.1").setDestPort(7443).setFilter(filter.build());
+			journal.sync(journal.append(Mutation.add(subscriber.build())));
+		}
+		journal.close();
+		
+		System.setProperty("subscription.writebehind.backlog", "10");
+		System.setProperty("subscription.writebehind.group.size", "4");
+		try {
+			SubscriptionProcessor processor = new SubscriptionProcessor();
+			processor.setDataSource(dataSource);
+			processor.setDatabaseSubscriberTableName("TEST_SUBSCRIBER");
+			processor.setDatabaseFilterTableName("TEST_SITUATION_DATA_FILTER");
+			processor.setNorthwestLatitude(43.0);
+			processor.setNorthwestLongitude(-85.0);
+			processor.setSoutheastLatitude(41.0);
+			processor.setSoutheastLongitude(82.0);
+			processor.setWriteBehindDirectory(directory.getAbsolutePath());
+			
+			// initialize must not wait for the committer to make room in the backlog
+			processor.initialize();
+			processor.dispose();
+		} finally {
+			System.clearProperty("subscription.writebehind.backlog");
+			System.clearProperty("subscription.writebehind.group.size");
+		}
+		
+		String stmt = "SELECT count(*) FROM APPLICATION.TEST_SUBSCRIBER WHERE ID >= 20000000;";
+		int count = session.executeSingleValueQuery(stmt, null, SqlTypeHandler.INTEGER);
+		assertTrue("Expecting 25 recovered subscribers but found '" + count + "'.", count == 25);
+		
+		stmt = "SELECT count(*) FROM APPLICATION.TEST_SITUATION_DATA_FILTER WHERE ID >= 20000000;";
+		count = session.executeSingleValueQuery(stmt, null, SqlTypeHandler.INTEGER);
+		assertTrue("Expecting 25 recovered situation data filters but found '" + count + "'.", count == 25);
+		
+		assertTrue("Expecting the journal to be empty once everything is written.", file.length() == 0);
+	}
+	
 	private List<ByteBuffer> collectResponses(int expected) {
 		ArrayList<ByteBuffer> responses = new ArrayList<ByteBuffer>();
 		while (expected > 0) try {
@@ -0,0 +1,78 @@
+package gov.usdot.cv.subscription.datasink.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class AuditRingTest {
+	
+	@Test
+	public void testOfferFailsWhenFull() {
+		AuditRing ring = new AuditRing(4);
+		for (int i = 0; i < ring.capacity(); i++) {
+			assertTrue(ring.offer(event(i)));
+		}
+		assertFalse("Expecting offer to fail on a full ring.", ring.offer(event(99)));
+		
+		List<AuditEvent> batch = new ArrayList<AuditEvent>();
+		assertEquals(2, ring.drainTo(batch, 2));
+		assertEquals(0, batch.get(0).getSubscriberId());
+		assertEquals(1, batch.get(1).getSubscriberId());
+		assertTrue("Expecting offer to succeed once slots are drained.", ring.offer(event(100)));
+	}
+	
+	@Test
+	public void testConcurrentProducers() throws Exception {
+		final AuditRing ring = new AuditRing(1024);
+		final int producers = 4;
+		final int perProducer = 10000;
+		final CountDownLatch start = new CountDownLatch(1);
+		
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final int base = p * perProducer;
+			threads[p] = new Thread(new Runnable() {
+				public void run() {
+					try { start.await(); } catch (InterruptedException e) { return; }
+					for (int i = 0; i < perProducer; i++) {
+						while (! ring.offer(event(base + i))) Thread.yield();
+					}
+				}
+			});
+			threads[p].start();
+		}
+		start.countDown();
+		
+		boolean[] seen = new boolean[producers * perProducer];
+		int[] last = new int[producers];
+		java.util.Arrays.fill(last, -1);
+		List<AuditEvent> batch = new ArrayList<AuditEvent>();
+		int received = 0;
+		while (received < seen.length) {
+			batch.clear();
+			received += ring.drainTo(batch, 128);
+			for (AuditEvent event : batch) {
+				int id = event.getSubscriberId();
+				assertFalse("Event delivered twice: " + id, seen[id]);
+				seen[id] = true;
+				// events from a single producer must arrive in publication order
+				int producer = id / perProducer;
+				assertTrue(id > last[producer]);
+				last[producer] = id;
+			}
+		}
+		for (Thread t : threads) t.join();
+		assertTrue(ring.isEmpty());
+	}
+	
+	private static AuditEvent event(int subscriberId) {
+		return new AuditEvent(AuditEvent.Kind.ADDED, subscriberId, 0, null, null, 0);
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,55 @@
+package gov.usdot.cv.subscription.datasink.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CertificateStoreTest {
+	
+	@Test
+	public void testSharedCertificateIsStoredOnce() {
+		CertificateStore store = CertificateStore.getInstance();
+		int size = store.size();
+		long stored = store.getStoredBytes();
+		
+		byte[] first = certificate((byte) 1);
+		byte[] second = certificate((byte) 1);
+		assertNotSame(first, second);
+		
+		assertSame(first, store.acquire(first));
+		assertSame(first, store.acquire(second));
+		assertSame(first, store.intern(certificate((byte) 1)));
+		assertEquals(size + 1, store.size());
+		assertEquals(stored + first.length, store.getStoredBytes());
+		
+		// the certificate stays while any subscription references it
+		assertFalse(store.release(second));
+		assertSame(first, store.intern(second));
+		assertTrue(store.release(first));
+		assertSame(second, store.intern(second));
+		assertEquals(size, store.size());
+		assertEquals(stored, store.getStoredBytes());
+		
+		assertFalse(store.release(first));
+	}
+	
+	@Test
+	public void testNullCertificate() {
+		CertificateStore store = CertificateStore.getInstance();
+		assertEquals(null, store.acquire(null));
+		assertEquals(null, store.intern(null));
+		assertFalse(store.release(null));
+	}
+	
+	private static byte[] certificate(byte seed) {
+		byte[] certificate = new byte[117];
+		for (int i = 0; i < certificate.length; i++) {
+			certificate[i] = (byte) (seed + i);
+		}
+		return certificate;
+	}
+}
\ No newline at end of file
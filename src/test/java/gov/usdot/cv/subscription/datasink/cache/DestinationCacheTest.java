@@ -0,0 +1,48 @@
+package gov.usdot.cv.subscription.datasink.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+public class DestinationCacheTest {
+	
+	@Test
+	public void testLiteralAddressIsResolvedOnce() throws Exception {
+		DestinationCache cache = DestinationCache.getInstance();
+		long misses = cache.getMissCount();
+		long hits = cache.getHitCount();
+		
+		InetAddress first = cache.resolve("127.0.0.2");
+		InetAddress second = cache.resolve("127.0.0.2");
+		assertSame(first, second);
+		assertEquals("127.0.0.2", first.getHostAddress());
+		assertEquals(misses + 1, cache.getMissCount());
+		assertEquals(hits + 1, cache.getHitCount());
+	}
+	
+	@Test
+	public void testUnknownHostIsNegativelyCached() throws Exception {
+		DestinationCache cache = DestinationCache.getInstance();
+		long failures = cache.getFailureCount();
+		long misses = cache.getMissCount();
+		
+		for (int i = 0; i < 2; i++) {
+			try {
+				cache.resolve("subscription-target.invalid");
+				fail("Expecting an UnknownHostException.");
+			} catch (UnknownHostException expected) {
+				// the second attempt is answered from the cache
+			}
+		}
+		assertEquals(failures + 1, cache.getFailureCount());
+		assertEquals(misses + 1, cache.getMissCount());
+		assertTrue(cache.getMaxResolveNanos() > 0);
+	}
+	
+}
\ No newline at end of file
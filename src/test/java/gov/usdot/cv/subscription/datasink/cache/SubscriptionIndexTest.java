@@ -0,0 +1,90 @@
+package gov.usdot.cv.subscription.datasink.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
+import gov.usdot.cv.subscription.datasink.dao.DaoManager;
+import gov.usdot.cv.subscription.datasink.store.MappedSubscriptionStorage;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class SubscriptionIndexTest {
+	
+	@Test
+	public void testClearReloadsFromStorage() throws Exception {
+		File file = File.createTempFile("subscriptions", ".db");
+		file.deleteOnExit();
+		MappedSubscriptionStorage storage = new MappedSubscriptionStorage(file);
+		storage.open();
+		DaoManager.getInstance().setSubscriptionStorage(storage);
+		SubscriptionIndex index = SubscriptionIndex.getInstance();
+		try {
+			index.clear();
+			storage.add(subscriber(10000000));
+			index.load();
+			assertEquals(1, index.size());
+			
+			// a subscription added to the storage behind the index's back, as another process would
+			storage.add(subscriber(10000001));
+			index.put(subscriber(10000002));
+			assertNull(index.peekSubscriber(10000001));
+			
+			index.clear();
+			assertEquals(0, index.getExpirationSchedule().size());
+			index.load();
+			assertEquals(2, index.size());
+			assertNotNull(index.peekSubscriber(10000001));
+			assertNull("Expecting only what the storage holds after a reload.", index.peekSubscriber(10000002));
+			assertEquals(2, index.getExpirationSchedule().size());
+		} finally {
+			index.clear();
+			storage.close();
+			DaoManager.getInstance().setSubscriptionStorage(null);
+		}
+	}
+	
+	@Test
+	public void testBytesPerSubscriptionCountsObjects() throws Exception {
+		SubscriptionIndex index = SubscriptionIndex.getInstance();
+		index.clear();
+		try {
+			for (int i = 0; i < 100; i++) {
+				index.put(subscriber(10000000 + i));
+			}
+			// the end time calendar alone outweighs the table slots
+			double bytes = index.getBytesPerSubscription();
+			assertTrue("Expecting the subscriber and filter objects to be counted but got " + bytes + ".", bytes > 300);
+		} finally {
+			index.clear();
+		}
+	}
+	
+	private static Subscriber subscriber(int subscriberId) {
+		Calendar endTime = Calendar.getInstance(TimeZone.getTimeZone(Filter.UTC_TIMEZONE));
+		endTime.add(Calendar.DAY_OF_YEAR, 1);
+		
+		Filter.Builder filter = new Filter.Builder();
+		filter
+			.setSubscriberId(subscriberId)
+			.setEndTime(endTime)
+			.setType("VsmType")
+			.setTypeValue(1)
+			.setRequestId(1001);
+		
+		Subscriber.Builder builder = new Subscriber.Builder();
+		builder
+			.setSubscriberId(subscriberId)
+			.setCertificate(new byte[] { 1, 2, 3 })
+			.setDestHost("127.0.0.1")
+			.setDestPort(7443)
+			.setFilter(filter.build());
+		return builder.build();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,234 @@
+package gov.usdot.cv.subscription.datasink.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import gov.usdot.cv.common.model.BoundingBox;
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
+import gov.usdot.cv.common.subscription.dao.SituationDataFilterDao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The behaviour every SubscriptionStorage must share, run against each of them by
+ * a subclass that creates the storage.
+ */
+public abstract class AbstractSubscriptionStorageTest {
+	
+	private static final long DAY = 24L * 60 * 60 * 1000;
+	
+	protected SubscriptionStorage storage;
+	
+	/**
+	 * Returns a new storage holding no subscriptions.
+	 */
+	protected abstract SubscriptionStorage createStorage() throws Exception;
+	
+	/**
+	 * Closes the storage and returns it opened again from what it kept.
+	 */
+	protected abstract SubscriptionStorage reopen(SubscriptionStorage storage) throws Exception;
+	
+	@Before
+	public void openStorage() throws Exception {
+		this.storage = createStorage();
+	}
+	
+	@After
+	public void closeStorage() {
+		if (this.storage != null) this.storage.close();
+	}
+	
+	@Test
+	public void testAddAndFind() throws Exception {
+		Subscriber added = subscriber(10000000, 1001, true);
+		this.storage.add(added);
+		
+		Subscriber subscriber = this.storage.findSubscriber(10000000);
+		assertNotNull(subscriber);
+		assertEquals("127.0.0.1", subscriber.getDestHost());
+		assertEquals(7443, subscriber.getDestPort().intValue());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, subscriber.getCertificate());
+		
+		Filter filter = this.storage.findFilter(10000000);
+		assertNotNull(filter);
+		assertEquals(1001, filter.getRequestId().intValue());
+		assertEquals("VsmType", filter.getType());
+		assertEquals(added.getFilter().getEndTime().getTimeInMillis(), filter.getEndTime().getTimeInMillis());
+		assertNotNull(filter.getBoundingBox());
+		assertEquals(Double.valueOf(43.0), Double.valueOf(filter.getBoundingBox().getNWLat()));
+		assertEquals(Double.valueOf(-82.0), Double.valueOf(filter.getBoundingBox().getSELon()));
+		
+		assertNull(this.storage.findSubscriber(10000001));
+		assertNull(this.storage.findFilter(10000001));
+	}
+	
+	@Test
+	public void testCancel() throws Exception {
+		this.storage.add(subscriber(10000000, 1001, false));
+		
+		assertFalse("Expecting a cancel for another request id to leave the subscription.", this.storage.cancel(10000000, 9999));
+		assertNotNull(this.storage.findSubscriber(10000000));
+		assertTrue(this.storage.cancel(10000000, 1001));
+		assertNull(this.storage.findSubscriber(10000000));
+		assertNull(this.storage.findFilter(10000000));
+		assertFalse(this.storage.cancel(10000000, 1001));
+		assertFalse(this.storage.cancel(10000009, 1001));
+	}
+	
+	@Test
+	public void testAddAllAndWriteAll() throws Exception {
+		this.storage.addAll(Arrays.asList(subscriber(10000000, 1001, false), subscriber(10000001, 1002, false), subscriber(10000002, 1003, false)));
+		assertEquals(3, this.storage.findAllSubscribers().size());
+		assertEquals(3, this.storage.findAllFilters().size());
+		
+		// an upsert replaces the filter of a subscriber it already holds
+		this.storage.writeAll(Arrays.asList(subscriber(10000001, 1012, false), subscriber(10000003, 1004, false)), Collections.singletonList(10000002));
+		assertEquals(3, this.storage.findAllSubscribers().size());
+		assertEquals(3, this.storage.findAllFilters().size());
+		assertEquals(1012, this.storage.findFilter(10000001).getRequestId().intValue());
+		assertNotNull(this.storage.findSubscriber(10000003));
+		assertNull(this.storage.findSubscriber(10000002));
+		
+		this.storage.writeAll(null, null);
+		assertEquals(3, this.storage.findAllSubscribers().size());
+	}
+	
+	@Test
+	public void testScanAndMaxId() throws Exception {
+		assertTrue(this.storage.findMaxSubscriberId() < 10000000);
+		this.storage.addAll(Arrays.asList(subscriber(10000005, 1001, false), subscriber(10000002, 1002, false), subscriber(10000009, 1003, false)));
+		
+		final List<Integer> ids = new ArrayList<Integer>();
+		int count = this.storage.scanSubscriberIds(new SubscriberIdVisitor() {
+			public void visit(int subscriberId) {
+				ids.add(subscriberId);
+			}
+		});
+		assertEquals(3, count);
+		Collections.sort(ids);
+		assertEquals(Arrays.asList(10000002, 10000005, 10000009), ids);
+		assertEquals(10000009, this.storage.findMaxSubscriberId());
+	}
+	
+	@Test
+	public void testExpireBeforeInChunks() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			this.storage.add(subscriber(10000000 + i, 1000 + i, false));
+		}
+		
+		// every subscription ends a day from now
+		long now = System.currentTimeMillis();
+		assertEquals(0, this.storage.expireBefore(now, 2).length);
+		long later = now + 2 * DAY;
+		List<Integer> expired = new ArrayList<Integer>();
+		for (int[] chunk : new int[][] { this.storage.expireBefore(later, 2), this.storage.expireBefore(later, 2), this.storage.expireBefore(later, 2) }) {
+			assertTrue(chunk.length <= 2);
+			for (int subscriberId : chunk) {
+				assertNull(this.storage.findSubscriber(subscriberId));
+				expired.add(subscriberId);
+			}
+		}
+		Collections.sort(expired);
+		assertEquals(Arrays.asList(10000000, 10000001, 10000002, 10000003, 10000004), expired);
+		assertEquals(0, this.storage.expireBefore(later, 2).length);
+		assertTrue(this.storage.findAllSubscribers().isEmpty());
+	}
+	
+	@Test
+	public void testReopen() throws Exception {
+		this.storage.add(subscriber(10000000, 1001, true));
+		this.storage.addAll(Arrays.asList(subscriber(10000001, 1002, false), subscriber(10000002, 1003, false)));
+		assertTrue(this.storage.cancel(10000001, 1002));
+		
+		this.storage = reopen(this.storage);
+		assertEquals(2, this.storage.findAllSubscribers().size());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, this.storage.findSubscriber(10000000).getCertificate());
+		assertEquals(1001, this.storage.findFilter(10000000).getRequestId().intValue());
+		assertNull(this.storage.findSubscriber(10000001));
+		assertNotNull(this.storage.findSubscriber(10000002));
+	}
+	
+	@Test
+	public void testGeneration() throws Exception {
+		assertEquals(-1, this.storage.findGeneration());
+		this.storage.updateGeneration(5);
+		assertEquals(5, this.storage.findGeneration());
+		
+		this.storage = reopen(this.storage);
+		assertEquals(5, this.storage.findGeneration());
+		this.storage.updateGeneration(6);
+		assertEquals(6, this.storage.findGeneration());
+	}
+	
+	/**
+	 * Returns a storage over the subscription tables of the data source, which must
+	 * already exist.
+	 */
+	protected static JdbcSubscriptionStorage jdbcStorage(DataSource dataSource, String subscriberTableName, String filterTableName) {
+		SubscriberCertificateDao certificateDao = new SubscriberCertificateDao.Builder()
+			.setDataSource(dataSource)
+			.setSubscriberTableName(subscriberTableName)
+			.build();
+		return new JdbcSubscriptionStorage(
+			certificateDao,
+			new SituationDataFilterDao.Builder().setDataSource(dataSource).setTableName(filterTableName).build(),
+			new SubscriptionBatchDao.Builder()
+				.setDataSource(dataSource)
+				.setCertificateDao(certificateDao)
+				.setSubscriberTableName(subscriberTableName)
+				.setFilterTableName(filterTableName)
+				.build(),
+			new SubscriptionTransactionDao.Builder()
+				.setDataSource(dataSource)
+				.setCertificateDao(certificateDao)
+				.setSubscriberTableName(subscriberTableName)
+				.setFilterTableName(filterTableName)
+				.build(),
+			new SubscriberIdDao.Builder().setDataSource(dataSource).setSubscriberTableName(subscriberTableName).build());
+	}
+	
+	protected static Subscriber subscriber(int subscriberId, int requestId, boolean boundingBox) {
+		Calendar endTime = Calendar.getInstance(TimeZone.getTimeZone(Filter.UTC_TIMEZONE));
+		endTime.add(Calendar.DAY_OF_YEAR, 1);
+		endTime.set(Calendar.SECOND, 0);
+		endTime.set(Calendar.MILLISECOND, 0);
+		
+		Filter.Builder filter = new Filter.Builder();
+		filter
+			.setSubscriberId(subscriberId)
+			.setEndTime(endTime)
+			.setType("VsmType")
+			.setTypeValue(1)
+			.setRequestId(requestId);
+		if (boundingBox) {
+			BoundingBox.Builder bb = new BoundingBox.Builder();
+			bb.setNWLat(43.0).setNWLon(-85.0).setSELat(41.0).setSELon(-82.0);
+			filter.setBoundingBox(bb.build());
+		}
+		
+		Subscriber.Builder builder = new Subscriber.Builder();
+		builder
+			.setSubscriberId(subscriberId)
+			.setCertificate(new byte[] { 1, 2, 3 })
+			.setDestHost("127.0.0.1")
+			.setDestPort(7443)
+			.setFilter(filter.build());
+		return builder.build();
+	}
+}
\ No newline at end of file
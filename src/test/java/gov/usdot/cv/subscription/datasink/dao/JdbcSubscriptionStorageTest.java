@@ -0,0 +1,50 @@
+package gov.usdot.cv.subscription.datasink.dao;
+
+import gov.usdot.cv.subscription.datasink.util.DatabaseUtil;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.BeforeClass;
+
+import com.deleidos.rtws.commons.dao.source.H2ConnectionPool;
+
+public class JdbcSubscriptionStorageTest extends AbstractSubscriptionStorageTest {
+	
+	private static final String SUBSCRIBER_TABLE 	= "STORAGE_SUBSCRIBER";
+	private static final String FILTER_TABLE 		= "STORAGE_FILTER";
+	
+	private static H2ConnectionPool dataSource;
+	
+	@BeforeClass
+	public static void createTables() {
+		dataSource = new H2ConnectionPool();
+		dataSource.setURL("jdbc:h2:mem:jdbc_storage;DB_CLOSE_DELAY=-1");
+		dataSource.setUser("sa");
+		dataSource.setPassword("");
+		DatabaseUtil.buildSubscriptionTables(dataSource, SUBSCRIBER_TABLE, FILTER_TABLE);
+	}
+	
+	protected SubscriptionStorage createStorage() throws SQLException {
+		execute("DELETE FROM APPLICATION." + FILTER_TABLE);
+		execute("DELETE FROM APPLICATION." + SUBSCRIBER_TABLE);
+		execute("DELETE FROM APPLICATION." + DatabaseUtil.certificateTableName(SUBSCRIBER_TABLE));
+		execute("DELETE FROM " + DatabaseUtil.ID_STATE_TABLE);
+		return jdbcStorage(dataSource, SUBSCRIBER_TABLE, FILTER_TABLE);
+	}
+	
+	protected SubscriptionStorage reopen(SubscriptionStorage storage) {
+		storage.close();
+		// a storage with cold caches, as after a restart
+		return jdbcStorage(dataSource, SUBSCRIBER_TABLE, FILTER_TABLE);
+	}
+	
+	private static void execute(String sql) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			connection.createStatement().execute(sql);
+		} finally {
+			connection.close();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,189 @@
+package gov.usdot.cv.subscription.datasink.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
+import gov.usdot.cv.subscription.datasink.util.DatabaseUtil;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.deleidos.rtws.commons.dao.source.H2ConnectionPool;
+
+public class SubscriberCertificateDaoTest {
+	
+	private static final String SUBSCRIBER_TABLE 	= "CERTIFICATE_SUBSCRIBER";
+	private static final String FILTER_TABLE 		= "CERTIFICATE_FILTER";
+	
+	private static final byte[] SHARED 	= new byte[] { 1, 2, 3 };
+	private static final byte[] OTHER 	= new byte[] { 4, 5, 6 };
+	
+	private static H2ConnectionPool dataSource;
+	
+	private SubscriberCertificateDao certificateDao;
+	private SubscriptionTransactionDao transactionDao;
+	
+	@BeforeClass
+	public static void createTables() {
+		dataSource = new H2ConnectionPool();
+		dataSource.setURL("jdbc:h2:mem:certificate_dao;DB_CLOSE_DELAY=-1");
+		dataSource.setUser("sa");
+		dataSource.setPassword("");
+		DatabaseUtil.buildSubscriptionTables(dataSource, SUBSCRIBER_TABLE, FILTER_TABLE);
+	}
+	
+	@Before
+	public void setUp() throws SQLException {
+		execute("DELETE FROM APPLICATION." + FILTER_TABLE);
+		execute("DELETE FROM APPLICATION." + SUBSCRIBER_TABLE);
+		execute("DELETE FROM APPLICATION." + DatabaseUtil.certificateTableName(SUBSCRIBER_TABLE));
+		this.certificateDao = certificateDao();
+		this.transactionDao = new SubscriptionTransactionDao.Builder()
+			.setDataSource(dataSource)
+			.setCertificateDao(this.certificateDao)
+			.setSubscriberTableName(SUBSCRIBER_TABLE)
+			.setFilterTableName(FILTER_TABLE)
+			.build();
+	}
+	
+	@Test
+	public void testSharedCertificateStoredOnce() throws SQLException {
+		this.transactionDao.add(subscriber(10000000, SHARED));
+		this.transactionDao.add(subscriber(10000001, SHARED));
+		this.transactionDao.add(subscriber(10000002, OTHER));
+		
+		assertEquals(2, count("APPLICATION." + DatabaseUtil.certificateTableName(SUBSCRIBER_TABLE)));
+		assertEquals("Expecting the certificate kept inline as well for older readers of the subscriber table.",
+			0, count("APPLICATION." + SUBSCRIBER_TABLE + " S JOIN APPLICATION." + DatabaseUtil.certificateTableName(SUBSCRIBER_TABLE) + 
+				" C ON C.ID = S.CERTIFICATE_ID WHERE S.CERTIFICATE IS NULL OR S.CERTIFICATE <> C.CERTIFICATE"));
+		assertEquals(2, count("(SELECT DISTINCT CERTIFICATE_ID FROM APPLICATION." + SUBSCRIBER_TABLE + ")"));
+		
+		// a reader with a cold cache, as after a restart
+		SubscriberCertificateDao reader = certificateDao();
+		Collection<Subscriber> subscribers = reader.findAll();
+		assertEquals(3, subscribers.size());
+		for (Subscriber subscriber : subscribers) {
+			assertArrayEquals((subscriber.getSubscriberId() == 10000002) ? OTHER : SHARED, subscriber.getCertificate());
+		}
+		assertEquals(2, reader.getCachedCount());
+		
+		Subscriber first = reader.findById(10000000);
+		Subscriber second = reader.findById(10000001);
+		assertArrayEquals(SHARED, first.getCertificate());
+		assertSame("Expecting both subscribers to share the cached certificate.", first.getCertificate(), second.getCertificate());
+		assertEquals("127.0.0.1", first.getDestHost());
+		assertEquals(7443, first.getDestPort().intValue());
+		assertNull(reader.findById(10000009));
+	}
+	
+	@Test
+	public void testBatchSharesCertificate() throws SQLException {
+		SubscriptionBatchDao batchDao = new SubscriptionBatchDao.Builder()
+			.setDataSource(dataSource)
+			.setCertificateDao(this.certificateDao)
+			.setSubscriberTableName(SUBSCRIBER_TABLE)
+			.setFilterTableName(FILTER_TABLE)
+			.build();
+		batchDao.insertAll(Arrays.asList(subscriber(10000010, SHARED), subscriber(10000011, SHARED), subscriber(10000012, SHARED)));
+		assertEquals(1, count("APPLICATION." + DatabaseUtil.certificateTableName(SUBSCRIBER_TABLE)));
+		assertEquals(3, this.certificateDao.findAll().size());
+	}
+	
+	@Test
+	public void testDeleteUnreferenced() throws SQLException {
+		this.transactionDao.add(subscriber(10000020, SHARED));
+		this.transactionDao.add(subscriber(10000021, SHARED));
+		this.transactionDao.add(subscriber(10000022, OTHER));
+		
+		this.transactionDao.cancel(10000020, 1001);
+		assertEquals("Expecting a certificate still referenced to be kept.", 0, this.certificateDao.deleteUnreferenced());
+		
+		this.transactionDao.cancel(10000022, 1001);
+		assertEquals(1, this.certificateDao.deleteUnreferenced());
+		assertEquals(1, count("APPLICATION." + DatabaseUtil.certificateTableName(SUBSCRIBER_TABLE)));
+		assertArrayEquals(SHARED, this.certificateDao.findById(10000021).getCertificate());
+		
+		// the collected certificate is stored again when a subscriber comes back with it
+		this.transactionDao.add(subscriber(10000023, OTHER));
+		assertArrayEquals(OTHER, certificateDao().findById(10000023).getCertificate());
+	}
+	
+	@Test
+	public void testStaleCachedIdIsResolvedAgain() throws SQLException {
+		this.transactionDao.add(subscriber(10000030, OTHER));
+		this.transactionDao.cancel(10000030, 1001);
+		
+		// another node collects the certificate this one still has cached
+		certificateDao().deleteUnreferenced();
+		try {
+			this.transactionDao.add(subscriber(10000031, OTHER));
+			fail("Expecting the cached certificate id to fail the foreign key.");
+		} catch (SQLException expected) {
+		}
+		
+		this.transactionDao.add(subscriber(10000031, OTHER));
+		assertArrayEquals(OTHER, certificateDao().findById(10000031).getCertificate());
+	}
+	
+	private static SubscriberCertificateDao certificateDao() {
+		return new SubscriberCertificateDao.Builder()
+			.setDataSource(dataSource)
+			.setSubscriberTableName(SUBSCRIBER_TABLE)
+			.build();
+	}
+	
+	private static int count(String from) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			ResultSet rs = connection.createStatement().executeQuery("SELECT COUNT(*) FROM " + from);
+			rs.next();
+			return rs.getInt(1);
+		} finally {
+			connection.close();
+		}
+	}
+	
+	private static void execute(String sql) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			connection.createStatement().execute(sql);
+		} finally {
+			connection.close();
+		}
+	}
+	
+	private static Subscriber subscriber(int subscriberId, byte[] certificate) {
+		Calendar endTime = Calendar.getInstance(TimeZone.getTimeZone(Filter.UTC_TIMEZONE));
+		endTime.add(Calendar.DAY_OF_YEAR, 1);
+		
+		Filter.Builder filter = new Filter.Builder();
+		filter
+			.setSubscriberId(subscriberId)
+			.setEndTime(endTime)
+			.setType("VsmType")
+			.setTypeValue(1)
+			.setRequestId(1001);
+		
+		Subscriber.Builder builder = new Subscriber.Builder();
+		builder
+			.setSubscriberId(subscriberId)
+			.setCertificate(certificate.clone())
+			.setDestHost("127.0.0.1")
+			.setDestPort(7443)
+			.setFilter(filter.build());
+		return builder.build();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,125 @@
+package gov.usdot.cv.subscription.datasink.dao;
+
+import static org.junit.Assert.assertEquals;
+import gov.usdot.cv.subscription.datasink.util.DatabaseUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.deleidos.rtws.commons.dao.source.H2ConnectionPool;
+
+public class SubscriberIdDaoTest {
+	
+	private static final String SUBSCRIBER_TABLE 		= "ID_SUBSCRIBER";
+	private static final String OTHER_SUBSCRIBER_TABLE 	= "ID_OTHER_SUBSCRIBER";
+	
+	private static H2ConnectionPool dataSource;
+	
+	private SubscriberIdDao dao;
+	
+	@BeforeClass
+	public static void createTables() {
+		dataSource = new H2ConnectionPool();
+		dataSource.setURL("jdbc:h2:mem:subscriber_id_dao;DB_CLOSE_DELAY=-1");
+		dataSource.setUser("sa");
+		dataSource.setPassword("");
+		DatabaseUtil.buildSubscriptionTables(dataSource, SUBSCRIBER_TABLE, "ID_FILTER");
+		DatabaseUtil.buildSubscriptionTables(dataSource, OTHER_SUBSCRIBER_TABLE, "ID_OTHER_FILTER");
+	}
+	
+	@Before
+	public void setUp() throws SQLException {
+		execute("DELETE FROM APPLICATION." + SUBSCRIBER_TABLE);
+		execute("DELETE FROM " + DatabaseUtil.ID_STATE_TABLE);
+		this.dao = dao(SUBSCRIBER_TABLE);
+	}
+	
+	@Test
+	public void testScanAndFindMaxId() throws SQLException {
+		assertEquals(0, this.dao.findMaxId());
+		assertEquals(0, this.dao.scan(new SubscriberIdVisitor() {
+			public void visit(int subscriberId) {
+			}
+		}));
+		
+		for (int subscriberId : new int[] { 10000007, 10000001, 10000004 }) {
+			insert(subscriberId);
+		}
+		final List<Integer> ids = new ArrayList<Integer>();
+		assertEquals(3, this.dao.scan(new SubscriberIdVisitor() {
+			public void visit(int subscriberId) {
+				ids.add(subscriberId);
+			}
+		}));
+		Collections.sort(ids);
+		assertEquals(Arrays.asList(10000001, 10000004, 10000007), ids);
+		assertEquals(10000007, this.dao.findMaxId());
+	}
+	
+	@Test
+	public void testGenerationIsRecordedPerTable() throws SQLException {
+		SubscriberIdDao other = dao(OTHER_SUBSCRIBER_TABLE);
+		assertEquals(-1, this.dao.findGeneration());
+		assertEquals(-1, other.findGeneration());
+		
+		this.dao.updateGeneration(0);
+		assertEquals(0, this.dao.findGeneration());
+		assertEquals(-1, other.findGeneration());
+		
+		// a later generation replaces the earlier one
+		this.dao.updateGeneration(Integer.MAX_VALUE + 1L);
+		other.updateGeneration(3);
+		assertEquals(Integer.MAX_VALUE + 1L, dao(SUBSCRIBER_TABLE).findGeneration());
+		assertEquals(3, other.findGeneration());
+		assertEquals(2, count());
+	}
+	
+	private static SubscriberIdDao dao(String subscriberTableName) {
+		return new SubscriberIdDao.Builder()
+			.setDataSource(dataSource)
+			.setSubscriberTableName(subscriberTableName)
+			.build();
+	}
+	
+	private static int count() throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			ResultSet rs = connection.createStatement().executeQuery("SELECT COUNT(*) FROM " + DatabaseUtil.ID_STATE_TABLE);
+			rs.next();
+			return rs.getInt(1);
+		} finally {
+			connection.close();
+		}
+	}
+	
+	private static void insert(int subscriberId) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			PreparedStatement stmt = connection.prepareStatement("INSERT INTO APPLICATION." + SUBSCRIBER_TABLE + 
+				" (ID, CERTIFICATE, TARGET_HOST, TARGET_PORT) VALUES (?, X'010203', '127.0.0.1', 7443)");
+			stmt.setInt(1, subscriberId);
+			stmt.executeUpdate();
+		} finally {
+			connection.close();
+		}
+	}
+	
+	private static void execute(String sql) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			connection.createStatement().execute(sql);
+		} finally {
+			connection.close();
+		}
+	}
+}
\ No newline at end of file
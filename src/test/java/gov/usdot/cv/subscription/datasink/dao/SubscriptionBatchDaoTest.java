@@ -0,0 +1,184 @@
+package gov.usdot.cv.subscription.datasink.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
+import gov.usdot.cv.subscription.datasink.util.DatabaseUtil;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.deleidos.rtws.commons.dao.source.H2ConnectionPool;
+
+public class SubscriptionBatchDaoTest {
+	
+	private static final String SUBSCRIBER_TABLE 	= "BATCH_SUBSCRIBER";
+	private static final String FILTER_TABLE 		= "BATCH_FILTER";
+	
+	private static H2ConnectionPool dataSource;
+	
+	private SubscriptionBatchDao batchDao;
+	private SubscriptionTransactionDao transactionDao;
+	
+	@BeforeClass
+	public static void createTables() {
+		dataSource = new H2ConnectionPool();
+		dataSource.setURL("jdbc:h2:mem:batch_dao;DB_CLOSE_DELAY=-1");
+		dataSource.setUser("sa");
+		dataSource.setPassword("");
+		DatabaseUtil.buildSubscriptionTables(dataSource, SUBSCRIBER_TABLE, FILTER_TABLE);
+	}
+	
+	@Before
+	public void setUp() throws SQLException {
+		execute("DELETE FROM APPLICATION." + FILTER_TABLE);
+		execute("DELETE FROM APPLICATION." + SUBSCRIBER_TABLE);
+		this.batchDao = new SubscriptionBatchDao.Builder()
+			.setDataSource(dataSource)
+			.setSubscriberTableName(SUBSCRIBER_TABLE)
+			.setFilterTableName(FILTER_TABLE)
+			.build();
+		this.transactionDao = new SubscriptionTransactionDao.Builder()
+			.setDataSource(dataSource)
+			.setSubscriberTableName(SUBSCRIBER_TABLE)
+			.setFilterTableName(FILTER_TABLE)
+			.build();
+	}
+	
+	@Test
+	public void testDeleteExpiredInChunks() throws SQLException {
+		List<Subscriber> subscribers = new ArrayList<Subscriber>();
+		for (int i = 0; i < 25; i++) {
+			subscribers.add(subscriber(10000000 + i, 1001, -60 - i));
+		}
+		subscribers.add(subscriber(10000100, 1001, 60));
+		this.batchDao.insertAll(subscribers);
+		
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		Set<Integer> expired = new TreeSet<Integer>();
+		int[] sizes = new int[4];
+		for (int chunk = 0; chunk < sizes.length; chunk++) {
+			int[] ids = this.batchDao.deleteExpired(now, 10);
+			sizes[chunk] = ids.length;
+			for (int id : ids) {
+				assertTrue("Expecting every id once, got " + id + " again.", expired.add(id));
+			}
+		}
+		assertEquals(10, sizes[0]);
+		assertEquals(10, sizes[1]);
+		assertEquals(5, sizes[2]);
+		assertEquals(0, sizes[3]);
+		assertEquals(25, expired.size());
+		assertEquals(1, count(SUBSCRIBER_TABLE));
+		assertEquals(1, count(FILTER_TABLE));
+	}
+	
+	@Test
+	public void testDeleteExpiredKeepsSubscribersWithLiveFilters() throws SQLException {
+		// an ended filter next to a live one for another request
+		this.transactionDao.add(subscriber(10000000, 1001, -60));
+		this.transactionDao.add(subscriber(10000000, 1002, 60));
+		// two ended filters
+		this.transactionDao.add(subscriber(10000001, 1001, -60));
+		this.transactionDao.add(subscriber(10000001, 1002, -30));
+		this.transactionDao.add(subscriber(10000002, 1001, -45));
+		
+		int[] ids = this.batchDao.deleteExpired(new Timestamp(System.currentTimeMillis()), 10);
+		Set<Integer> expired = new TreeSet<Integer>();
+		for (int id : ids) {
+			expired.add(id);
+		}
+		assertEquals(ids.length, expired.size());
+		assertEquals(new TreeSet<Integer>(Arrays.asList(10000001, 10000002)), expired);
+		assertEquals(1, count(SUBSCRIBER_TABLE));
+		assertEquals(1, count(FILTER_TABLE + " WHERE ID = 10000000 AND REQUEST_ID = 1002"));
+		assertEquals(1, count(FILTER_TABLE));
+	}
+	
+	@Test
+	public void testDeleteExpiredAcrossInLists() throws SQLException {
+		// more ids than one IN list binds, with survivors spread over the lists
+		List<Subscriber> subscribers = new ArrayList<Subscriber>();
+		for (int i = 0; i < 1200; i++) {
+			subscribers.add(subscriber(10000000 + i, 1001, -60));
+		}
+		this.batchDao.insertAll(subscribers);
+		for (int i = 0; i < 1200; i += 250) {
+			this.transactionDao.add(subscriber(10000000 + i, 1002, 60));
+		}
+		
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		int[] first = this.batchDao.deleteExpired(now, 1100);
+		assertEquals(1100 - 5, first.length);
+		int[] second = this.batchDao.deleteExpired(now, 1100);
+		assertEquals(100, second.length);
+		assertEquals(0, this.batchDao.deleteExpired(now, 1100).length);
+		
+		Set<Integer> expired = new TreeSet<Integer>();
+		for (int[] ids : new int[][] { first, second }) {
+			for (int id : ids) {
+				assertTrue(expired.add(id));
+				assertTrue("Expecting a subscriber with a live filter to be kept, got " + id, (id - 10000000) % 250 != 0);
+			}
+		}
+		assertEquals(1195, expired.size());
+		assertEquals(5, count(SUBSCRIBER_TABLE));
+		assertEquals(5, count(FILTER_TABLE));
+	}
+	
+	private static int count(String from) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			ResultSet rs = connection.createStatement().executeQuery("SELECT COUNT(*) FROM APPLICATION." + from);
+			rs.next();
+			return rs.getInt(1);
+		} finally {
+			connection.close();
+		}
+	}
+	
+	private static void execute(String sql) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			connection.createStatement().execute(sql);
+		} finally {
+			connection.close();
+		}
+	}
+	
+	private static Subscriber subscriber(int subscriberId, int requestId, int endMinutes) {
+		Calendar endTime = Calendar.getInstance(TimeZone.getTimeZone(Filter.UTC_TIMEZONE));
+		endTime.add(Calendar.MINUTE, endMinutes);
+		
+		Filter.Builder filter = new Filter.Builder();
+		filter
+			.setSubscriberId(subscriberId)
+			.setEndTime(endTime)
+			.setType("VsmType")
+			.setTypeValue(1)
+			.setRequestId(requestId);
+		
+		Subscriber.Builder builder = new Subscriber.Builder();
+		builder
+			.setSubscriberId(subscriberId)
+			.setCertificate(new byte[] { 1, 2, 3 })
+			.setDestHost("127.0.0.1")
+			.setDestPort(7443)
+			.setFilter(filter.build());
+		return builder.build();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,220 @@
+package gov.usdot.cv.subscription.datasink.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
+import gov.usdot.cv.subscription.datasink.util.DatabaseUtil;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.deleidos.rtws.commons.dao.source.H2ConnectionPool;
+
+public class SubscriptionTransactionDaoTest {
+	
+	private static final String SUBSCRIBER_TABLE 	= "TRANSACTION_SUBSCRIBER";
+	private static final String FILTER_TABLE 		= "TRANSACTION_FILTER";
+	
+	private static H2ConnectionPool pool;
+	
+	private CountingDataSource dataSource;
+	private SubscriptionTransactionDao dao;
+	
+	@BeforeClass
+	public static void createTables() {
+		pool = new H2ConnectionPool();
+		pool.setURL("jdbc:h2:mem:transaction_dao;DB_CLOSE_DELAY=-1");
+		pool.setUser("sa");
+		pool.setPassword("");
+		DatabaseUtil.buildSubscriptionTables(pool, SUBSCRIBER_TABLE, FILTER_TABLE);
+	}
+	
+	@Before
+	public void setUp() throws SQLException {
+		execute("DELETE FROM APPLICATION." + FILTER_TABLE);
+		execute("DELETE FROM APPLICATION." + SUBSCRIBER_TABLE);
+		this.dataSource = new CountingDataSource(pool);
+		this.dao = new SubscriptionTransactionDao.Builder()
+			.setDataSource(this.dataSource.proxy())
+			.setSubscriberTableName(SUBSCRIBER_TABLE)
+			.setFilterTableName(FILTER_TABLE)
+			.build();
+	}
+	
+	@Test
+	public void testAddAndCancel() throws SQLException {
+		this.dao.add(subscriber(10000000, 1001));
+		assertEquals(1, count(SUBSCRIBER_TABLE, 10000000));
+		assertEquals(1, count(FILTER_TABLE, 10000000));
+		
+		assertTrue("Expecting the subscriber to be removed with its only filter.", this.dao.cancel(10000000, 1001));
+		assertEquals(0, count(SUBSCRIBER_TABLE, 10000000));
+		assertEquals(0, count(FILTER_TABLE, 10000000));
+		assertEquals(1, this.dao.getAddCount());
+		assertEquals(1, this.dao.getCancelCount());
+		assertEquals(0, this.dataSource.open.get());
+	}
+	
+	@Test
+	public void testCancelKeepsSubscriberWithAnotherFilter() throws SQLException {
+		this.dao.add(subscriber(10000001, 1001));
+		this.dao.add(subscriber(10000001, 1002));
+		assertEquals(2, count(FILTER_TABLE, 10000001));
+		
+		assertFalse("Expecting the subscriber to stay while a filter is left.", this.dao.cancel(10000001, 1001));
+		assertEquals(1, count(SUBSCRIBER_TABLE, 10000001));
+		assertEquals(1, count(FILTER_TABLE, 10000001));
+		
+		assertTrue(this.dao.cancel(10000001, 1002));
+		assertEquals(0, count(SUBSCRIBER_TABLE, 10000001));
+	}
+	
+	@Test
+	public void testFailedTransactionRollsBack() throws SQLException {
+		// TYPE is NOT NULL, so the filter insert fails after the subscriber upsert
+		Subscriber subscriber = subscriber(10000002, 1001, null);
+		try {
+			this.dao.add(subscriber);
+			fail("Expecting the filter insert to fail.");
+		} catch (SQLException expected) {
+		}
+		assertEquals("Expecting the subscriber upsert to be rolled back.", 0, count(SUBSCRIBER_TABLE, 10000002));
+		assertEquals(0, this.dataSource.open.get());
+		
+		this.dao.add(subscriber(10000002, 1001));
+		assertEquals(1, count(SUBSCRIBER_TABLE, 10000002));
+	}
+	
+	@Test
+	public void testThreadsDoNotHoldConnections() throws Exception {
+		final int threads = 50;
+		final AtomicInteger failures = new AtomicInteger();
+		for (int i = 0; i < threads; i++) {
+			final int subscriberId = 10000100 + i;
+			// each thread adds and then dies, as a recycled worker would
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						dao.add(subscriber(subscriberId, 1001));
+					} catch (SQLException ex) {
+						failures.incrementAndGet();
+					}
+				}
+			});
+			thread.start();
+			thread.join();
+		}
+		assertEquals(0, failures.get());
+		assertEquals(threads, this.dao.getAddCount());
+		assertEquals("Expecting every borrowed connection to be returned.", 0, this.dataSource.open.get());
+		assertEquals(threads, this.dataSource.borrowed.get());
+		assertTrue(this.dao.getMeanTransactionMillis() > 0);
+	}
+	
+	private static int count(String table, int subscriberId) throws SQLException {
+		Connection connection = pool.getConnection();
+		try {
+			PreparedStatement stmt = connection.prepareStatement("SELECT COUNT(*) FROM APPLICATION." + table + " WHERE ID = ?");
+			stmt.setInt(1, subscriberId);
+			ResultSet rs = stmt.executeQuery();
+			rs.next();
+			return rs.getInt(1);
+		} finally {
+			connection.close();
+		}
+	}
+	
+	private static void execute(String sql) throws SQLException {
+		Connection connection = pool.getConnection();
+		try {
+			connection.createStatement().execute(sql);
+		} finally {
+			connection.close();
+		}
+	}
+	
+	private static Subscriber subscriber(int subscriberId, int requestId) {
+		return subscriber(subscriberId, requestId, "VsmType");
+	}
+	
+	private static Subscriber subscriber(int subscriberId, int requestId, String type) {
+		Calendar endTime = Calendar.getInstance(TimeZone.getTimeZone(Filter.UTC_TIMEZONE));
+		endTime.add(Calendar.DAY_OF_YEAR, 1);
+		
+		Filter.Builder filter = new Filter.Builder();
+		filter
+			.setSubscriberId(subscriberId)
+			.setEndTime(endTime)
+			.setType(type)
+			.setTypeValue(1)
+			.setRequestId(requestId);
+		
+		Subscriber.Builder builder = new Subscriber.Builder();
+		builder
+			.setSubscriberId(subscriberId)
+			.setCertificate(new byte[] { 1, 2, 3 })
+			.setDestHost("127.0.0.1")
+			.setDestPort(7443)
+			.setFilter(filter.build());
+		return builder.build();
+	}
+	
+	/**
+	 * Counts the connections borrowed from the pool and those not yet returned.
+	 */
+	private static class CountingDataSource implements InvocationHandler {
+		private final DataSource target;
+		private final AtomicInteger borrowed = new AtomicInteger();
+		private final AtomicInteger open = new AtomicInteger();
+		
+		private CountingDataSource(DataSource target) {
+			this.target = target;
+		}
+		
+		private DataSource proxy() {
+			return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DataSource.class }, this);
+		}
+		
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result = call(this.target, method, args);
+			if (method.getName().equals("getConnection")) {
+				this.borrowed.incrementAndGet();
+				this.open.incrementAndGet();
+				final Connection connection = (Connection) result;
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("close") && ! connection.isClosed()) open.decrementAndGet();
+						return call(connection, method, args);
+					}
+				});
+			}
+			return result;
+		}
+		
+		private static Object call(Object target, Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException ex) {
+				throw ex.getCause();
+			}
+		}
+	}
+}
\ No newline at end of file
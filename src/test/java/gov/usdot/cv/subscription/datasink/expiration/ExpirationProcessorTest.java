@@ -0,0 +1,124 @@
+package gov.usdot.cv.subscription.datasink.expiration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
+import gov.usdot.cv.subscription.datasink.cache.SubscriptionIndex;
+import gov.usdot.cv.subscription.datasink.dao.DaoManager;
+import gov.usdot.cv.subscription.datasink.store.MappedSubscriptionStorage;
+import gov.usdot.cv.subscription.datasink.store.Mutation;
+import gov.usdot.cv.subscription.datasink.store.SubscriptionJournal;
+import gov.usdot.cv.subscription.datasink.store.WriteBehindStore;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class ExpirationProcessorTest {
+	
+	private static final int PENDING_ONLY 	= 10000000;
+	private static final int SWEPT 			= 10000001;
+	private static final int RENEWED 		= 10000002;
+	
+	@Test
+	public void testExpireGoesThroughWriteBehind() throws Exception {
+		File file = tempFile("subscriptions", ".db");
+		MappedSubscriptionStorage storage = new MappedSubscriptionStorage(file);
+		storage.open();
+		DaoManager.getInstance().setSubscriptionStorage(storage);
+		SubscriptionIndex index = SubscriptionIndex.getInstance();
+		index.clear();
+		WriteBehindStore writeBehind = new WriteBehindStore(new SubscriptionJournal(tempFile("subscriptions", ".journal")), 1000, 100);
+		writeBehind.recover();
+		try {
+			// stored and ended, with a change the write-behind store has not written yet
+			storage.add(subscriber(SWEPT, -60));
+			storage.add(subscriber(RENEWED, -60));
+			accept(writeBehind, index, subscriber(PENDING_ONLY, -60));
+			accept(writeBehind, index, subscriber(SWEPT, -30));
+			accept(writeBehind, index, subscriber(RENEWED, 60));
+			
+			ExpirationProcessor processor = new ExpirationProcessor(writeBehind);
+			Thread thread = new Thread(processor);
+			thread.start();
+			try {
+				awaitCancel(writeBehind, PENDING_ONLY);
+				awaitCancel(writeBehind, SWEPT);
+			} finally {
+				processor.terminate();
+				thread.join(5000);
+			}
+			assertNull(storage.findSubscriber(SWEPT));
+			assertTrue(writeBehind.getPending(RENEWED).isAdd());
+			assertNotNull(index.peekSubscriber(RENEWED));
+			assertNull(index.peekSubscriber(PENDING_ONLY));
+			assertNull(index.peekSubscriber(SWEPT));
+			
+			// the pending adds are written before the cancels queued behind them
+			Thread committer = new Thread(writeBehind);
+			committer.start();
+			for (long deadline = System.currentTimeMillis() + 5000; writeBehind.getBacklog() > 0 && System.currentTimeMillis() < deadline;) {
+				Thread.sleep(10);
+			}
+			writeBehind.terminate();
+			committer.join(5000);
+			
+			assertNull("Expecting the pending add not to be written back.", storage.findSubscriber(PENDING_ONLY));
+			assertNull("Expecting the pending add not to be written back.", storage.findSubscriber(SWEPT));
+			assertNotNull(storage.findSubscriber(RENEWED));
+			assertTrue(storage.findFilter(RENEWED).getEndTime().getTimeInMillis() > System.currentTimeMillis());
+		} finally {
+			index.clear();
+			storage.close();
+			DaoManager.getInstance().setSubscriptionStorage(null);
+		}
+	}
+	
+	private static void accept(WriteBehindStore writeBehind, SubscriptionIndex index, Subscriber subscriber) throws Exception {
+		writeBehind.add(subscriber);
+		index.put(subscriber);
+	}
+	
+	private static void awaitCancel(WriteBehindStore writeBehind, int subscriberId) throws InterruptedException {
+		Mutation pending = writeBehind.getPending(subscriberId);
+		for (long deadline = System.currentTimeMillis() + 5000; pending.isAdd() && System.currentTimeMillis() < deadline; pending = writeBehind.getPending(subscriberId)) {
+			Thread.sleep(10);
+		}
+		assertFalse(String.format("Expecting a cancel for subscriber '%s' queued behind its pending add.", subscriberId), pending.isAdd());
+		assertEquals(subscriberId, pending.getSubscriberId());
+	}
+	
+	private static File tempFile(String prefix, String suffix) throws Exception {
+		File file = File.createTempFile(prefix, suffix);
+		file.deleteOnExit();
+		return file;
+	}
+	
+	private static Subscriber subscriber(int subscriberId, int endMinutes) {
+		Calendar endTime = Calendar.getInstance(TimeZone.getTimeZone(Filter.UTC_TIMEZONE));
+		endTime.add(Calendar.MINUTE, endMinutes);
+		
+		Filter.Builder filter = new Filter.Builder();
+		filter
+			.setSubscriberId(subscriberId)
+			.setEndTime(endTime)
+			.setType("VsmType")
+			.setTypeValue(1)
+			.setRequestId(1001);
+		
+		Subscriber.Builder builder = new Subscriber.Builder();
+		builder
+			.setSubscriberId(subscriberId)
+			.setCertificate(new byte[] { 1, 2, 3 })
+			.setDestHost("127.0.0.1")
+			.setDestPort(7443)
+			.setFilter(filter.build());
+		return builder.build();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+package gov.usdot.cv.subscription.datasink.expiration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ExpirationScheduleTest {
+	
+	@Test
+	public void testPollsDueInDeadlineOrder() {
+		ExpirationSchedule schedule = new ExpirationSchedule();
+		schedule.add(10000003, 300);
+		schedule.add(10000001, 100);
+		schedule.add(10000004, 400);
+		schedule.add(10000002, 200);
+		assertEquals(100, schedule.peekDeadline());
+		
+		// Due means the deadline has passed
+		assertEquals(0, schedule.pollDue(100, 10).length);
+		assertTrue(Arrays.equals(new int[] { 10000001, 10000002 }, schedule.pollDue(201, 10)));
+		assertTrue(Arrays.equals(new int[] { 10000003 }, schedule.pollDue(1000, 1)));
+		assertTrue(Arrays.equals(new int[] { 10000004 }, schedule.pollDue(1000, 10)));
+		assertEquals(0, schedule.size());
+		assertEquals(Long.MAX_VALUE, schedule.peekDeadline());
+	}
+	
+	@Test
+	public void testMatchesSortedOrder() {
+		ExpirationSchedule schedule = new ExpirationSchedule();
+		Random random = new Random(11);
+		long[] deadlines = new long[5000];
+		for (int i = 0; i < deadlines.length; i++) {
+			deadlines[i] = random.nextInt(100000);
+			schedule.add(10000000 + i, deadlines[i]);
+		}
+		Arrays.sort(deadlines);
+		
+		long previous = Long.MIN_VALUE;
+		int polled = 0;
+		for (long now = 0; now <= 100000; now += 997) {
+			for (int subscriberId : schedule.pollDue(now, Integer.MAX_VALUE)) {
+				assertTrue(subscriberId >= 10000000 && subscriberId < 10000000 + deadlines.length);
+				polled++;
+			}
+			assertTrue(schedule.peekDeadline() >= now);
+			assertTrue(schedule.peekDeadline() >= previous);
+			previous = schedule.peekDeadline();
+		}
+		polled += schedule.pollDue(Long.MAX_VALUE, Integer.MAX_VALUE).length;
+		assertEquals(deadlines.length, polled);
+	}
+	
+	@Test
+	public void testRebuildReplacesEntries() {
+		ExpirationSchedule schedule = new ExpirationSchedule();
+		for (int i = 0; i < 3000; i++) {
+			schedule.add(10000000 + i, i);
+		}
+		schedule.rebuild(new int[] { 10000002, 10000001, 10000003 }, new long[] { 50, 10, 30 }, 3);
+		assertEquals(3, schedule.size());
+		assertTrue(Arrays.equals(new int[] { 10000001, 10000003, 10000002 }, schedule.pollDue(100, 10)));
+	}
+	
+	@Test
+	public void testEarlierDeadlineWakesWaiter() throws Exception {
+		final ExpirationSchedule schedule = new ExpirationSchedule();
+		schedule.add(10000001, System.currentTimeMillis() + 60000);
+		final long[] woken = new long[1];
+		Thread waiter = new Thread(new Runnable() {
+			public void run() {
+				try {
+					schedule.await(60000);
+				} catch (InterruptedException ignore) {
+				}
+				woken[0] = System.currentTimeMillis();
+			}
+		});
+		long start = System.currentTimeMillis();
+		waiter.start();
+		Thread.sleep(100);
+		schedule.add(10000002, System.currentTimeMillis() + 100);
+		waiter.join(10000);
+		assertTrue(woken[0] > 0);
+		assertTrue(woken[0] - start < 10000);
+	}
+}
\ No newline at end of file
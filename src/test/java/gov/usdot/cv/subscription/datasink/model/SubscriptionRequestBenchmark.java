@@ -0,0 +1,91 @@
+package gov.usdot.cv.subscription.datasink.model;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Compares the per-request CPU time and heap allocation of the DataModel getters
+ * against a single SubscriptionRequest.decode() for the attributes the processor
+ * reads while handling a subscription with a bounding box.
+ */
+public class SubscriptionRequestBenchmark {
+	
+	private static final JSONObject RECORD = JSONObject.fromObject(
+		"{\"dialogId\":155,\"sequenceId\":8,\"endTime\":\"3020-02-28T10:10:00\",\"destHost\":\"localhost\",\"destPort\":7443," + 
+		"\"fromForwarder\":\"false\",\"type\":\"VsmType\",\"typeValue\":1,\"requestId\":1001," +
+		"\"nwPos\":{\"lat\":43.0,\"lon\":-85.0},\"sePos\":{\"lat\":41.0,\"lon\":-82.0}}");
+	
+	private static long sink;
+	
+	public static void main(String [] args) {
+		int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		
+		// Warm up both paths so the JIT has compiled them before measuring
+		for (int i = 0; i < 3; i++) {
+			runDataModel(iterations / 10);
+			runSubscriptionRequest(iterations / 10);
+		}
+		
+		report("DataModel", iterations, new Runnable() {
+			public void run() { runDataModel(1); }
+		});
+		report("SubscriptionRequest", iterations, new Runnable() {
+			public void run() { runSubscriptionRequest(1); }
+		});
+		System.out.println("(sink " + sink + ")");
+	}
+	
+	private static void runDataModel(int iterations) {
+		for (int i = 0; i < iterations; i++) {
+			DataModel model = new DataModel(RECORD);
+			if (model.isSubscriptionRequest() || model.isSubscriptionCancel()) {
+				sink += model.getDestHost().length() + model.getDestPort() + model.getRequestId() + model.getTypeValue();
+				sink += model.getEndTime().length() + model.getType().length();
+				if (model.fromForwarder() != null && model.fromForwarder()) sink++;
+				if (model.hasNWPosObj() && model.hasSEPosObj() && ! model.isBoundingBoxEmpty()) {
+					sink += (long) (model.getNWLat() + model.getNWLon() + model.getSELat() + model.getSELon());
+				}
+			}
+		}
+	}
+	
+	private static void runSubscriptionRequest(int iterations) {
+		for (int i = 0; i < iterations; i++) {
+			SubscriptionRequest request = SubscriptionRequest.decode(RECORD);
+			if (request.isSubscriptionRequest() || request.isSubscriptionCancel()) {
+				sink += request.getDestHost().length() + request.getDestPort() + request.getRequestId() + request.getTypeValue();
+				sink += request.getEndTime().length() + request.getType().length();
+				if (request.fromForwarder()) sink++;
+				if (request.has(SubscriptionRequest.NW_POS | SubscriptionRequest.SE_POS) && ! request.isBoundingBoxEmpty()) {
+					sink += (long) (request.getNWLat() + request.getNWLon() + request.getSELat() + request.getSELon());
+				}
+			}
+		}
+	}
+	
+	private static void report(String name, int iterations, Runnable op) {
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		long startAlloc = allocatedBytes(mx);
+		long startCpu = mx.getCurrentThreadCpuTime();
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			op.run();
+		}
+		long elapsed = System.nanoTime() - start;
+		long cpu = mx.getCurrentThreadCpuTime() - startCpu;
+		long alloc = allocatedBytes(mx) - startAlloc;
+		System.out.println(String.format("%-20s %8.1f ns/op  %8.1f cpu ns/op  %8.1f bytes/op", 
+			name, (double) elapsed / iterations, (double) cpu / iterations, 
+			(alloc < 0) ? Double.NaN : (double) alloc / iterations));
+	}
+	
+	private static long allocatedBytes(ThreadMXBean mx) {
+		if (mx instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,183 @@
+package gov.usdot.cv.subscription.datasink.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+import org.junit.Test;
+
+public class SubscriptionRequestTest {
+	
+	private static final String[] RECORDS = {
+		"{\"dialogId\":155,\"sequenceId\":8,\"endTime\":\"3020-02-28T10:10:00\",\"destHost\":\"127.0.0.1\",\"destPort\":7443,\"fromForwarder\":\"false\",\"type\":\"VsmType\",\"typeValue\":1,\"requestId\":1001}",
+		"{\"dialogId\":155,\"sequenceId\":8,\"endTime\":\"3020-02-28T10:10:00\",\"destHost\":\"localhost\",\"destPort\":7443,\"fromForwarder\":\"true\",\"type\":\"VsmType\",\"typeValue\":1,\"requestId\":1001,\"nwPos\":{\"lat\":43.0,\"lon\":-85.0},\"sePos\":{\"lat\":41.0,\"lon\":-82.0}}",
+		"{\"dialogId\":155,\"sequenceId\":8,\"destHost\":\"127.0.0.1\",\"destPort\":7443,\"endTime\":\"3020-02-28T10:10:00Z\",\"type\":\"VsmType\",\"typeValue\":1,\"requestId\":1001,\"nwPos\":{\"lat\":43.0},\"sePos\":{\"lat\":41.0,\"lon\":-82.0}}",
+		"{\"dialogId\":155,\"sequenceId\":8,\"destHost\":\"127.0.0.1\",\"destPort\":\"7443\",\"requestId\":1001,\"nwPos\":{},\"sePos\":null}",
+		"{\"dialogId\":155,\"sequenceId\":8,\"destHost\":\"127.0.0.1\",\"destPort\":7443,\"requestId\":1001,\"sePos\":{\"lat\":41.0,\"lon\":-82.0}}",
+		"{\"dialogId\":155,\"sequenceId\":10,\"subscriberId\":10000001,\"requestId\":1001}",
+		"{\"dialogId\":154,\"sequenceId\":10,\"subscriberId\":10000001,\"requestId\":1001}",
+		"{\"dialogId\":155,\"sequenceId\":3,\"destHost\":\"127.0.0.1\",\"destPort\":7443}",
+		"{\"sequenceId\":8,\"destHost\":\"127.0.0.1\",\"destPort\":7443}",
+		"{}"
+	};
+	
+	private static final String[] MALFORMED = {
+		// An add with a malformed type value and request id, and a malformed subscriber id it does not use
+		"{\"dialogId\":155,\"sequenceId\":8,\"endTime\":\"3020-02-28T10:10:00\",\"destHost\":\"127.0.0.1\",\"destPort\":7443,\"type\":\"VsmType\",\"typeValue\":\"one\",\"requestId\":\"1001x\",\"subscriberId\":\"none\"}",
+		// A malformed port, northwest position and southeast latitude
+		"{\"dialogId\":155,\"sequenceId\":8,\"destHost\":\"127.0.0.1\",\"destPort\":\"port\",\"requestId\":1001,\"nwPos\":\"north\",\"sePos\":{\"lat\":\"south\",\"lon\":-82.0}}",
+		// A malformed dialog id
+		"{\"dialogId\":\"data\",\"sequenceId\":8,\"destHost\":\"127.0.0.1\",\"destPort\":7443,\"requestId\":null}",
+		// A malformed sequence id on a cancel
+		"{\"dialogId\":155,\"sequenceId\":\"cancel\",\"subscriberId\":10000001,\"requestId\":1001}"
+	};
+	
+	private static final String[] GETTERS = {
+		"isSubscriptionRequest", "isSubscriptionCancel", "isSemiDialogIdValid", "isSemiSequenceIdValid", 
+		"getSubscriberId", "getRequestId", "getDestPort", "getTypeValue", "getDestHost", "isBoundingBoxEmpty"
+	};
+	
+	private static final String[] POSITION_GETTERS = { "getNWLat", "getNWLon", "getSELat", "getSELon" };
+	
+	@Test
+	public void testDecodeMatchesDataModel() {
+		for (String json : RECORDS) {
+			JSONObject record = JSONObject.fromObject(json);
+			DataModel model = new DataModel(record);
+			SubscriptionRequest request = SubscriptionRequest.decode(record);
+			
+			assertEquals(json, model.isSubscriptionRequest(), request.isSubscriptionRequest());
+			assertEquals(json, model.isSubscriptionCancel(), request.isSubscriptionCancel());
+			assertEquals(json, model.isSemiDialogIdValid(), request.isSemiDialogIdValid());
+			assertEquals(json, model.isSemiSequenceIdValid(), request.isSemiSequenceIdValid());
+			assertEquals(json, model.getSemiDialogID() != null, request.has(SubscriptionRequest.DIALOG_ID));
+			assertEquals(json, model.getSemiSequenceID() != null, request.has(SubscriptionRequest.SEQUENCE_ID));
+			assertEquals(json, model.getSubscriberId(), optInt(request, SubscriptionRequest.SUBSCRIBER_ID, request.getSubscriberId()));
+			assertEquals(json, model.getRequestId(), optInt(request, SubscriptionRequest.REQUEST_ID, request.getRequestId()));
+			assertEquals(json, model.getDestPort(), optInt(request, SubscriptionRequest.DEST_PORT, request.getDestPort()));
+			assertEquals(json, model.getTypeValue(), optInt(request, SubscriptionRequest.TYPE_VALUE, request.getTypeValue()));
+			assertEquals(json, model.getDestHost(), request.getDestHost());
+			assertEquals(json, model.getEndTime(), request.getEndTime());
+			assertEquals(json, model.getType(), request.getType());
+			assertEquals(json, model.getCertificate(), request.getCertificate());
+			assertEquals(json, model.fromForwarder() != null && model.fromForwarder(), request.fromForwarder());
+			assertEquals(json, model.hasNWPosObj(), request.has(SubscriptionRequest.NW_POS));
+			assertEquals(json, model.hasSEPosObj(), request.has(SubscriptionRequest.SE_POS));
+			assertEquals(json, model.isBoundingBoxEmpty(), request.isBoundingBoxEmpty());
+			
+			// DataModel cannot read a position of a record that has only the other one
+			if (! model.isBoundingBoxEmpty() && model.hasNWPosObj() && model.hasSEPosObj()) {
+				assertEquals(json, model.getNWLat(), optDouble(request, SubscriptionRequest.NW_LAT, request.getNWLat()));
+				assertEquals(json, model.getNWLon(), optDouble(request, SubscriptionRequest.NW_LON, request.getNWLon()));
+				assertEquals(json, model.getSELat(), optDouble(request, SubscriptionRequest.SE_LAT, request.getSELat()));
+				assertEquals(json, model.getSELon(), optDouble(request, SubscriptionRequest.SE_LON, request.getSELon()));
+			}
+		}
+	}
+	
+	@Test
+	public void testPresenceMask() {
+		SubscriptionRequest request = SubscriptionRequest.decode(JSONObject.fromObject(RECORDS[5]));
+		assertTrue(request.has(SubscriptionRequest.SUBSCRIBER_ID | SubscriptionRequest.REQUEST_ID));
+		assertFalse(request.has(SubscriptionRequest.SUBSCRIBER_ID | SubscriptionRequest.DEST_HOST));
+		assertFalse(request.has(SubscriptionRequest.NW_POS));
+	}
+	
+	@Test
+	public void testMalformedValuesFailLikeDataModel() {
+		for (String json : MALFORMED) {
+			JSONObject record = JSONObject.fromObject(json);
+			DataModel model = new DataModel(record);
+			SubscriptionRequest request = SubscriptionRequest.decode(record);
+			
+			for (String getter : GETTERS) {
+				assertSameOutcome(json, getter, model, request);
+			}
+			if (record.has(DataModel.NW_POS_KEY) && record.has(DataModel.SE_POS_KEY)) {
+				for (String getter : POSITION_GETTERS) {
+					assertSameOutcome(json, getter, model, request);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testMalformedValuesFailOnlyWhenRead() {
+		SubscriptionRequest request = SubscriptionRequest.decode(JSONObject.fromObject(MALFORMED[0]));
+		assertTrue(request.isSubscriptionRequest());
+		assertTrue(request.has(SubscriptionRequest.TYPE_VALUE | SubscriptionRequest.REQUEST_ID | SubscriptionRequest.SUBSCRIBER_ID));
+		assertTrue(request.isMalformed(SubscriptionRequest.TYPE_VALUE));
+		assertTrue(request.isMalformed(SubscriptionRequest.REQUEST_ID));
+		assertTrue(request.isMalformed(SubscriptionRequest.SUBSCRIBER_ID));
+		assertFalse(request.isValid(SubscriptionRequest.DEST_PORT | SubscriptionRequest.REQUEST_ID));
+		
+		// What an add reads apart from the malformed attributes is still there
+		assertTrue(request.isValid(SubscriptionRequest.DEST_HOST | SubscriptionRequest.DEST_PORT | SubscriptionRequest.END_TIME | SubscriptionRequest.TYPE));
+		assertEquals("127.0.0.1", request.getDestHost());
+		assertEquals(7443, request.getDestPort());
+		assertEquals("VsmType", request.getType());
+		assertTrue(request.isBoundingBoxEmpty());
+		
+		try {
+			request.getTypeValue();
+			fail("Expecting a malformed type value to fail when read.");
+		} catch (JSONException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains(DataModel.TYPE_VALUE_KEY));
+		}
+		
+		request = SubscriptionRequest.decode(JSONObject.fromObject(MALFORMED[1]));
+		assertTrue(request.isMalformed(SubscriptionRequest.NW_POS | SubscriptionRequest.SE_LAT));
+		assertFalse(request.isMalformed(SubscriptionRequest.SE_POS | SubscriptionRequest.SE_LON));
+		assertEquals(-82.0, request.getSELon(), 0.0);
+	}
+	
+	/**
+	 * Call the getter on both and check that both fail with a JSONException, or
+	 * that neither does and a value DataModel has is the same.
+	 */
+	private static void assertSameOutcome(String json, String getter, DataModel model, SubscriptionRequest request) {
+		Object expected = null;
+		Object actual = null;
+		boolean modelFailed = false;
+		boolean requestFailed = false;
+		try {
+			expected = DataModel.class.getMethod(getter).invoke(model);
+		} catch (InvocationTargetException ex) {
+			modelFailed = isJSONException(ex);
+		} catch (Exception ex) {
+			throw new AssertionError(ex);
+		}
+		try {
+			actual = SubscriptionRequest.class.getMethod(getter).invoke(request);
+		} catch (InvocationTargetException ex) {
+			requestFailed = isJSONException(ex);
+		} catch (Exception ex) {
+			throw new AssertionError(ex);
+		}
+		
+		assertEquals(json + " " + getter, modelFailed, requestFailed);
+		if (! modelFailed && expected != null) {
+			assertEquals(json + " " + getter, expected, actual);
+		}
+	}
+	
+	private static boolean isJSONException(InvocationTargetException ex) {
+		if (ex.getCause() instanceof JSONException) return true;
+		throw new AssertionError(ex.getCause());
+	}
+	
+	private static Integer optInt(SubscriptionRequest request, int field, int value) {
+		return request.has(field) ? Integer.valueOf(value) : null;
+	}
+	
+	private static Double optDouble(SubscriptionRequest request, int field, double value) {
+		return request.has(field) ? Double.valueOf(value) : null;
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdmissionControllerTest {
+	
+	@Test
+	public void testSheddingHysteresis() {
+		LinkedBlockingQueue<Response> queue = new LinkedBlockingQueue<Response>(10);
+		AdmissionController admission = new AdmissionController(wrap(queue), 6, 2, 0);
+		
+		for (int i = 0; i < 6; i++) {
+			assertTrue("Expecting subscriptions to be admitted below the high water mark.", admission.admit());
+			assertTrue(admission.offer(response(i)));
+		}
+		assertFalse("Expecting subscriptions to be shed at the high water mark.", admission.admit());
+		assertTrue(admission.isShedding());
+		
+		// still shedding while the backlog is between the water marks
+		queue.poll();
+		queue.poll();
+		queue.poll();
+		assertFalse(admission.admit());
+		
+		queue.poll();
+		assertTrue("Expecting subscriptions to be admitted at the low water mark.", admission.admit());
+		assertFalse(admission.isShedding());
+		
+		assertEquals(2, admission.getShedCount());
+		assertEquals(6, admission.getPeakBacklog());
+	}
+	
+	@Test
+	public void testOfferDropsWhenFull() {
+		LinkedBlockingQueue<Response> queue = new LinkedBlockingQueue<Response>(2);
+		AdmissionController admission = new AdmissionController(wrap(queue), 2, 1, 10);
+		
+		assertTrue(admission.offer(response(1)));
+		assertTrue(admission.offer(response(2)));
+		assertFalse("Expecting offer to fail on a queue that stays full.", admission.offer(response(3)));
+		assertFalse("Expecting a shed response to fail on a full queue.", admission.offerShed(response(4)));
+		assertEquals(2, admission.getDroppedCount());
+	}
+	
+	@Test
+	public void testOfferWaitsForRoom() throws InterruptedException {
+		final LinkedBlockingQueue<Response> queue = new LinkedBlockingQueue<Response>(2);
+		AdmissionController admission = new AdmissionController(wrap(queue), 2, 1, 5000);
+		
+		assertTrue(admission.offer(response(1)));
+		assertTrue(admission.offer(response(2)));
+		Thread sender = new Thread(new Runnable() {
+			public void run() {
+				try { Thread.sleep(100); } catch (InterruptedException ignore) {}
+				queue.poll();
+			}
+		});
+		sender.start();
+		assertTrue("Expecting the response of an admitted request to wait for room.", admission.offer(response(3)));
+		sender.join();
+		assertEquals(0, admission.getDroppedCount());
+		assertEquals(2, queue.size());
+	}
+	
+	private static ResponseQueue wrap(final LinkedBlockingQueue<Response> queue) {
+		return new ResponseQueue() {
+			public boolean offer(Response response) { return queue.offer(response); }
+			public boolean offer(Response response, long timeout, TimeUnit unit) throws InterruptedException { 
+				return queue.offer(response, timeout, unit); 
+			}
+			public int size() 						{ return queue.size(); }
+		};
+	}
+	
+	private static Response response(int subscriberId) {
+		return new Response.Builder()
+			.setSubscriberId(subscriberId)
+			.setRequestId(1001)
+			.setTargetHost("127.0.0.1")
+			.setTargetPort(7443)
+			.build();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,49 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class BatchStatsTest {
+	
+	@Test
+	public void testLimitAdaptsToQueueDepth() {
+		BatchStats stats = new BatchStats();
+		assertEquals(BatchStats.MIN_LIMIT, stats.limit());
+		
+		// full batches grow the limit up to the maximum
+		for (int i = 0; i < 10; i++) {
+			stats.record(stats.limit(), 1000);
+		}
+		assertEquals(BatchStats.MAX_LIMIT, stats.limit());
+		
+		// batches at a quarter of the limit or more keep it
+		stats.record(BatchStats.MAX_LIMIT / 4, 1000);
+		assertEquals(BatchStats.MAX_LIMIT, stats.limit());
+		
+		// small batches shrink it back down to the minimum
+		for (int i = 0; i < 10; i++) {
+			stats.record(1, 1000);
+		}
+		assertEquals(BatchStats.MIN_LIMIT, stats.limit());
+	}
+	
+	@Test
+	public void testHistogramAndLatency() {
+		BatchStats stats = new BatchStats();
+		stats.record(1, 1000);
+		stats.record(3, 3000);
+		stats.record(4, 8000);
+		stats.record(0, 99999);
+		
+		long [] histogram = stats.getHistogram();
+		assertEquals(1, histogram[0]);
+		assertEquals(1, histogram[1]);
+		assertEquals(1, histogram[2]);
+		assertEquals(3, stats.getBatchCount());
+		assertEquals(8, stats.getItemCount());
+		assertEquals(4000, stats.getAverageNanos());
+		assertEquals(8000, stats.getMaxNanos());
+	}
+	
+}
\ No newline at end of file
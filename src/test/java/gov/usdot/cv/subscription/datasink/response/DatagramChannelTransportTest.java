@@ -0,0 +1,101 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import gov.usdot.cv.common.inet.InetPacket;
+import gov.usdot.cv.common.inet.InetPoint;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class DatagramChannelTransportTest {
+	
+	@Test
+	public void testSendDirect() throws Exception {
+		DatagramSocket receiver = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		receiver.setSoTimeout(5000);
+		DatagramChannelTransport transport = new DatagramChannelTransport(2, 0, 100, null);
+		try {
+			Response response = new Response.Builder()
+				.setTargetHost("127.0.0.1")
+				.setTargetPort(receiver.getLocalPort())
+				.build();
+			
+			// the second payload is larger than a pooled buffer
+			byte [][] payloads = { new byte[] { 1, 2, 3, 4 }, new byte[4096] };
+			Arrays.fill(payloads[1], (byte) 7);
+			for (byte [] payload : payloads) {
+				transport.send(response, payload);
+			}
+			
+			for (byte [] payload : payloads) {
+				DatagramPacket packet = new DatagramPacket(new byte[8192], 8192);
+				receiver.receive(packet);
+				assertArrayEquals(payload, Arrays.copyOf(packet.getData(), packet.getLength()));
+			}
+			assertEquals(2, transport.getSentCount());
+			assertEquals(0, transport.getDroppedCount());
+		} finally {
+			transport.close();
+			receiver.close();
+		}
+	}
+	
+	@Test
+	public void testSendThroughForwarder() throws Exception {
+		DatagramSocket forwarder = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		forwarder.setSoTimeout(5000);
+		InetPoint forwarderPoint = new InetPoint(InetAddress.getByName("127.0.0.1").getAddress(), forwarder.getLocalPort());
+		DatagramChannelTransport transport = new DatagramChannelTransport(2, 0, 100, forwarderPoint);
+		try {
+			Response response = new Response.Builder()
+				.setTargetHost("127.0.0.1")
+				.setTargetPort(7443)
+				.setFromForwarder(true)
+				.build();
+			byte [] payload = { 1, 2, 3, 4 };
+			transport.send(response, payload);
+			
+			// the payload goes to the forwarder wrapped with the destination it is meant for
+			DatagramPacket packet = new DatagramPacket(new byte[8192], 8192);
+			forwarder.receive(packet);
+			InetPoint destPoint = new InetPoint(InetAddress.getByName("127.0.0.1").getAddress(), 7443);
+			assertArrayEquals(new InetPacket(destPoint, payload).getBundle(), Arrays.copyOf(packet.getData(), packet.getLength()));
+			assertEquals(1, transport.getSentCount());
+		} finally {
+			transport.close();
+			forwarder.close();
+		}
+	}
+	
+	@Test
+	public void testSendKeepsOrderPerDestination() throws Exception {
+		DatagramSocket receiver = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		receiver.setSoTimeout(5000);
+		receiver.setReceiveBufferSize(1 << 20);
+		DatagramChannelTransport transport = new DatagramChannelTransport(4, 0, 100, null);
+		try {
+			Response response = new Response.Builder()
+				.setTargetHost("127.0.0.1")
+				.setTargetPort(receiver.getLocalPort())
+				.build();
+			for (int i = 0; i < 200; i++) {
+				transport.send(response, new byte[] { (byte) i });
+			}
+			
+			for (int i = 0; i < 200; i++) {
+				DatagramPacket packet = new DatagramPacket(new byte[16], 16);
+				receiver.receive(packet);
+				assertEquals((byte) i, packet.getData()[0]);
+			}
+		} finally {
+			transport.close();
+			receiver.close();
+		}
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,77 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+import gov.usdot.cv.common.subscription.response.ResponseCode;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Compares the per-response CPU time and heap allocation of encoding a
+ * DataSubscriptionResponse through the OSS coder against the template encoder.
+ */
+public class ResponseEncodeBenchmark {
+	
+	private static long sink;
+	
+	public static void main(String [] args) throws Exception {
+		int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		
+		// Calibrate the templates and warm up both paths before measuring
+		ResponseTemplateEncoder.getInstance();
+		for (int i = 0; i < 3; i++) {
+			runCoder(iterations / 10, null);
+			runTemplate(iterations / 10, null);
+		}
+		
+		for (final ResponseCode code : new ResponseCode[] { null, ResponseCode.InvalidRequestId }) {
+			report("coder " + code, iterations, new Task() {
+				public void run() throws Exception { runCoder(1, code); }
+			});
+			report("template " + code, iterations, new Task() {
+				public void run() throws Exception { runTemplate(1, code); }
+			});
+		}
+		System.out.println("(sink " + sink + ")");
+	}
+	
+	private static void runCoder(int iterations, ResponseCode code) throws Exception {
+		for (int i = 0; i < iterations; i++) {
+			sink += Response.encodeWithCoder(0, 1001, 10000000 + i, code).length;
+		}
+	}
+	
+	private static void runTemplate(int iterations, ResponseCode code) throws Exception {
+		ResponseTemplateEncoder encoder = ResponseTemplateEncoder.getInstance();
+		for (int i = 0; i < iterations; i++) {
+			sink += encoder.encode(0, 1001, 10000000 + i, code).length;
+		}
+	}
+	
+	private interface Task {
+		public void run() throws Exception;
+	}
+	
+	private static void report(String name, int iterations, Task op) throws Exception {
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		long startAlloc = allocatedBytes(mx);
+		long startCpu = mx.getCurrentThreadCpuTime();
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			op.run();
+		}
+		long elapsed = System.nanoTime() - start;
+		long cpu = mx.getCurrentThreadCpuTime() - startCpu;
+		long alloc = allocatedBytes(mx) - startAlloc;
+		System.out.println(String.format("%-30s %8.1f ns/op  %8.1f cpu ns/op  %8.1f bytes/op", 
+			name, (double) elapsed / iterations, (double) cpu / iterations, 
+			(alloc < 0) ? Double.NaN : (double) alloc / iterations));
+	}
+	
+	private static long allocatedBytes(ThreadMXBean mx) {
+		if (mx instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+	
+}
\ No newline at end of file
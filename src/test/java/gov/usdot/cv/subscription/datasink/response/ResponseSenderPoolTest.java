@@ -0,0 +1,37 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ResponseSenderPoolTest {
+	
+	@Test
+	public void testOneDestinationMayUseTheWholeCapacity() throws InterruptedException {
+		ResponseSenderPool pool = new ResponseSenderPool(4, 8, 0, null);
+		
+		for (int i = 0; i < 8; i++) {
+			assertTrue("Expecting responses to one destination to fit up to the capacity.", pool.offer(response(i, 7443)));
+		}
+		assertEquals(8, pool.size());
+		
+		int otherPort = 7444;
+		while (ResponseSenderPool.partition(response(0, otherPort), 4) == ResponseSenderPool.partition(response(0, 7443), 4)) otherPort++;
+		assertFalse("Expecting a non-blocking offer to be refused at the capacity.", pool.offer(response(9, otherPort)));
+		assertFalse("Expecting a timed offer to be refused while the capacity is taken.", pool.offer(response(9, otherPort), 10, TimeUnit.MILLISECONDS));
+		assertEquals(8, pool.size());
+	}
+	
+	private static Response response(int subscriberId, int port) {
+		return new Response.Builder()
+			.setSubscriberId(subscriberId)
+			.setRequestId(1001)
+			.setTargetHost("127.0.0.1")
+			.setTargetPort(port)
+			.build();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,60 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import org.junit.Test;
+
+public class ResponseSenderTest {
+	
+	@Test
+	public void testTerminateWakesIdleSender() throws Exception {
+		LinkedBlockingQueue<Response> queue = new LinkedBlockingQueue<Response>(16);
+		ResponseSender sender = new ResponseSender(queue, new ResponseTransport() {
+			public void send(Response response, byte [] payload) {}
+			public void close() {}
+		});
+		Thread thread = new Thread(sender);
+		thread.start();
+		
+		// let the sender block on the empty queue
+		Thread.sleep(100);
+		long start = System.currentTimeMillis();
+		sender.terminate();
+		thread.join(5000);
+		long elapsed = System.currentTimeMillis() - start;
+		
+		assertFalse("Expecting the sender to have terminated.", thread.isAlive());
+		assertTrue("Expecting the sender to terminate well within the poll timeout but took " + elapsed + " ms.", elapsed < 500);
+		assertTrue("Expecting the wake up marker to not be counted as a response.", sender.getBatchStats().getItemCount() == 0);
+	}
+	
+	@Test
+	public void testTakenResponsesReturnTheirPermits() throws Exception {
+		LinkedBlockingQueue<Response> queue = new LinkedBlockingQueue<Response>(16);
+		Semaphore permits = new Semaphore(2);
+		ResponseSender sender = new ResponseSender(queue, new ResponseTransport() {
+			public void send(Response response, byte [] payload) {}
+			public void close() {}
+		}, permits);
+		
+		for (int i = 0; i < 2; i++) {
+			assertTrue(permits.tryAcquire());
+			queue.offer(new Response.Builder().setSubscriberId(i).setRequestId(1001).setTargetHost("127.0.0.1").setTargetPort(7443).build());
+		}
+		assertFalse("Expecting no permit to be left.", permits.tryAcquire());
+		
+		Thread thread = new Thread(sender);
+		thread.start();
+		sender.terminate();
+		thread.join(5000);
+		
+		assertFalse("Expecting the sender to have terminated.", thread.isAlive());
+		assertEquals("Expecting every taken response to return its permit but not the wake up.", 2, permits.availablePermits());
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,60 @@
+package gov.usdot.cv.subscription.datasink.response;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import gov.usdot.cv.common.subscription.response.ResponseCode;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ResponseTemplateEncoderTest {
+	
+	private static final int [] EDGE_VALUES = { 0, 1, -1, 1001, 10000000, 99999999, Integer.MIN_VALUE, Integer.MAX_VALUE };
+	
+	@Test
+	public void testTemplatesAreCalibrated() {
+		assertTrue("Expecting the success response template to be calibrated.", ResponseTemplateEncoder.getInstance().isEnabled());
+	}
+	
+	@Test
+	public void testSuccessResponsesMatchCoder() throws Exception {
+		verify(null);
+	}
+	
+	@Test
+	public void testErrorResponsesMatchCoder() throws Exception {
+		for (ResponseCode code : ResponseCode.values()) {
+			verify(code);
+		}
+	}
+	
+	private void verify(ResponseCode code) throws Exception {
+		for (int groupId : new int[] { 0, 1 }) {
+			for (int requestId : EDGE_VALUES) {
+				for (int subscriberId : EDGE_VALUES) {
+					verify(groupId, requestId, subscriberId, code);
+				}
+			}
+		}
+		
+		Random random = new Random(code != null ? code.ordinal() : -1);
+		for (int i = 0; i < 1000; i++) {
+			verify(0, random.nextInt(), random.nextInt(), code);
+		}
+	}
+	
+	private void verify(int groupId, int requestId, int subscriberId, ResponseCode code) throws Exception {
+		Response response = new Response.Builder()
+			.setGroupId(groupId)
+			.setRequestId(requestId)
+			.setSubscriberId(subscriberId)
+			.setResponseCode(code)
+			.build();
+		byte [] expected = Response.encodeWithCoder(groupId, requestId, subscriberId, code);
+		assertArrayEquals(String.format("Encoding mismatch for group %s, request %s, subscriber %s, code %s.", 
+			groupId, requestId, subscriberId, code), expected, response.encode());
+	}
+	
+}
\ No newline at end of file
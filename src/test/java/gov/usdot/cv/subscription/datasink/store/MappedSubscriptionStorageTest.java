@@ -0,0 +1,308 @@
+package gov.usdot.cv.subscription.datasink.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
+import gov.usdot.cv.subscription.datasink.dao.AbstractSubscriptionStorageTest;
+import gov.usdot.cv.subscription.datasink.dao.JdbcSubscriptionStorage;
+import gov.usdot.cv.subscription.datasink.dao.SubscriptionStorage;
+import gov.usdot.cv.subscription.datasink.util.DatabaseUtil;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.deleidos.rtws.commons.dao.source.H2ConnectionPool;
+
+public class MappedSubscriptionStorageTest extends AbstractSubscriptionStorageTest {
+	
+	private File file;
+	
+	protected SubscriptionStorage createStorage() throws Exception {
+		this.file = tempFile();
+		MappedSubscriptionStorage storage = new MappedSubscriptionStorage(this.file);
+		storage.open();
+		return storage;
+	}
+	
+	protected SubscriptionStorage reopen(SubscriptionStorage storage) throws Exception {
+		storage.close();
+		MappedSubscriptionStorage reopened = new MappedSubscriptionStorage(this.file);
+		reopened.open();
+		return reopened;
+	}
+	
+	@Test
+	public void testSecondOpenIsIgnored() throws Exception {
+		MappedSubscriptionStorage storage = (MappedSubscriptionStorage) this.storage;
+		storage.add(subscriber(10000000, 1001, false));
+		storage.open();
+		assertTrue(storage.isOpen());
+		storage.add(subscriber(10000001, 1002, false));
+		assertEquals(2, storage.size());
+		
+		this.storage = reopen(storage);
+		assertEquals(2, this.storage.findAllSubscribers().size());
+		assertTrue(this.storage.toString().indexOf("records 2,") >= 0);
+	}
+	
+	@Test
+	public void testMirrorSeesSubscriptions() throws Exception {
+		H2ConnectionPool dataSource = new H2ConnectionPool();
+		dataSource.setURL("jdbc:h2:mem:mapped_mirror;DB_CLOSE_DELAY=-1");
+		dataSource.setUser("sa");
+		dataSource.setPassword("");
+		DatabaseUtil.buildSubscriptionTables(dataSource, "MIRROR_SUBSCRIBER", "MIRROR_FILTER");
+		JdbcSubscriptionStorage tables = jdbcStorage(dataSource, "MIRROR_SUBSCRIBER", "MIRROR_FILTER");
+		
+		// the tables hold a subscriber of another writer and miss one the file holds
+		tables.add(subscriber(10000099, 1099, false));
+		this.storage.add(subscriber(10000000, 1001, true));
+		this.storage.close();
+		
+		MappedSubscriptionStorage storage = new MappedSubscriptionStorage(this.file, tables);
+		this.storage = storage;
+		storage.open();
+		awaitMirrored(storage, tables);
+		assertEquals("Expecting the other writer's subscriber to be left alone.", 2, tables.findAllSubscribers().size());
+		assertEquals(1001, tables.findFilter(10000000).getRequestId().intValue());
+		assertNotNull(tables.findFilter(10000000).getBoundingBox());
+		
+		storage.add(subscriber(10000001, 1002, false));
+		storage.addAll(Arrays.asList(subscriber(10000002, 1003, false), subscriber(10000003, 1004, false)));
+		assertTrue(storage.cancel(10000002, 1003));
+		storage.writeAll(Collections.singletonList(subscriber(10000001, 1012, false)), Collections.singletonList(10000003));
+		awaitMirrored(storage, tables);
+		assertEquals(3, tables.findAllSubscribers().size());
+		assertEquals(1012, tables.findFilter(10000001).getRequestId().intValue());
+		assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, tables.findSubscriber(10000001).getCertificate()));
+		
+		storage.expireBefore(System.currentTimeMillis() + 2L * 24 * 60 * 60 * 1000, 10);
+		awaitMirrored(storage, tables);
+		assertEquals(Collections.singleton(10000099), requestIds(tables).keySet());
+		assertEquals(0, storage.getMirrorBacklog());
+	}
+	
+	@Test
+	public void testRemovalsMissedByTheMirrorAreRepeated() throws Exception {
+		H2ConnectionPool dataSource = new H2ConnectionPool();
+		dataSource.setURL("jdbc:h2:mem:mapped_removals;DB_CLOSE_DELAY=-1");
+		dataSource.setUser("sa");
+		dataSource.setPassword("");
+		DatabaseUtil.buildSubscriptionTables(dataSource, "REMOVAL_SUBSCRIBER", "REMOVAL_FILTER");
+		JdbcSubscriptionStorage tables = jdbcStorage(dataSource, "REMOVAL_SUBSCRIBER", "REMOVAL_FILTER");
+		tables.add(subscriber(10000099, 1099, false));
+		
+		this.storage.addAll(Arrays.asList(subscriber(10000000, 1001, false), subscriber(10000001, 1002, false)));
+		this.storage.close();
+		MappedSubscriptionStorage storage = new MappedSubscriptionStorage(this.file, tables);
+		storage.open();
+		awaitMirrored(storage, tables);
+		storage.close();
+		
+		// removed while nothing mirrored, as if closed before the mirror caught up
+		storage = new MappedSubscriptionStorage(this.file);
+		storage.open();
+		assertTrue(storage.cancel(10000000, 1001));
+		storage.close();
+		
+		storage = new MappedSubscriptionStorage(this.file, tables);
+		this.storage = storage;
+		storage.open();
+		awaitMirrored(storage, tables);
+		assertEquals(new TreeSet<Integer>(Arrays.asList(10000001, 10000099)), requestIds(tables).keySet());
+	}
+	
+	/**
+	 * Wait for the tables to hold the filters the file does, by subscriber and request
+	 * id, besides the subscriber another writer added.
+	 */
+	private static void awaitMirrored(SubscriptionStorage storage, SubscriptionStorage tables) throws Exception {
+		Map<Integer, Integer> expected = requestIds(storage);
+		Map<Integer, Integer> mirrored = mirrored(tables);
+		for (long deadline = System.currentTimeMillis() + 10000; ! mirrored.equals(expected) && System.currentTimeMillis() < deadline; mirrored = mirrored(tables)) {
+			Thread.sleep(20);
+		}
+		assertEquals("Expecting the tables to mirror the file.", expected, mirrored);
+	}
+	
+	private static Map<Integer, Integer> mirrored(SubscriptionStorage tables) {
+		Map<Integer, Integer> requestIds = requestIds(tables);
+		requestIds.remove(10000099);
+		return requestIds;
+	}
+	
+	private static Map<Integer, Integer> requestIds(SubscriptionStorage storage) {
+		Map<Integer, Integer> requestIds = new TreeMap<Integer, Integer>();
+		for (Filter filter : storage.findAllFilters()) {
+			requestIds.put(filter.getSubscriberId(), filter.getRequestId());
+		}
+		return requestIds;
+	}
+	
+	@Test
+	public void testAddCancelAndReopen() throws Exception {
+		File file = tempFile();
+		MappedSubscriptionStorage storage = new MappedSubscriptionStorage(file);
+		storage.open();
+		
+		storage.add(subscriber(10000000, 1001, true));
+		storage.addAll(Arrays.asList(subscriber(10000001, 1002, false), subscriber(10000002, 1003, false)));
+		assertEquals(3, storage.findAllSubscribers().size());
+		assertEquals(3, storage.findAllFilters().size());
+		
+		// a cancel for another request id leaves the subscription alone
+		assertFalse(storage.cancel(10000001, 9999));
+		assertTrue(storage.cancel(10000001, 1002));
+		assertFalse(storage.cancel(10000001, 1002));
+		assertNull(storage.findSubscriber(10000001));
+		
+		storage.writeAll(Collections.singletonList(subscriber(10000003, 1004, false)), Collections.singletonList(10000002));
+		storage.close();
+		
+		storage = new MappedSubscriptionStorage(file);
+		storage.open();
+		assertEquals(2, storage.size());
+		Subscriber subscriber = storage.findSubscriber(10000000);
+		assertNotNull(subscriber);
+		assertEquals("127.0.0.1", subscriber.getDestHost());
+		assertEquals(7443, subscriber.getDestPort().intValue());
+		assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, subscriber.getCertificate()));
+		Filter filter = storage.findFilter(10000000);
+		assertEquals(1001, filter.getRequestId().intValue());
+		assertEquals("VsmType", filter.getType());
+		assertNotNull(filter.getBoundingBox());
+		assertEquals(Double.valueOf(43.0), Double.valueOf(filter.getBoundingBox().getNWLat()));
+		assertNotNull(storage.findSubscriber(10000003));
+		assertNull(storage.findSubscriber(10000002));
+		storage.close();
+	}
+	
+	@Test
+	public void testTornRecordIsDiscarded() throws Exception {
+		File file = tempFile();
+		MappedSubscriptionStorage storage = new MappedSubscriptionStorage(file);
+		storage.open();
+		storage.add(subscriber(10000000, 1001, false));
+		storage.close();
+		
+		// a record whose body never made it to disk
+		long end = findEnd(file);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(end);
+		raf.writeInt(64);
+		raf.writeInt(12345);
+		raf.close();
+		
+		storage = new MappedSubscriptionStorage(file);
+		storage.open();
+		assertEquals(1, storage.size());
+		storage.add(subscriber(10000001, 1002, false));
+		storage.close();
+		
+		storage = new MappedSubscriptionStorage(file);
+		storage.open();
+		assertEquals(2, storage.size());
+		storage.close();
+	}
+	
+	@Test
+	public void testCompaction() throws Exception {
+		File file = tempFile();
+		MappedSubscriptionStorage storage = new MappedSubscriptionStorage(file);
+		storage.open();
+		for (int i = 0; i < 20000; i++) {
+			storage.add(subscriber(10000000 + (i % 10), 1000 + i, false));
+			assertTrue(storage.cancel(10000000 + (i % 10), 1000 + i));
+		}
+		storage.add(subscriber(10000000, 1001, false));
+		assertTrue(storage.toString().indexOf("compactions 0") < 0);
+		storage.close();
+		
+		storage = new MappedSubscriptionStorage(file);
+		storage.open();
+		assertEquals(1, storage.size());
+		assertEquals(1001, storage.findFilter(10000000).getRequestId().intValue());
+		storage.close();
+	}
+	
+	private static long findEnd(File file) throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long position = 0;
+			while (true) {
+				raf.seek(position);
+				int length = raf.readInt();
+				if (length == 0) return position;
+				position += 8 + length;
+			}
+		} finally {
+			raf.close();
+		}
+	}
+	
+	@Test
+	public void testExpireBeforeInChunks() throws Exception {
+		File file = tempFile();
+		MappedSubscriptionStorage storage = new MappedSubscriptionStorage(file);
+		storage.open();
+		for (int i = 0; i < 5; i++) {
+			storage.add(subscriber(10000000 + i, 1000 + i, false));
+		}
+		
+		// every subscription ends a day from now
+		long now = System.currentTimeMillis();
+		assertEquals(0, storage.expireBefore(now, 2).length);
+		long later = now + 2L * 24 * 60 * 60 * 1000;
+		assertEquals(2, storage.expireBefore(later, 2).length);
+		assertEquals(2, storage.expireBefore(later, 2).length);
+		int[] last = storage.expireBefore(later, 2);
+		assertEquals(1, last.length);
+		assertNull(storage.findSubscriber(last[0]));
+		assertEquals(0, storage.size());
+		storage.close();
+		
+		storage = new MappedSubscriptionStorage(file);
+		storage.open();
+		assertEquals(0, storage.size());
+		storage.close();
+	}
+	
+	@Test
+	public void testExpireBeforeSkipsStaleEntries() throws Exception {
+		MappedSubscriptionStorage storage = (MappedSubscriptionStorage) this.storage;
+		storage.add(subscriber(10000000, 1001, false));
+		assertTrue(storage.cancel(10000000, 1001));
+		storage.add(subscriber(10000001, 1002, false));
+		storage.add(subscriber(10000001, 1002, false));
+		
+		// the cancelled and the replaced subscription left entries that do not count toward the limit
+		long later = System.currentTimeMillis() + 2L * 24 * 60 * 60 * 1000;
+		assertTrue(Arrays.equals(new int[] { 10000001 }, storage.expireBefore(later, 1)));
+		assertEquals(0, storage.size());
+		assertEquals(0, storage.expireBefore(later, 1).length);
+		
+		// the schedule is rebuilt from the file at open
+		storage.add(subscriber(10000002, 1003, false));
+		this.storage = storage = (MappedSubscriptionStorage) reopen(storage);
+		assertTrue(Arrays.equals(new int[] { 10000002 }, storage.expireBefore(later, 10)));
+	}
+	
+	private static File tempFile() throws Exception {
+		File file = File.createTempFile("subscriptions", ".db");
+		file.deleteOnExit();
+		new File(file.getPath() + ".compact").deleteOnExit();
+		new File(file.getPath() + ".generation").deleteOnExit();
+		return file;
+	}
+}
\ No newline at end of file
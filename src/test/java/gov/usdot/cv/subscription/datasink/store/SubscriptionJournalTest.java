@@ -0,0 +1,137 @@
+package gov.usdot.cv.subscription.datasink.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SubscriptionJournalTest {
+	
+	@Test
+	public void testRecoverAfterRestart() throws Exception {
+		File file = File.createTempFile("subscriptions", ".journal");
+		file.deleteOnExit();
+		
+		SubscriptionJournal journal = new SubscriptionJournal(file);
+		assertEquals(0, journal.open().size());
+		for (int i = 0; i < 3; i++) {
+			journal.sync(journal.append(Mutation.cancel(10000000 + i, 100 + i)));
+		}
+		journal.close();
+		
+		journal = new SubscriptionJournal(file);
+		List<Mutation> recovered = journal.open();
+		assertEquals(3, recovered.size());
+		for (int i = 0; i < 3; i++) {
+			Mutation mutation = recovered.get(i);
+			assertFalse(mutation.isAdd());
+			assertEquals(i + 1, mutation.getSequence());
+			assertEquals(10000000 + i, mutation.getSubscriberId());
+			assertEquals(100 + i, mutation.getRequestId());
+		}
+		
+		// sequences carry on from the recovered ones
+		Mutation next = Mutation.cancel(10000003, 103);
+		journal.sync(journal.append(next));
+		assertEquals(4, next.getSequence());
+		journal.close();
+	}
+	
+	@Test
+	public void testTornRecordIsDropped() throws Exception {
+		File file = File.createTempFile("subscriptions", ".journal");
+		file.deleteOnExit();
+		
+		SubscriptionJournal journal = new SubscriptionJournal(file);
+		journal.open();
+		journal.sync(journal.append(Mutation.cancel(10000000, 100)));
+		long position = journal.append(Mutation.cancel(10000001, 101));
+		journal.sync(position);
+		journal.close();
+		
+		// lose the last bytes of the second record as a crash mid write would
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(position - 3);
+		raf.close();
+		
+		journal = new SubscriptionJournal(file);
+		List<Mutation> recovered = journal.open();
+		assertEquals(1, recovered.size());
+		assertEquals(10000000, recovered.get(0).getSubscriberId());
+		assertTrue(journal.size() < position - 3);
+		journal.close();
+	}
+	
+	@Test
+	public void testCheckpoint() throws Exception {
+		File file = File.createTempFile("subscriptions", ".journal");
+		file.deleteOnExit();
+		
+		SubscriptionJournal journal = new SubscriptionJournal(file);
+		journal.open();
+		Mutation first = Mutation.cancel(10000000, 100);
+		journal.sync(journal.append(first));
+		Mutation second = Mutation.cancel(10000001, 101);
+		journal.sync(journal.append(second));
+		
+		// a mutation appended after the checkpointed one keeps the log
+		assertFalse(journal.checkpoint(first.getSequence()));
+		assertTrue(journal.size() > 0);
+		
+		assertTrue(journal.checkpoint(second.getSequence()));
+		assertEquals(0, journal.size());
+		journal.close();
+		
+		journal = new SubscriptionJournal(file);
+		assertEquals(0, journal.open().size());
+		journal.close();
+	}
+	
+	@Test
+	public void testCheckpointReleasesCoveredSegments() throws Exception {
+		File file = File.createTempFile("subscriptions", ".journal");
+		file.deleteOnExit();
+		
+		// every record fills a segment of its own
+		SubscriptionJournal journal = new SubscriptionJournal(file, 1);
+		journal.open();
+		Mutation[] mutations = new Mutation[4];
+		for (int i = 0; i < mutations.length; i++) {
+			mutations[i] = Mutation.cancel(10000000 + i, 100 + i);
+			journal.sync(journal.append(mutations[i]));
+			new File(file.getPath() + "." + (i + 1)).deleteOnExit();
+		}
+		long full = journal.size();
+		
+		// the log shrinks while mutations keep being appended after the checkpoint
+		assertFalse(journal.checkpoint(mutations[1].getSequence()));
+		assertFalse(file.exists());
+		assertFalse(new File(file.getPath() + ".1").exists());
+		assertTrue(new File(file.getPath() + ".2").exists());
+		assertTrue(journal.size() < full);
+		journal.close();
+		
+		// what was not checkpointed is still recovered, in order
+		journal = new SubscriptionJournal(file, 1);
+		List<Mutation> recovered = journal.open();
+		assertEquals(2, recovered.size());
+		assertEquals(mutations[2].getSequence(), recovered.get(0).getSequence());
+		assertEquals(mutations[3].getSequence(), recovered.get(1).getSequence());
+		
+		Mutation next = Mutation.cancel(10000004, 104);
+		journal.sync(journal.append(next));
+		assertEquals(5, next.getSequence());
+		assertTrue(journal.checkpoint(next.getSequence()));
+		assertEquals(0, journal.size());
+		journal.close();
+		
+		journal = new SubscriptionJournal(file, 1);
+		assertEquals(0, journal.open().size());
+		journal.close();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,123 @@
+package gov.usdot.cv.subscription.datasink.store;
+
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
+import gov.usdot.cv.common.subscription.dao.SituationDataFilterDao;
+import gov.usdot.cv.subscription.datasink.dao.JdbcSubscriptionStorage;
+import gov.usdot.cv.subscription.datasink.dao.SubscriberCertificateDao;
+import gov.usdot.cv.subscription.datasink.dao.SubscriberIdDao;
+import gov.usdot.cv.subscription.datasink.dao.SubscriptionBatchDao;
+import gov.usdot.cv.subscription.datasink.dao.SubscriptionStorage;
+import gov.usdot.cv.subscription.datasink.dao.SubscriptionTransactionDao;
+import gov.usdot.cv.subscription.datasink.util.DatabaseUtil;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import com.deleidos.rtws.commons.dao.source.H2ConnectionPool;
+
+/**
+ * Measures add, lookup and cancel throughput of the JDBC storage on an in-memory
+ * H2 database against the memory-mapped storage, one subscription at a time as
+ * the processor issues them. Runs 20000 subscriptions unless a count is given as
+ * the first argument.
+ */
+public class SubscriptionStorageBenchmark {
+	
+	private static final String SUBSCRIBER_TABLE 	= "BENCHMARK_SUBSCRIBER";
+	private static final String FILTER_TABLE 		= "BENCHMARK_FILTER";
+	private static final int FIRST_ID 				= 10000000;
+	
+	private static long sink;
+	
+	public static void main(String [] args) throws Exception {
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		Subscriber[] subscribers = new Subscriber[count];
+		for (int i = 0; i < count; i++) {
+			subscribers[i] = subscriber(FIRST_ID + i, 1000 + i);
+		}
+		
+		H2ConnectionPool dataSource = new H2ConnectionPool();
+		dataSource.setURL("jdbc:h2:mem:storage_benchmark;DB_CLOSE_DELAY=-1");
+		dataSource.setUser("sa");
+		dataSource.setPassword("");
+		DatabaseUtil.buildSubscriptionTables(dataSource, SUBSCRIBER_TABLE, FILTER_TABLE);
+		
+		SubscriberCertificateDao subscriberDao = new SubscriberCertificateDao.Builder()
+			.setDataSource(dataSource)
+			.setSubscriberTableName(SUBSCRIBER_TABLE)
+			.build();
+		SituationDataFilterDao.Builder filterDao = new SituationDataFilterDao.Builder();
+		filterDao.setDataSource(dataSource).setTableName(FILTER_TABLE);
+		SubscriptionBatchDao.Builder batchDao = new SubscriptionBatchDao.Builder();
+		batchDao.setDataSource(dataSource).setCertificateDao(subscriberDao).setSubscriberTableName(SUBSCRIBER_TABLE).setFilterTableName(FILTER_TABLE);
+		SubscriptionTransactionDao.Builder transactionDao = new SubscriptionTransactionDao.Builder();
+		transactionDao.setDataSource(dataSource).setCertificateDao(subscriberDao).setSubscriberTableName(SUBSCRIBER_TABLE).setFilterTableName(FILTER_TABLE);
+		SubscriberIdDao.Builder idDao = new SubscriberIdDao.Builder();
+		idDao.setDataSource(dataSource).setSubscriberTableName(SUBSCRIBER_TABLE);
+		SubscriptionStorage jdbc = new JdbcSubscriptionStorage(subscriberDao, filterDao.build(), batchDao.build(), transactionDao.build(), idDao.build());
+		
+		File file = File.createTempFile("subscriptions", ".db");
+		file.deleteOnExit();
+		MappedSubscriptionStorage mapped = new MappedSubscriptionStorage(file);
+		mapped.open();
+		
+		// Warm up both paths before measuring
+		run("jdbc (warm up)", jdbc, subscribers, count / 10);
+		run("mapped (warm up)", mapped, subscribers, count / 10);
+		
+		run("jdbc", jdbc, subscribers, count);
+		run("mapped", mapped, subscribers, count);
+		
+		jdbc.close();
+		mapped.close();
+		System.out.println("(sink " + sink + ")");
+	}
+	
+	private static void run(String label, SubscriptionStorage storage, Subscriber[] subscribers, int count) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			storage.add(subscribers[i]);
+		}
+		long added = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			Filter filter = storage.findFilter(subscribers[i].getSubscriberId());
+			sink += filter.getRequestId();
+		}
+		long found = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			if (storage.cancel(subscribers[i].getSubscriberId(), subscribers[i].getFilter().getRequestId())) sink++;
+		}
+		long cancelled = System.nanoTime();
+		
+		System.out.println(String.format("%s: %s subscriptions, add %.0f/s, find %.0f/s, cancel %.0f/s", label, count, 
+			rate(count, added - start), rate(count, found - added), rate(count, cancelled - found)));
+	}
+	
+	private static double rate(int count, long nanos) {
+		return count / (nanos / 1e9);
+	}
+	
+	private static Subscriber subscriber(int subscriberId, int requestId) {
+		Calendar endTime = Calendar.getInstance(TimeZone.getTimeZone(Filter.UTC_TIMEZONE));
+		endTime.add(Calendar.DAY_OF_YEAR, 1);
+		
+		Filter.Builder filter = new Filter.Builder();
+		filter
+			.setSubscriberId(subscriberId)
+			.setEndTime(endTime)
+			.setType("VsmType")
+			.setTypeValue(1)
+			.setRequestId(requestId);
+		
+		Subscriber.Builder builder = new Subscriber.Builder();
+		builder
+			.setSubscriberId(subscriberId)
+			.setCertificate(new byte[117])
+			.setDestHost("127.0.0.1")
+			.setDestPort(7443)
+			.setFilter(filter.build());
+		return builder.build();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,160 @@
+package gov.usdot.cv.subscription.datasink.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.deleidos.rtws.commons.dao.source.H2ConnectionPool;
+
+public class DatabaseUtilTest {
+	
+	private static H2ConnectionPool dataSource;
+	
+	@BeforeClass
+	public static void createDataSource() {
+		dataSource = new H2ConnectionPool();
+		dataSource.setURL("jdbc:h2:mem:database_util;DB_CLOSE_DELAY=-1");
+		dataSource.setUser("sa");
+		dataSource.setPassword("");
+	}
+	
+	@Test
+	public void testMigrateBaselineSchema() throws SQLException {
+		// the tables as they were created before the schema was versioned
+		DatabaseUtil.createTables(dataSource, "BASELINE_SUBSCRIBER", "BASELINE_FILTER");
+		execute("INSERT INTO APPLICATION.BASELINE_SUBSCRIBER (ID, CERTIFICATE, TARGET_HOST, TARGET_PORT) VALUES (10000000, X'010203', '127.0.0.1', 7443)");
+		execute("INSERT INTO APPLICATION.BASELINE_FILTER (ID, END_TIME, TYPE, TYPE_VALUE, REQUEST_ID) VALUES (10000000, CURRENT_TIMESTAMP, 'VsmType', 1, 1001)");
+		assertEquals(0, version("BASELINE_FILTER"));
+		
+		DatabaseUtil.buildSubscriptionTables(dataSource, "BASELINE_SUBSCRIBER", "BASELINE_FILTER");
+		assertEquals(DatabaseUtil.SCHEMA_VERSION, version("BASELINE_FILTER"));
+		Set<String> indexes = indexes("BASELINE_FILTER");
+		assertTrue("Expecting the request id index but got " + indexes + ".", indexes.contains("BASELINE_FILTER_ID_REQUEST_ID_IDX"));
+		assertTrue("Expecting the end time index but got " + indexes + ".", indexes.contains("BASELINE_FILTER_END_TIME_IDX"));
+		assertEquals("Expecting the existing rows to survive the migration.", 1, count("APPLICATION.BASELINE_FILTER"));
+		assertEquals(1, count("APPLICATION.BASELINE_SUBSCRIBER"));
+	}
+	
+	@Test
+	public void testMigrateLinksCertificates() throws SQLException {
+		DatabaseUtil.createTables(dataSource, "INLINE_SUBSCRIBER", "INLINE_FILTER");
+		execute("INSERT INTO APPLICATION.INLINE_SUBSCRIBER (ID, CERTIFICATE, TARGET_HOST, TARGET_PORT) VALUES " + 
+			"(10000000, X'010203', '127.0.0.1', 7443), (10000001, X'010203', '127.0.0.1', 7443), (10000002, X'040506', '127.0.0.1', 7443)");
+		
+		DatabaseUtil.buildSubscriptionTables(dataSource, "INLINE_SUBSCRIBER", "INLINE_FILTER");
+		assertEquals(2, count("APPLICATION.INLINE_SUBSCRIBER_CERTIFICATE"));
+		assertEquals("Expecting every row to keep its inline certificate and reference the stored one.", 
+			0, count("APPLICATION.INLINE_SUBSCRIBER WHERE CERTIFICATE IS NULL OR CERTIFICATE_ID IS NULL"));
+		assertEquals(1, count("(SELECT DISTINCT CERTIFICATE_ID FROM APPLICATION.INLINE_SUBSCRIBER WHERE ID < 10000002)"));
+		
+		Connection connection = dataSource.getConnection();
+		try {
+			PreparedStatement stmt = connection.prepareStatement("SELECT C.DIGEST, C.CERTIFICATE FROM APPLICATION.INLINE_SUBSCRIBER S " + 
+				"JOIN APPLICATION.INLINE_SUBSCRIBER_CERTIFICATE C ON C.ID = S.CERTIFICATE_ID WHERE S.ID = 10000002");
+			ResultSet rs = stmt.executeQuery();
+			assertTrue(rs.next());
+			assertArrayEquals(new byte[] { 4, 5, 6 }, rs.getBytes(2));
+			assertArrayEquals("Expecting the digest CertificateDigest computes.", CertificateDigest.digest(new byte[] { 4, 5, 6 }), rs.getBytes(1));
+		} finally {
+			connection.close();
+		}
+		
+		// a row written inline after the migration, as by an older node, is left as it is by a later start
+		execute("INSERT INTO APPLICATION.INLINE_SUBSCRIBER (ID, CERTIFICATE, TARGET_HOST, TARGET_PORT) VALUES (10000003, X'010203', '127.0.0.1', 7443)");
+		DatabaseUtil.buildSubscriptionTables(dataSource, "INLINE_SUBSCRIBER", "INLINE_FILTER");
+		assertEquals(1, count("APPLICATION.INLINE_SUBSCRIBER WHERE CERTIFICATE_ID IS NULL"));
+		
+		// re-running the migration, as after a lost version record, links it
+		execute("DELETE FROM APPLICATION.SCHEMA_VERSION WHERE TABLE_NAME = 'INLINE_FILTER'");
+		DatabaseUtil.buildSubscriptionTables(dataSource, "INLINE_SUBSCRIBER", "INLINE_FILTER");
+		assertEquals(2, count("APPLICATION.INLINE_SUBSCRIBER_CERTIFICATE"));
+		assertEquals(0, count("APPLICATION.INLINE_SUBSCRIBER WHERE CERTIFICATE IS NULL OR CERTIFICATE_ID IS NULL"));
+	}
+	
+	@Test
+	public void testMigrateIsIdempotent() throws SQLException {
+		DatabaseUtil.buildSubscriptionTables(dataSource, "RERUN_SUBSCRIBER", "RERUN_FILTER");
+		Set<String> indexes = indexes("RERUN_FILTER");
+		
+		DatabaseUtil.buildSubscriptionTables(dataSource, "RERUN_SUBSCRIBER", "RERUN_FILTER");
+		assertEquals(DatabaseUtil.SCHEMA_VERSION, version("RERUN_FILTER"));
+		assertEquals(indexes, indexes("RERUN_FILTER"));
+		
+		// a version record lost after the migrations ran applies them all again
+		execute("DELETE FROM APPLICATION.SCHEMA_VERSION WHERE TABLE_NAME = 'RERUN_FILTER'");
+		DatabaseUtil.migrate(dataSource, "RERUN_SUBSCRIBER", "RERUN_FILTER", DatabaseUtil.SCHEMA_VERSION, false);
+		assertEquals(DatabaseUtil.SCHEMA_VERSION, version("RERUN_FILTER"));
+		assertEquals(indexes, indexes("RERUN_FILTER"));
+	}
+	
+	@Test
+	public void testMigrateFromPartialVersion() throws SQLException {
+		DatabaseUtil.createTables(dataSource, "PARTIAL_SUBSCRIBER", "PARTIAL_FILTER");
+		DatabaseUtil.migrate(dataSource, "PARTIAL_SUBSCRIBER", "PARTIAL_FILTER", 1, false);
+		assertEquals(1, version("PARTIAL_FILTER"));
+		assertFalse(indexes("PARTIAL_FILTER").contains("PARTIAL_FILTER_END_TIME_IDX"));
+		
+		DatabaseUtil.buildSubscriptionTables(dataSource, "PARTIAL_SUBSCRIBER", "PARTIAL_FILTER");
+		assertEquals(DatabaseUtil.SCHEMA_VERSION, version("PARTIAL_FILTER"));
+		assertTrue(indexes("PARTIAL_FILTER").contains("PARTIAL_FILTER_END_TIME_IDX"));
+	}
+	
+	private static int version(String tableName) throws SQLException {
+		if (count("INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = 'APPLICATION' AND TABLE_NAME = 'SCHEMA_VERSION'") == 0) return 0;
+		Connection connection = dataSource.getConnection();
+		try {
+			PreparedStatement stmt = connection.prepareStatement("SELECT VERSION FROM APPLICATION.SCHEMA_VERSION WHERE TABLE_NAME = ?");
+			stmt.setString(1, tableName);
+			ResultSet rs = stmt.executeQuery();
+			return rs.next() ? rs.getInt(1) : 0;
+		} finally {
+			connection.close();
+		}
+	}
+	
+	private static Set<String> indexes(String tableName) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			PreparedStatement stmt = connection.prepareStatement(
+				"SELECT INDEX_NAME FROM INFORMATION_SCHEMA.INDEXES WHERE TABLE_SCHEMA = 'APPLICATION' AND TABLE_NAME = ?");
+			stmt.setString(1, tableName);
+			ResultSet rs = stmt.executeQuery();
+			Set<String> indexes = new TreeSet<String>();
+			while (rs.next()) indexes.add(rs.getString(1));
+			return indexes;
+		} finally {
+			connection.close();
+		}
+	}
+	
+	private static int count(String from) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			ResultSet rs = connection.createStatement().executeQuery("SELECT COUNT(*) FROM " + from);
+			rs.next();
+			return rs.getInt(1);
+		} finally {
+			connection.close();
+		}
+	}
+	
+	private static void execute(String sql) throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			connection.createStatement().execute(sql);
+		} finally {
+			connection.close();
+		}
+	}
+}
\ No newline at end of file
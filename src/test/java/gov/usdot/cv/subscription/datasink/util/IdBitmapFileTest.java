@@ -0,0 +1,116 @@
+package gov.usdot.cv.subscription.datasink.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class IdBitmapFileTest {
+	
+	private static final int SIZE = 100000;
+	
+	@Test
+	public void testCleanCloseRestores() throws Exception {
+		File file = tempFile();
+		IdBitmap bitmap = new IdBitmap(SIZE);
+		IdBitmapFile saved = new IdBitmapFile(file, SIZE);
+		assertEquals(-1, saved.open());
+		saved.markOpen();
+		for (int i = 0; i < 1000; i++) {
+			int index = bitmap.allocate(0);
+			saved.write(bitmap, index);
+		}
+		assertTrue(bitmap.clear(500));
+		saved.write(bitmap, 500);
+		bitmap.set(SIZE - 1);
+		saved.write(bitmap, SIZE - 1);
+		saved.close(7);
+		
+		IdBitmap restored = new IdBitmap(SIZE);
+		IdBitmapFile reopened = new IdBitmapFile(file, SIZE);
+		assertEquals(7, reopened.open());
+		assertEquals("Expecting the padding past the end to not be counted.", 1000, reopened.count());
+		assertEquals(SIZE - 1, reopened.highest());
+		reopened.load(restored);
+		assertEquals(1000, restored.cardinality());
+		assertFalse(restored.get(500));
+		assertTrue(restored.get(999));
+		assertTrue(restored.get(SIZE - 1));
+		assertEquals(500, restored.allocate(0));
+		reopened.abandon();
+	}
+	
+	@Test
+	public void testUncleanCloseIsNotTrusted() throws Exception {
+		File file = tempFile();
+		IdBitmap bitmap = new IdBitmap(SIZE);
+		IdBitmapFile saved = new IdBitmapFile(file, SIZE);
+		saved.open();
+		saved.markOpen();
+		saved.write(bitmap, bitmap.allocate(0));
+		saved.close(3);
+		
+		IdBitmapFile reopened = new IdBitmapFile(file, SIZE);
+		assertEquals(3, reopened.open());
+		reopened.markOpen();
+		reopened.abandon();
+		
+		// Marked in use and never closed cleanly
+		IdBitmapFile crashed = new IdBitmapFile(file, SIZE);
+		assertEquals(-1, crashed.open());
+		crashed.abandon();
+	}
+	
+	@Test
+	public void testOtherSizeIsNotTrusted() throws Exception {
+		File file = tempFile();
+		IdBitmapFile saved = new IdBitmapFile(file, SIZE);
+		saved.open();
+		saved.markOpen();
+		saved.close(3);
+		
+		IdBitmapFile other = new IdBitmapFile(file, SIZE / 2);
+		assertEquals(-1, other.open());
+		other.abandon();
+	}
+	
+	@Test
+	public void testStoreOverwritesSavedWords() throws Exception {
+		File file = tempFile();
+		IdBitmap bitmap = new IdBitmap(SIZE);
+		IdBitmapFile saved = new IdBitmapFile(file, SIZE);
+		saved.open();
+		saved.markOpen();
+		for (int i = 0; i < 100; i++) {
+			saved.write(bitmap, bitmap.allocate(0));
+		}
+		saved.close(1);
+		
+		// Reconciling starts over from what is in memory
+		IdBitmap reconciled = new IdBitmap(SIZE);
+		reconciled.set(12345);
+		IdBitmapFile reopened = new IdBitmapFile(file, SIZE);
+		reopened.open();
+		reopened.markOpen();
+		reopened.store(reconciled);
+		reopened.close(2);
+		
+		IdBitmap restored = new IdBitmap(SIZE);
+		IdBitmapFile loaded = new IdBitmapFile(file, SIZE);
+		assertEquals(2, loaded.open());
+		loaded.load(restored);
+		assertEquals(1, restored.cardinality());
+		assertTrue(restored.get(12345));
+		loaded.abandon();
+	}
+	
+	private static File tempFile() throws Exception {
+		File file = File.createTempFile("subscriber-ids", ".bitmap");
+		file.delete();
+		file.deleteOnExit();
+		return file;
+	}
+}
\ No newline at end of file
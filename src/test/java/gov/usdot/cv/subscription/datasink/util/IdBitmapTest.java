@@ -0,0 +1,177 @@
+package gov.usdot.cv.subscription.datasink.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+public class IdBitmapTest {
+	
+	@Test
+	public void testAllocateInOrder() {
+		IdBitmap bitmap = new IdBitmap(100);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, bitmap.allocate(0));
+		}
+		assertEquals(-1, bitmap.allocate(0));
+		assertEquals(100, bitmap.cardinality());
+		
+		assertTrue(bitmap.clear(42));
+		assertFalse(bitmap.clear(42));
+		assertEquals(42, bitmap.allocate(0));
+		assertEquals(-1, bitmap.allocate(0));
+	}
+	
+	@Test
+	public void testAllocateFrom() {
+		IdBitmap bitmap = new IdBitmap(1000);
+		assertEquals(500, bitmap.allocate(500));
+		assertEquals(501, bitmap.allocate(500));
+		assertTrue(bitmap.set(502));
+		assertFalse(bitmap.set(502));
+		assertEquals(503, bitmap.allocate(500));
+		assertEquals(-1, bitmap.allocate(1000));
+		assertEquals(0, bitmap.allocate(0));
+	}
+	
+	@Test
+	public void testFreeBitFoundPastFullRegions() {
+		// Four levels, the last words only partly used
+		int size = 64 * 64 * 64 + 5;
+		IdBitmap bitmap = new IdBitmap(size);
+		assertEquals(4, bitmap.depth());
+		for (int i = 0; i < size; i++) {
+			assertTrue(bitmap.set(i));
+		}
+		assertEquals(-1, bitmap.allocate(0));
+		assertEquals(size, bitmap.cardinality());
+		
+		assertTrue(bitmap.clear(size - 1));
+		assertTrue(bitmap.clear(12345));
+		assertEquals(12345, bitmap.allocate(0));
+		assertEquals(size - 1, bitmap.allocate(0));
+		assertEquals(-1, bitmap.allocate(0));
+	}
+	
+	@Test
+	public void testClearAll() {
+		int size = 64 * 64 + 5;
+		IdBitmap bitmap = new IdBitmap(size);
+		for (int i = 0; i < size; i++) {
+			assertTrue(bitmap.set(i));
+		}
+		assertEquals(-1, bitmap.allocate(0));
+		
+		bitmap.clearAll();
+		assertEquals(0, bitmap.cardinality());
+		assertFalse(bitmap.get(size - 1));
+		for (int i = 0; i < size; i++) {
+			assertEquals(i, bitmap.allocate(0));
+		}
+		assertEquals(-1, bitmap.allocate(0));
+	}
+	
+	@Test
+	public void testMatchesReference() {
+		int size = 200000;
+		IdBitmap bitmap = new IdBitmap(size);
+		boolean[] reference = new boolean[size];
+		Random random = new Random(7);
+		for (int i = 0; i < 500000; i++) {
+			int index = random.nextInt(size);
+			if (random.nextInt(3) == 0) {
+				assertEquals(reference[index], bitmap.clear(index));
+				reference[index] = false;
+			} else {
+				int allocated = bitmap.allocate(index);
+				int expected = index;
+				while (expected < size && reference[expected]) expected++;
+				assertEquals(expected < size ? expected : -1, allocated);
+				if (allocated >= 0) reference[allocated] = true;
+			}
+		}
+		int cardinality = 0;
+		for (int i = 0; i < size; i++) {
+			assertEquals(reference[i], bitmap.get(i));
+			if (reference[i]) cardinality++;
+		}
+		assertEquals(cardinality, bitmap.cardinality());
+	}
+	
+	@Test
+	public void testConcurrentAllocationIsUnique() throws Exception {
+		final int size = 64 * 64 * 16;
+		final IdBitmap bitmap = new IdBitmap(size);
+		final AtomicIntegerArray owners = new AtomicIntegerArray(size);
+		List<Thread> threads = new ArrayList<Thread>();
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		for (int t = 0; t < 8; t++) {
+			final int start = t * size / 8;
+			threads.add(new Thread(new Runnable() {
+				public void run() {
+					try {
+						Random random = new Random(start);
+						List<Integer> held = new ArrayList<Integer>();
+						int cursor = start;
+						for (int i = 0; i < 100000; i++) {
+							if (held.size() > 0 && (held.size() >= 1000 || random.nextBoolean())) {
+								int index = held.remove(random.nextInt(held.size()));
+								owners.decrementAndGet(index);
+								bitmap.clear(index);
+							} else {
+								int index = bitmap.allocate(cursor);
+								if (index < 0) index = bitmap.allocate(0);
+								if (index < 0) throw new IllegalStateException("Bitmap exhausted");
+								if (owners.incrementAndGet(index) != 1) throw new IllegalStateException("Index handed out twice " + index);
+								held.add(index);
+								cursor = index + 1;
+							}
+						}
+						for (int index : held) {
+							owners.decrementAndGet(index);
+							bitmap.clear(index);
+						}
+					} catch (Throwable ex) {
+						synchronized (failures) {
+							failures.add(ex);
+						}
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) thread.start();
+		for (Thread thread : threads) thread.join();
+		
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertEquals(0, bitmap.cardinality());
+		// Every summary was put back, so the whole bitmap can be allocated again
+		for (int i = 0; i < size; i++) {
+			assertEquals(i, bitmap.allocate(0));
+		}
+		assertEquals(-1, bitmap.allocate(0));
+	}
+	
+	@Test
+	public void testIndexOutOfRange() {
+		IdBitmap bitmap = new IdBitmap(10);
+		try {
+			bitmap.set(10);
+			fail("Index past the end must be rejected");
+		} catch (IndexOutOfBoundsException expected) {
+			// expected
+		}
+		try {
+			bitmap.clear(-1);
+			fail("Negative index must be rejected");
+		} catch (IndexOutOfBoundsException expected) {
+			// expected
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,80 @@
+package gov.usdot.cv.subscription.datasink.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntObjectMapTest {
+	
+	@Test
+	public void testPutGetRemove() {
+		IntObjectMap<String> map = new IntObjectMap<String>();
+		assertTrue(map.isEmpty());
+		assertNull(map.put(10000000, "a"));
+		assertNull(map.put(10000001, "b"));
+		assertEquals("a", map.put(10000000, "c"));
+		assertEquals(2, map.size());
+		assertEquals("c", map.get(10000000));
+		assertEquals("b", map.get(10000001));
+		assertNull(map.get(10000002));
+		assertFalse(map.containsKey(0));
+		
+		assertEquals("c", map.remove(10000000));
+		assertNull(map.remove(10000000));
+		assertEquals(1, map.size());
+		assertNull(map.get(10000000));
+		assertEquals("b", map.get(10000001));
+		
+		int[] keys = map.keys();
+		assertEquals(1, keys.length);
+		assertEquals(10000001, keys[0]);
+	}
+	
+	@Test
+	public void testZeroKeyIsRejected() {
+		try {
+			new IntObjectMap<String>().put(0, "a");
+			fail("0 is the free slot marker and must be rejected");
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testMatchesHashMap() {
+		// random puts and removes over a small key range exercise collisions, resizing and backward shifts
+		IntObjectMap<Integer> map = new IntObjectMap<Integer>();
+		Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		Random random = new Random(42);
+		for (int i = 0; i < 200000; i++) {
+			int key = 10000000 + random.nextInt(5000);
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), map.remove(key));
+			} else {
+				assertEquals(expected.put(key, i), map.put(key, i));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+		}
+		
+		int[] keys = map.keys();
+		Arrays.sort(keys);
+		Integer[] expectedKeys = expected.keySet().toArray(new Integer[0]);
+		Arrays.sort(expectedKeys);
+		assertEquals(expectedKeys.length, keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			assertEquals(expectedKeys[i].intValue(), keys[i]);
+		}
+	}
+}
\ No newline at end of file
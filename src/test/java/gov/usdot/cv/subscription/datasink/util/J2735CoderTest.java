@@ -0,0 +1,79 @@
+package gov.usdot.cv.subscription.datasink.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import gov.usdot.asn1.generated.j2735.dsrc.TemporaryID;
+import gov.usdot.asn1.generated.j2735.semi.DataSubscriptionResponse;
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.asn1.generated.j2735.semi.SemiSequenceID;
+import gov.usdot.cv.common.asn1.GroupIDHelper;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class J2735CoderTest {
+	
+	@Test
+	public void testEncodeIntoBuffer() throws Exception {
+		byte [] expected = J2735Coder.getInstance().encode(message(1001, 10000000));
+		
+		ByteBuffer buffer = ByteBuffer.allocate(expected.length + 16);
+		buffer.position(8);
+		int length = J2735Coder.getInstance().encode(message(1001, 10000000), buffer);
+		assertEquals(expected.length, length);
+		assertEquals(8 + length, buffer.position());
+		assertArrayEquals(expected, Arrays.copyOfRange(buffer.array(), 8, 8 + length));
+		
+		byte [] array = new byte[expected.length + 4];
+		length = J2735Coder.getInstance().encode(message(1001, 10000000), array, 4);
+		assertArrayEquals(expected, Arrays.copyOfRange(array, 4, 4 + length));
+	}
+	
+	@Test
+	public void testConcurrentEncoding() throws Exception {
+		final int threads = 4;
+		final int iterations = 2000;
+		final byte [][] expected = new byte[iterations][];
+		for (int i = 0; i < iterations; i++) {
+			expected[i] = J2735Coder.getInstance().encode(message(i, 10000000 + i));
+		}
+		
+		final AtomicInteger mismatches = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int i = 0; i < iterations; i++) {
+							if (! Arrays.equals(expected[i], J2735Coder.getInstance().encode(message(i, 10000000 + i)))) {
+								mismatches.incrementAndGet();
+							}
+						}
+					} catch (Exception ex) {
+						mismatches.incrementAndGet();
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		done.await();
+		assertTrue("Expecting concurrent encodings to match but found " + mismatches.get() + " mismatches.", mismatches.get() == 0);
+	}
+	
+	private static DataSubscriptionResponse message(int requestId, int subscriberId) {
+		return new DataSubscriptionResponse(
+			SemiDialogID.dataSubscription,
+			SemiSequenceID.subscriptinoResp,
+			GroupIDHelper.toGroupID(0),
+			new TemporaryID(ByteBuffer.allocate(4).putInt(requestId).array()),
+			new TemporaryID(ByteBuffer.allocate(4).putInt(subscriberId).array()));
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,160 @@
+package gov.usdot.cv.subscription.datasink.util;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the lock-free IdBitmap allocator with the synchronized BitSet scan it
+ * replaced. Every thread allocates and releases ids, keeping a small window of
+ * ids held, with 1, 4 and 16 threads. The runs are repeated with the id range
+ * prefilled to 95% occupancy, where the BitSet scan walks long stretches of
+ * used ids. The range is the full subscriber id range unless a size is given as
+ * the first argument.
+ */
+public class SubscriberIdAllocatorBenchmark {
+	
+	private static final int[] THREADS 		= { 1, 4, 16 };
+	private static final int OPERATIONS 	= 2000000;
+	private static final int WINDOW 		= 64;
+	private static final int STRIDE 		= 64 * 64;
+	
+	private interface Allocator {
+		public int allocate(int[] cursor);
+		public void release(int id);
+	}
+	
+	/**
+	 * The generator before the IdBitmap, one lock and a linear scan from the
+	 * last allocated or lowest released id.
+	 */
+	private static class BitSetAllocator implements Allocator {
+		private final int size;
+		private final BitSet used;
+		private int currId = 0;
+		
+		BitSetAllocator(int size) {
+			this.size = size;
+			this.used = new BitSet(size);
+		}
+		
+		public synchronized int allocate(int[] cursor) {
+			for (int pass = 0; pass < 2; pass++) {
+				while (this.currId < this.size) {
+					int id = this.currId++;
+					if (! this.used.get(id)) {
+						this.used.set(id);
+						return id;
+					}
+				}
+				this.currId = 0;
+			}
+			return -1;
+		}
+		
+		public synchronized void release(int id) {
+			if (id < this.currId) this.currId = id;
+			this.used.clear(id);
+		}
+		
+		synchronized void fill(int id) {
+			this.used.set(id);
+		}
+	}
+	
+	private static class BitmapAllocator implements Allocator {
+		private final IdBitmap used;
+		
+		BitmapAllocator(int size) {
+			this.used = new IdBitmap(size);
+		}
+		
+		public int allocate(int[] cursor) {
+			int id = this.used.allocate(cursor[0]);
+			if (id < 0) id = this.used.allocate(0);
+			cursor[0] = id + 1;
+			return id;
+		}
+		
+		public void release(int id) {
+			this.used.clear(id);
+		}
+		
+		void fill(int id) {
+			this.used.set(id);
+		}
+	}
+	
+	public static void main(String [] args) throws Exception {
+		int size = (args.length > 0) ? Integer.parseInt(args[0]) : 90000000;
+		
+		System.out.println(String.format("Id range %s, %s operations per run", size, OPERATIONS));
+		for (double occupancy : new double[] { 0.0, 0.95 }) {
+			for (int threads : THREADS) {
+				BitSetAllocator bitSet = new BitSetAllocator(size);
+				BitmapAllocator bitmap = new BitmapAllocator(size);
+				prefill(bitSet, bitmap, size, occupancy);
+				long bitSetNanos = run(bitSet, threads, size);
+				long bitmapNanos = run(bitmap, threads, size);
+				System.out.println(String.format("occupancy %3.0f%%, threads %2s: synchronized BitSet %8.1f ns/op, IdBitmap %8.1f ns/op", 
+					occupancy * 100, threads, (double) bitSetNanos / OPERATIONS, (double) bitmapNanos / OPERATIONS));
+			}
+		}
+	}
+	
+	private static void prefill(BitSetAllocator bitSet, BitmapAllocator bitmap, int size, double occupancy) {
+		if (occupancy <= 0) return;
+		Random random = new Random(17);
+		for (int id = 0; id < size; id++) {
+			if (random.nextDouble() < occupancy) {
+				bitSet.fill(id);
+				bitmap.fill(id);
+			}
+		}
+	}
+	
+	private static long run(final Allocator allocator, int threads, final int size) throws InterruptedException {
+		final int perThread = OPERATIONS / threads;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicInteger failures = new AtomicInteger();
+		for (int t = 0; t < threads; t++) {
+			final int first = (int) (((long) t * STRIDE) % size);
+			new Thread(new Runnable() {
+				public void run() {
+					int[] cursor = { first };
+					int[] held = new int[WINDOW];
+					int count = 0;
+					try {
+						start.await();
+						for (int i = 0; i < perThread; i += 2) {
+							if (count == WINDOW) {
+								for (int j = 0; j < WINDOW; j++) allocator.release(held[j]);
+								count = 0;
+							}
+							int id = allocator.allocate(cursor);
+							if (id < 0) {
+								failures.incrementAndGet();
+								return;
+							}
+							held[count++] = id;
+						}
+						for (int j = 0; j < count; j++) allocator.release(held[j]);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+		if (failures.get() > 0) System.out.println(String.format("%s threads ran out of ids", failures.get()));
+		return elapsed;
+	}
+}
\ No newline at end of file
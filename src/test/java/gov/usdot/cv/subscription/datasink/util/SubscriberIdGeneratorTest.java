@@ -0,0 +1,169 @@
+package gov.usdot.cv.subscription.datasink.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import gov.usdot.cv.common.model.Filter;
+import gov.usdot.cv.common.model.Subscriber;
+import gov.usdot.cv.subscription.datasink.dao.DaoManager;
+import gov.usdot.cv.subscription.datasink.store.MappedSubscriptionStorage;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SubscriberIdGeneratorTest {
+	
+	private final SubscriberIdGenerator generator = SubscriberIdGenerator.getInstance();
+	
+	@After
+	public void tearDown() {
+		this.generator.close();
+		DaoManager.getInstance().setSubscriptionStorage(null);
+	}
+	
+	@Test
+	public void testCloseThenInitializeRestores() throws Exception {
+		MappedSubscriptionStorage storage = storage(3);
+		File stateFile = tempFile("subscriber-ids", ".bitmap");
+		try {
+			// no generation recorded yet, so the ids are seeded
+			this.generator.initialize(stateFile);
+			awaitSeeded();
+			int allocated = this.generator.nextId();
+			assertTrue(allocated > 10000002);
+			storage.add(subscriber(allocated));
+			assertEquals(4, this.generator.getUsedCount());
+			assertEquals("Expecting the generation to be kept by the storage in use.", 0, storage.findGeneration());
+			
+			this.generator.close();
+			assertFalse(this.generator.isSeeded());
+			assertEquals(0, this.generator.getUsedCount());
+			
+			// closed cleanly with the generation the storage recorded, so the file is loaded
+			this.generator.initialize(stateFile);
+			assertTrue(this.generator.isSeeded());
+			assertEquals(4, this.generator.getUsedCount());
+			assertEquals(1, storage.findGeneration());
+			int next = this.generator.nextId();
+			assertTrue(next > 10000002 && next != allocated);
+		} finally {
+			storage.close();
+		}
+	}
+	
+	@Test
+	public void testRestoreReseedsWhenStorageChanged() throws Exception {
+		MappedSubscriptionStorage storage = storage(3);
+		File stateFile = tempFile("subscriber-ids", ".bitmap");
+		try {
+			this.generator.initialize(stateFile);
+			awaitSeeded();
+			// another writer adds a subscription the file does not know of
+			storage.add(subscriber(10000001 + 64));
+			this.generator.close();
+			
+			this.generator.initialize(stateFile);
+			awaitSeeded();
+			assertEquals("Expecting the ids read again from the storage.", 4, this.generator.getUsedCount());
+		} finally {
+			storage.close();
+		}
+	}
+	
+	@Test
+	public void testCloseForgetsUsedIds() throws Exception {
+		MappedSubscriptionStorage storage = storage(2);
+		try {
+			this.generator.initialize(null);
+			awaitSeeded();
+			this.generator.nextId();
+			assertEquals(3, this.generator.getUsedCount());
+			this.generator.close();
+			assertEquals(0, this.generator.getUsedCount());
+		} finally {
+			storage.close();
+		}
+		
+		// the next initialize tracks the ids of the storage open then
+		MappedSubscriptionStorage other = storage(1);
+		try {
+			this.generator.initialize(null);
+			awaitSeeded();
+			assertEquals(1, this.generator.getUsedCount());
+		} finally {
+			other.close();
+		}
+	}
+	
+	@Test
+	public void testReconcileRepairsUsedIds() throws Exception {
+		MappedSubscriptionStorage storage = storage(3);
+		try {
+			this.generator.initialize(null);
+			awaitSeeded();
+			
+			// ids stored by another writer and an id that was never stored
+			storage.add(subscriber(10000005));
+			storage.add(subscriber(10000006));
+			this.generator.reserve(10000009);
+			assertEquals(4, this.generator.getUsedCount());
+			
+			assertTrue(this.generator.reconcile());
+			assertEquals("Expecting the stored ids marked and the unstored one freed.", 5, this.generator.getUsedCount());
+		} finally {
+			storage.close();
+		}
+	}
+	
+	private void awaitSeeded() throws InterruptedException {
+		for (long deadline = System.currentTimeMillis() + 5000; ! this.generator.isSeeded() && System.currentTimeMillis() < deadline;) {
+			Thread.sleep(10);
+		}
+		assertTrue(this.generator.isSeeded());
+	}
+	
+	private static MappedSubscriptionStorage storage(int subscribers) throws Exception {
+		File file = tempFile("subscriptions", ".db");
+		new File(file.getPath() + ".generation").deleteOnExit();
+		MappedSubscriptionStorage storage = new MappedSubscriptionStorage(file);
+		storage.open();
+		for (int i = 0; i < subscribers; i++) {
+			storage.add(subscriber(10000000 + i));
+		}
+		DaoManager.getInstance().setSubscriptionStorage(storage);
+		return storage;
+	}
+	
+	private static File tempFile(String prefix, String suffix) throws Exception {
+		File file = File.createTempFile(prefix, suffix);
+		file.delete();
+		file.deleteOnExit();
+		return file;
+	}
+	
+	private static Subscriber subscriber(int subscriberId) {
+		Calendar endTime = Calendar.getInstance(TimeZone.getTimeZone(Filter.UTC_TIMEZONE));
+		endTime.add(Calendar.DAY_OF_YEAR, 1);
+		
+		Filter.Builder filter = new Filter.Builder();
+		filter
+			.setSubscriberId(subscriberId)
+			.setEndTime(endTime)
+			.setType("VsmType")
+			.setTypeValue(1)
+			.setRequestId(1001);
+		
+		Subscriber.Builder builder = new Subscriber.Builder();
+		builder
+			.setSubscriberId(subscriberId)
+			.setCertificate(new byte[] { 1, 2, 3 })
+			.setDestHost("127.0.0.1")
+			.setDestPort(7443)
+			.setFilter(filter.build());
+		return builder.build();
+	}
+}
\ No newline at end of file